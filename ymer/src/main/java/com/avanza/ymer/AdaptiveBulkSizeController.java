@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Controls the number of changes written in each bulk write using additive increase, multiplicative decrease (AIMD).
+ * <p>
+ * A bulk write that completes within the target latency, and that used the whole limit, increases the limit by a
+ * fixed step. A bulk write that exceeds the target latency, or fails from a timeout, connection problem or write
+ * concern error, halves the limit from the size of that bulk. This lets the bulk size grow while MongoDB keeps up,
+ * and quickly shrink when it slows down, such as during a primary election or an index build.
+ */
+final class AdaptiveBulkSizeController implements AdaptiveBulkSizeControllerMBean {
+
+	static final int MIN_BULK_SIZE = 10;
+	static final int MAX_BULK_SIZE = 100_000;
+	static final int INITIAL_BULK_SIZE = 1_000;
+	static final int ADDITIVE_INCREASE = 100;
+	private static final double MULTIPLICATIVE_DECREASE = 0.5;
+	private static final double EWMA_WEIGHT = 0.2;
+
+	private final IntSupplier targetLatencyMillis;
+	private int bulkSizeLimit = INITIAL_BULK_SIZE;
+	private double averageLatencyMillis = 0;
+	private double errorRate = 0;
+	private long numIncreases = 0;
+	private long numDecreases = 0;
+
+	/**
+	 * @param targetLatencyMillis supplier of the target latency of each bulk write, where values below 1 disables
+	 *                            the controller
+	 */
+	AdaptiveBulkSizeController(IntSupplier targetLatencyMillis) {
+		this.targetLatencyMillis = targetLatencyMillis;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return getTargetLatencyMillis() > 0;
+	}
+
+	@Override
+	public long getTargetLatencyMillis() {
+		return Math.max(0, targetLatencyMillis.getAsInt());
+	}
+
+	@Override
+	public synchronized int getBulkSizeLimit() {
+		return bulkSizeLimit;
+	}
+
+	/**
+	 * Adjusts the bulk size limit from the outcome of a bulk write.
+	 *
+	 * @param bulkSize     the number of changes in the bulk write
+	 * @param latencyNanos the time it took to write the bulk
+	 * @param congested    whether the bulk write failed from a timeout, connection problem or write concern error
+	 */
+	synchronized void onBulkWritten(int bulkSize, long latencyNanos, boolean congested) {
+		double latencyMillis = (double) latencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+		averageLatencyMillis += EWMA_WEIGHT * (latencyMillis - averageLatencyMillis);
+		errorRate += EWMA_WEIGHT * ((congested ? 1 : 0) - errorRate);
+
+		long target = getTargetLatencyMillis();
+		if (target == 0) {
+			return;
+		}
+		if (congested || latencyMillis > target) {
+			int decreased = Math.max(MIN_BULK_SIZE, (int) (Math.min(bulkSize, bulkSizeLimit) * MULTIPLICATIVE_DECREASE));
+			if (decreased < bulkSizeLimit) {
+				bulkSizeLimit = decreased;
+				numDecreases++;
+			}
+		} else if (bulkSize >= bulkSizeLimit && bulkSizeLimit < MAX_BULK_SIZE) {
+			bulkSizeLimit = Math.min(MAX_BULK_SIZE, bulkSizeLimit + ADDITIVE_INCREASE);
+			numIncreases++;
+		}
+	}
+
+	@Override
+	public synchronized double getAverageLatencyMillis() {
+		return averageLatencyMillis;
+	}
+
+	@Override
+	public synchronized double getErrorRate() {
+		return errorRate;
+	}
+
+	@Override
+	public synchronized long getNumIncreases() {
+		return numIncreases;
+	}
+
+	@Override
+	public synchronized long getNumDecreases() {
+		return numDecreases;
+	}
+
+	@Override
+	public synchronized void reset() {
+		bulkSizeLimit = INITIAL_BULK_SIZE;
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+public interface AdaptiveBulkSizeControllerMBean {
+
+	/**
+	 * Whether the changes of a collection are written in bulks limited by {@link #getBulkSizeLimit()}, which is the
+	 * case when a target latency is set.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * The target latency of each bulk write, in milliseconds. 0 when disabled.
+	 */
+	long getTargetLatencyMillis();
+
+	/**
+	 * The current maximum number of changes written in one bulk write.
+	 */
+	int getBulkSizeLimit();
+
+	/**
+	 * The exponentially weighted moving average of the latency of bulk writes, in milliseconds.
+	 */
+	double getAverageLatencyMillis();
+
+	/**
+	 * The exponentially weighted moving average of the share of bulk writes that failed from timeouts, connection
+	 * problems or write concern errors, between 0 and 1.
+	 */
+	double getErrorRate();
+
+	/**
+	 * The number of times the bulk size limit was increased.
+	 */
+	long getNumIncreases();
+
+	/**
+	 * The number of times the bulk size limit was decreased.
+	 */
+	long getNumDecreases();
+
+	/**
+	 * Restores the bulk size limit to its initial value.
+	 */
+	void reset();
+}
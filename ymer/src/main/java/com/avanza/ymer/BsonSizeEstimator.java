@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+import org.bson.types.Binary;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+/**
+ * Estimates the size of a document encoded as BSON, without encoding it. <p>
+ *
+ * Strings are assumed to be ASCII, and values of types not known by the estimator are counted as 16 bytes.
+ */
+final class BsonSizeEstimator {
+
+	private static final int UNKNOWN_VALUE_SIZE = 16;
+
+	private BsonSizeEstimator() {
+	}
+
+	static long estimateSize(Map<String, ?> document) {
+		long size = 4 + 1; // length and terminating zero
+		for (Map.Entry<String, ?> field : document.entrySet()) {
+			size += 1 + field.getKey().length() + 1 + estimateValueSize(field.getValue());
+		}
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static long estimateValueSize(Object value) {
+		if (value == null || value instanceof Boolean) {
+			return value == null ? 0 : 1;
+		}
+		if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return 4;
+		}
+		if (value instanceof Long || value instanceof Double || value instanceof Float || value instanceof Date) {
+			return 8;
+		}
+		if (value instanceof String) {
+			return 4 + ((String) value).length() + 1;
+		}
+		if (value instanceof ObjectId) {
+			return 12;
+		}
+		if (value instanceof Decimal128) {
+			return 16;
+		}
+		if (value instanceof Binary) {
+			return 4 + 1 + ((Binary) value).length();
+		}
+		if (value instanceof byte[]) {
+			return 4 + 1 + ((byte[]) value).length;
+		}
+		if (value instanceof Map) {
+			return estimateSize((Map<String, ?>) value);
+		}
+		if (value instanceof Collection) {
+			long size = 4 + 1;
+			int index = 0;
+			for (Object element : (Collection<?>) value) {
+				size += 1 + Integer.toString(index++).length() + 1 + estimateValueSize(element);
+			}
+			return size;
+		}
+		return UNKNOWN_VALUE_SIZE;
+	}
+
+}
@@ -16,36 +16,65 @@
 package com.avanza.ymer;
 
 import static com.avanza.ymer.PerformedOperationsListener.OperationType.READ_BATCH;
+import static com.avanza.ymer.ResizableExecutorUtil.createResizableExecutor;
+import static com.avanza.ymer.ResizableExecutorUtil.resize;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singletonList;
 import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.avanza.ymer.DocumentCollection.BulkWriter;
 import com.avanza.ymer.PerformedOperationsListener.OperationType;
 import com.gigaspaces.sync.DataSyncOperation;
 import com.gigaspaces.sync.OperationsBatchData;
 import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
 import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.bulk.BulkWriteResult;
 
-final class BulkMirroredObjectWriter {
+final class BulkMirroredObjectWriter implements AutoCloseable {
 
 	private static final Logger logger = LoggerFactory.getLogger(BulkMirroredObjectWriter.class);
+	private static final int MIN_CONVERSION_SLICE_SIZE = 100;
+	/**
+	 * The most waves that the changes of a collection are written in using unordered bulk writes. Each wave costs a
+	 * round trip, so when a document changes more often than this in a batch, one ordered bulk write is used instead.
+	 */
+	static final int MAX_UNORDERED_WAVES = 4;
 
 	private final SpaceMirrorContext mirror;
 	private final DocumentWriteExceptionHandler exceptionHandler;
 	private final MirroredObjectFilterer objectFilterer;
 	private final PerformedOperationsListener operationsListener;
+	private final ReloadableYmerProperties ymerProperties;
+	private final ThreadPoolExecutor shardExecutor;
+	private final ThreadPoolExecutor conversionExecutor;
+	private final Map<Class<?>, Boolean> partialUpdateSupportByType = new ConcurrentHashMap<>();
+	private final Map<String, DocumentHashCache> documentHashCaches = new HashMap<>();
+	private final AdaptiveBulkSizeController bulkSizeController;
 
 	BulkMirroredObjectWriter(SpaceMirrorContext mirror,
 			DocumentWriteExceptionHandler exceptionHandler,
@@ -58,16 +87,51 @@ final class BulkMirroredObjectWriter {
 			DocumentWriteExceptionHandler exceptionHandler,
 			MirroredObjectFilterer objectFilterer,
 			PerformedOperationsListener operationsListener
+	) {
+		this(mirror, exceptionHandler, objectFilterer, operationsListener, ReloadableYmerProperties.builder().build());
+	}
+
+	/**
+	 * @param ymerProperties used to read {@link ReloadableYmerProperties#getBulkWriteParallelism()},
+	 *                       {@link ReloadableYmerProperties#coalesceBulkWrites()} and the other bulk write
+	 *                       properties for each batch
+	 */
+	BulkMirroredObjectWriter(SpaceMirrorContext mirror,
+			DocumentWriteExceptionHandler exceptionHandler,
+			MirroredObjectFilterer objectFilterer,
+			PerformedOperationsListener operationsListener,
+			ReloadableYmerProperties ymerProperties
 	) {
 		this.mirror = requireNonNull(mirror);
 		this.exceptionHandler = requireNonNull(exceptionHandler);
 		this.objectFilterer = requireNonNull(objectFilterer);
 		this.operationsListener = requireNonNull(operationsListener);
+		this.ymerProperties = requireNonNull(ymerProperties);
+		this.shardExecutor = createResizableExecutor("Ymer-Bulk-Writer-");
+		this.conversionExecutor = createResizableExecutor("Ymer-Bulk-Converter-");
+		this.bulkSizeController = new AdaptiveBulkSizeController(ymerProperties::getAdaptiveBulkSizeTargetLatencyMillis);
+		for (MirroredObject<?> mirroredObject : mirror.getMirroredDocuments()) {
+			if (mirroredObject.documentHashCacheSize() > 0) {
+				documentHashCaches.put(mirroredObject.getCollectionName(), new DocumentHashCache(mirroredObject.documentHashCacheSize()));
+			}
+		}
+	}
+
+	/**
+	 * @return the document hash cache of each collection that has one configured, by collection name
+	 */
+	Map<String, DocumentHashCache> getDocumentHashCaches() {
+		return documentHashCaches;
+	}
+
+	AdaptiveBulkSizeController getBulkSizeController() {
+		return bulkSizeController;
 	}
 
 	public void executeBulk(InstanceMetadata metadata, OperationsBatchData batch) {
 		operationsListener.increment(READ_BATCH, batch.getBatchDataItems().length);
 		Map<String, List<MongoBulkChange>> changesByCollection = new HashMap<>();
+		String batchContext = describe(batch);
 
 		for (DataSyncOperation bulkItem : objectFilterer.filterSpaceObjects(batch.getBatchDataItems())) {
 			String collectionName = mirror.getCollectionName(bulkItem.getDataAsObject().getClass());
@@ -75,73 +139,425 @@ final class BulkMirroredObjectWriter {
 
 			switch (bulkItem.getDataSyncOperationType()) {
 				case WRITE:
-					bulkChanges.add(new MongoBulkChange(MirrorOperation.INSERT, bulkItem.getDataAsObject()));
+					bulkChanges.add(new MongoBulkChange(MirrorOperation.INSERT, bulkItem.getDataAsObject(), batchContext));
 					break;
 				case UPDATE:
+					bulkChanges.add(new MongoBulkChange(MirrorOperation.UPDATE, bulkItem.getDataAsObject(), batchContext));
+					break;
 				case PARTIAL_UPDATE:
-					bulkChanges.add(new MongoBulkChange(MirrorOperation.UPDATE, bulkItem.getDataAsObject()));
+					bulkChanges.add(MongoBulkChange.partialUpdate(bulkItem.getDataAsObject(), batchContext));
 					break;
 				case REMOVE:
-					bulkChanges.add(new MongoBulkChange(MirrorOperation.REMOVE, bulkItem.getDataAsObject()));
+					bulkChanges.add(new MongoBulkChange(MirrorOperation.REMOVE, bulkItem.getDataAsObject(), batchContext));
 					break;
 				default:
 					throw new UnsupportedOperationException("Bulkoperation " + bulkItem.getDataSyncOperationType() + " is not supported");
 			}
 		}
 
+		if (ymerProperties.coalesceBulkWrites()) {
+			changesByCollection.replaceAll((collectionName, bulkChanges) -> coalesce(bulkChanges));
+		}
+
+		int conversionParallelism = ymerProperties.getBulkConversionParallelism();
+		if (conversionParallelism > 1) {
+			convertInParallel(metadata, changesByCollection, conversionParallelism);
+		}
+
+		TransientErrorRetry retry = new TransientErrorRetry(ymerProperties.getTransientErrorRetryBudgetMillis(), operationsListener);
+		int numberOfShards = ymerProperties.getBulkWriteParallelism();
+		if (numberOfShards > 1) {
+			executeSharded(metadata, changesByCollection, numberOfShards, retry);
+		} else {
+			changesByCollection.forEach((collectionName, bulkChanges) -> executeChanges(collectionName, metadata, bulkChanges, retry, Runnable::run));
+		}
+	}
+
+	private static String describe(OperationsBatchData batch) {
+		String source = batch.getSourceDetails() != null ? batch.getSourceDetails().getName() : "unknown";
+		return "source: " + source + ", operations: " + batch.getBatchDataItems().length + ", received: " + Instant.now();
+	}
+
+	/**
+	 * Collapses all changes on the same {@link com.gigaspaces.annotation.pojo.SpaceId} into their net effect, which
+	 * takes the place of the first of the collapsed changes:
+	 * <ul>
+	 *     <li>insert followed by (full) updates becomes an insert of the last state</li>
+	 *     <li>update followed by (full) updates becomes an update to the last state</li>
+	 *     <li>update followed by remove becomes a remove</li>
+	 *     <li>insert followed by remove is removed altogether</li>
+	 * </ul>
+	 * Any other sequence, such as a remove followed by an insert, or any change followed by a partial update,
+	 * is kept as it is.
+	 * Changes on different documents are independent, so moving a change ahead of changes on other documents
+	 * does not affect the end result.
+	 */
+	private List<MongoBulkChange> coalesce(List<MongoBulkChange> changes) {
+		List<MongoBulkChange> netChanges = new ArrayList<>(changes.size());
+		Map<Object, Integer> netChangeIndexById = new HashMap<>();
+		int coalesced = 0;
+		for (MongoBulkChange change : changes) {
+			Object id = mirror.getMirroredDocument(change.object.getClass()).getSpaceId(change.object);
+			Integer index = id != null ? netChangeIndexById.get(id) : null;
+			MongoBulkChange previous = index != null ? netChanges.get(index) : null;
+			if (previous != null && change.operation == MirrorOperation.UPDATE && !change.partialUpdate
+					&& (previous.operation == MirrorOperation.INSERT || previous.operation == MirrorOperation.UPDATE)) {
+				netChanges.set(index, new MongoBulkChange(previous.operation, change.object, change.batchContext));
+				coalesced++;
+			} else if (previous != null && change.operation == MirrorOperation.REMOVE && previous.operation == MirrorOperation.UPDATE) {
+				netChanges.set(index, change);
+				coalesced++;
+			} else if (previous != null && change.operation == MirrorOperation.REMOVE && previous.operation == MirrorOperation.INSERT) {
+				netChanges.set(index, null);
+				netChangeIndexById.remove(id);
+				coalesced += 2;
+			} else {
+				if (id != null) {
+					netChangeIndexById.put(id, netChanges.size());
+				}
+				netChanges.add(change);
+			}
+		}
+		if (coalesced == 0) {
+			return changes;
+		}
+		operationsListener.increment(OperationType.COALESCED, coalesced);
+		netChanges.removeIf(Objects::isNull);
+		return netChanges;
+	}
+
+	/**
+	 * Writes the changes of a collection, in unordered waves when enabled and there are at most
+	 * {@link #MAX_UNORDERED_WAVES} of them, otherwise in ordered bulks. Write failures are handed to
+	 * {@code failureReporter}, which either reports them right away or collects them to be reported later.
+	 */
+	private void executeChanges(String collectionName,
+			InstanceMetadata metadata,
+			List<MongoBulkChange> changes,
+			TransientErrorRetry retry,
+			Consumer<Runnable> failureReporter) {
+		List<List<MongoBulkChange>> waves = ymerProperties.useUnorderedBulkWrites() ? toWaves(metadata, changes) : null;
+		if (waves != null && waves.size() <= MAX_UNORDERED_WAVES) {
+			for (List<MongoBulkChange> wave : waves) {
+				executeInBulks(collectionName, metadata, wave, false, retry, failureReporter);
+			}
+		} else {
+			executeInBulks(collectionName, metadata, changes, true, retry, failureReporter);
+		}
+	}
+
+	/**
+	 * Splits the changes into waves, where the n:th wave contains the n:th change of each document. Writing the waves
+	 * one after another applies the changes of each document in order, while the changes within a wave are
+	 * independent of each other. Changes that fail conversion are left out, as their failure has already been handled.
+	 */
+	private List<List<MongoBulkChange>> toWaves(InstanceMetadata metadata, List<MongoBulkChange> changes) {
+		List<List<MongoBulkChange>> waves = new ArrayList<>();
+		Map<Object, Integer> numberOfChangesById = new HashMap<>();
+		for (MongoBulkChange change : changes) {
+			Document document = convert(change, metadata);
+			if (document == null) {
+				continue;
+			}
+			int wave = numberOfChangesById.merge(document.get("_id"), 1, Integer::sum) - 1;
+			if (wave == waves.size()) {
+				waves.add(new ArrayList<>());
+			}
+			waves.get(wave).add(change);
+		}
+		return waves;
+	}
+
+	/**
+	 * Writes the changes in bulks, which are limited by the {@link AdaptiveBulkSizeController} when it is enabled.
+	 * An ordered bulk that fails on a change is followed by a bulk starting with the change after it. A bulk that
+	 * fails from a transient error is retried as long as the retry budget of the batch, which is shared by all its
+	 * bulks, is not spent.
+	 */
+	private void executeInBulks(String collectionName, InstanceMetadata metadata, List<MongoBulkChange> changes, boolean ordered,
+			TransientErrorRetry retry, Consumer<Runnable> failureReporter) {
+		List<MongoBulkChange> remainingChanges = changes;
+		int attempt = 1;
+		while (!remainingChanges.isEmpty()) {
+			int bulkSize = remainingChanges.size();
+			List<MongoBulkChange> bulk = remainingChanges;
+			if (bulkSizeController.isEnabled()) {
+				bulkSize = Math.min(bulkSize, bulkSizeController.getBulkSizeLimit());
+				bulk = remainingChanges.subList(0, bulkSize);
+				// convert up front so that the observed latency is that of the bulk write only
+				bulk.forEach(change -> convert(change, metadata));
+			}
+			List<MongoBulkChange> unwrittenChanges = executeMongoDbBulk(collectionName, metadata, bulk, attempt++, ordered, retry, failureReporter);
+			remainingChanges = remainingChanges.subList(bulkSize - unwrittenChanges.size(), remainingChanges.size());
+		}
+	}
+
+	/**
+	 * Splits the changes of each collection into shards by {@code _id} and writes all shards concurrently. Each shard
+	 * keeps the original order of its changes, and is written with the same retry logic, and retry budget, as a non-sharded collection.
+	 * <p>
+	 * Write failures are collected by each shard and reported on the calling thread once all shards are done, shard by
+	 * shard, so that exception listeners and handlers are never invoked concurrently. Then the first exception thrown
+	 * by a shard or a handler (if any) is rethrown, so that transient errors still cause the whole batch to be retried.
+	 */
+	private void executeSharded(InstanceMetadata metadata, Map<String, List<MongoBulkChange>> changesByCollection, int numberOfShards,
+			TransientErrorRetry retry) {
+		List<Runnable> shards = new ArrayList<>();
+		List<List<Runnable>> shardFailures = new ArrayList<>();
 		changesByCollection.forEach((collectionName, bulkChanges) -> {
-			List<MongoBulkChange> remainingChanges = bulkChanges;
-			int attempt = 1;
-			while (!remainingChanges.isEmpty()) {
-				remainingChanges = executeMongoDbBulk(collectionName, metadata, remainingChanges, attempt++);
+			for (List<MongoBulkChange> shard : shardById(metadata, bulkChanges, numberOfShards)) {
+				List<Runnable> failures = new ArrayList<>();
+				shardFailures.add(failures);
+				shards.add(() -> executeChanges(collectionName, metadata, shard, retry, failures::add));
 			}
 		});
+		RuntimeException failure = null;
+		try {
+			if (shards.size() <= 1) {
+				shards.forEach(Runnable::run);
+			} else {
+				awaitAll(submitAll(shardExecutor, numberOfShards, shards), "bulk write shards");
+			}
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		for (List<Runnable> failures : shardFailures) {
+			for (Runnable report : failures) {
+				try {
+					report.run();
+				} catch (RuntimeException e) {
+					if (failure == null) {
+						failure = e;
+					} else {
+						failure.addSuppressed(e);
+					}
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Converts all changes into documents using the conversion pool, before the bulk writes are built. Each task
+	 * converts a contiguous slice of the changes. Conversion failures are handled afterwards on the calling thread,
+	 * in the order of the changes, so that exception listeners and handlers are never invoked concurrently.
+	 */
+	private void convertInParallel(InstanceMetadata metadata, Map<String, List<MongoBulkChange>> changesByCollection, int parallelism) {
+		List<MongoBulkChange> changes = new ArrayList<>();
+		changesByCollection.values().forEach(changes::addAll);
+		int sliceSize = Math.max(MIN_CONVERSION_SLICE_SIZE, (changes.size() + parallelism - 1) / parallelism);
+		if (changes.size() <= sliceSize) {
+			changes.forEach(change -> convert(change, metadata));
+			return;
+		}
+
+		List<Runnable> slices = new ArrayList<>();
+		for (int start = 0; start < changes.size(); start += sliceSize) {
+			List<MongoBulkChange> slice = changes.subList(start, Math.min(start + sliceSize, changes.size()));
+			slices.add(() -> slice.forEach(change -> tryConvert(change, metadata)));
+		}
+		awaitAll(submitAll(conversionExecutor, parallelism, slices), "bulk conversion");
+
+		for (MongoBulkChange change : changes) {
+			if (change.conversionFailure != null) {
+				handleConversionFailure(change);
+			}
+		}
+	}
+
+	private List<Future<?>> submitAll(ThreadPoolExecutor executor, int poolSize, List<Runnable> tasks) {
+		resize(executor, poolSize);
+		List<Future<?>> futures = new ArrayList<>(tasks.size());
+		for (Runnable task : tasks) {
+			futures.add(executor.submit(task));
+		}
+		return futures;
+	}
+
+	/**
+	 * Waits for all futures to complete, and then rethrows the first exception thrown by any of them.
+	 */
+	private static void awaitAll(List<Future<?>> futures, String description) {
+		RuntimeException failure = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				futures.forEach(f -> f.cancel(true));
+				throw new IllegalStateException("Interrupted while waiting for " + description, e);
+			} catch (ExecutionException e) {
+				RuntimeException cause = e.getCause() instanceof RuntimeException
+						? (RuntimeException) e.getCause()
+						: new IllegalStateException("Failure in " + description, e.getCause());
+				if (failure == null) {
+					failure = cause;
+				} else {
+					failure.addSuppressed(cause);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private List<List<MongoBulkChange>> shardById(InstanceMetadata metadata, List<MongoBulkChange> changes, int numberOfShards) {
+		List<List<MongoBulkChange>> shards = new ArrayList<>(numberOfShards);
+		for (int i = 0; i < numberOfShards; i++) {
+			shards.add(new ArrayList<>());
+		}
+		for (MongoBulkChange change : changes) {
+			Document document = convert(change, metadata);
+			if (document == null) {
+				// conversion failure has already been handled, and the change would be skipped by the bulk write
+				continue;
+			}
+			shards.get(Math.floorMod(Objects.hashCode(document.get("_id")), numberOfShards)).add(change);
+		}
+		shards.removeIf(List::isEmpty);
+		return shards;
+	}
+
+	/**
+	 * Converts the space object of a change to a document, which is kept on the change so that it is only converted
+	 * once even if the change is retried or sharded.
+	 *
+	 * @return the converted document, or {@code null} if conversion failed. The failure is handled the first time
+	 * conversion is attempted.
+	 */
+	private Document convert(MongoBulkChange change, InstanceMetadata metadata) {
+		if (change.document == null && change.conversionFailure == null) {
+			tryConvert(change, metadata);
+			if (change.conversionFailure != null) {
+				handleConversionFailure(change);
+			}
+		}
+		return change.document;
+	}
+
+	/**
+	 * A remove only needs the id of the document. When it can be read directly from the space object, a document with
+	 * only the id is used instead of converting the whole object, and the {@link com.avanza.ymer.plugin.PreWriteProcessor}
+	 * chain is not applied.
+	 */
+	private void tryConvert(MongoBulkChange change, InstanceMetadata metadata) {
+		try {
+			if (change.operation == MirrorOperation.REMOVE) {
+				Optional<Object> documentId = mirror.getDocumentId(change.object);
+				if (documentId.isPresent()) {
+					change.document = new Document("_id", documentId.get());
+					return;
+				}
+			}
+			Document versionedDocument = mirror.toVersionedDocument(change.object, metadata);
+			mirror.getPreWriteProcessing(change.object.getClass()).preWrite(versionedDocument);
+			change.document = versionedDocument;
+		} catch (Exception e) {
+			change.conversionFailure = e;
+		}
+	}
+
+	private void handleConversionFailure(MongoBulkChange change) {
+		Exception e = change.conversionFailure;
+		mirror.onMirrorException(e, change.operation, change.object);
+		exceptionHandler.handleFailedChanges(e, "Conversion failed, operation: " + change.operation + ", change: " + change.object,
+				singletonList(toFailedChange(change, e.toString())));
+		operationsListener.increment(OperationType.FAILURE, 1);
+	}
+
+	/**
+	 * A partial update only contains the changed properties, and properties that are left unchanged are null.
+	 * Those are left out of the converted document, so the partial update can be written by setting the fields of the
+	 * converted document. This requires that an unchanged property can not be mistaken for a changed property,
+	 * which is not the case for primitive properties. Partial updates of types with such properties are written as
+	 * a replace of the whole document, as before.
+	 */
+	private boolean supportsPartialUpdate(Class<?> type) {
+		return partialUpdateSupportByType.computeIfAbsent(type, t -> {
+			boolean supported = mirror.getDocumentConverter().hasOnlyNullableProperties(t);
+			if (!supported) {
+				logger.info("Partial updates of {} will replace the whole document, as not all its properties are nullable", t.getName());
+			}
+			return supported;
+		});
+	}
+
+	@Override
+	public void close() {
+		shardExecutor.shutdownNow();
+		conversionExecutor.shutdownNow();
 	}
 
 	/**
 	 * Executes a bulkWrite against mongoDB, with possibility to retry if an operation fails.
 	 *
 	 * @return list of changes that weren't written and needs to be retried.
-	 * This happens if a row in a bulkWrite fails and needs to be skipped.
+	 * This happens if a row in an ordered bulkWrite fails and needs to be skipped. The failures of an unordered
+	 * bulkWrite are all handled at once, so nothing is retried.
 	 */
 	private List<MongoBulkChange> executeMongoDbBulk(String collectionName,
 			InstanceMetadata metadata,
 			List<MongoBulkChange> changes,
-			int attempt) {
+			int attempt,
+			boolean ordered,
+			TransientErrorRetry retry,
+			Consumer<Runnable> failureReporter) {
 		final Map<Integer, Integer> bulkChangeIdToChangeMap = new HashMap<>();
+		final DocumentHashCache hashCache = documentHashCaches.get(collectionName);
+		final LongAdder insertions = new LongAdder();
+		final LongAdder updates = new LongAdder();
+		final LongAdder removals = new LongAdder();
+		final LongAdder retriedInsertions = new LongAdder();
 		try {
 			DocumentCollection collection = mirror.getDocumentCollection(collectionName);
 
+			List<Integer> changesToWrite = new ArrayList<>(changes.size());
+			for (int i = 0; i < changes.size(); i++) {
+				MongoBulkChange change = changes.get(i);
+				if (convert(change, metadata) == null) {
+					continue;
+				}
+				boolean partialUpdate = change.partialUpdate && supportsPartialUpdate(change.object.getClass());
+				if (hashCache != null && skipUnchangedReplace(hashCache, change, partialUpdate)) {
+					continue;
+				}
+				changesToWrite.add(i);
+			}
+			if (changesToWrite.isEmpty()) {
+				// e.g. all changes were unchanged replaces, and MongoDB does not accept an empty bulk write
+				return emptyList();
+			}
+
 			AtomicInteger bulkChangeId = new AtomicInteger(0);
-			LongAdder insertions = new LongAdder();
-			LongAdder updates = new LongAdder();
-			LongAdder removals = new LongAdder();
 
-			BulkWriteResult result = collection.orderedBulkWrite(bulkWriter -> {
-				for (int i = 0; i < changes.size(); i++) {
+			Consumer<BulkWriter> bulkWrites = bulkWriter -> {
+				for (int i : changesToWrite) {
 					MongoBulkChange change = changes.get(i);
-
-					Document versionedDocument;
-					try {
-						versionedDocument = mirror.toVersionedDocument(change.object, metadata);
-						mirror.getPreWriteProcessing(change.object.getClass()).preWrite(versionedDocument);
-					} catch (Exception e) {
-						// after the first attempt, this error will already have been logged & handled earlier on
-						if (attempt == 1) {
-							mirror.onMirrorException(e, change.operation, change.object);
-							exceptionHandler.handleException(e, "Conversion failed, operation: " + change.operation + ", change: " + change.object);
-							operationsListener.increment(OperationType.FAILURE, 1);
-						}
-						continue;
-					}
+					Document versionedDocument = change.document;
+					boolean partialUpdate = change.partialUpdate && supportsPartialUpdate(change.object.getClass());
 
 					switch (change.operation) {
 						case INSERT:
-							bulkWriter.insert(versionedDocument);
-							insertions.increment();
+							if (change.retried) {
+								// may already have been written by the failed attempt
+								bulkWriter.replace(versionedDocument);
+								retriedInsertions.increment();
+							} else {
+								bulkWriter.insert(versionedDocument);
+								insertions.increment();
+							}
 							break;
 						case UPDATE:
-							bulkWriter.replace(versionedDocument);
+							if (partialUpdate) {
+								Map<String, Object> fieldsToSet = new HashMap<>(versionedDocument);
+								fieldsToSet.remove("_id");
+								bulkWriter.updateFields(versionedDocument.get("_id"), fieldsToSet);
+							} else {
+								bulkWriter.replace(versionedDocument);
+							}
 							updates.increment();
 							break;
 						case REMOVE:
@@ -153,24 +569,56 @@ final class BulkMirroredObjectWriter {
 					// keep track of which id in the MongoDB bulk maps to which index in this list as some items might be skipped
 					bulkChangeIdToChangeMap.put(bulkChangeId.getAndIncrement(), i);
 				}
-			});
+			};
+			// the documents are already converted and hashed, so only the write itself is timed
+			long startNanos = System.nanoTime();
+			BulkWriteResult result;
+			try {
+				result = ordered ? collection.orderedBulkWrite(bulkWrites) : collection.nonOrderedBulkWrite(bulkWrites);
+			} catch (RuntimeException e) {
+				observeBulk(collectionName, changes.size(), startNanos, isCongested(e),
+						insertions.intValue() + retriedInsertions.intValue(), updates.intValue(), removals.intValue());
+				throw e;
+			}
+			observeBulk(collectionName, changes.size(), startNanos, false,
+					insertions.intValue() + retriedInsertions.intValue(), updates.intValue(), removals.intValue());
 
 			addResultToStatistics(result);
+			if (hashCache != null) {
+				cacheWrittenDocuments(hashCache, changes, bulkChangeIdToChangeMap, bulkChangeIdToChangeMap.size(), emptySet());
+			}
 			try {
-				checkBulkResultForWarnings(insertions.intValue(), updates.intValue(), removals.intValue(), result);
+				if (retriedInsertions.sum() == 0) {
+					checkBulkResultForWarnings(insertions.intValue(), updates.intValue(), removals.intValue(), result);
+				}
 			} catch (Exception e) {
 				logger.warn("Error while checking for warnings in bulkWrite result", e);
 			}
 			return emptyList();
 		} catch (MongoBulkWriteException e) {
 			addResultToStatistics(e.getWriteResult());
+			if (e.getWriteErrors().isEmpty()) {
+				// e.g. a write concern error, which can not be attributed to a single change
+				return retryOrFail(collectionName, changes, retry, failureReporter, e);
+			}
+			if (!ordered) {
+				handleUnorderedWriteErrors(collectionName, changes, bulkChangeIdToChangeMap, hashCache, failureReporter, e);
+				return emptyList();
+			}
 
 			BulkWriteError writeError = e.getWriteErrors().get(0); // always a single write error as we use an ordered operation
-			MongoBulkChange failedChange = changes.get(writeError.getIndex());
-			mirror.onMirrorException(e, failedChange.operation, failedChange.object);
+			if (hashCache != null) {
+				cacheWrittenDocuments(hashCache, changes, bulkChangeIdToChangeMap, writeError.getIndex(), emptySet());
+			}
+			int failedChangeIndex = bulkChangeIdToChangeMap.get(writeError.getIndex());
+			MongoBulkChange failedChange = changes.get(failedChangeIndex);
+			List<FailedChange> rejectedChanges = singletonList(toFailedChange(failedChange, writeError.getMessage()));
+			failureReporter.accept(() -> {
+				mirror.onMirrorException(e, failedChange.operation, failedChange.object);
+				exceptionHandler.handleRejectedChanges(e, rejectedChanges);
+			});
 			operationsListener.increment(OperationType.FAILURE, 1);
 
-			int failedChangeIndex = bulkChangeIdToChangeMap.get(writeError.getIndex());
 			List<MongoBulkChange> remainingChanges = changes.subList(failedChangeIndex + 1, changes.size());
 
 			if (!remainingChanges.isEmpty()) {
@@ -183,9 +631,142 @@ final class BulkMirroredObjectWriter {
 
 			return remainingChanges;
 		} catch (Exception e) {
-			exceptionHandler.handleException(e, "Operation: Bulk write, changes: " + changes);
-			operationsListener.increment(OperationType.FAILURE, changes.size());
-			return emptyList();
+			return retryOrFail(collectionName, changes, retry, failureReporter, e);
+		}
+	}
+
+	/**
+	 * Handles a failure of a bulk write as a whole, by either retrying all its changes or failing them.
+	 *
+	 * @return the changes to retry
+	 */
+	private List<MongoBulkChange> retryOrFail(String collectionName,
+			List<MongoBulkChange> changes,
+			TransientErrorRetry retry,
+			Consumer<Runnable> failureReporter,
+			Exception e) {
+		if (retry.awaitRetry(e)) {
+			logger.warn("Bulk write of {} changes in collection {} failed from a transient error: \"{}\". Retry attempt {}",
+					changes.size(), collectionName, e.getMessage(), retry.getNumRetries());
+			changes.forEach(change -> change.retried = true);
+			return changes;
+		}
+		String operationDescription = "Operation: Bulk write, changes: " + changes;
+		List<FailedChange> failedChanges = toFailedChanges(changes, e.toString());
+		failureReporter.accept(() -> exceptionHandler.handleFailedChanges(e, operationDescription, failedChanges));
+		operationsListener.increment(OperationType.FAILURE, changes.size());
+		return emptyList();
+	}
+
+	/**
+	 * Fails every change that got a write error in an unordered bulk write. All other changes were written.
+	 */
+	private void handleUnorderedWriteErrors(String collectionName,
+			List<MongoBulkChange> changes,
+			Map<Integer, Integer> bulkChangeIdToChangeMap,
+			DocumentHashCache hashCache,
+			Consumer<Runnable> failureReporter,
+			MongoBulkWriteException e) {
+		List<BulkWriteError> writeErrors = e.getWriteErrors();
+		if (hashCache != null) {
+			Set<Integer> failedBulkChangeIds = writeErrors.stream().map(BulkWriteError::getIndex).collect(toSet());
+			cacheWrittenDocuments(hashCache, changes, bulkChangeIdToChangeMap, bulkChangeIdToChangeMap.size(), failedBulkChangeIds);
+		}
+		List<MongoBulkChange> failedChanges = new ArrayList<>(writeErrors.size());
+		List<FailedChange> rejectedChanges = new ArrayList<>(writeErrors.size());
+		for (BulkWriteError writeError : writeErrors) {
+			MongoBulkChange failedChange = changes.get(bulkChangeIdToChangeMap.get(writeError.getIndex()));
+			failedChanges.add(failedChange);
+			rejectedChanges.add(toFailedChange(failedChange, writeError.getMessage()));
+		}
+		failureReporter.accept(() -> {
+			failedChanges.forEach(failedChange -> mirror.onMirrorException(e, failedChange.operation, failedChange.object));
+			exceptionHandler.handleRejectedChanges(e, rejectedChanges);
+		});
+		operationsListener.increment(OperationType.FAILURE, writeErrors.size());
+		logger.error("Unordered bulk write failed on {} of {} changes in collection {}, first error: \"{}\". All other changes were written",
+				writeErrors.size(), changes.size(), collectionName, writeErrors.get(0).getMessage());
+	}
+
+	/**
+	 * The changes of a bulk write that failed as a whole, except those that failed conversion, as their failure has
+	 * already been handled.
+	 */
+	private List<FailedChange> toFailedChanges(List<MongoBulkChange> changes, String error) {
+		return changes.stream()
+				.filter(change -> change.document != null)
+				.map(change -> toFailedChange(change, error))
+				.collect(toList());
+	}
+
+	private FailedChange toFailedChange(MongoBulkChange change, String error) {
+		boolean partialUpdate = change.partialUpdate && change.document != null && supportsPartialUpdate(change.object.getClass());
+		return new FailedChange(mirror.getCollectionName(change.object.getClass()), change.operation, partialUpdate,
+				change.document, change.object, error, change.batchContext);
+	}
+
+	/**
+	 * Records the latency and size of a bulk write, and lets the bulk size controller adjust the bulk size limit. Write
+	 * errors on single documents, such as duplicate keys, are not a sign of congestion, while write concern errors and
+	 * failures of the whole bulk write are.
+	 */
+	private void observeBulk(String collectionName, int bulkSize, long startNanos, boolean congested, int inserts, int updates, int deletes) {
+		long latencyNanos = System.nanoTime() - startNanos;
+		operationsListener.bulkWritten(collectionName, latencyNanos, inserts, updates, deletes);
+		if (bulkSizeController.isEnabled()) {
+			bulkSizeController.onBulkWritten(bulkSize, latencyNanos, congested);
+		}
+	}
+
+	private static boolean isCongested(RuntimeException e) {
+		if (e instanceof MongoBulkWriteException) {
+			return ((MongoBulkWriteException) e).getWriteConcernError() != null;
+		}
+		return e instanceof MongoException;
+	}
+
+	/**
+	 * Calculates the hash of inserted and replaced documents, and returns whether a replace can be skipped as the
+	 * document has not changed since it was last written. Any change that is not skipped removes the hash of the
+	 * document from the cache, until the write has succeeded.
+	 */
+	private boolean skipUnchangedReplace(DocumentHashCache hashCache, MongoBulkChange change, boolean partialUpdate) {
+		boolean replace = change.operation == MirrorOperation.UPDATE && !partialUpdate;
+		if (change.documentHash == null && (replace || change.operation == MirrorOperation.INSERT)) {
+			try {
+				change.documentHash = DocumentHashCache.hash(change.document);
+			} catch (Exception e) {
+				logger.debug("Could not calculate hash of {}, it will not be cached", change, e);
+			}
+		}
+		Object id = change.document.get("_id");
+		if (replace && change.documentHash != null && hashCache.isUnchanged(id, change.documentHash)) {
+			return true;
+		}
+		hashCache.remove(id);
+		return false;
+	}
+
+	/**
+	 * Updates the cache with the documents written by the first changes of a bulk write, in the order they were written,
+	 * except for those that failed.
+	 */
+	private void cacheWrittenDocuments(DocumentHashCache hashCache,
+			List<MongoBulkChange> changes,
+			Map<Integer, Integer> bulkChangeIdToChangeMap,
+			int numberOfWrittenChanges,
+			Set<Integer> failedBulkChangeIds) {
+		for (int bulkChangeId = 0; bulkChangeId < numberOfWrittenChanges; bulkChangeId++) {
+			if (failedBulkChangeIds.contains(bulkChangeId)) {
+				continue;
+			}
+			MongoBulkChange change = changes.get(bulkChangeIdToChangeMap.get(bulkChangeId));
+			Object id = change.document.get("_id");
+			if (change.documentHash != null) {
+				hashCache.put(id, change.documentHash);
+			} else {
+				hashCache.remove(id);
+			}
 		}
 	}
 
@@ -245,10 +826,26 @@ final class BulkMirroredObjectWriter {
 	private static class MongoBulkChange {
 		private final MirrorOperation operation;
 		private final Object object;
+		private final boolean partialUpdate;
+		private final String batchContext;
+		private Document document;
+		private Exception conversionFailure;
+		private boolean retried;
+		private DocumentHashCache.DocumentHash documentHash;
+
+		MongoBulkChange(MirrorOperation operation, Object object, String batchContext) {
+			this(operation, object, false, batchContext);
+		}
 
-		MongoBulkChange(MirrorOperation operation, Object object) {
+		private MongoBulkChange(MirrorOperation operation, Object object, boolean partialUpdate, String batchContext) {
 			this.operation = operation;
 			this.object = object;
+			this.partialUpdate = partialUpdate;
+			this.batchContext = batchContext;
+		}
+
+		static MongoBulkChange partialUpdate(Object object, String batchContext) {
+			return new MongoBulkChange(MirrorOperation.UPDATE, object, true, batchContext);
 		}
 
 		@Override
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static com.avanza.ymer.ResizableExecutorUtil.createResizableExecutor;
+import static com.avanza.ymer.ResizableExecutorUtil.resize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.bson.Document;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * Splits the write models of a bulk write into chunks, limited by the number of write models and their estimated size,
+ * and writes them one at a time or, for unordered bulk writes, several at a time. <p>
+ *
+ * Indexes of the results and exceptions of each chunk are translated to indexes of the whole list of write models.
+ * An ordered bulk write stops at the first chunk that fails, while all chunks of an unordered bulk write are written
+ * and their errors reported together. <p>
+ *
+ * The threads writing chunks concurrently are only created once an unordered bulk write is split with a parallelism
+ * above one, and time out when idle. Collections and databases created without a chunker share
+ * {@link #withDefaultProperties()}.
+ */
+final class BulkWriteChunker implements BulkWriteChunkerMBean {
+
+	static final int DEFAULT_MAX_CHUNK_OPERATIONS = 100_000;
+	static final int DEFAULT_MAX_CHUNK_BYTES = 16 * 1024 * 1024;
+	private static final BulkWriteChunker DEFAULT = new BulkWriteChunker(ReloadableYmerProperties.builder().build());
+
+	private final ReloadableYmerProperties ymerProperties;
+	private ThreadPoolExecutor executor;
+	private final LongAdder numBulkWrites = new LongAdder();
+	private final LongAdder numSplitBulkWrites = new LongAdder();
+	private final LongAdder numChunks = new LongAdder();
+	private final LongAdder totalChunkOperations = new LongAdder();
+	private final LongAdder totalChunkBytes = new LongAdder();
+	private final LongAccumulator maxChunkOperations = new LongAccumulator(Math::max, 0);
+	private final LongAccumulator maxChunkBytes = new LongAccumulator(Math::max, 0);
+
+	BulkWriteChunker(ReloadableYmerProperties ymerProperties) {
+		this.ymerProperties = ymerProperties;
+	}
+
+	/**
+	 * @return the chunker shared by everything that writes with the default properties
+	 */
+	static BulkWriteChunker withDefaultProperties() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Writes the given write models in chunks using the given bulk write function. Indexes of the returned result, or
+	 * of a thrown {@link MongoBulkWriteException}, refer to {@link CompactedWriteModels#getWriteModels()}.
+	 */
+	BulkWriteResult bulkWrite(CompactedWriteModels writeModels, boolean ordered, Function<List<WriteModel<Document>>, BulkWriteResult> bulkWrite) {
+		List<Chunk> chunks = split(writeModels);
+		numBulkWrites.increment();
+		if (chunks.size() > 1) {
+			numSplitBulkWrites.increment();
+		}
+		chunks.forEach(this::record);
+		if (chunks.size() == 1) {
+			return bulkWrite.apply(chunks.get(0).writeModels);
+		}
+		int parallelism = ymerProperties.getBulkWriteChunkParallelism();
+		if (ordered || parallelism == 1) {
+			return writeSequentially(chunks, ordered, bulkWrite);
+		}
+		return writeConcurrently(chunks, parallelism, bulkWrite);
+	}
+
+	List<Chunk> split(CompactedWriteModels writeModels) {
+		List<WriteModel<Document>> models = writeModels.getWriteModels();
+		int maxOperations = ymerProperties.getMaxBulkWriteChunkOperations();
+		long maxBytes = ymerProperties.getMaxBulkWriteChunkBytes();
+		List<Chunk> chunks = new ArrayList<>();
+		int start = 0;
+		long chunkBytes = 0;
+		for (int i = 0; i < models.size(); i++) {
+			long size = writeModels.getEstimatedSize(i);
+			int chunkOperations = i - start;
+			if (chunkOperations > 0 && (chunkOperations == maxOperations || chunkBytes + size > maxBytes)) {
+				chunks.add(new Chunk(start, models.subList(start, i), chunkBytes));
+				start = i;
+				chunkBytes = 0;
+			}
+			chunkBytes += size;
+		}
+		chunks.add(new Chunk(start, models.subList(start, models.size()), chunkBytes));
+		return chunks;
+	}
+
+	private BulkWriteResult writeSequentially(List<Chunk> chunks, boolean ordered, Function<List<WriteModel<Document>>, BulkWriteResult> bulkWrite) {
+		List<BulkWriteResult> results = new ArrayList<>(chunks.size());
+		List<MongoBulkWriteException> exceptions = new ArrayList<>();
+		for (Chunk chunk : chunks) {
+			try {
+				results.add(chunk.write(bulkWrite));
+			} catch (MongoBulkWriteException e) {
+				exceptions.add(chunk.reindex(e));
+				if (ordered) {
+					break;
+				}
+			}
+		}
+		return mergeOrThrow(results, exceptions);
+	}
+
+	private BulkWriteResult writeConcurrently(List<Chunk> chunks, int parallelism, Function<List<WriteModel<Document>>, BulkWriteResult> bulkWrite) {
+		ThreadPoolExecutor executor = getExecutor();
+		resize(executor, parallelism);
+		List<Future<BulkWriteResult>> futures = new ArrayList<>(chunks.size());
+		for (Chunk chunk : chunks) {
+			futures.add(executor.submit(() -> chunk.write(bulkWrite)));
+		}
+		List<BulkWriteResult> results = new ArrayList<>(chunks.size());
+		List<MongoBulkWriteException> exceptions = new ArrayList<>();
+		RuntimeException failure = null;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				results.add(futures.get(i).get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				futures.forEach(f -> f.cancel(true));
+				throw new IllegalStateException("Interrupted while waiting for bulk write chunks", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof MongoBulkWriteException) {
+					exceptions.add(chunks.get(i).reindex((MongoBulkWriteException) e.getCause()));
+					continue;
+				}
+				RuntimeException cause = e.getCause() instanceof RuntimeException
+						? (RuntimeException) e.getCause()
+						: new IllegalStateException("Failure in bulk write chunk", e.getCause());
+				if (failure == null) {
+					failure = cause;
+				} else {
+					failure.addSuppressed(cause);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return mergeOrThrow(results, exceptions);
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = createResizableExecutor("Ymer-Bulk-Write-Chunk-");
+		}
+		return executor;
+	}
+
+	private static BulkWriteResult mergeOrThrow(List<BulkWriteResult> results, List<MongoBulkWriteException> exceptions) {
+		if (!exceptions.isEmpty()) {
+			// the exceptions are already translated to indexes of the whole bulk write
+			throw BulkWriteResults.merge(results, exceptions, index -> index);
+		}
+		return BulkWriteResults.merge(results);
+	}
+
+	private void record(Chunk chunk) {
+		numChunks.increment();
+		totalChunkOperations.add(chunk.writeModels.size());
+		totalChunkBytes.add(chunk.estimatedBytes);
+		maxChunkOperations.accumulate(chunk.writeModels.size());
+		maxChunkBytes.accumulate(chunk.estimatedBytes);
+	}
+
+	@Override
+	public long getNumBulkWrites() {
+		return numBulkWrites.sum();
+	}
+
+	@Override
+	public long getNumSplitBulkWrites() {
+		return numSplitBulkWrites.sum();
+	}
+
+	@Override
+	public long getNumChunks() {
+		return numChunks.sum();
+	}
+
+	@Override
+	public double getAverageChunkOperations() {
+		long chunks = numChunks.sum();
+		return chunks == 0 ? 0 : (double) totalChunkOperations.sum() / chunks;
+	}
+
+	@Override
+	public long getMaxChunkOperations() {
+		return maxChunkOperations.get();
+	}
+
+	@Override
+	public double getAverageChunkBytes() {
+		long chunks = numChunks.sum();
+		return chunks == 0 ? 0 : (double) totalChunkBytes.sum() / chunks;
+	}
+
+	@Override
+	public long getMaxChunkBytes() {
+		return maxChunkBytes.get();
+	}
+
+	static final class Chunk {
+		private final int offset;
+		private final List<WriteModel<Document>> writeModels;
+		private final long estimatedBytes;
+
+		Chunk(int offset, List<WriteModel<Document>> writeModels, long estimatedBytes) {
+			this.offset = offset;
+			this.writeModels = writeModels;
+			this.estimatedBytes = estimatedBytes;
+		}
+
+		int getOffset() {
+			return offset;
+		}
+
+		List<WriteModel<Document>> getWriteModels() {
+			return writeModels;
+		}
+
+		long getEstimatedBytes() {
+			return estimatedBytes;
+		}
+
+		private BulkWriteResult write(Function<List<WriteModel<Document>>, BulkWriteResult> bulkWrite) {
+			BulkWriteResult result = bulkWrite.apply(writeModels);
+			return offset == 0 ? result : BulkWriteResults.reindex(result, index -> index + offset);
+		}
+
+		private MongoBulkWriteException reindex(MongoBulkWriteException e) {
+			return offset == 0 ? e : BulkWriteResults.reindex(e, index -> index + offset);
+		}
+	}
+}
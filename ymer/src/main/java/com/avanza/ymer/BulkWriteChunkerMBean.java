@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+public interface BulkWriteChunkerMBean {
+
+	/**
+	 * The number of bulk writes that were sent to MongoDB.
+	 */
+	long getNumBulkWrites();
+
+	/**
+	 * The number of bulk writes that were split into more than one chunk.
+	 */
+	long getNumSplitBulkWrites();
+
+	/**
+	 * The number of chunks that were sent to MongoDB.
+	 */
+	long getNumChunks();
+
+	/**
+	 * The average number of write models per chunk.
+	 */
+	double getAverageChunkOperations();
+
+	/**
+	 * The largest number of write models in one chunk.
+	 */
+	long getMaxChunkOperations();
+
+	/**
+	 * The average estimated size in bytes of the documents of a chunk.
+	 */
+	double getAverageChunkBytes();
+
+	/**
+	 * The largest estimated size in bytes of the documents of one chunk.
+	 */
+	long getMaxChunkBytes();
+}
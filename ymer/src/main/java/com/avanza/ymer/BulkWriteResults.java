@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteInsert;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+
+/**
+ * Translates the indexes of, and merges, results and exceptions of bulk writes that were not written as a single
+ * list of write models.
+ */
+final class BulkWriteResults {
+
+	private BulkWriteResults() {
+	}
+
+	static BulkWriteResult reindex(BulkWriteResult result, IntUnaryOperator toIndex) {
+		if (!result.wasAcknowledged()) {
+			return result;
+		}
+		return BulkWriteResult.acknowledged(
+				result.getInsertedCount(),
+				result.getMatchedCount(),
+				result.getDeletedCount(),
+				result.getModifiedCount(),
+				result.getUpserts().stream()
+						.map(upsert -> new BulkWriteUpsert(toIndex.applyAsInt(upsert.getIndex()), upsert.getId()))
+						.collect(toList()),
+				result.getInserts().stream()
+						.map(insert -> new BulkWriteInsert(toIndex.applyAsInt(insert.getIndex()), insert.getId()))
+						.collect(toList()));
+	}
+
+	static MongoBulkWriteException reindex(MongoBulkWriteException e, IntUnaryOperator toIndex) {
+		return merge(List.of(), List.of(e), toIndex);
+	}
+
+	/**
+	 * Merges the results of several bulk writes into one. The result is unacknowledged if any of them were.
+	 */
+	static BulkWriteResult merge(List<BulkWriteResult> results) {
+		if (results.size() == 1) {
+			return results.get(0);
+		}
+		int inserted = 0;
+		int matched = 0;
+		int deleted = 0;
+		int modified = 0;
+		List<BulkWriteUpsert> upserts = new ArrayList<>();
+		List<BulkWriteInsert> inserts = new ArrayList<>();
+		for (BulkWriteResult result : results) {
+			if (!result.wasAcknowledged()) {
+				return BulkWriteResult.unacknowledged();
+			}
+			inserted += result.getInsertedCount();
+			matched += result.getMatchedCount();
+			deleted += result.getDeletedCount();
+			modified += result.getModifiedCount();
+			upserts.addAll(result.getUpserts());
+			inserts.addAll(result.getInserts());
+		}
+		return BulkWriteResult.acknowledged(inserted, matched, deleted, modified, upserts, inserts);
+	}
+
+	/**
+	 * Merges the given exceptions, and the results of the bulk writes that succeeded, into one exception. The write
+	 * errors of the exceptions are translated with the given function, which the results must already be translated
+	 * with.
+	 */
+	static MongoBulkWriteException merge(List<BulkWriteResult> results, List<MongoBulkWriteException> exceptions, IntUnaryOperator toIndex) {
+		MongoBulkWriteException first = exceptions.get(0);
+		List<BulkWriteResult> allResults = new ArrayList<>(results);
+		List<BulkWriteError> writeErrors = new ArrayList<>();
+		Set<String> errorLabels = new HashSet<>();
+		for (MongoBulkWriteException e : exceptions) {
+			allResults.add(reindex(e.getWriteResult(), toIndex));
+			for (BulkWriteError error : e.getWriteErrors()) {
+				writeErrors.add(new BulkWriteError(error.getCode(), error.getMessage(), error.getDetails(), toIndex.applyAsInt(error.getIndex())));
+			}
+			errorLabels.addAll(e.getErrorLabels());
+		}
+		MongoBulkWriteException merged = new MongoBulkWriteException(merge(allResults), writeErrors,
+				exceptions.stream()
+						.filter(e -> e.getWriteConcernError() != null)
+						.map(MongoBulkWriteException::getWriteConcernError)
+						.findFirst()
+						.orElse(null),
+				first.getServerAddress(),
+				errorLabels);
+		merged.setStackTrace(first.getStackTrace());
+		exceptions.stream().skip(1).forEach(merged::addSuppressed);
+		return merged;
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.avanza.ymer.LogHistogram.Snapshot;
+
+/**
+ * Latency and size of the bulk writes to a single collection. A bulk write to mongo mixes inserts, updates and
+ * deletes and reports a single latency, so latency is kept per bulk while the size is kept per {@link
+ * PerformedOperationsListener.OperationType}.
+ */
+class CollectionOperationStatistics implements CollectionOperationStatisticsMBean {
+
+	private final LogHistogram latencyMicros = new LogHistogram();
+	private final LogHistogram insertsPerBulk = new LogHistogram();
+	private final LogHistogram updatesPerBulk = new LogHistogram();
+	private final LogHistogram deletesPerBulk = new LogHistogram();
+
+	void recordBulkWrite(long latencyNanos, int inserts, int updates, int deletes) {
+		latencyMicros.record(NANOSECONDS.toMicros(latencyNanos));
+		if (inserts > 0) {
+			insertsPerBulk.record(inserts);
+		}
+		if (updates > 0) {
+			updatesPerBulk.record(updates);
+		}
+		if (deletes > 0) {
+			deletesPerBulk.record(deletes);
+		}
+	}
+
+	@Override
+	public long getNumBulkWrites() {
+		return latencyMicros.snapshot().getCount();
+	}
+
+	@Override
+	public double getBulkWriteLatencyMillisMean() {
+		return latencyMicros.snapshot().getMean() / 1000;
+	}
+
+	@Override
+	public double getBulkWriteLatencyMillisMin() {
+		return toMillis(latencyMicros.snapshot().getMin());
+	}
+
+	@Override
+	public double getBulkWriteLatencyMillisP10() {
+		return latencyMillisAtPercentile(10);
+	}
+
+	@Override
+	public double getBulkWriteLatencyMillisP50() {
+		return latencyMillisAtPercentile(50);
+	}
+
+	@Override
+	public double getBulkWriteLatencyMillisP90() {
+		return latencyMillisAtPercentile(90);
+	}
+
+	@Override
+	public double getBulkWriteLatencyMillisP99() {
+		return latencyMillisAtPercentile(99);
+	}
+
+	@Override
+	public double getBulkWriteLatencyMillisP999() {
+		return latencyMillisAtPercentile(99.9);
+	}
+
+	@Override
+	public double getBulkWriteLatencyMillisMax() {
+		return toMillis(latencyMicros.snapshot().getMax());
+	}
+
+	@Override
+	public long getInsertsPerBulkP50() {
+		return insertsPerBulk.snapshot().getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getInsertsPerBulkP99() {
+		return insertsPerBulk.snapshot().getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getUpdatesPerBulkP50() {
+		return updatesPerBulk.snapshot().getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getUpdatesPerBulkP99() {
+		return updatesPerBulk.snapshot().getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getDeletesPerBulkP50() {
+		return deletesPerBulk.snapshot().getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getDeletesPerBulkP99() {
+		return deletesPerBulk.snapshot().getValueAtPercentile(99);
+	}
+
+	@Override
+	public Map<String, Double> takeIntervalSnapshot() {
+		Snapshot snapshot = latencyMicros.intervalSnapshot();
+		Map<String, Double> result = new LinkedHashMap<>();
+		result.put("numBulkWrites", (double) snapshot.getCount());
+		result.put("latencyMillisMean", snapshot.getMean() / 1000);
+		result.put("latencyMillisMin", toMillis(snapshot.getMin()));
+		result.put("latencyMillisP50", toMillis(snapshot.getValueAtPercentile(50)));
+		result.put("latencyMillisP90", toMillis(snapshot.getValueAtPercentile(90)));
+		result.put("latencyMillisP99", toMillis(snapshot.getValueAtPercentile(99)));
+		result.put("latencyMillisP999", toMillis(snapshot.getValueAtPercentile(99.9)));
+		result.put("latencyMillisMax", toMillis(snapshot.getMax()));
+		return result;
+	}
+
+	private double latencyMillisAtPercentile(double percentile) {
+		return toMillis(latencyMicros.snapshot().getValueAtPercentile(percentile));
+	}
+
+	private static double toMillis(long micros) {
+		return micros / 1000d;
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.Map;
+
+public interface CollectionOperationStatisticsMBean {
+
+	/**
+	 * Gets the number of bulk writes to the collection, including failed ones
+	 */
+	long getNumBulkWrites();
+
+	/**
+	 * Gets the mean time in milliseconds of a bulk write to the collection
+	 */
+	double getBulkWriteLatencyMillisMean();
+
+	/**
+	 * Gets the shortest time in milliseconds of a bulk write to the collection
+	 */
+	double getBulkWriteLatencyMillisMin();
+
+	/**
+	 * Gets the time in milliseconds that 10% of the bulk writes to the collection completed within
+	 */
+	double getBulkWriteLatencyMillisP10();
+
+	/**
+	 * Gets the time in milliseconds that 50% of the bulk writes to the collection completed within
+	 */
+	double getBulkWriteLatencyMillisP50();
+
+	/**
+	 * Gets the time in milliseconds that 90% of the bulk writes to the collection completed within
+	 */
+	double getBulkWriteLatencyMillisP90();
+
+	/**
+	 * Gets the time in milliseconds that 99% of the bulk writes to the collection completed within
+	 */
+	double getBulkWriteLatencyMillisP99();
+
+	/**
+	 * Gets the time in milliseconds that 99.9% of the bulk writes to the collection completed within
+	 */
+	double getBulkWriteLatencyMillisP999();
+
+	/**
+	 * Gets the longest time in milliseconds of a bulk write to the collection
+	 */
+	double getBulkWriteLatencyMillisMax();
+
+	/**
+	 * Gets the median number of inserts of the bulk writes to the collection that contain inserts
+	 */
+	long getInsertsPerBulkP50();
+
+	/**
+	 * Gets the 99th percentile of the number of inserts of the bulk writes to the collection that contain inserts
+	 */
+	long getInsertsPerBulkP99();
+
+	/**
+	 * Gets the median number of updates of the bulk writes to the collection that contain updates
+	 */
+	long getUpdatesPerBulkP50();
+
+	/**
+	 * Gets the 99th percentile of the number of updates of the bulk writes to the collection that contain updates
+	 */
+	long getUpdatesPerBulkP99();
+
+	/**
+	 * Gets the median number of deletes of the bulk writes to the collection that contain deletes
+	 */
+	long getDeletesPerBulkP50();
+
+	/**
+	 * Gets the 99th percentile of the number of deletes of the bulk writes to the collection that contain deletes
+	 */
+	long getDeletesPerBulkP99();
+
+	/**
+	 * Takes a snapshot of the bulk writes to the collection since the previous interval snapshot was taken. Polling
+	 * this at a fixed rate gives the latency percentiles of each interval, rather than since the mirror started.
+	 *
+	 * @return the number of bulk writes, the mean and the percentiles of their latency in milliseconds
+	 */
+	Map<String, Double> takeIntervalSnapshot();
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * The write models of a bulk write, where a bulk write of only deletes by id has its deletes merged into chunked
+ * {@link DeleteManyModel}s using {@code $in}. <p>
+ *
+ * The driver does not retry a bulk write containing a multi-document write such as a {@link DeleteManyModel}, even
+ * when retryable writes are enabled. Deletes in a bulk write that also contains other writes are therefore kept as
+ * separate {@link DeleteOneModel}s, so that the other writes are still retried. A bulk write of only deletes gives
+ * up retryable writes for fewer round trips, which is safe as deletes are idempotent. <p>
+ *
+ * Indexes reported by MongoDB refer to the merged write models, and are translated back to the index of the operation
+ * they were added as. A failing merged delete is reported as a write error at the index of each of its deletes, as
+ * MongoDB does not tell which of them were applied. An ordered bulk write retries the deletes after the first one,
+ * and an unordered bulk write fails all of them. <p>
+ *
+ * Consecutive inserts are not merged, as the driver already sends them in as few insert commands as possible.
+ */
+final class CompactedWriteModels {
+
+	static final int MAX_IDS_PER_DELETE = 1_000;
+
+	private final int maxIdsPerDelete;
+	private final List<WriteModel<Document>> addedWriteModels = new ArrayList<>();
+	private final List<Long> addedSizes = new ArrayList<>();
+	private final List<Object> deleteIds = new ArrayList<>();
+	private final List<Integer> firstOperationIndexes = new ArrayList<>();
+	private final List<Long> estimatedSizes = new ArrayList<>();
+	private List<WriteModel<Document>> writeModels;
+
+	CompactedWriteModels() {
+		this(MAX_IDS_PER_DELETE);
+	}
+
+	CompactedWriteModels(int maxIdsPerDelete) {
+		if (maxIdsPerDelete < 1) {
+			throw new IllegalArgumentException("maxIdsPerDelete must be at least 1, was " + maxIdsPerDelete);
+		}
+		this.maxIdsPerDelete = maxIdsPerDelete;
+	}
+
+	/**
+	 * @param estimatedSize the estimated size in bytes of the write model when encoded as BSON
+	 */
+	void add(WriteModel<Document> writeModel, long estimatedSize) {
+		addedWriteModels.add(writeModel);
+		addedSizes.add(estimatedSize);
+		writeModels = null;
+	}
+
+	void deleteById(Object id) {
+		deleteIds.add(id);
+		add(new DeleteOneModel<>(Filters.eq(id)), BsonSizeEstimator.estimateValueSize(id));
+	}
+
+	List<WriteModel<Document>> getWriteModels() {
+		if (writeModels == null) {
+			compact();
+		}
+		return writeModels;
+	}
+
+	int getNumberOfOperations() {
+		return addedWriteModels.size();
+	}
+
+	long getEstimatedSize(int writeModelIndex) {
+		getWriteModels();
+		return estimatedSizes.get(writeModelIndex);
+	}
+
+	/**
+	 * Returns the index of the (first) operation that the write model at the given index was added as.
+	 */
+	int toOperationIndex(int writeModelIndex) {
+		getWriteModels();
+		return firstOperationIndexes.get(writeModelIndex);
+	}
+
+	BulkWriteResult toOperationIndexes(BulkWriteResult result) {
+		if (getWriteModels().size() == getNumberOfOperations()) {
+			return result;
+		}
+		return BulkWriteResults.reindex(result, this::toOperationIndex);
+	}
+
+	MongoBulkWriteException toOperationIndexes(MongoBulkWriteException e) {
+		if (getWriteModels().size() == getNumberOfOperations()) {
+			return e;
+		}
+		List<BulkWriteError> writeErrors = new ArrayList<>();
+		for (BulkWriteError error : e.getWriteErrors()) {
+			int endOperationIndex = error.getIndex() + 1 < firstOperationIndexes.size()
+					? firstOperationIndexes.get(error.getIndex() + 1)
+					: getNumberOfOperations();
+			for (int operationIndex = toOperationIndex(error.getIndex()); operationIndex < endOperationIndex; operationIndex++) {
+				writeErrors.add(new BulkWriteError(error.getCode(), error.getMessage(), error.getDetails(), operationIndex));
+			}
+		}
+		MongoBulkWriteException translated = new MongoBulkWriteException(BulkWriteResults.reindex(e.getWriteResult(), this::toOperationIndex),
+				writeErrors, e.getWriteConcernError(), e.getServerAddress(), e.getErrorLabels());
+		translated.setStackTrace(e.getStackTrace());
+		return translated;
+	}
+
+	private void compact() {
+		firstOperationIndexes.clear();
+		estimatedSizes.clear();
+		if (deleteIds.size() < addedWriteModels.size()) {
+			// not only deletes, keep every write retryable
+			writeModels = addedWriteModels;
+			for (int i = 0; i < addedWriteModels.size(); i++) {
+				firstOperationIndexes.add(i);
+			}
+			estimatedSizes.addAll(addedSizes);
+			return;
+		}
+		writeModels = new ArrayList<>();
+		for (int start = 0; start < deleteIds.size(); start += maxIdsPerDelete) {
+			int end = Math.min(start + maxIdsPerDelete, deleteIds.size());
+			firstOperationIndexes.add(start);
+			estimatedSizes.add(addedSizes.subList(start, end).stream().mapToLong(Long::longValue).sum());
+			if (end - start == 1) {
+				writeModels.add(addedWriteModels.get(start));
+			} else {
+				writeModels.add(new DeleteManyModel<>(Filters.in("_id", new ArrayList<>(deleteIds.subList(start, end)))));
+			}
+		}
+	}
+}
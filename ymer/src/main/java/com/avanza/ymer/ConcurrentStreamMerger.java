@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterators.spliteratorUnknownSize;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Consumes a number of source streams concurrently and merges their elements into a single stream. <p>
+ *
+ * At most {@code parallelism} sources are consumed at the same time, and they are started in the order
+ * they are given. Elements are handed over through a bounded buffer, so a slow consumer of the merged
+ * stream will eventually block the threads reading the sources. Each source stream is closed by the
+ * thread that consumed it, as soon as it is exhausted. <p>
+ *
+ * If a source fails, the exception is rethrown to the consumer of the merged stream. Closing the merged
+ * stream stops all sources that are still being consumed.
+ */
+final class ConcurrentStreamMerger {
+
+	private static final Object END_OF_SOURCE = new Object();
+
+	private ConcurrentStreamMerger() {
+	}
+
+	static <T> Stream<T> merge(List<Supplier<Stream<? extends T>>> sources, int parallelism, int bufferSize, String threadNamePrefix) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1, was " + parallelism);
+		}
+		MergingIterator<T> iterator = new MergingIterator<>(sources, parallelism, bufferSize, threadNamePrefix);
+		return StreamSupport.stream(spliteratorUnknownSize(iterator, NONNULL), false)
+				.onClose(iterator::close);
+	}
+
+	private static final class MergingIterator<T> implements Iterator<T> {
+
+		private final BlockingQueue<Object> buffer;
+		private final ExecutorService executor;
+		private final int numSources;
+		private int exhaustedSources = 0;
+		private T next;
+		private volatile boolean closed = false;
+
+		MergingIterator(List<Supplier<Stream<? extends T>>> sources, int parallelism, int bufferSize, String threadNamePrefix) {
+			this.buffer = new ArrayBlockingQueue<>(bufferSize);
+			this.numSources = sources.size();
+			CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+			threadFactory.setDaemon(true);
+			this.executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, numSources)), threadFactory);
+			// A fixed thread pool starts its tasks in submission order, hence sources are started in the given order
+			sources.forEach(source -> executor.execute(() -> consume(source)));
+			executor.shutdown();
+		}
+
+		private void consume(Supplier<Stream<? extends T>> source) {
+			try {
+				if (!closed) {
+					try (Stream<? extends T> stream = source.get()) {
+						Iterator<? extends T> elements = stream.iterator();
+						while (!closed && elements.hasNext()) {
+							buffer.put(elements.next());
+						}
+					}
+				}
+				buffer.put(END_OF_SOURCE);
+			} catch (InterruptedException e) {
+				// Merged stream was closed
+				Thread.currentThread().interrupt();
+			} catch (Throwable e) {
+				try {
+					buffer.put(new SourceFailure(e));
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean hasNext() {
+			while (next == null && exhaustedSources < numSources) {
+				Object element = take();
+				if (element == END_OF_SOURCE) {
+					exhaustedSources++;
+				} else if (element instanceof SourceFailure) {
+					close();
+					throw ((SourceFailure) element).asRuntimeException();
+				} else {
+					next = (T) element;
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T result = next;
+			next = null;
+			return result;
+		}
+
+		private Object take() {
+			try {
+				return buffer.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new IllegalStateException("Interrupted while waiting for next element", e);
+			}
+		}
+
+		void close() {
+			closed = true;
+			executor.shutdownNow();
+		}
+	}
+
+	private static final class SourceFailure {
+		private final Throwable cause;
+
+		SourceFailure(Throwable cause) {
+			this.cause = cause;
+		}
+
+		RuntimeException asRuntimeException() {
+			if (cause instanceof RuntimeException) {
+				return (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			return new RuntimeException(cause);
+		}
+	}
+
+}
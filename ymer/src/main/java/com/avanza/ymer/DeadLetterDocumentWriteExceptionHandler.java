@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends changes that can not be written to a {@link DeadLetterStore}, so that the rest of the batch is written
+ * without losing them. Transient errors are rethrown, like {@link RethrowsTransientDocumentWriteExceptionHandler}
+ * does, so that the batch is retried.
+ */
+final class DeadLetterDocumentWriteExceptionHandler implements DocumentWriteExceptionHandler {
+
+	private static final Logger log = LoggerFactory.getLogger(DeadLetterDocumentWriteExceptionHandler.class);
+
+	private final DeadLetterStore deadLetterStore;
+	private final RethrowsTransientDocumentWriteExceptionHandler transientExceptionHandler = new RethrowsTransientDocumentWriteExceptionHandler();
+
+	DeadLetterDocumentWriteExceptionHandler(DeadLetterStore deadLetterStore) {
+		this.deadLetterStore = deadLetterStore;
+	}
+
+	@Override
+	public void handleException(Exception exception, String operationDescription) {
+		// nothing to dead-letter, as the failed changes are unknown
+		transientExceptionHandler.handleException(exception, operationDescription);
+	}
+
+	@Override
+	public void handleFailedChanges(Exception exception, String operationDescription, List<FailedChange> failedChanges) {
+		if (RethrowsTransientDocumentWriteExceptionHandler.isTransient(exception)) {
+			transientExceptionHandler.handleException(exception, operationDescription);
+			return;
+		}
+		failedChanges.forEach(deadLetterStore::add);
+		log.error("Exception when executing mirror command! Attempted operation: {} - {} changes were dead-lettered, "
+				+ "the rest of the commands in this bulk will be attempted.", operationDescription, failedChanges.size(), exception);
+	}
+
+	@Override
+	public void handleRejectedChanges(Exception exception, List<FailedChange> rejectedChanges) {
+		rejectedChanges.forEach(deadLetterStore::add);
+		log.warn("{} changes rejected by the database were dead-lettered", rejectedChanges.size());
+	}
+}
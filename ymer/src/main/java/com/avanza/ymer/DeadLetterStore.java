@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avanza.ymer.DocumentCollection.BulkWriter;
+import com.mongodb.MongoBulkWriteException;
+
+/**
+ * Stores changes that could not be written in a side collection, from where they can be listed, replayed or purged.
+ * Each entry holds the converted document, the operation, the error and a description of the batch.
+ * <p>
+ * Replayed changes are written directly to their collections, so the {@link DocumentHashCache} entries of the
+ * replayed ids are removed, or a later write of the last cached version would be skipped as unchanged.
+ */
+final class DeadLetterStore implements DeadLetterStoreMBean {
+
+	static final String DEFAULT_COLLECTION_NAME = "ymer_dead_letters";
+	private static final Logger log = LoggerFactory.getLogger(DeadLetterStore.class);
+	private static final String PARTIAL_UPDATE = "PARTIAL_UPDATE";
+
+	private final SpaceMirrorContext mirror;
+	private final DocumentCollection deadLetters;
+	private volatile Map<String, DocumentHashCache> documentHashCaches = emptyMap();
+
+	DeadLetterStore(SpaceMirrorContext mirror) {
+		this(mirror, DEFAULT_COLLECTION_NAME);
+	}
+
+	DeadLetterStore(SpaceMirrorContext mirror, String collectionName) {
+		this.mirror = mirror;
+		this.deadLetters = mirror.getDocumentDb().getCollection(collectionName);
+	}
+
+	/**
+	 * Sets the document hash caches of the mirror, by collection name, which are invalidated for replayed ids.
+	 */
+	void useDocumentHashCaches(Map<String, DocumentHashCache> documentHashCaches) {
+		this.documentHashCaches = documentHashCaches;
+	}
+
+	/**
+	 * Stores the given change. Throws if it could not be stored, so that it is not lost.
+	 */
+	void add(FailedChange change) {
+		Document entry = new Document("_id", new ObjectId())
+				.append("collection", change.getCollectionName())
+				.append("operation", change.isPartialUpdate() ? PARTIAL_UPDATE : change.getOperation().name())
+				.append("document", change.getDocument())
+				.append("object", String.valueOf(change.getSpaceObject()))
+				.append("error", change.getError())
+				.append("batch", change.getBatchContext())
+				.append("failedAt", new Date());
+		deadLetters.insert(entry);
+	}
+
+	@Override
+	public long getNumDeadLetters() {
+		return deadLetters.estimatedDocumentCount();
+	}
+
+	@Override
+	public List<String> listDeadLetters(int maxEntries) {
+		return deadLetters.findAll()
+				.limit(maxEntries)
+				.map(entry -> entry.get("_id") + " " + entry.getString("operation") + " in " + entry.getString("collection")
+						+ " at " + entry.get("failedAt") + ": " + entry.getString("error") + " - " + entry.getString("object")
+						+ " (" + entry.getString("batch") + ")")
+				.collect(toList());
+	}
+
+	@Override
+	public int replayAll() {
+		Map<String, List<Document>> entriesByCollection = new LinkedHashMap<>();
+		deadLetters.findAll()
+				.sorted((a, b) -> a.getObjectId("_id").compareTo(b.getObjectId("_id")))
+				.forEach(entry -> {
+					if (entry.get("document") == null) {
+						log.debug("Dead-lettered change {} has no converted document and can not be replayed", entry.get("_id"));
+					} else {
+						entriesByCollection.computeIfAbsent(entry.getString("collection"), x -> new ArrayList<>()).add(entry);
+					}
+				});
+		AtomicInteger replayed = new AtomicInteger();
+		for (Map.Entry<String, List<Document>> collectionEntries : entriesByCollection.entrySet()) {
+			if (!replay(collectionEntries.getKey(), collectionEntries.getValue(), replayed)) {
+				log.warn("Stopped replaying dead-lettered changes after {} changes, the remaining changes are kept", replayed.get());
+				return replayed.get();
+			}
+		}
+		log.info("Replayed {} dead-lettered changes", replayed.get());
+		return replayed.get();
+	}
+
+	/**
+	 * Writes the entries in ordered bulks, where a bulk that fails on an entry is followed by a bulk starting with the
+	 * entry after it. Entries that fail are kept. A bulk that fails without a write error, such as on a write concern
+	 * error, can not be attributed to an entry, so all its entries are kept and replay is stopped.
+	 *
+	 * @return whether replay should continue
+	 */
+	private boolean replay(String collectionName, List<Document> entries, AtomicInteger replayed) {
+		DocumentCollection collection = mirror.getDocumentCollection(collectionName);
+		DocumentHashCache hashCache = documentHashCaches.get(collectionName);
+		int start = 0;
+		while (start < entries.size()) {
+			List<Document> remainingEntries = entries.subList(start, entries.size());
+			int written = remainingEntries.size();
+			int failed = 0;
+			invalidate(hashCache, remainingEntries);
+			try {
+				collection.orderedBulkWrite(bulkWriter -> remainingEntries.forEach(entry -> replay(bulkWriter, entry)));
+			} catch (MongoBulkWriteException e) {
+				if (e.getWriteErrors().isEmpty()) {
+					log.warn("Could not replay dead-lettered changes in collection {}: \"{}\"", collectionName, e.getMessage());
+					invalidate(hashCache, remainingEntries);
+					return false;
+				}
+				written = e.getWriteErrors().get(0).getIndex();
+				failed = 1;
+				log.warn("Could not replay dead-lettered change {} in collection {}: \"{}\"",
+						remainingEntries.get(written).get("_id"), collectionName, e.getWriteErrors().get(0).getMessage());
+			}
+			// the mirror may have cached a write of the same ids while replaying
+			invalidate(hashCache, remainingEntries);
+			remainingEntries.subList(0, written).forEach(entry -> deadLetters.delete(new Document("_id", entry.get("_id"))));
+			replayed.addAndGet(written);
+			start += written + failed;
+		}
+		return true;
+	}
+
+	private static void invalidate(DocumentHashCache hashCache, List<Document> entries) {
+		if (hashCache != null) {
+			entries.forEach(entry -> hashCache.remove(entry.get("document", Document.class).get("_id")));
+		}
+	}
+
+	private static void replay(BulkWriter bulkWriter, Document entry) {
+		Document document = entry.get("document", Document.class);
+		switch (entry.getString("operation")) {
+			case "INSERT":
+			case "UPDATE":
+				bulkWriter.replace(document);
+				break;
+			case PARTIAL_UPDATE:
+				Map<String, Object> fieldsToSet = new HashMap<>(document);
+				fieldsToSet.remove("_id");
+				bulkWriter.updateFields(document.get("_id"), fieldsToSet);
+				break;
+			case "REMOVE":
+				bulkWriter.delete(document);
+				break;
+			default:
+				throw new IllegalStateException("Unknown operation of dead-lettered change " + entry.get("_id") + ": " + entry.getString("operation"));
+		}
+	}
+
+	@Override
+	public boolean purge(String id) {
+		if (!ObjectId.isValid(id) || deadLetters.findById(new ObjectId(id)) == null) {
+			return false;
+		}
+		deadLetters.delete(new Document("_id", new ObjectId(id)));
+		return true;
+	}
+
+	@Override
+	public int purgeAll() {
+		List<Object> ids = deadLetters.findAll().map(entry -> entry.get("_id")).collect(toList());
+		ids.forEach(id -> deadLetters.delete(new Document("_id", id)));
+		log.info("Purged {} dead-lettered changes", ids.size());
+		return ids.size();
+	}
+}
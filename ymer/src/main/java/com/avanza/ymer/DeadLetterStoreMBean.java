@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.List;
+
+public interface DeadLetterStoreMBean {
+
+	/**
+	 * The estimated number of dead-lettered changes.
+	 */
+	long getNumDeadLetters();
+
+	/**
+	 * Describes the oldest dead-lettered changes, at most the given number of them.
+	 */
+	List<String> listDeadLetters(int maxEntries);
+
+	/**
+	 * Writes all dead-lettered changes to their collections, in the order they failed, and removes the ones that
+	 * were written. Changes that failed conversion can not be replayed and are kept.
+	 *
+	 * @return the number of replayed changes
+	 */
+	int replayAll();
+
+	/**
+	 * Removes the dead-lettered change with the given id without writing it.
+	 *
+	 * @return whether the change was found
+	 */
+	boolean purge(String id);
+
+	/**
+	 * Removes all dead-lettered changes without writing them.
+	 *
+	 * @return the number of removed changes
+	 */
+	int purgeAll();
+}
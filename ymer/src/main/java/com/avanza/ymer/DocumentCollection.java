@@ -15,6 +15,7 @@
  */
 package com.avanza.ymer;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -42,6 +43,20 @@ interface DocumentCollection {
 
 	Stream<Document> findAll(SpaceObjectFilter<?> objectFilter);
 
+	/**
+	 * Reads all documents with an id in the given range from the underlying mongo collection. <p>
+	 */
+	Stream<Document> findAll(IdRange idRange);
+
+	Stream<Document> findAll(SpaceObjectFilter<?> objectFilter, IdRange idRange);
+
+	/**
+	 * Returns up to numSplitPoints distinct ids, sorted in ascending order, that split the underlying
+	 * mongo collection into ranges of roughly equal size. The ids are selected from a random sample of
+	 * the collection. <p>
+	 */
+	List<Object> sampleIdSplitPoints(int numSplitPoints);
+
 	Stream<Document> findByTemplate(Document template);
 
 	/**
@@ -52,6 +67,24 @@ interface DocumentCollection {
 
 	Stream<Document> findByQuery(Query query);
 
+	/**
+	 * Reads all documents with a format version lower than the given version. A document without format
+	 * version is considered to be of version 1. <p>
+	 */
+	Stream<Document> findWithFormatVersionBelow(int formatVersion, int batchSize);
+
+	/**
+	 * Counts the documents in the underlying mongo collection grouped by format version. A document
+	 * without format version is considered to be of version 1. <p>
+	 */
+	Map<Integer, Long> countByFormatVersion();
+
+	/**
+	 * Returns an estimate of the number of documents in the underlying mongo collection,
+	 * based on collection metadata rather than a full scan. <p>
+	 */
+	long estimatedDocumentCount();
+
 	/**
 	 * Replaces a given document in the underlying mongo collection with a new
 	 * document. <p>
@@ -68,6 +101,14 @@ interface DocumentCollection {
 	void update(Document document);
 
 
+	/**
+	 * Updates all documents matching the filter using an update with an aggregation pipeline,
+	 * which allows setting fields to values calculated from other fields of each document. <p>
+	 *
+	 * @return the number of modified documents
+	 */
+	long updateManyWithPipeline(Document filter, List<Document> pipeline);
+
 	/**
 	 * Perform multiple write operations in a non-ordered bulk
 	 */
@@ -102,8 +143,21 @@ interface DocumentCollection {
 
 		void replace(Document document);
 
+		/**
+		 * Replaces oldVersion with newVersion, unless the document has been written with another format version
+		 * since oldVersion was read. A document without format version is considered to be of version 1.
+		 * The ids of oldVersion and newVersion must be equal.
+		 */
+		void replaceIfUnchanged(Document oldVersion, Document newVersion);
+
 		void delete(Document document);
 
+		/**
+		 * Sets the given fields on the document with the given id, and leaves all other fields unchanged.
+		 * Nothing is written if there is no document with the given id.
+		 */
+		void updateFields(Object id, Map<String, Object> fieldsToSet);
+
 		void updatePartialByIds(Set<Object> ids, Map<String, Object> fieldsToSet);
 
 		void unsetFieldsPartialByIds(Set<Object> ids, Set<String> fieldsToUnset);
@@ -15,10 +15,16 @@
  */
 package com.avanza.ymer;
 
+import java.util.Date;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
 
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
 import org.springframework.data.mongodb.core.query.Query;
 
 /**
@@ -72,6 +78,32 @@ final class DocumentConverter {
         return provider.toQuery(template);
     }
 
+    /**
+     * Returns the name of the document field that the given property of the given type is stored in, if known. <p>
+     *
+     */
+    Optional<String> getFieldName(Class<?> type, String propertyName) {
+        return provider.getFieldName(type, propertyName);
+    }
+
+    /**
+     * Converts the given value of the given property to the value of the document id, if the property is the id
+     * property of the given type and its value is converted to a simple value such as a String, number or ObjectId. <p>
+     *
+     */
+    Optional<Object> toDocumentId(Class<?> type, String propertyName, Object id) {
+        return provider.toDocumentId(type, propertyName, id);
+    }
+
+    /**
+     * Returns whether all properties (except the id) of the given type are stored as values that can be null, which
+     * means that a property that is not set is left out of the converted document. <p>
+     *
+     */
+    boolean hasOnlyNullableProperties(Class<?> type) {
+        return provider.hasOnlyNullableProperties(type);
+    }
+
     interface Provider {
 
         /**
@@ -93,6 +125,31 @@ final class DocumentConverter {
         Object convert(Object type);
 
         Query toQuery(Object template);
+
+        /**
+         * Returns the name of the document field that the given property of the given type is stored in, if known. <p>
+         *
+         */
+        default Optional<String> getFieldName(Class<?> type, String propertyName) {
+            return Optional.empty();
+        }
+
+        /**
+         * Converts the given value of the given property to the value of the document id, if the property is the
+         * id property of the given type and its value is converted to a simple value. <p>
+         *
+         */
+        default Optional<Object> toDocumentId(Class<?> type, String propertyName, Object id) {
+            return Optional.empty();
+        }
+
+        /**
+         * Returns whether all properties (except the id) of the given type are stored as values that can be null. <p>
+         *
+         */
+        default boolean hasOnlyNullableProperties(Class<?> type) {
+            return false;
+        }
     }
 
     /**
@@ -129,6 +186,41 @@ final class DocumentConverter {
             return new MongoQueryFactory(mongoConverter).createMongoQueryFromTemplate(template);
         }
 
+        @Override
+        public Optional<String> getFieldName(Class<?> type, String propertyName) {
+            return Optional.ofNullable(mongoConverter.getMappingContext().getPersistentEntity(type))
+                    .map(entity -> entity.getPersistentProperty(propertyName))
+                    .map(MongoPersistentProperty::getFieldName);
+        }
+
+        @Override
+        public Optional<Object> toDocumentId(Class<?> type, String propertyName, Object id) {
+            MongoPersistentEntity<?> entity = mongoConverter.getMappingContext().getPersistentEntity(type);
+            if (entity == null || entity.getIdProperty() == null || !entity.getIdProperty().getName().equals(propertyName)) {
+                return Optional.empty();
+            }
+            Object documentId = mongoConverter.convertId(id, entity.getIdProperty().getFieldType());
+            if (documentId instanceof String || documentId instanceof Number || documentId instanceof ObjectId
+                    || documentId instanceof Date || documentId instanceof UUID) {
+                return Optional.of(documentId);
+            }
+            return Optional.empty();
+        }
+
+        @Override
+        public boolean hasOnlyNullableProperties(Class<?> type) {
+            MongoPersistentEntity<?> entity = mongoConverter.getMappingContext().getPersistentEntity(type);
+            if (entity == null) {
+                return false;
+            }
+            for (MongoPersistentProperty property : entity) {
+                if (!property.isIdProperty() && property.getType().isPrimitive()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
     }
 
 }
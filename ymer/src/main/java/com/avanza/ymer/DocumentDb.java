@@ -38,17 +38,23 @@ import com.mongodb.client.MongoDatabase;
 final class DocumentDb {
 	
 	private final Provider provider;
+	private final BulkWriteChunker bulkWriteChunker;
 	
-	private DocumentDb(Provider provider) {
+	private DocumentDb(Provider provider, BulkWriteChunker bulkWriteChunker) {
 		this.provider = provider;
+		this.bulkWriteChunker = bulkWriteChunker;
 	}
 	
 	static DocumentDb create(Provider provider) {
-		return new DocumentDb(provider);
+		return new DocumentDb(provider, null);
 	}
 	
 	static DocumentDb mongoDb(MongoDatabase db, ReadPreference readPreference) {
-		return new DocumentDb(new MongoDocumentDb(db, readPreference));
+		return mongoDb(db, readPreference, BulkWriteChunker.withDefaultProperties());
+	}
+
+	static DocumentDb mongoDb(MongoDatabase db, ReadPreference readPreference, BulkWriteChunker bulkWriteChunker) {
+		return new DocumentDb(new MongoDocumentDb(db, readPreference, bulkWriteChunker), bulkWriteChunker);
 	}
 	
 	DocumentCollection getCollection(String name) {
@@ -58,6 +64,13 @@ final class DocumentDb {
 	DocumentCollection getCollection(String name, ReadPreference readPreference) {
 		return provider.get(name, readPreference);
 	}
+
+	/**
+	 * @return the chunker used for bulk writes to all collections, if the collections are backed by MongoDB
+	 */
+	Optional<BulkWriteChunker> getBulkWriteChunker() {
+		return Optional.ofNullable(bulkWriteChunker);
+	}
 	
 	interface Provider {
 		DocumentCollection get(String name, ReadPreference readPreference);
@@ -69,9 +82,11 @@ final class DocumentDb {
 
 		private final MongoDatabase mongoDatabase;
 		private final ReadPreference readPreference;
+		private final BulkWriteChunker bulkWriteChunker;
 
-		MongoDocumentDb(MongoDatabase mongoDb, ReadPreference readPreference) {
+		MongoDocumentDb(MongoDatabase mongoDb, ReadPreference readPreference, BulkWriteChunker bulkWriteChunker) {
 			this.readPreference = readPreference;
+			this.bulkWriteChunker = Objects.requireNonNull(bulkWriteChunker);
 			this.mongoDatabase = Objects.requireNonNull(mongoDb);
 
 			if (!EXPECTED_WRITE_CONCERNS.contains(mongoDb.getWriteConcern())) {
@@ -84,7 +99,7 @@ final class DocumentDb {
 			MongoCollection<Document> collection = mongoDatabase.getCollection(name);
 			collection.withReadPreference(Optional.ofNullable(readPreference)
 												  .orElse(this.readPreference));
-			return new MongoDocumentCollection(collection);
+			return new MongoDocumentCollection(collection, bulkWriteChunker);
 		}
 	}
 
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.stream.Collectors.toList;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.avanza.ymer.plugin.PostReadProcessor;
+import com.avanza.ymer.plugin.PreWriteProcessor;
+import com.avanza.ymer.util.StreamUtils;
+import com.mongodb.bulk.BulkWriteResult;
+
+/**
+ * Patches documents stored with an old format version to the current format version while the mirror is running,
+ * so that they do not have to be patched again on every InitialLoad. <p>
+ *
+ * Documents are read and written in batches. A document is only replaced if it still has the format version it had
+ * when it was read, so documents written by the mirror during the migration are never overwritten. <p>
+ */
+public class DocumentFormatMigrationService implements DocumentFormatMigrationServiceMBean {
+	private static final int BATCH_SIZE = 1_000;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+	private final Map<String, DocumentFormatStatistics> migrationStatistics = new ConcurrentHashMap<>();
+	private final SpaceMirrorContext spaceMirror;
+
+	public DocumentFormatMigrationService(SpaceMirrorContext spaceMirror) {
+		this.spaceMirror = spaceMirror;
+	}
+
+	DocumentFormatStatisticsMBean collectStatistics(MirroredObject<?> mirroredObject) {
+		return getStatistics(mirroredObject);
+	}
+
+	private DocumentFormatStatistics getStatistics(MirroredObject<?> mirroredObject) {
+		return migrationStatistics.computeIfAbsent(mirroredObject.getCollectionName(),
+				x -> new DocumentFormatStatistics(mirroredObject.getCurrentVersion()));
+	}
+
+	List<MirroredObject<?>> getMirroredObjectsWithPatches() {
+		return spaceMirror.getMirroredDocuments().stream()
+				.filter(mirroredObject -> mirroredObject.getCurrentVersion() > 1)
+				.collect(toList());
+	}
+
+	private Optional<MirroredObject<?>> findMirroredObject(String collectionName) {
+		return spaceMirror.getMirroredDocuments().stream()
+				.filter(mirroredObject -> mirroredObject.getCollectionName().equals(collectionName))
+				.findFirst();
+	}
+
+	@Override
+	public void migrateDocumentFormat() {
+		getMirroredObjectsWithPatches().forEach(this::migrateDocumentFormat);
+	}
+
+	@Override
+	public void migrateDocumentFormat(String collectionName) {
+		Optional<MirroredObject<?>> mirroredObject = findMirroredObject(collectionName);
+		if (mirroredObject.isEmpty()) {
+			log.warn("Cannot migrate document format for collection [{}], no definition was found in mirrored objects",
+					collectionName);
+			return;
+		}
+		migrateDocumentFormat(mirroredObject.get());
+	}
+
+	@Override
+	public void updateDocumentFormatVersionHistograms() {
+		getMirroredObjectsWithPatches().forEach(this::updateDocumentFormatVersionHistogram);
+	}
+
+	private void updateDocumentFormatVersionHistogram(MirroredObject<?> mirroredObject) {
+		try {
+			Map<Integer, Long> histogram = spaceMirror.getDocumentDb().getCollection(mirroredObject.getCollectionName()).countByFormatVersion();
+			getStatistics(mirroredObject).setDocumentFormatVersionHistogram(histogram);
+			log.info("Documents per format version in collection {}: {}", mirroredObject.getCollectionName(), histogram);
+		} catch (Exception e) {
+			log.warn("Unable to count documents per format version in collection {}", mirroredObject.getCollectionName(), e);
+		}
+	}
+
+	private void migrateDocumentFormat(MirroredObject<?> mirroredObject) {
+		DocumentFormatStatistics statistics = getStatistics(mirroredObject);
+		if (!statistics.migrationStarted()) {
+			log.warn("Document format migration is already in progress for collection {}", mirroredObject.getCollectionName());
+			return;
+		}
+		try {
+			updateDocumentFormatVersionHistogram(mirroredObject);
+			migrateDocumentFormatInternal(mirroredObject, statistics);
+			updateDocumentFormatVersionHistogram(mirroredObject);
+		} finally {
+			statistics.migrationCompleted();
+		}
+	}
+
+	private void migrateDocumentFormatInternal(MirroredObject<?> mirroredObject, DocumentFormatStatistics statistics) {
+		String collectionName = mirroredObject.getCollectionName();
+		int currentVersion = mirroredObject.getCurrentVersion();
+		log.info("Migrating documents in collection {} to format version {} with batch size {}", collectionName, currentVersion, BATCH_SIZE);
+
+		DocumentCollection collection = spaceMirror.getDocumentDb().getCollection(collectionName);
+		PostReadProcessor postReadProcessor = spaceMirror.getPostReadProcessing(mirroredObject.getMirroredType());
+		PreWriteProcessor preWriteProcessor = spaceMirror.getPreWriteProcessing(mirroredObject.getMirroredType());
+
+		LongAdder analyzedCount = new LongAdder();
+		Runnable progressLogger = () -> log.info("Migrated {} documents in collection {} ({} analyzed, {} failed)",
+				statistics.getNumberOfMigratedDocuments(), collectionName, analyzedCount.sum(), statistics.getNumberOfFailedDocuments());
+
+		try (Stream<List<Document>> batches = StreamUtils.buffer(collection.findWithFormatVersionBelow(currentVersion, BATCH_SIZE), BATCH_SIZE);
+				RepeatingTask ignore = new RepeatingTask(Duration.ofSeconds(30), progressLogger)) {
+			batches.forEach(batch -> {
+				analyzedCount.add(batch.size());
+				List<PatchedDocument> patchedDocuments = new ArrayList<>(batch.size());
+				for (Document document : batch) {
+					patch(mirroredObject, postReadProcessor, preWriteProcessor, document, statistics)
+							.ifPresent(patchedDocuments::add);
+				}
+				write(collection, collectionName, patchedDocuments, statistics);
+			});
+		}
+		log.info("Migrated {} documents in collection {} to format version {} ({} analyzed, {} failed)",
+				statistics.getNumberOfMigratedDocuments(), collectionName, currentVersion, analyzedCount.sum(), statistics.getNumberOfFailedDocuments());
+	}
+
+	private Optional<PatchedDocument> patch(MirroredObject<?> mirroredObject,
+											PostReadProcessor postReadProcessor,
+											PreWriteProcessor preWriteProcessor,
+											Document document,
+											DocumentFormatStatistics statistics) {
+		try {
+			Document newVersion = postReadProcessor.postRead(new Document(document));
+			newVersion = mirroredObject.patch(newVersion);
+			return Optional.of(new PatchedDocument(document, preWriteProcessor.preWrite(newVersion)));
+		} catch (Exception e) {
+			log.warn("Failed to patch document in collection {} with id {}", mirroredObject.getCollectionName(), document.get("_id"), e);
+			statistics.addFailedDocuments(1);
+			return Optional.empty();
+		}
+	}
+
+	private void write(DocumentCollection collection,
+					   String collectionName,
+					   List<PatchedDocument> patchedDocuments,
+					   DocumentFormatStatistics statistics) {
+		List<PatchedDocument> bulkReplaceable = new ArrayList<>(patchedDocuments.size());
+		for (PatchedDocument patchedDocument : patchedDocuments) {
+			if (Objects.equals(patchedDocument.getOldVersion().get("_id"), patchedDocument.getNewVersion().get("_id"))) {
+				bulkReplaceable.add(patchedDocument);
+			} else {
+				replaceWithChangedId(collection, collectionName, patchedDocument, statistics);
+			}
+		}
+		if (bulkReplaceable.isEmpty()) {
+			return;
+		}
+		try {
+			BulkWriteResult result = collection.nonOrderedBulkWrite(bulkWriter -> bulkReplaceable.forEach(
+					patchedDocument -> bulkWriter.replaceIfUnchanged(patchedDocument.getOldVersion(), patchedDocument.getNewVersion())
+			));
+			statistics.addMigratedDocuments(result.getModifiedCount());
+		} catch (RuntimeException e) {
+			log.warn("Failed to write {} migrated documents to {}", bulkReplaceable.size(), collectionName, e);
+			statistics.addFailedDocuments(bulkReplaceable.size());
+		}
+	}
+
+	private void replaceWithChangedId(DocumentCollection collection,
+									  String collectionName,
+									  PatchedDocument patchedDocument,
+									  DocumentFormatStatistics statistics) {
+		try {
+			collection.replace(patchedDocument.getOldVersion(), patchedDocument.getNewVersion());
+			statistics.addMigratedDocuments(1);
+		} catch (RuntimeException e) {
+			log.warn("Failed to write migrated document with changed id to {}, old id: {} new id: {}",
+					collectionName, patchedDocument.getOldVersion().get("_id"), patchedDocument.getNewVersion().get("_id"), e);
+			statistics.addFailedDocuments(1);
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+public interface DocumentFormatMigrationServiceMBean {
+
+	/**
+	 * Patches all documents stored with an old format version to the current format version, for all
+	 * collections that have patches.
+	 */
+	void migrateDocumentFormat();
+
+	void migrateDocumentFormat(String collectionName);
+
+	/**
+	 * Recounts the documents of each format version, see {@link DocumentFormatStatisticsMBean#getDocumentFormatVersionHistogram()}.
+	 */
+	void updateDocumentFormatVersionHistograms();
+
+}
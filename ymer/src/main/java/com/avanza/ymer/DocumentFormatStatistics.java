@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+class DocumentFormatStatistics implements DocumentFormatStatisticsMBean {
+
+	private final int currentDocumentFormatVersion;
+	private final AtomicBoolean migrationInProgress = new AtomicBoolean(false);
+	private final LongAdder migratedDocuments = new LongAdder();
+	private final LongAdder failedDocuments = new LongAdder();
+	private volatile Map<Integer, Long> documentFormatVersionHistogram = new TreeMap<>();
+
+	DocumentFormatStatistics(int currentDocumentFormatVersion) {
+		this.currentDocumentFormatVersion = currentDocumentFormatVersion;
+	}
+
+	/**
+	 * @return false if a migration already is in progress
+	 */
+	boolean migrationStarted() {
+		if (!migrationInProgress.compareAndSet(false, true)) {
+			return false;
+		}
+		migratedDocuments.reset();
+		failedDocuments.reset();
+		return true;
+	}
+
+	void migrationCompleted() {
+		migrationInProgress.set(false);
+	}
+
+	void addMigratedDocuments(long count) {
+		migratedDocuments.add(count);
+	}
+
+	void addFailedDocuments(long count) {
+		failedDocuments.add(count);
+	}
+
+	void setDocumentFormatVersionHistogram(Map<Integer, Long> documentFormatVersionHistogram) {
+		this.documentFormatVersionHistogram = new TreeMap<>(documentFormatVersionHistogram);
+	}
+
+	@Override
+	public int getCurrentDocumentFormatVersion() {
+		return currentDocumentFormatVersion;
+	}
+
+	@Override
+	public Map<Integer, Long> getDocumentFormatVersionHistogram() {
+		return documentFormatVersionHistogram;
+	}
+
+	@Override
+	public long getNumberOfMigratedDocuments() {
+		return migratedDocuments.sum();
+	}
+
+	@Override
+	public long getNumberOfFailedDocuments() {
+		return failedDocuments.sum();
+	}
+
+	@Override
+	public boolean isMigrationInProgress() {
+		return migrationInProgress.get();
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.Map;
+
+public interface DocumentFormatStatisticsMBean {
+
+	int getCurrentDocumentFormatVersion();
+
+	/**
+	 * The number of documents in the collection for each format version, as counted before and after the latest
+	 * migration or when {@link DocumentFormatMigrationServiceMBean#updateDocumentFormatVersionHistograms()} was invoked.
+	 */
+	Map<Integer, Long> getDocumentFormatVersionHistogram();
+
+	/**
+	 * The number of documents that has been migrated to the current format version by the latest migration.
+	 */
+	long getNumberOfMigratedDocuments();
+
+	/**
+	 * The number of documents that could not be migrated by the latest migration.
+	 */
+	long getNumberOfFailedDocuments();
+
+	/**
+	 * Whether {@link DocumentFormatMigrationService} is currently migrating the collection.
+	 */
+	boolean isMigrationInProgress();
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * Keeps a 64-bit hash of the last BSON document written for each id of a collection, so that a replace with
+ * identical content can be skipped. <p>
+ *
+ * The hashes are stored in primitive arrays using open addressing, split into segments that are locked separately.
+ * Each id can be stored in one of {@value #PROBE_LENGTH} consecutive slots, and when all of them are taken the least
+ * recently used one is evicted. Ids are stored by their hash code, a colliding id can only replace an entry and
+ * never cause a false match, since the document hash includes the id. Each slot uses 20 bytes of heap.
+ */
+final class DocumentHashCache implements DocumentHashCacheMBean {
+
+	private static final int SEGMENTS = 16;
+	private static final int PROBE_LENGTH = 8;
+	private static final long EMPTY = 0L;
+	private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+	private final int capacity;
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder bytesSaved = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	DocumentHashCache(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1, was " + capacity);
+		}
+		this.capacity = capacity;
+		int segmentCapacity = Math.max(PROBE_LENGTH, Integer.highestOneBit(Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS) * 2 - 1));
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+
+	/**
+	 * Calculates the hash of the given document by encoding it as BSON.
+	 *
+	 * @throws org.bson.codecs.configuration.CodecConfigurationException if the document contains a value that can
+	 * not be encoded by the default codecs
+	 */
+	static DocumentHash hash(Document document) {
+		BasicOutputBuffer buffer = new BasicOutputBuffer();
+		DOCUMENT_CODEC.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+		byte[] bytes = buffer.getInternalBuffer();
+		int size = buffer.getSize();
+		// FNV-1a followed by a final avalanche step
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < size; i++) {
+			hash ^= bytes[i] & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return new DocumentHash(mix(hash), size);
+	}
+
+	/**
+	 * Returns whether the given hash equals the hash of the last written document with the given id, and records
+	 * the result as a hit or a miss.
+	 */
+	boolean isUnchanged(Object id, DocumentHash documentHash) {
+		long key = key(id);
+		boolean unchanged = segmentFor(key).matches(key, documentHash.hash);
+		if (unchanged) {
+			hits.increment();
+			bytesSaved.add(documentHash.size);
+		} else {
+			misses.increment();
+		}
+		return unchanged;
+	}
+
+	void put(Object id, DocumentHash documentHash) {
+		long key = key(id);
+		if (segmentFor(key).put(key, documentHash.hash)) {
+			evictions.increment();
+		}
+	}
+
+	void remove(Object id) {
+		long key = key(id);
+		segmentFor(key).remove(key);
+	}
+
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public int getSize() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRate() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public long getBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	private Segment segmentFor(long key) {
+		return segments[(int) (key >>> 60) & (SEGMENTS - 1)];
+	}
+
+	private static long key(Object id) {
+		long key = mix(Objects.hashCode(id) * 0x9e3779b97f4a7c15L);
+		return key == EMPTY ? 1 : key;
+	}
+
+	private static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+	static final class DocumentHash {
+		private final long hash;
+		private final int size;
+
+		DocumentHash(long hash, int size) {
+			this.hash = hash;
+			this.size = size;
+		}
+
+		long getHash() {
+			return hash;
+		}
+
+		int getSize() {
+			return size;
+		}
+	}
+
+	private static final class Segment {
+		private final long[] keys;
+		private final long[] hashes;
+		private final int[] lastUsed;
+		private final int mask;
+		private int clock;
+		private int size;
+
+		Segment(int capacity) {
+			this.keys = new long[capacity];
+			this.hashes = new long[capacity];
+			this.lastUsed = new int[capacity];
+			this.mask = capacity - 1;
+		}
+
+		synchronized boolean matches(long key, long hash) {
+			int slot = find(key);
+			if (slot < 0) {
+				return false;
+			}
+			lastUsed[slot] = ++clock;
+			return hashes[slot] == hash;
+		}
+
+		/**
+		 * @return whether another entry was evicted
+		 */
+		synchronized boolean put(long key, long hash) {
+			int start = (int) key & mask;
+			int target = -1;
+			int oldestAge = -1;
+			for (int i = 0; i < PROBE_LENGTH; i++) {
+				int slot = (start + i) & mask;
+				if (keys[slot] == key) {
+					hashes[slot] = hash;
+					lastUsed[slot] = ++clock;
+					return false;
+				}
+				if (keys[slot] == EMPTY) {
+					if (oldestAge != Integer.MAX_VALUE) {
+						target = slot;
+						oldestAge = Integer.MAX_VALUE;
+					}
+				} else if (clock - lastUsed[slot] > oldestAge) {
+					target = slot;
+					oldestAge = clock - lastUsed[slot];
+				}
+			}
+			boolean evicted = keys[target] != EMPTY;
+			if (!evicted) {
+				size++;
+			}
+			keys[target] = key;
+			hashes[target] = hash;
+			lastUsed[target] = ++clock;
+			return evicted;
+		}
+
+		synchronized void remove(long key) {
+			int slot = find(key);
+			if (slot >= 0) {
+				keys[slot] = EMPTY;
+				size--;
+			}
+		}
+
+		synchronized int size() {
+			return size;
+		}
+
+		synchronized void clear() {
+			Arrays.fill(keys, EMPTY);
+			size = 0;
+		}
+
+		private int find(long key) {
+			int start = (int) key & mask;
+			for (int i = 0; i < PROBE_LENGTH; i++) {
+				int slot = (start + i) & mask;
+				if (keys[slot] == key) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+	}
+}
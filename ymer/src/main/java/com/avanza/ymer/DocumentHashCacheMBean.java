@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+public interface DocumentHashCacheMBean {
+
+	/**
+	 * The maximum number of document ids that hashes are kept for.
+	 */
+	int getCapacity();
+
+	/**
+	 * The number of document ids that hashes are currently kept for.
+	 */
+	int getSize();
+
+	/**
+	 * The number of replaces that were skipped as the document was unchanged since it was last written.
+	 */
+	long getHits();
+
+	/**
+	 * The number of replaces that were written as the document was changed or not found in the cache.
+	 */
+	long getMisses();
+
+	/**
+	 * The share of replaces that were skipped, between 0 and 1.
+	 */
+	double getHitRate();
+
+	/**
+	 * The total size in bytes of the BSON documents of all skipped replaces.
+	 */
+	long getBytesSaved();
+
+	/**
+	 * The number of hashes that were evicted to make room for other ids.
+	 */
+	long getEvictions();
+
+	/**
+	 * Removes all hashes from the cache. This should be invoked if the collection has been written outside of the
+	 * mirror, as the next replace of such a document would otherwise be skipped if it is equal to the last written one.
+	 */
+	void clear();
+}
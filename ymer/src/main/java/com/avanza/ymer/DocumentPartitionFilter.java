@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static com.avanza.ymer.MirroredObject.DOCUMENT_ROUTING_KEY;
+import static com.avanza.ymer.util.GigaSpacesInstanceIdUtil.getInstanceId;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.bson.Document;
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Decides which partition a document is routed to without converting it to a space object. <p>
+ *
+ * The routing key is read from the stored routing key hash ({@link MirroredObject#DOCUMENT_ROUTING_KEY}) when present.
+ * Otherwise it is read directly from the document field holding the routing property, which is only done for documents
+ * of the current version, of types without a {@link com.avanza.ymer.plugin.PostReadProcessor} that could change the field,
+ * and for routing keys of types that are stored unmodified in mongo. When the partition cannot be
+ * decided from the document, the document has to be converted and filtered using the {@link SpaceObjectFilter}. <p>
+ */
+final class DocumentPartitionFilter {
+
+	enum Result {
+		ACCEPT, REJECT, UNKNOWN
+	}
+
+	private static final Set<Class<?>> ROUTING_FIELD_TYPES = Set.of(String.class, Integer.class, Long.class);
+	private static final DocumentPartitionFilter NONE = new DocumentPartitionFilter(null, 0, 0, null, null);
+
+	@Nullable
+	private final MirroredObject<?> mirroredObject;
+	private final int instanceId;
+	private final int partitionCount;
+	@Nullable
+	private final String routingFieldName;
+	@Nullable
+	private final Class<?> routingFieldType;
+
+	private DocumentPartitionFilter(@Nullable MirroredObject<?> mirroredObject,
+									int instanceId,
+									int partitionCount,
+									@Nullable String routingFieldName,
+									@Nullable Class<?> routingFieldType) {
+		this.mirroredObject = mirroredObject;
+		this.instanceId = instanceId;
+		this.partitionCount = partitionCount;
+		this.routingFieldName = routingFieldName;
+		this.routingFieldType = routingFieldType;
+	}
+
+	/**
+	 * @param postReadProcessing whether documents of the type are modified by post read processors before they are
+	 *                           converted, in which case the routing field of the stored document can not be trusted
+	 */
+	static DocumentPartitionFilter create(MirroredObject<?> mirroredObject,
+										  SpaceObjectFilter<?> spaceObjectFilter,
+										  DocumentConverter documentConverter,
+										  boolean postReadProcessing) {
+		if (!spaceObjectFilter.hasPartitionFilter()) {
+			return NONE;
+		}
+		SpaceObjectFilter.PartitionFilter<?> partitionFilter = spaceObjectFilter.getPartitionFilter();
+		Optional<Method> routingKeyGetter = postReadProcessing ? Optional.empty() : mirroredObject.getRoutingKeyGetter()
+				.filter(getter -> ROUTING_FIELD_TYPES.contains(ClassUtils.resolvePrimitiveIfNecessary(getter.getReturnType())));
+		Optional<String> routingFieldName = routingKeyGetter
+				.map(BeanUtils::findPropertyForMethod)
+				.map(PropertyDescriptor::getName)
+				.flatMap(propertyName -> documentConverter.getFieldName(mirroredObject.getMirroredType(), propertyName));
+		return new DocumentPartitionFilter(
+				mirroredObject,
+				partitionFilter.getCurrentPartition(),
+				partitionFilter.getTotalPartitions(),
+				routingFieldName.orElse(null),
+				routingKeyGetter.map(getter -> ClassUtils.resolvePrimitiveIfNecessary(getter.getReturnType())).orElse(null));
+	}
+
+	Result test(Document document) {
+		if (mirroredObject == null) {
+			return Result.UNKNOWN;
+		}
+		Object routingKeyHash = document.get(DOCUMENT_ROUTING_KEY);
+		if (routingKeyHash instanceof Integer) {
+			// The hash code of an Integer is its value, so the stored hash routes like the original routing key
+			return routesToThisPartition(routingKeyHash);
+		}
+		if (routingFieldName != null && !mirroredObject.requiresPatching(document)) {
+			Object routingKey = document.get(routingFieldName);
+			if (routingKey != null && routingKey.getClass() == routingFieldType) {
+				return routesToThisPartition(routingKey);
+			}
+		}
+		return Result.UNKNOWN;
+	}
+
+	private Result routesToThisPartition(Object routingKey) {
+		return getInstanceId(routingKey, partitionCount) == instanceId ? Result.ACCEPT : Result.REJECT;
+	}
+
+}
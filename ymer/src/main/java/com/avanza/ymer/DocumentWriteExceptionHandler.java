@@ -15,8 +15,26 @@
  */
 package com.avanza.ymer;
 
+import java.util.List;
+
 interface DocumentWriteExceptionHandler {
 
 	void handleException(Exception exception, String operationDescription);
 
+	/**
+	 * Handles an exception that failed the given changes, such as a failed conversion or a bulk write that failed as
+	 * a whole. Defaults to {@link #handleException(Exception, String)}.
+	 */
+	default void handleFailedChanges(Exception exception, String operationDescription, List<FailedChange> failedChanges) {
+		handleException(exception, operationDescription);
+	}
+
+	/**
+	 * Handles changes that were rejected by the database in a bulk write where all other changes were written,
+	 * for example because of a duplicate key. Such rejections are already logged and reported to the
+	 * {@link MirrorExceptionListener} by the writer, so this does nothing by default.
+	 */
+	default void handleRejectedChanges(Exception exception, List<FailedChange> rejectedChanges) {
+	}
+
 }
\ No newline at end of file
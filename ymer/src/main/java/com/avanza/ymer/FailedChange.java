@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import javax.annotation.Nullable;
+
+import org.bson.Document;
+
+/**
+ * A change of a mirrored object that could not be written to its collection.
+ */
+final class FailedChange {
+
+	private final String collectionName;
+	private final MirrorOperation operation;
+	private final boolean partialUpdate;
+	@Nullable
+	private final Document document;
+	private final Object spaceObject;
+	private final String error;
+	private final String batchContext;
+
+	/**
+	 * @param partialUpdate whether the document only contains the fields to set, rather than the whole document
+	 * @param document      the converted document, or null if conversion failed
+	 * @param batchContext  a description of the batch the change was part of
+	 */
+	FailedChange(String collectionName,
+			MirrorOperation operation,
+			boolean partialUpdate,
+			@Nullable Document document,
+			Object spaceObject,
+			String error,
+			String batchContext) {
+		this.collectionName = collectionName;
+		this.operation = operation;
+		this.partialUpdate = partialUpdate;
+		this.document = document;
+		this.spaceObject = spaceObject;
+		this.error = error;
+		this.batchContext = batchContext;
+	}
+
+	String getCollectionName() {
+		return collectionName;
+	}
+
+	MirrorOperation getOperation() {
+		return operation;
+	}
+
+	boolean isPartialUpdate() {
+		return partialUpdate;
+	}
+
+	@Nullable
+	Document getDocument() {
+		return document;
+	}
+
+	Object getSpaceObject() {
+		return spaceObject;
+	}
+
+	String getError() {
+		return error;
+	}
+
+	String getBatchContext() {
+		return batchContext;
+	}
+
+	@Override
+	public String toString() {
+		return (partialUpdate ? "PARTIAL_UPDATE" : operation) + " in " + collectionName + ": " + spaceObject;
+	}
+}
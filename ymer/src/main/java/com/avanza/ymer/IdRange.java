@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * A range of document ids, used to read a single collection using several concurrent cursors. <p>
+ *
+ * A range includes its lower bound and excludes its upper bound, a missing bound means that the range
+ * is unbounded in that direction. Since mongo only compares values of the same type when evaluating
+ * range operators, a set of ranges created by {@link #fromSplitPoints(List)} also contains a range
+ * matching all ids that are not of the same type as the split points. Together the ranges always
+ * cover the whole collection, without overlapping.
+ */
+final class IdRange {
+
+	private static final IdRange ALL = new IdRange(null, null, null, false);
+
+	@Nullable
+	private final Object lowerBound;
+	@Nullable
+	private final Object upperBound;
+	@Nullable
+	private final IdType type;
+	private final boolean otherTypes;
+
+	private IdRange(@Nullable Object lowerBound, @Nullable Object upperBound, @Nullable IdType type, boolean otherTypes) {
+		this.lowerBound = lowerBound;
+		this.upperBound = upperBound;
+		this.type = type;
+		this.otherTypes = otherTypes;
+	}
+
+	static IdRange all() {
+		return ALL;
+	}
+
+	/**
+	 * Creates ranges between the given split points, which must be sorted in ascending order. If the split
+	 * points are not all of the same type, a single range covering all ids is returned.
+	 */
+	static List<IdRange> fromSplitPoints(List<?> splitPoints) {
+		if (splitPoints.isEmpty()) {
+			return Collections.singletonList(ALL);
+		}
+		Optional<IdType> splitPointType = IdType.of(splitPoints.get(0));
+		if (splitPointType.isEmpty() || !splitPoints.stream().allMatch(splitPointType.get()::matches)) {
+			return Collections.singletonList(ALL);
+		}
+		IdType type = splitPointType.get();
+		List<IdRange> ranges = new ArrayList<>(splitPoints.size() + 2);
+		Object lowerBound = null;
+		for (Object splitPoint : splitPoints) {
+			ranges.add(new IdRange(lowerBound, splitPoint, type, false));
+			lowerBound = splitPoint;
+		}
+		ranges.add(new IdRange(lowerBound, null, type, false));
+		ranges.add(new IdRange(null, null, type, true));
+		return ranges;
+	}
+
+	/**
+	 * Selects numSplitPoints evenly distributed, distinct split points from a sorted sample of ids.
+	 */
+	static List<Object> selectSplitPoints(List<?> sortedSample, int numSplitPoints) {
+		List<Object> splitPoints = new ArrayList<>(numSplitPoints);
+		for (int i = 1; i <= numSplitPoints; i++) {
+			Object splitPoint = sortedSample.get((int) ((long) i * sortedSample.size() / (numSplitPoints + 1)));
+			if (splitPoints.isEmpty() || !Objects.equals(splitPoints.get(splitPoints.size() - 1), splitPoint)) {
+				splitPoints.add(splitPoint);
+			}
+		}
+		return splitPoints;
+	}
+
+	boolean isAll() {
+		return this == ALL;
+	}
+
+	/**
+	 * Whether documents in this range can be read in id order and resumed using {@link #startingFrom(Object)}.
+	 * This is only the case for ranges between split points, where all ids are of the same type.
+	 */
+	boolean isResumable() {
+		return type != null && !otherTypes;
+	}
+
+	/**
+	 * Returns the part of this range starting from the given id, which must be contained in this range.
+	 */
+	IdRange startingFrom(Object id) {
+		if (!isResumable() || !contains(id)) {
+			throw new IllegalArgumentException("Can not resume " + this + " from id " + id);
+		}
+		return new IdRange(id, upperBound, type, false);
+	}
+
+	/**
+	 * Returns a filter matching all documents with an id in this range.
+	 */
+	Document toFilter() {
+		if (isAll()) {
+			return new Document();
+		}
+		if (otherTypes) {
+			return new Document("_id", new Document("$not", new Document("$type", type.typeAlias)));
+		}
+		Document condition = new Document();
+		if (lowerBound != null) {
+			condition.put("$gte", lowerBound);
+		}
+		if (upperBound != null) {
+			condition.put("$lt", upperBound);
+		}
+		return new Document("_id", condition);
+	}
+
+	/**
+	 * Restricts the given filter to only match documents with an id in this range.
+	 */
+	Document restrict(Document filter) {
+		if (isAll()) {
+			return filter;
+		}
+		if (filter.isEmpty()) {
+			return toFilter();
+		}
+		return new Document("$and", List.of(filter, toFilter()));
+	}
+
+	/**
+	 * Restricts the given query to only match documents with an id in this range. Projection and cursor batch
+	 * size of the query are kept.
+	 */
+	Query restrict(Query query) {
+		if (isAll()) {
+			return query;
+		}
+		BasicQuery restricted = new BasicQuery(restrict(query.getQueryObject()), query.getFieldsObject());
+		Integer batchSize = query.getMeta().getCursorBatchSize();
+		if (batchSize != null) {
+			restricted.cursorBatchSize(batchSize);
+		}
+		return restricted;
+	}
+
+	/**
+	 * Checks whether the given id is in this range, using the same comparison semantics as mongo.
+	 */
+	boolean contains(Object id) {
+		if (isAll()) {
+			return true;
+		}
+		if (otherTypes) {
+			return !type.matches(id);
+		}
+		return type.matches(id)
+				&& (lowerBound == null || type.compare(id, lowerBound) >= 0)
+				&& (upperBound == null || type.compare(id, upperBound) < 0);
+	}
+
+	@Override
+	public String toString() {
+		if (isAll()) {
+			return "IdRange[all]";
+		}
+		if (otherTypes) {
+			return "IdRange[not " + type.typeAlias + "]";
+		}
+		return "IdRange[" + Optional.ofNullable(lowerBound).orElse("-inf") + ", " + Optional.ofNullable(upperBound).orElse("+inf") + ")";
+	}
+
+	private enum IdType {
+		// Declared in mongo's type sort order
+		NUMBER("number", Number.class) {
+			@Override
+			int compare(Object id1, Object id2) {
+				if (isIntegral(id1) && isIntegral(id2)) {
+					return Long.compare(((Number) id1).longValue(), ((Number) id2).longValue());
+				}
+				return Double.compare(((Number) id1).doubleValue(), ((Number) id2).doubleValue());
+			}
+		},
+		STRING("string", String.class),
+		OBJECT_ID("objectId", ObjectId.class),
+		DATE("date", Date.class);
+
+		private final String typeAlias;
+		private final Class<?> javaType;
+
+		IdType(String typeAlias, Class<?> javaType) {
+			this.typeAlias = typeAlias;
+			this.javaType = javaType;
+		}
+
+		boolean matches(Object id) {
+			return javaType.isInstance(id);
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		int compare(Object id1, Object id2) {
+			return ((Comparable) id1).compareTo(id2);
+		}
+
+		static Optional<IdType> of(@Nullable Object id) {
+			for (IdType type : values()) {
+				if (type.matches(id)) {
+					return Optional.of(type);
+				}
+			}
+			return Optional.empty();
+		}
+
+		private static boolean isIntegral(Object number) {
+			return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+		}
+	}
+
+}
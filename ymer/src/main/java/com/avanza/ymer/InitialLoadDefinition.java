@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+/**
+ * Configuration of how documents are read, patched and converted during InitialLoad.
+ *
+ * Documents are read from the database by a single reader thread and handed over to a pool of workers that
+ * patch and convert them. The number of documents that are read but not yet consumed by GigaSpaces never exceeds
+ * the configured queue capacity, hence the memory used while loading a collection does not depend on the size of
+ * the collection.
+ */
+public final class InitialLoadDefinition {
+
+	private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+	private static final int DEFAULT_WRITE_BACK_BATCH_SIZE = 500;
+	private static final int DEFAULT_WRITE_BACK_MAX_PENDING_BATCHES = 4;
+
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private boolean ordered = false;
+	private int writeBackBatchSize = DEFAULT_WRITE_BACK_BATCH_SIZE;
+	private int writeBackMaxPendingBatches = DEFAULT_WRITE_BACK_MAX_PENDING_BATCHES;
+	private boolean measureFetchedBytes = false;
+
+	/**
+	 * Number of worker threads that patch and convert documents. Defaults to the number of available processors.
+	 */
+	public InitialLoadDefinition workers(int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("workers must be at least 1, was " + workers);
+		}
+		this.workers = workers;
+		return this;
+	}
+
+	/**
+	 * Maximum number of documents that are read from the database but not yet consumed by GigaSpaces, including
+	 * documents that are currently being patched and converted. Reading from the database is paused while this
+	 * number of documents is in flight. Defaults to 10000.
+	 */
+	public InitialLoadDefinition queueCapacity(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("queueCapacity must be at least 1, was " + queueCapacity);
+		}
+		this.queueCapacity = queueCapacity;
+		return this;
+	}
+
+	/**
+	 * Whether loaded objects should be handed to GigaSpaces in the same order as they were read from the database.
+	 * Keeping the order means that a slow document holds back all documents read after it. Defaults to {@code false}.
+	 */
+	public InitialLoadDefinition ordered(boolean ordered) {
+		this.ordered = ordered;
+		return this;
+	}
+
+	/**
+	 * Number of patched documents written back to the database in each bulk write, see
+	 * {@link MirroredObjectDefinition#writeBackPatchedDocuments(boolean)}. Defaults to 500.
+	 */
+	public InitialLoadDefinition writeBackBatchSize(int writeBackBatchSize) {
+		if (writeBackBatchSize < 1) {
+			throw new IllegalArgumentException("writeBackBatchSize must be at least 1, was " + writeBackBatchSize);
+		}
+		this.writeBackBatchSize = writeBackBatchSize;
+		return this;
+	}
+
+	/**
+	 * Maximum number of batches of patched documents waiting to be written back to the database. When this number
+	 * of batches is pending, loading is slowed down until a batch has been written. Defaults to 4.
+	 */
+	public InitialLoadDefinition writeBackMaxPendingBatches(int writeBackMaxPendingBatches) {
+		if (writeBackMaxPendingBatches < 1) {
+			throw new IllegalArgumentException("writeBackMaxPendingBatches must be at least 1, was " + writeBackMaxPendingBatches);
+		}
+		this.writeBackMaxPendingBatches = writeBackMaxPendingBatches;
+		return this;
+	}
+
+	/**
+	 * Whether the BSON size of the loaded documents should be included in the initial load statistics. This encodes
+	 * each document again, which adds to the time it takes to patch and convert it. Documents that are routed to
+	 * other partitions are never measured. Defaults to {@code false}.
+	 */
+	public InitialLoadDefinition measureFetchedBytes(boolean measureFetchedBytes) {
+		this.measureFetchedBytes = measureFetchedBytes;
+		return this;
+	}
+
+	int getWorkers() {
+		return workers;
+	}
+
+	int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	boolean isOrdered() {
+		return ordered;
+	}
+
+	int getWriteBackBatchSize() {
+		return writeBackBatchSize;
+	}
+
+	int getWriteBackMaxPendingBatches() {
+		return writeBackMaxPendingBatches;
+	}
+
+	boolean isMeasureFetchedBytes() {
+		return measureFetchedBytes;
+	}
+}
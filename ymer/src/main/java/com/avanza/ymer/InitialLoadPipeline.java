@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterators.spliteratorUnknownSize;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Reads elements from a source stream on a dedicated reader thread and transforms them using a pool of workers. <p>
+ *
+ * Backpressure: the reader must acquire one of {@code queueCapacity} permits before reading an element from the
+ * source, and the permit is not released until the transformed element has been taken by the consumer of the
+ * resulting stream. Hence at most {@code queueCapacity} elements are ever in flight between the source and the
+ * consumer, regardless of the size of the source or the speed of the consumer. <p>
+ *
+ * In ordered mode the transformed elements are returned in the same order as they were read from the source,
+ * otherwise they are returned as soon as they are transformed. <p>
+ *
+ * Exceptions thrown by the source or the transformer are rethrown to the consumer. Closing the resulting stream
+ * stops the reader and the workers.
+ */
+final class InitialLoadPipeline<I, O> implements Iterator<O> {
+
+	private static final Future<?> END_OF_SOURCE = CompletableFuture.completedFuture(null);
+
+	private final Stream<I> source;
+	private final Function<? super I, Optional<O>> transformer;
+	private final boolean ordered;
+	private final InitialLoadStatistics statistics;
+	private final Semaphore inFlight;
+	private final BlockingQueue<Future<?>> output = new LinkedBlockingQueue<>();
+	private final ExecutorService workers;
+	private final Thread reader;
+	private volatile long numSubmitted = 0;
+	private volatile boolean closed = false;
+	private long numConsumed = 0;
+	private boolean sourceExhausted = false;
+	private O next;
+
+	private InitialLoadPipeline(Stream<I> source,
+								Function<? super I, Optional<O>> transformer,
+								int numWorkers,
+								int queueCapacity,
+								boolean ordered,
+								String threadNamePrefix,
+								InitialLoadStatistics statistics) {
+		this.source = source;
+		this.transformer = transformer;
+		this.ordered = ordered;
+		this.statistics = statistics;
+		this.inFlight = new Semaphore(queueCapacity);
+		this.workers = Executors.newFixedThreadPool(numWorkers, daemonThreadFactory(threadNamePrefix + "Worker-"));
+		this.reader = daemonThreadFactory(threadNamePrefix + "Reader-").newThread(this::read);
+	}
+
+	static <I, O> Stream<O> process(Stream<I> source,
+									Function<? super I, Optional<O>> transformer,
+									int numWorkers,
+									int queueCapacity,
+									boolean ordered,
+									String threadNamePrefix) {
+		return process(source, transformer, numWorkers, queueCapacity, ordered, threadNamePrefix, new InitialLoadStatistics());
+	}
+
+	/**
+	 * Processes the source as above, and records the time that the reader waits for the source and for the
+	 * consumer in the given statistics.
+	 */
+	static <I, O> Stream<O> process(Stream<I> source,
+									Function<? super I, Optional<O>> transformer,
+									int numWorkers,
+									int queueCapacity,
+									boolean ordered,
+									String threadNamePrefix,
+									InitialLoadStatistics statistics) {
+		InitialLoadPipeline<I, O> pipeline = new InitialLoadPipeline<>(source, transformer, numWorkers, queueCapacity, ordered, threadNamePrefix, statistics);
+		pipeline.reader.start();
+		return StreamSupport.stream(spliteratorUnknownSize(pipeline, NONNULL), false)
+				.onClose(pipeline::close);
+	}
+
+	private void read() {
+		try (Stream<I> elements = source) {
+			Iterator<I> iterator = elements.iterator();
+			while (!closed) {
+				long waitStart = System.nanoTime();
+				inFlight.acquire();
+				long fetchStart = System.nanoTime();
+				statistics.waitedForConsumer(fetchStart - waitStart);
+				if (!iterator.hasNext()) {
+					break;
+				}
+				I element = iterator.next();
+				statistics.documentFetched(System.nanoTime() - fetchStart);
+				submit(element);
+				numSubmitted++;
+			}
+			output.add(END_OF_SOURCE);
+		} catch (InterruptedException e) {
+			// Pipeline was closed
+			Thread.currentThread().interrupt();
+		} catch (Throwable e) {
+			output.add(CompletableFuture.failedFuture(e));
+		}
+	}
+
+	private void submit(I element) {
+		if (ordered) {
+			output.add(workers.submit(() -> transformer.apply(element)));
+		} else {
+			workers.execute(new FutureTask<>(() -> transformer.apply(element)) {
+				@Override
+				protected void done() {
+					output.add(this);
+				}
+			});
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (next == null) {
+			if (sourceExhausted && numConsumed == numSubmitted) {
+				workers.shutdown();
+				return false;
+			}
+			Future<?> result = take();
+			if (result == END_OF_SOURCE) {
+				// In unordered mode, transformed elements may still be in progress
+				sourceExhausted = true;
+				continue;
+			}
+			numConsumed++;
+			inFlight.release();
+			getResult(result).ifPresent(element -> next = element);
+		}
+		return true;
+	}
+
+	@Override
+	public O next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		O result = next;
+		next = null;
+		return result;
+	}
+
+	private Future<?> take() {
+		try {
+			return output.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new IllegalStateException("Interrupted while waiting for next element", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Optional<O> getResult(Future<?> result) {
+		try {
+			return (Optional<O>) result.get();
+		} catch (ExecutionException e) {
+			close();
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new IllegalStateException("Interrupted while waiting for next element", e);
+		}
+	}
+
+	private void close() {
+		closed = true;
+		reader.interrupt();
+		workers.shutdownNow();
+	}
+
+	private static CustomizableThreadFactory daemonThreadFactory(String threadNamePrefix) {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+		threadFactory.setDaemon(true);
+		return threadFactory;
+	}
+}
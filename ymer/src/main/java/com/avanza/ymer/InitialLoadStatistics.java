@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cumulative time and counts of each stage of the initial load of a collection: fetching documents from the
+ * database, patching, converting and filtering them on the loading workers, and handing the space objects to the
+ * space. The worker stages are summed over all workers, so they may add up to more than the elapsed time.
+ */
+class InitialLoadStatistics implements InitialLoadStatisticsMBean {
+
+	private final LongAdder numFetchedDocuments = new LongAdder();
+	private final LongAdder numFetchedBytes = new LongAdder();
+	private final LongAdder fetchNanos = new LongAdder();
+	private final LongAdder numRoutedToOtherPartitions = new LongAdder();
+	private final LongAdder numPatchedDocuments = new LongAdder();
+	private final LongAdder patchNanos = new LongAdder();
+	private final LongAdder convertNanos = new LongAdder();
+	private final LongAdder numRejectedByFilter = new LongAdder();
+	private final LongAdder filterNanos = new LongAdder();
+	private final LongAdder consumerWaitNanos = new LongAdder();
+	private final LongAdder numLoadedObjects = new LongAdder();
+	private final long startNanos = System.nanoTime();
+	private volatile long completedNanos = -1;
+
+	void documentFetched(long nanos) {
+		fetchNanos.add(nanos);
+	}
+
+	void documentReceived() {
+		numFetchedDocuments.increment();
+	}
+
+	void bytesFetched(int bsonSize) {
+		numFetchedBytes.add(bsonSize);
+	}
+
+	void routedToOtherPartition() {
+		numRoutedToOtherPartitions.increment();
+	}
+
+	void documentPatched(long nanos) {
+		numPatchedDocuments.increment();
+		patchNanos.add(nanos);
+	}
+
+	void documentConverted(long nanos) {
+		convertNanos.add(nanos);
+	}
+
+	void rejectedByFilter() {
+		numRejectedByFilter.increment();
+	}
+
+	void filtered(long nanos) {
+		filterNanos.add(nanos);
+	}
+
+	void waitedForConsumer(long nanos) {
+		consumerWaitNanos.add(nanos);
+	}
+
+	void objectLoaded() {
+		numLoadedObjects.increment();
+	}
+
+	void completed() {
+		completedNanos = System.nanoTime();
+	}
+
+	@Override
+	public long getNumFetchedDocuments() {
+		return numFetchedDocuments.sum();
+	}
+
+	@Override
+	public long getNumFetchedBytes() {
+		return numFetchedBytes.sum();
+	}
+
+	@Override
+	public long getFetchMillis() {
+		return NANOSECONDS.toMillis(fetchNanos.sum());
+	}
+
+	@Override
+	public long getNumRoutedToOtherPartitions() {
+		return numRoutedToOtherPartitions.sum();
+	}
+
+	@Override
+	public long getNumPatchedDocuments() {
+		return numPatchedDocuments.sum();
+	}
+
+	@Override
+	public long getPatchMillis() {
+		return NANOSECONDS.toMillis(patchNanos.sum());
+	}
+
+	@Override
+	public long getConvertMillis() {
+		return NANOSECONDS.toMillis(convertNanos.sum());
+	}
+
+	@Override
+	public long getNumRejectedByFilter() {
+		return numRejectedByFilter.sum();
+	}
+
+	@Override
+	public long getFilterMillis() {
+		return NANOSECONDS.toMillis(filterNanos.sum());
+	}
+
+	@Override
+	public long getConsumerWaitMillis() {
+		return NANOSECONDS.toMillis(consumerWaitNanos.sum());
+	}
+
+	@Override
+	public long getNumLoadedObjects() {
+		return numLoadedObjects.sum();
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		long endNanos = completedNanos;
+		return NANOSECONDS.toMillis((endNanos == -1 ? System.nanoTime() : endNanos) - startNanos);
+	}
+
+	@Override
+	public boolean isCompleted() {
+		return completedNanos != -1;
+	}
+
+	/**
+	 * A single line of key=value pairs, suitable for parsing by log aggregation.
+	 */
+	String report() {
+		return "fetchedDocuments=" + getNumFetchedDocuments()
+				+ " fetchedBytes=" + getNumFetchedBytes()
+				+ " fetchMillis=" + getFetchMillis()
+				+ " routedToOtherPartitions=" + getNumRoutedToOtherPartitions()
+				+ " patchedDocuments=" + getNumPatchedDocuments()
+				+ " patchMillis=" + getPatchMillis()
+				+ " convertMillis=" + getConvertMillis()
+				+ " rejectedByFilter=" + getNumRejectedByFilter()
+				+ " filterMillis=" + getFilterMillis()
+				+ " consumerWaitMillis=" + getConsumerWaitMillis()
+				+ " loadedObjects=" + getNumLoadedObjects()
+				+ " elapsedMillis=" + getElapsedMillis();
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+public interface InitialLoadStatisticsMBean {
+
+	/**
+	 * Gets the number of documents fetched from the collection
+	 */
+	long getNumFetchedDocuments();
+
+	/**
+	 * Gets the total BSON size of the documents fetched from the collection, excluding documents routed to other
+	 * partitions. Only measured when {@link InitialLoadDefinition#measureFetchedBytes(boolean)} is enabled
+	 */
+	long getNumFetchedBytes();
+
+	/**
+	 * Gets the time in milliseconds spent waiting for documents from the database
+	 */
+	long getFetchMillis();
+
+	/**
+	 * Gets the number of documents that were routed to other partitions and therefore neither patched nor converted
+	 */
+	long getNumRoutedToOtherPartitions();
+
+	/**
+	 * Gets the number of documents that were patched to the current document version
+	 */
+	long getNumPatchedDocuments();
+
+	/**
+	 * Gets the total time in milliseconds that the loading workers spent patching documents
+	 */
+	long getPatchMillis();
+
+	/**
+	 * Gets the total time in milliseconds that the loading workers spent converting documents to space objects
+	 */
+	long getConvertMillis();
+
+	/**
+	 * Gets the number of converted space objects that were rejected by the space object filter
+	 */
+	long getNumRejectedByFilter();
+
+	/**
+	 * Gets the total time in milliseconds that the loading workers spent filtering documents and space objects
+	 */
+	long getFilterMillis();
+
+	/**
+	 * Gets the time in milliseconds that fetching was blocked, waiting for the space to consume loaded objects
+	 */
+	long getConsumerWaitMillis();
+
+	/**
+	 * Gets the number of space objects handed to the space
+	 */
+	long getNumLoadedObjects();
+
+	/**
+	 * Gets the time in milliseconds from the start of the load of the collection until it was completed, or until now
+	 * if the load is still in progress
+	 */
+	long getElapsedMillis();
+
+	/**
+	 * Whether the load of the collection is completed
+	 */
+	boolean isCompleted();
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DocumentCodec;
+
+import com.gigaspaces.document.SpaceDocument;
+import com.gigaspaces.metadata.SpaceTypeDescriptor;
+import com.gigaspaces.sync.DataSyncOperation;
+import com.gigaspaces.sync.DataSyncOperationType;
+import com.gigaspaces.sync.OperationsBatchData;
+import com.gigaspaces.sync.SynchronizationSourceDetails;
+
+/**
+ * Encodes the mirrored operations of a batch as a journal record, and decodes them back into a batch. <p>
+ *
+ * Each operation is stored as its type, the class of its space object and the space object converted to a BSON
+ * document, and is converted back to a space object when decoded. An operation that can not be converted back, such
+ * as one of a type that is no longer mirrored, is left out of the batch and kept as an {@link UndecodableOperation},
+ * as decoding it again would fail the same way.
+ */
+final class JournaledBatch implements OperationsBatchData {
+
+	private static final int FORMAT_VERSION = 1;
+	private static final Codec<Document> CODEC = new DocumentCodec().withUuidRepresentation(UuidRepresentation.STANDARD);
+
+	private final DataSyncOperation[] operations;
+	private final List<UndecodableOperation> undecodableOperations;
+	private final String sourceName;
+
+	private JournaledBatch(DataSyncOperation[] operations, List<UndecodableOperation> undecodableOperations, String sourceName) {
+		this.operations = operations;
+		this.undecodableOperations = undecodableOperations;
+		this.sourceName = sourceName;
+	}
+
+	static byte[] encode(OperationsBatchData batchData, Collection<DataSyncOperation> operations, DocumentConverter documentConverter) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(batchData.getSourceDetails() != null ? batchData.getSourceDetails().getName() : "");
+			out.writeInt(operations.size());
+			for (DataSyncOperation operation : operations) {
+				switch (operation.getDataSyncOperationType()) {
+					case WRITE:
+					case UPDATE:
+					case PARTIAL_UPDATE:
+					case REMOVE:
+						break;
+					default:
+						throw new UnsupportedOperationException("Bulkoperation " + operation.getDataSyncOperationType() + " is not supported");
+				}
+				Object spaceObject = operation.getDataAsObject();
+				Document document = documentConverter.convertToBsonDocument(spaceObject);
+				RawBsonDocument rawDocument = new RawBsonDocument(document, CODEC);
+				out.writeUTF(operation.getDataSyncOperationType().name());
+				out.writeUTF(spaceObject.getClass().getName());
+				out.writeInt(rawDocument.getByteBuffer().remaining());
+				out.write(rawDocument.getByteBuffer().array(), 0, rawDocument.getByteBuffer().remaining());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a journal record.
+	 *
+	 * @param mayHaveBeenWritten whether the batch may already have been written to the database, in which case inserts
+	 *                           are decoded as updates, so writing it again does not fail on duplicate keys
+	 */
+	static JournaledBatch decode(byte[] payload, Map<String, MirroredObject<?>> mirroredObjects, DocumentConverter documentConverter, boolean mayHaveBeenWritten) {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				throw new IllegalStateException("Unknown journaled batch format version " + version);
+			}
+			String sourceName = in.readUTF();
+			int numOperations = in.readInt();
+			List<DataSyncOperation> operations = new ArrayList<>(numOperations);
+			List<UndecodableOperation> undecodableOperations = new ArrayList<>();
+			for (int i = 0; i < numOperations; i++) {
+				DataSyncOperationType operationType = DataSyncOperationType.valueOf(in.readUTF());
+				String className = in.readUTF();
+				byte[] documentBytes = new byte[in.readInt()];
+				in.readFully(documentBytes);
+				MirroredObject<?> mirroredObject = mirroredObjects.get(className);
+				Document document = new RawBsonDocument(documentBytes).decode(CODEC);
+				if (mayHaveBeenWritten && operationType == DataSyncOperationType.WRITE) {
+					operationType = DataSyncOperationType.UPDATE;
+				}
+				try {
+					if (mirroredObject == null) {
+						throw new IllegalStateException("Journaled batch contains " + className + ", which is not a mirrored type");
+					}
+					Object spaceObject = documentConverter.convert(mirroredObject.getMirroredType(), document);
+					operations.add(new JournaledOperation(spaceObject, mirroredObject.getSpaceId(spaceObject), operationType));
+				} catch (RuntimeException e) {
+					String collectionName = mirroredObject != null ? mirroredObject.getCollectionName() : className;
+					undecodableOperations.add(new UndecodableOperation(e, new FailedChange(collectionName, toMirrorOperation(operationType),
+							operationType == DataSyncOperationType.PARTIAL_UPDATE, null, document, e.toString(),
+							"source: " + sourceName + ", journaled operations: " + numOperations)));
+				}
+			}
+			return new JournaledBatch(operations.toArray(new DataSyncOperation[0]), undecodableOperations, sourceName);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static MirrorOperation toMirrorOperation(DataSyncOperationType operationType) {
+		switch (operationType) {
+			case WRITE:
+				return MirrorOperation.INSERT;
+			case REMOVE:
+				return MirrorOperation.REMOVE;
+			default:
+				return MirrorOperation.UPDATE;
+		}
+	}
+
+	/**
+	 * Concatenates the operations of the given batches, in order, into a single batch.
+	 */
+	static JournaledBatch concat(List<JournaledBatch> batches) {
+		DataSyncOperation[] operations = batches.stream()
+				.flatMap(batch -> Arrays.stream(batch.operations))
+				.toArray(DataSyncOperation[]::new);
+		List<UndecodableOperation> undecodableOperations = new ArrayList<>();
+		batches.forEach(batch -> undecodableOperations.addAll(batch.undecodableOperations));
+		return new JournaledBatch(operations, undecodableOperations, batches.isEmpty() ? "" : batches.get(batches.size() - 1).sourceName);
+	}
+
+	static Function<byte[], JournaledBatch> decoder(SpaceMirrorContext mirror, boolean mayHaveBeenWritten) {
+		Map<String, MirroredObject<?>> mirroredObjects = new HashMap<>();
+		mirror.getMirroredDocuments().forEach(mirroredObject -> mirroredObjects.put(mirroredObject.getMirroredType().getName(), mirroredObject));
+		return payload -> decode(payload, mirroredObjects, mirror.getDocumentConverter(), mayHaveBeenWritten);
+	}
+
+	@Override
+	public DataSyncOperation[] getBatchDataItems() {
+		return operations;
+	}
+
+	/**
+	 * Returns the operations that could not be decoded, and are not part of {@link #getBatchDataItems()}.
+	 */
+	List<UndecodableOperation> getUndecodableOperations() {
+		return undecodableOperations;
+	}
+
+	@Override
+	public SynchronizationSourceDetails getSourceDetails() {
+		return () -> sourceName;
+	}
+
+	/**
+	 * A journaled operation that could not be converted back to a space object. The journaled document takes the place
+	 * of the space object in its {@link FailedChange}, which has no converted document, so it can not be replayed.
+	 */
+	static final class UndecodableOperation {
+
+		private final Exception exception;
+		private final FailedChange failedChange;
+
+		UndecodableOperation(Exception exception, FailedChange failedChange) {
+			this.exception = exception;
+			this.failedChange = failedChange;
+		}
+
+		Exception getException() {
+			return exception;
+		}
+
+		FailedChange getFailedChange() {
+			return failedChange;
+		}
+	}
+
+	/**
+	 * An operation decoded from the journal. Only the space object is journaled, so it supports
+	 * {@link #getDataAsObject()} and {@link #getSpaceId()}, which is read from the space object. The writers that
+	 * journaled batches are handed to only read the space object of an operation, and never its
+	 * {@link SpaceDocument} form, type descriptor or uid. Supporting those would require journaling the type
+	 * descriptor and uid that GigaSpaces assigned to each entry, which the space object alone does not give.
+	 */
+	private static final class JournaledOperation implements DataSyncOperation {
+
+		private final Object spaceObject;
+		private final Object spaceId;
+		private final DataSyncOperationType operationType;
+
+		JournaledOperation(Object spaceObject, Object spaceId, DataSyncOperationType operationType) {
+			this.spaceObject = spaceObject;
+			this.spaceId = spaceId;
+			this.operationType = operationType;
+		}
+
+		@Override
+		public Object getDataAsObject() {
+			return spaceObject;
+		}
+
+		@Override
+		public SpaceDocument getDataAsDocument() {
+			throw new UnsupportedOperationException("Journaled operations only contain the space object");
+		}
+
+		@Override
+		public DataSyncOperationType getDataSyncOperationType() {
+			return operationType;
+		}
+
+		@Override
+		public Object getSpaceId() {
+			return spaceId;
+		}
+
+		@Override
+		public SpaceTypeDescriptor getTypeDescriptor() {
+			throw new UnsupportedOperationException("The type descriptor of a journaled operation is not journaled");
+		}
+
+		@Override
+		public String getUid() {
+			throw new UnsupportedOperationException("The uid of a journaled operation is not journaled");
+		}
+
+		@Override
+		public boolean supportsDataAsDocument() {
+			return false;
+		}
+
+		@Override
+		public boolean supportsDataAsObject() {
+			return true;
+		}
+
+		@Override
+		public boolean supportsGetSpaceId() {
+			return true;
+		}
+
+		@Override
+		public boolean supportsGetTypeDescriptor() {
+			return false;
+		}
+	}
+}
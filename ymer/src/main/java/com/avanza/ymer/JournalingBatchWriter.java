@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.avanza.ymer.WriteAheadJournal.Record;
+import com.gigaspaces.sync.DataSyncOperation;
+import com.gigaspaces.sync.OperationsBatchData;
+
+/**
+ * Acknowledges batches once they are durable in a local {@link WriteAheadJournal}, and writes them to the database
+ * in the background. <p>
+ *
+ * Batches are written to the database in the order they were journaled, and are retried until they succeed. A batch
+ * that was not checkpointed before a restart may already have been written, so such batches, and batches that are
+ * retried, write inserted documents as updates. <p>
+ *
+ * Operations and batches that can not be decoded, for example because their type is no longer mirrored, would fail
+ * the same way on every retry. They are handed to the {@link DocumentWriteExceptionHandler} instead, once the rest
+ * of the batches are written, and are checkpointed with them.
+ */
+final class JournalingBatchWriter implements JournalingBatchWriterMBean, AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(JournalingBatchWriter.class);
+	private static final int MAX_BATCHES_PER_DRAIN = 64;
+	private static final long IDLE_WAIT_MILLIS = 1_000;
+	private static final long INITIAL_RETRY_DELAY_MILLIS = 100;
+	private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+	private final Path directory;
+	private final WriteAheadJournal journal;
+	private final SpaceMirrorContext mirror;
+	private final MirroredObjectFilterer mirroredObjectFilterer;
+	private final DocumentWriteExceptionHandler exceptionHandler;
+	private final Consumer<OperationsBatchData> batchWriter;
+	private final Function<byte[], JournaledBatch> decoder;
+	private final Function<byte[], JournaledBatch> replayDecoder;
+	private final long recoveredSequence;
+	private final Thread drainer;
+	private final Object drainSignal = new Object();
+	private final AtomicLong numDrainFailures = new AtomicLong();
+	private volatile String lastDrainError;
+	private volatile boolean closed;
+
+	/**
+	 * @param batchWriter writes a batch to the database, and throws an exception if it should be retried
+	 */
+	JournalingBatchWriter(Path directory,
+			SpaceMirrorContext mirror,
+			DocumentWriteExceptionHandler exceptionHandler,
+			Consumer<OperationsBatchData> batchWriter) {
+		this(directory, WriteAheadJournal.DEFAULT_SEGMENT_SIZE, mirror, exceptionHandler, batchWriter);
+	}
+
+	JournalingBatchWriter(Path directory,
+			int segmentSize,
+			SpaceMirrorContext mirror,
+			DocumentWriteExceptionHandler exceptionHandler,
+			Consumer<OperationsBatchData> batchWriter) {
+		this.directory = directory;
+		this.journal = WriteAheadJournal.open(directory, segmentSize);
+		this.mirror = mirror;
+		this.mirroredObjectFilterer = new MirroredObjectFilterer(mirror);
+		this.exceptionHandler = exceptionHandler;
+		this.batchWriter = batchWriter;
+		this.decoder = JournaledBatch.decoder(mirror, false);
+		this.replayDecoder = JournaledBatch.decoder(mirror, true);
+		this.recoveredSequence = journal.getAppendedSequence();
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("Ymer-Write-Ahead-Journal-Drainer-");
+		threadFactory.setDaemon(true);
+		this.drainer = threadFactory.newThread(this::drain);
+	}
+
+	/**
+	 * Starts writing journaled batches, including the ones recovered from the journal, to the database.
+	 */
+	void start() {
+		drainer.start();
+	}
+
+	/**
+	 * Appends the mirrored operations of the given batch to the journal, and returns once they are durable.
+	 */
+	void write(OperationsBatchData batchData) {
+		Collection<DataSyncOperation> operations = mirroredObjectFilterer.filterSpaceObjects(batchData.getBatchDataItems());
+		if (operations.isEmpty()) {
+			return;
+		}
+		long sequence = journal.append(JournaledBatch.encode(batchData, operations, mirror.getDocumentConverter()));
+		journal.awaitDurable(sequence);
+		synchronized (drainSignal) {
+			drainSignal.notifyAll();
+		}
+	}
+
+	private void drain() {
+		List<Record> records = Collections.emptyList();
+		int numFailures = 0;
+		while (!closed) {
+			try {
+				if (records.isEmpty()) {
+					records = awaitRecords();
+					continue;
+				}
+				List<JournaledBatch> batches = new ArrayList<>(records.size());
+				Map<Long, RuntimeException> undecodableRecords = new LinkedHashMap<>();
+				for (Record record : records) {
+					boolean mayHaveBeenWritten = numFailures > 0 || record.getSequence() <= recoveredSequence;
+					try {
+						batches.add((mayHaveBeenWritten ? replayDecoder : decoder).apply(record.getPayload()));
+					} catch (RuntimeException e) {
+						undecodableRecords.put(record.getSequence(), e);
+					}
+				}
+				JournaledBatch batch = JournaledBatch.concat(batches);
+				batchWriter.accept(batch);
+				// handled before the checkpoint, so that a failure to handle them is retried rather than lost
+				handleUndecodable(batch, undecodableRecords);
+				journal.checkpoint(records.get(records.size() - 1).getSequence());
+				records = Collections.emptyList();
+				numFailures = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				if (closed) {
+					return;
+				}
+				numFailures++;
+				numDrainFailures.incrementAndGet();
+				lastDrainError = e.toString();
+				long retryDelay = Math.min(MAX_RETRY_DELAY_MILLIS, INITIAL_RETRY_DELAY_MILLIS << Math.min(numFailures - 1, 20));
+				log.warn("Failed to write {} journaled batches to the database, will retry in {} ms", records.size(), retryDelay, e);
+				try {
+					TimeUnit.MILLISECONDS.sleep(retryDelay);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void handleUndecodable(JournaledBatch batch, Map<Long, RuntimeException> undecodableRecords) {
+		undecodableRecords.forEach((sequence, e) -> {
+			log.error("Could not decode journaled batch {}, it is skipped", sequence, e);
+			exceptionHandler.handleException(e, "Decoding journaled batch " + sequence + " failed");
+		});
+		for (JournaledBatch.UndecodableOperation operation : batch.getUndecodableOperations()) {
+			FailedChange failedChange = operation.getFailedChange();
+			log.error("Could not decode journaled operation {}, it is skipped", failedChange, operation.getException());
+			exceptionHandler.handleFailedChanges(operation.getException(),
+					"Decoding journaled operation failed, operation: " + failedChange.getOperation() + ", change: " + failedChange.getSpaceObject(),
+					Collections.singletonList(failedChange));
+		}
+	}
+
+	private List<Record> awaitRecords() throws InterruptedException {
+		synchronized (drainSignal) {
+			List<Record> records = journal.readNext(MAX_BATCHES_PER_DRAIN);
+			if (records.isEmpty()) {
+				drainSignal.wait(IDLE_WAIT_MILLIS);
+			}
+			return records;
+		}
+	}
+
+	@Override
+	public String getJournalDirectory() {
+		return directory.toString();
+	}
+
+	@Override
+	public long getBacklogBatches() {
+		return journal.getDurableSequence() - journal.getCheckpointSequence();
+	}
+
+	@Override
+	public int getNumJournalSegments() {
+		return journal.getNumSegments();
+	}
+
+	@Override
+	public long getAppendedSequence() {
+		return journal.getAppendedSequence();
+	}
+
+	@Override
+	public long getDrainedSequence() {
+		return journal.getCheckpointSequence();
+	}
+
+	@Override
+	public long getNumSyncs() {
+		return journal.getNumSyncs();
+	}
+
+	@Override
+	public double getAverageBatchesPerSync() {
+		long numSyncs = journal.getNumSyncs();
+		return numSyncs == 0 ? 0 : (double) journal.getNumSyncedRecords() / numSyncs;
+	}
+
+	@Override
+	public long getNumDrainFailures() {
+		return numDrainFailures.get();
+	}
+
+	@Override
+	public String getLastDrainError() {
+		return lastDrainError;
+	}
+
+	/**
+	 * Stops writing to the database. Batches that are not yet written remain in the journal, and are written when it
+	 * is opened again.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		drainer.interrupt();
+		try {
+			drainer.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		journal.close();
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+public interface JournalingBatchWriterMBean {
+
+	/**
+	 * The directory of the write-ahead journal.
+	 */
+	String getJournalDirectory();
+
+	/**
+	 * The number of acknowledged batches that are not yet written to the database.
+	 */
+	long getBacklogBatches();
+
+	/**
+	 * The number of segment files of the journal.
+	 */
+	int getNumJournalSegments();
+
+	/**
+	 * The sequence number of the last batch appended to the journal.
+	 */
+	long getAppendedSequence();
+
+	/**
+	 * The sequence number of the last batch written to the database.
+	 */
+	long getDrainedSequence();
+
+	/**
+	 * The number of times the journal was synced to disk.
+	 */
+	long getNumSyncs();
+
+	/**
+	 * The average number of batches made durable by each sync of the journal.
+	 */
+	double getAverageBatchesPerSync();
+
+	/**
+	 * The number of times writing journaled batches to the database failed and was retried.
+	 */
+	long getNumDrainFailures();
+
+	/**
+	 * The last failure to write journaled batches to the database, or null if there was none.
+	 */
+	String getLastDrainError();
+}
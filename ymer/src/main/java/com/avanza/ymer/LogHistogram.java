@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative long values in logarithmic buckets, in the style of HdrHistogram. Each power of two
+ * is split into {@value #SUB_BUCKETS} linear sub buckets, which makes every recorded value exact below
+ * {@value #SUB_BUCKETS} and accurate within 1/{@value #SUB_BUCKETS} of the value above it.
+ * <p>
+ * Recording is lock-free and does not allocate, so it can be done on every bulk write. Percentiles are read from
+ * {@link Snapshot}s, either of everything recorded so far, or of what was recorded since the previous interval
+ * snapshot, so that a percentile can be followed over time.
+ */
+final class LogHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int NUM_BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final LongAdder sum = new LongAdder();
+
+	// guarded by this
+	private long[] intervalStartCounts = new long[NUM_BUCKETS];
+	private long intervalStartSum;
+
+	/**
+	 * Records a value, negative values are recorded as 0.
+	 */
+	void record(long value) {
+		long nonNegativeValue = Math.max(0, value);
+		counts.incrementAndGet(bucketIndex(nonNegativeValue));
+		sum.add(nonNegativeValue);
+	}
+
+	/**
+	 * A snapshot of all values recorded so far.
+	 */
+	Snapshot snapshot() {
+		return new Snapshot(copyCounts(), sum.sum());
+	}
+
+	/**
+	 * A snapshot of the values recorded since the previous call to this method, or since the histogram was created.
+	 * Values recorded while the snapshot is taken end up in either this interval or the next one.
+	 */
+	synchronized Snapshot intervalSnapshot() {
+		long[] currentCounts = copyCounts();
+		long currentSum = sum.sum();
+		long[] intervalCounts = new long[NUM_BUCKETS];
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			intervalCounts[i] = currentCounts[i] - intervalStartCounts[i];
+		}
+		Snapshot snapshot = new Snapshot(intervalCounts, currentSum - intervalStartSum);
+		intervalStartCounts = currentCounts;
+		intervalStartSum = currentSum;
+		return snapshot;
+	}
+
+	private long[] copyCounts() {
+		long[] copy = new long[NUM_BUCKETS];
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			copy[i] = counts.get(i);
+		}
+		return copy;
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * The highest value that is recorded in the given bucket.
+	 */
+	static long highestValueInBucket(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowestValue = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowestValue + ((1L << shift) - 1);
+	}
+
+	/**
+	 * The lowest value that is recorded in the given bucket.
+	 */
+	static long lowestValueInBucket(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+	}
+
+	/**
+	 * An immutable copy of the bucket counts of a {@link LogHistogram}. Percentiles, min and max are reported as the
+	 * highest value of the bucket they fall in, except min which is the lowest value of its bucket. An empty snapshot
+	 * reports 0 for all of them.
+	 */
+	static final class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+
+		private Snapshot(long[] counts, long sum) {
+			this.counts = counts;
+			long count = 0;
+			for (long bucketCount : counts) {
+				count += bucketCount;
+			}
+			this.count = count;
+			this.sum = sum;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		long getMin() {
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					return lowestValueInBucket(i);
+				}
+			}
+			return 0;
+		}
+
+		long getMax() {
+			for (int i = counts.length - 1; i >= 0; i--) {
+				if (counts[i] > 0) {
+					return highestValueInBucket(i);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * The value that the given percentage (0-100) of the recorded values are less than or equal to.
+		 */
+		long getValueAtPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return highestValueInBucket(i);
+				}
+			}
+			return getMax();
+		}
+	}
+
+}
@@ -19,11 +19,15 @@ import static com.avanza.ymer.PersistedInstanceIdUtil.getInstanceIdFieldName;
 import static com.avanza.ymer.util.GigaSpacesInstanceIdUtil.getInstanceId;
 import static java.util.stream.Collectors.toSet;
 
+import java.beans.Introspector;
 import java.lang.reflect.Method;
 import java.time.Duration;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Stream;
 
+import javax.annotation.Nullable;
+
 import org.bson.Document;
 
 import com.gigaspaces.annotation.pojo.SpaceId;
@@ -43,20 +47,31 @@ final class MirroredObject<T> {
 	public static final String DOCUMENT_INSTANCE_ID_PREFIX = "_instanceId";
 	private final DocumentPatchChain<T> patchChain;
 	private final RoutingKeyExtractor routingKeyExtractor;
+	private final Method spaceIdMethod;
 	private final boolean excludeFromInitialLoad;
 	private final boolean writeBackPatchedDocuments;
 	private final boolean loadDocumentsRouted;
 	private final boolean persistInstanceId;
 	private final boolean triggerInstanceIdCalculationOnStartup;
 	private final Duration triggerInstanceIdCalculationWithDelay;
+	private final boolean serverSideInstanceIdCalculation;
 	private final boolean keepPersistent;
     private final String collectionName;
 	private final TemplateFactory customInitialLoadTemplateFactory;
 	private final ReadPreference readPreference;
+	private final int initialLoadIdRanges;
+	private final int initialLoadWorkers;
+	private final int initialLoadQueueCapacity;
+	private final boolean initialLoadOrdered;
+	private final int writeBackBatchSize;
+	private final int writeBackMaxPendingBatches;
+	private final boolean initialLoadMeasureFetchedBytes;
+	private final int documentHashCacheSize;
 
 	public MirroredObject(MirroredObjectDefinition<T> definition, MirroredObjectDefinitionsOverride override) {
 		this.patchChain = definition.createPatchChain();
 		this.routingKeyExtractor = findRoutingKeyMethod(patchChain.getMirroredType());
+		this.spaceIdMethod = findSpaceIdMethod(patchChain.getMirroredType());
 		this.excludeFromInitialLoad = override.excludeFromInitialLoad(definition);
         this.writeBackPatchedDocuments = override.writeBackPatchedDocuments(definition);
         this.loadDocumentsRouted = override.loadDocumentsRouted(definition);
@@ -65,11 +80,20 @@ final class MirroredObject<T> {
         this.persistInstanceId = persistInstanceId.isEnabled();
 		this.triggerInstanceIdCalculationOnStartup = persistInstanceId.isTriggerCalculationOnStartup();
 		this.triggerInstanceIdCalculationWithDelay = persistInstanceId.getTriggerCalculationWithDelay();
+		this.serverSideInstanceIdCalculation = persistInstanceId.isServerSideCalculation();
 
         this.keepPersistent = definition.keepPersistent();
         this.collectionName = definition.collectionName();
         this.customInitialLoadTemplateFactory = definition.customInitialLoadTemplateFactory();
         this.readPreference = definition.getReadPreference();
+        this.initialLoadIdRanges = definition.initialLoadIdRanges();
+        this.initialLoadWorkers = definition.getInitialLoad().getWorkers();
+        this.initialLoadQueueCapacity = definition.getInitialLoad().getQueueCapacity();
+        this.initialLoadOrdered = definition.getInitialLoad().isOrdered();
+        this.writeBackBatchSize = definition.getInitialLoad().getWriteBackBatchSize();
+        this.writeBackMaxPendingBatches = definition.getInitialLoad().getWriteBackMaxPendingBatches();
+        this.initialLoadMeasureFetchedBytes = definition.getInitialLoad().isMeasureFetchedBytes();
+        this.documentHashCacheSize = definition.documentHashCacheSize();
 	}
 
 	private RoutingKeyExtractor findRoutingKeyMethod(Class<T> mirroredType) {
@@ -90,6 +114,41 @@ final class MirroredObject<T> {
 		throw new IllegalArgumentException("Cannot find @SpaceRouting or @SpaceId method for: " + mirroredType.getName());
 	}
 
+	@Nullable
+	private static Method findSpaceIdMethod(Class<?> mirroredType) {
+		for (Method m : mirroredType.getMethods()) {
+			if (m.isAnnotationPresent(SpaceId.class)) {
+				return m;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the value of the {@link SpaceId} property of the given space object, or {@code null} if the mirrored
+	 * type has no such property.
+	 */
+	@Nullable
+	Object getSpaceId(Object spaceObject) {
+		if (spaceIdMethod == null) {
+			return null;
+		}
+		try {
+			return spaceIdMethod.invoke(spaceObject);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the name of the {@link SpaceId} property, or empty if the mirrored type has no such property.
+	 */
+	Optional<String> getSpaceIdPropertyName() {
+		return Optional.ofNullable(spaceIdMethod)
+				.map(Method::getName)
+				.map(name -> Introspector.decapitalize(name.substring(name.startsWith("is") ? 2 : 3)));
+	}
+
 	Class<T> getMirroredType() {
 		return patchChain.getMirroredType();
 	}
@@ -211,6 +270,13 @@ final class MirroredObject<T> {
 		return routingKeyExtractor.getRoutingKey(spaceObject);
 	}
 
+	/**
+	 * Returns the getter that the routing key is read from, if the routing key is the unmodified value of a property. <p>
+	 */
+	Optional<Method> getRoutingKeyGetter() {
+		return routingKeyExtractor.getRoutingMethod();
+	}
+
 	boolean isKnownVersion(int documentVersion) {
 		return documentVersion >= getOldestKnownVersion() && documentVersion <= getCurrentVersion();
 	}
@@ -227,6 +293,38 @@ final class MirroredObject<T> {
 		return loadDocumentsRouted;
 	}
 
+	int initialLoadIdRanges() {
+		return initialLoadIdRanges;
+	}
+
+	boolean initialLoadMeasureFetchedBytes() {
+		return initialLoadMeasureFetchedBytes;
+	}
+
+	int initialLoadWorkers() {
+		return initialLoadWorkers;
+	}
+
+	int initialLoadQueueCapacity() {
+		return initialLoadQueueCapacity;
+	}
+
+	boolean initialLoadOrdered() {
+		return initialLoadOrdered;
+	}
+
+	int writeBackBatchSize() {
+		return writeBackBatchSize;
+	}
+
+	int writeBackMaxPendingBatches() {
+		return writeBackMaxPendingBatches;
+	}
+
+	int documentHashCacheSize() {
+		return documentHashCacheSize;
+	}
+
 	boolean persistInstanceId() {
 		return persistInstanceId;
 	}
@@ -239,6 +337,10 @@ final class MirroredObject<T> {
 		return triggerInstanceIdCalculationWithDelay;
 	}
 
+	boolean serverSideInstanceIdCalculation() {
+		return serverSideInstanceIdCalculation;
+	}
+
 	ReadPreference getReadPreference() {
 		return readPreference;
 	}
@@ -42,6 +42,9 @@ public final class MirroredObjectDefinition<T> {
 	private boolean keepPersistent = false;
 	private TemplateFactory customInitialLoadTemplateFactory;
 	private ReadPreference readPreference;
+	private int initialLoadIdRanges = 1;
+	private int documentHashCacheSize = 0;
+	private final InitialLoadDefinition initialLoad = new InitialLoadDefinition();
 
 	public MirroredObjectDefinition(Class<T> mirroredType) {
 		this.mirroredType = Objects.requireNonNull(mirroredType);
@@ -130,6 +133,70 @@ public final class MirroredObjectDefinition<T> {
 		return this.loadDocumentsRouted;
 	}
 
+	/**
+	 * Splits the collection into the given number of id ranges during InitialLoad, and reads each range using a
+	 * separate cursor. The ranges are read concurrently, which increases the load speed of large collections where
+	 * a single cursor is not able to keep up with patching and conversion of the documents. The split points are
+	 * selected from a random sample of the document ids, and the ranges are applied on top of the configured way of
+	 * loading documents (custom initial load template, persisted instance id or routed loading).<br>
+	 * <br>
+	 * Default value is 1, indicating that the collection is read using a single cursor.
+	 */
+	public MirroredObjectDefinition<T> initialLoadIdRanges(int initialLoadIdRanges) {
+		if (initialLoadIdRanges < 1) {
+			throw new IllegalArgumentException("initialLoadIdRanges must be at least 1, was " + initialLoadIdRanges);
+		}
+		this.initialLoadIdRanges = initialLoadIdRanges;
+		return this;
+	}
+
+	int initialLoadIdRanges() {
+		return this.initialLoadIdRanges;
+	}
+
+	/**
+	 * Keeps a 64-bit hash of the last document written by the mirror for up to the given number of ids, and skips
+	 * replacing a document when the new version has the same hash. This removes writes of space objects that are
+	 * updated without changing any persisted property. The least recently used ids are evicted when the cache is full,
+	 * and each id uses about 20 bytes of heap.<br>
+	 * <br>
+	 * This must only be enabled for collections that are not written outside of the mirror, as a replace that
+	 * should overwrite such a change might otherwise be skipped.<br>
+	 * <br>
+	 * Default value is 0, indicating that no cache is used.
+	 */
+	public MirroredObjectDefinition<T> documentHashCacheSize(int documentHashCacheSize) {
+		if (documentHashCacheSize < 0) {
+			throw new IllegalArgumentException("documentHashCacheSize must not be negative, was " + documentHashCacheSize);
+		}
+		this.documentHashCacheSize = documentHashCacheSize;
+		return this;
+	}
+
+	int documentHashCacheSize() {
+		return this.documentHashCacheSize;
+	}
+
+	/**
+	 * Configuration of how documents are patched and converted during InitialLoad.
+	 * This method accepts a configurer where the worker pool and its queue can be configured:
+	 *
+	 * <pre>{@code
+	 *   .initialLoad(configurer -> configurer
+	 *       .workers(8)
+	 *       .queueCapacity(5_000)
+	 *   )
+	 * }</pre>
+	 */
+	public MirroredObjectDefinition<T> initialLoad(Consumer<InitialLoadDefinition> configurer) {
+		configurer.accept(initialLoad);
+		return this;
+	}
+
+	InitialLoadDefinition getInitialLoad() {
+		return initialLoad;
+	}
+
 	/**
 	 * Whether to persist the current instance id for each document.
 	 * This can increase load speed, but requires all persisted partition numbers to be recalculated
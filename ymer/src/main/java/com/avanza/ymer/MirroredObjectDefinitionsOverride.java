@@ -87,6 +87,7 @@ public interface MirroredObjectDefinitionsOverride {
             getIntProperty(definition, "triggerInstanceIdCalculationWithDelay")
                     .map(Duration::ofSeconds)
                     .ifPresent(persistInstanceId::triggerCalculationWithDelay);
+            getProperty(definition, "serverSideInstanceIdCalculation").ifPresent(persistInstanceId::serverSideCalculation);
             return persistInstanceId;
         }
 
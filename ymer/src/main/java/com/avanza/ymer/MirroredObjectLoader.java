@@ -25,12 +25,19 @@ import static org.springframework.data.mongodb.core.query.Query.query;
 import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
+import org.bson.BsonBinaryWriter;
 import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.mongodb.core.index.IndexInfo;
@@ -42,18 +49,21 @@ import com.avanza.ymer.plugin.PostReadProcessor;
 /**
  * Loads mirrored objects from an external (persistent) source.
  * <p>
- * Implementation note: multithreaded patching to increase throughput.
+ * Implementation note: multithreaded patching to increase throughput, see {@link InitialLoadPipeline}.
  *
  * @author Elias Lindholm (elilin), Kristoffer Erlandsson, Andreas Skoog
  */
 final class MirroredObjectLoader<T> {
+    private static final int ID_RANGE_BUFFER_SIZE = 10_000;
+    private static final Codec<Document> DOCUMENT_CODEC = new DocumentCodec().withUuidRepresentation(UuidRepresentation.STANDARD);
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final MirroredObject<T> mirroredObject;
     private final DocumentCollection documentCollection;
     private final SpaceObjectFilter<T> spaceObjectFilter;
     private final DocumentConverter documentConverter;
-    private final LongAdder numLoadedObjects = new LongAdder();
+    private final InitialLoadStatistics statistics = new InitialLoadStatistics();
+    private final DocumentPartitionFilter documentPartitionFilter;
     private final MirrorContextProperties contextProperties;
     private final PostReadProcessor postReadProcessor;
 
@@ -69,30 +79,73 @@ final class MirroredObjectLoader<T> {
         this.mirroredObject = mirroredObject;
         this.contextProperties = contextProperties;
         this.postReadProcessor = postReadProcessor;
+        this.documentPartitionFilter = DocumentPartitionFilter.create(mirroredObject, spaceObjectFilter, documentConverter,
+                Plugins.modifiesDocuments(postReadProcessor));
     }
 
     List<LoadedDocument<T>> loadAllObjects() {
-        return streamAllObjects().collect(toList());
+        return streamAllObjects(true).collect(toList());
     }
 
     Stream<LoadedDocument<T>> streamAllObjects() {
+        return streamAllObjects(mirroredObject.initialLoadOrdered());
+    }
+
+    /**
+     * Statistics of the stages of {@link #streamAllObjects()}, which are recorded from when this loader is created.
+     */
+    InitialLoadStatistics getStatistics() {
+        return statistics;
+    }
+
+    private Stream<LoadedDocument<T>> streamAllObjects(boolean ordered) {
         RepeatingTask progressLogger = new RepeatingTask(Duration.ofSeconds(30), () ->
-                log.info("Status: loaded {} records for collection {}", numLoadedObjects.sum(), mirroredObject.getCollectionName()));
+                log.info("Status: loaded {} records for collection {}, {} of them were routed to other partitions and not converted",
+                        statistics.getNumFetchedDocuments(), mirroredObject.getCollectionName(), statistics.getNumRoutedToOtherPartitions()));
 
-        return loadDocuments()
-                .parallel() // We run patching and conversions in parallel as this is a cpu-intensive task
-                .flatMap(document -> tryPatchAndConvert(document).stream())
+        // We run patching and conversions on a pool of workers as this is a cpu-intensive task
+        return InitialLoadPipeline.process(
+                        loadDocuments(),
+                        this::tryPatchAndConvert,
+                        mirroredObject.initialLoadWorkers(),
+                        mirroredObject.initialLoadQueueCapacity(),
+                        ordered,
+                        "Ymer-Initial-Load-" + mirroredObject.getCollectionName() + "-",
+                        statistics)
                 .onClose(progressLogger::close);
     }
 
     private Stream<Document> loadDocuments() {
+        Function<IdRange, Stream<Document>> documentLoader = createDocumentLoader();
+        int numIdRanges = mirroredObject.initialLoadIdRanges();
+        if (numIdRanges <= 1) {
+            return documentLoader.apply(IdRange.all());
+        }
+        List<IdRange> idRanges = IdRange.fromSplitPoints(documentCollection.sampleIdSplitPoints(numIdRanges - 1));
+        if (idRanges.size() == 1) {
+            log.info("Could not split collection {} into id ranges, loading using a single cursor.", mirroredObject.getCollectionName());
+            return documentLoader.apply(idRanges.get(0));
+        }
+        log.info("Loading collection {} using {} concurrent cursors, ranges={}", mirroredObject.getCollectionName(), idRanges.size(), idRanges);
+        List<Supplier<Stream<? extends Document>>> rangeLoaders = idRanges.stream()
+                .map(idRange -> (Supplier<Stream<? extends Document>>) () -> documentLoader.apply(idRange))
+                .collect(toList());
+        return ConcurrentStreamMerger.merge(rangeLoaders, rangeLoaders.size(), ID_RANGE_BUFFER_SIZE,
+                "Ymer-Id-Range-Loader-" + mirroredObject.getCollectionName() + "-");
+    }
+
+    /**
+     * Selects how documents are read from the collection, the returned function reads all documents
+     * within a given id range.
+     */
+    private Function<IdRange, Stream<Document>> createDocumentLoader() {
         if (mirroredObject.hasCustomInitialLoadTemplate()) {
             Document template = mirroredObject.getCustomInitialLoadTemplateFactory()
                                                    .create(contextProperties.getPartitionCount(),
                                                            contextProperties.getInstanceId());
             log.info("Begin loading objects for collection {}. Loading using custom initial load template.",
                     mirroredObject.getCollectionName());
-            return documentCollection.findByTemplate(template);
+            return idRange -> documentCollection.findByTemplate(idRange.restrict(template));
         }
         if (mirroredObject.persistInstanceId()) {
             String instanceIdField = getInstanceIdFieldName(contextProperties.getPartitionCount());
@@ -109,7 +162,7 @@ final class MirroredObjectLoader<T> {
                 query.fields().exclude(DOCUMENT_ROUTING_KEY);
 
                 log.info("Begin loading objects for collection {}. Loading using persistInstanceId.", mirroredObject.getCollectionName());
-                return documentCollection.findByQuery(query);
+                return idRange -> documentCollection.findByQuery(idRange.restrict(query));
             } else {
                 log.warn("Configured to load using persisted instance id for collection {}, but no index exists for field {}. Will not use instance id when loading.",
                         mirroredObject.getCollectionName(), instanceIdField);
@@ -117,15 +170,27 @@ final class MirroredObjectLoader<T> {
         }
         if (mirroredObject.loadDocumentsRouted()) {
             log.info("Begin loading objects for collection {}. Loading using loadDocumentsRouted.", mirroredObject.getCollectionName());
-            return documentCollection.findAll(spaceObjectFilter);
+            return idRange -> idRange.isAll() ? documentCollection.findAll(spaceObjectFilter) : documentCollection.findAll(spaceObjectFilter, idRange);
         } else {
             log.info("Begin loading objects for collection {}. Loading ALL documents.", mirroredObject.getCollectionName());
-            return documentCollection.findAll();
+            return idRange -> idRange.isAll() ? documentCollection.findAll() : documentCollection.findAll(idRange);
         }
     }
 
     private Optional<LoadedDocument<T>> tryPatchAndConvert(Document document) {
         try {
+            statistics.documentReceived();
+            long filterStart = System.nanoTime();
+            boolean routedToOtherPartition = documentPartitionFilter.test(document) == DocumentPartitionFilter.Result.REJECT;
+            statistics.filtered(System.nanoTime() - filterStart);
+            if (routedToOtherPartition) {
+                // Routed to another partition, no need to patch and convert it
+                statistics.routedToOtherPartition();
+                return Optional.empty();
+            }
+            if (mirroredObject.initialLoadMeasureFetchedBytes()) {
+                statistics.bytesFetched(bsonSize(document));
+            }
             Optional<LoadedDocument<T>> result;
             try {
                 result = patchAndConvert(new Document(document));
@@ -136,8 +201,6 @@ final class MirroredObjectLoader<T> {
                 log.warn("Failed to load dbObject={}. Retrying.", document, e);
                 result = patchAndConvert(new Document(document));
             }
-            numLoadedObjects.increment();
-
             return result;
         } catch (RuntimeException e) {
             log.error("Unable to load document={}", document, e);
@@ -170,6 +233,7 @@ final class MirroredObjectLoader<T> {
     private Optional<LoadedDocument<T>> patchAndConvert(Document document) {
         Document currentVersion = document;
         boolean patched = false;
+        long patchStart = System.nanoTime();
         if (this.mirroredObject.requiresPatching(document)) {
             patched = true;
             try {
@@ -180,11 +244,18 @@ final class MirroredObjectLoader<T> {
                 log.error("Patch of document failed! document={}currentVersion={}", mirroredObject, currentVersion, e);
                 throw e;
             }
+            statistics.documentPatched(System.nanoTime() - patchStart);
         } else {
             postReadProcessor.postRead(currentVersion);
         }
+        long convertStart = System.nanoTime();
         T mirroredObject = documentConverter.convert(this.mirroredObject.getMirroredType(), currentVersion);
-        if (!spaceObjectFilter.accept(mirroredObject)) {
+        long filterStart = System.nanoTime();
+        statistics.documentConverted(filterStart - convertStart);
+        boolean accepted = spaceObjectFilter.accept(mirroredObject);
+        statistics.filtered(System.nanoTime() - filterStart);
+        if (!accepted) {
+            statistics.rejectedByFilter();
             return Optional.empty();
         }
         if (patched) {
@@ -194,6 +265,18 @@ final class MirroredObjectLoader<T> {
         }
     }
 
+    /**
+     * The size of the document as BSON, or 0 if it can not be encoded by the default codecs.
+     */
+    private static int bsonSize(Document document) {
+        try (BasicOutputBuffer buffer = new BasicOutputBuffer()) {
+            DOCUMENT_CODEC.encode(new BsonBinaryWriter(buffer), document, EncoderContext.builder().build());
+            return buffer.getSize();
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
     private T postProcess(T mirroredObject) {
         if (mirroredObject instanceof ReloadableSpaceObject) {
             ReloadableSpaceObjectUtil.markReloaded((ReloadableSpaceObject) mirroredObject);
@@ -20,10 +20,12 @@ import static java.util.Spliterators.spliteratorUnknownSize;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -37,22 +39,26 @@ import org.slf4j.LoggerFactory;
 import org.springframework.data.mongodb.core.index.IndexInfo;
 import org.springframework.data.mongodb.core.query.Query;
 
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoWriteException;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.BulkWriteOptions;
-import com.mongodb.client.model.DeleteOneModel;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.Updates;
-import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 
@@ -62,9 +68,11 @@ import com.mongodb.client.result.UpdateResult;
  *
  */
 final class MongoDocumentCollection implements DocumentCollection {
+	private static final int SPLIT_POINT_OVERSAMPLING = 20;
 	private final Logger log = LoggerFactory.getLogger(getClass());
 	private final MongoCollection<Document> collection;
 	private final IdValidator idValidator;
+	private final BulkWriteChunker bulkWriteChunker;
 
 	interface IdValidator {
 		void validateHasIdField(String operation, Document obj);
@@ -73,12 +81,21 @@ final class MongoDocumentCollection implements DocumentCollection {
 	}
 
 	public MongoDocumentCollection(MongoCollection<Document> collection) {
-		this(collection, new IdValidatorImpl(collection.getNamespace().getCollectionName()));
+		this(collection, BulkWriteChunker.withDefaultProperties());
 	}
 
 	MongoDocumentCollection(MongoCollection<Document> collection, IdValidator idValidator) {
+		this(collection, idValidator, BulkWriteChunker.withDefaultProperties());
+	}
+
+	MongoDocumentCollection(MongoCollection<Document> collection, BulkWriteChunker bulkWriteChunker) {
+		this(collection, new IdValidatorImpl(collection.getNamespace().getCollectionName()), bulkWriteChunker);
+	}
+
+	MongoDocumentCollection(MongoCollection<Document> collection, IdValidator idValidator, BulkWriteChunker bulkWriteChunker) {
 		this.collection = Objects.requireNonNull(collection);
 		this.idValidator = Objects.requireNonNull(idValidator);
+		this.bulkWriteChunker = Objects.requireNonNull(bulkWriteChunker);
 	}
 
 	@Override
@@ -95,6 +112,44 @@ final class MongoDocumentCollection implements DocumentCollection {
 		return toStream(collection.find());
 	}
 
+	@Override
+	public Stream<Document> findAll(IdRange idRange) {
+		return toStream(collection.find(idRange.toFilter()));
+	}
+
+	@Override
+	public Stream<Document> findAll(SpaceObjectFilter<?> objectFilter, IdRange idRange) {
+		if (MongoPartitionFilter.canCreateFrom(objectFilter)) {
+			MongoPartitionFilter mongoPartitionFilter = MongoPartitionFilter.createBsonFilter(objectFilter);
+			return toStream(collection.find(Filters.and(mongoPartitionFilter.toBson(), idRange.toFilter())));
+		}
+		return findAll(idRange);
+	}
+
+	@Override
+	public List<Object> sampleIdSplitPoints(int numSplitPoints) {
+		if (numSplitPoints < 1) {
+			return Collections.emptyList();
+		}
+		// Oversample to get evenly sized ranges also when the sample is skewed
+		List<Object> sortedSample = collection.aggregate(Arrays.asList(
+						Aggregates.sample(numSplitPoints * SPLIT_POINT_OVERSAMPLING),
+						Aggregates.project(Projections.include("_id")),
+						Aggregates.sort(Sorts.ascending("_id"))))
+				.allowDiskUse(true)
+				.map(document -> document.get("_id"))
+				.into(new ArrayList<>());
+		if (sortedSample.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return IdRange.selectSplitPoints(sortedSample, numSplitPoints);
+	}
+
+
+	@Override
+	public long estimatedDocumentCount() {
+		return collection.estimatedDocumentCount();
+	}
 
 	@Override
 	public Document findById(Object id) {
@@ -108,6 +163,10 @@ final class MongoDocumentCollection implements DocumentCollection {
 		if (!fieldsObject.isEmpty()) {
 			iterable = iterable.projection(fieldsObject);
 		}
+		Document sortObject = query.getSortObject();
+		if (!sortObject.isEmpty()) {
+			iterable = iterable.sort(sortObject);
+		}
 		Integer batchSize = query.getMeta().getCursorBatchSize();
 		if (batchSize != null) {
 			iterable = iterable.batchSize(batchSize);
@@ -116,6 +175,29 @@ final class MongoDocumentCollection implements DocumentCollection {
 		return toStream(iterable);
 	}
 
+	@Override
+	public Stream<Document> findWithFormatVersionBelow(int formatVersion, int batchSize) {
+		Bson filter = Filters.lt(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, formatVersion);
+		if (formatVersion > 1) {
+			filter = Filters.or(filter, Filters.exists(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, false));
+		}
+		return toStream(collection.find(filter).batchSize(batchSize));
+	}
+
+	@Override
+	public Map<Integer, Long> countByFormatVersion() {
+		Map<Integer, Long> countByFormatVersion = new TreeMap<>();
+		collection.aggregate(Collections.singletonList(
+						Aggregates.group("$" + MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, Accumulators.sum("count", 1L))))
+				.allowDiskUse(true)
+				.forEach(group -> {
+					Number formatVersion = (Number) group.get("_id");
+					int version = formatVersion == null ? 1 : formatVersion.intValue();
+					countByFormatVersion.merge(version, ((Number) group.get("count")).longValue(), Long::sum);
+				});
+		return countByFormatVersion;
+	}
+
 	@Override
 	public Stream<Document> findByTemplate(Document template) {
 		return toStream(collection.find(template));
@@ -144,6 +226,11 @@ final class MongoDocumentCollection implements DocumentCollection {
 		idValidator.validateUpdatedExistingDocument("update", updateResult, newVersion);
 	}
 
+	@Override
+	public long updateManyWithPipeline(Document filter, List<Document> pipeline) {
+		return collection.updateMany(filter, pipeline).getModifiedCount();
+	}
+
 	public BulkWriteResult nonOrderedBulkWrite(Consumer<BulkWriter> bulkWriter) {
 		return bulkWrite(bulkWriter, false);
 	}
@@ -153,12 +240,12 @@ final class MongoDocumentCollection implements DocumentCollection {
 	}
 
 	private BulkWriteResult bulkWrite(Consumer<BulkWriter> bulkWriter, boolean ordered) {
-		List<WriteModel<Document>> writeModels = new ArrayList<>();
+		CompactedWriteModels writeModels = new CompactedWriteModels();
 		bulkWriter.accept(new BulkWriter() {
 			@Override
 			public void insert(Document document) {
 				idValidator.validateHasIdField("insert", document);
-				writeModels.add(new InsertOneModel<>(document));
+				writeModels.add(new InsertOneModel<>(document), BsonSizeEstimator.estimateSize(document));
 			}
 
 			@Override
@@ -166,22 +253,43 @@ final class MongoDocumentCollection implements DocumentCollection {
 				idValidator.validateHasIdField("replace", newVersion);
 				writeModels.add(new ReplaceOneModel<>(Filters.eq(newVersion.get("_id")),
 						newVersion,
-						new ReplaceOptions().upsert(true)));
+						new ReplaceOptions().upsert(true)),
+						estimateSize(newVersion.get("_id"), newVersion));
+			}
+
+			@Override
+			public void replaceIfUnchanged(Document oldVersion, Document newVersion) {
+				idValidator.validateHasIdField("replace", newVersion);
+				if (!Objects.equals(oldVersion.get("_id"), newVersion.get("_id"))) {
+					throw new IllegalArgumentException("Can not change id in bulk replace, old id: " + oldVersion.get("_id") + " new id: " + newVersion.get("_id"));
+				}
+				writeModels.add(new ReplaceOneModel<>(Filters.and(Filters.eq(newVersion.get("_id")), formatVersionFilter(oldVersion)),
+						newVersion),
+						estimateSize(newVersion.get("_id"), newVersion));
 			}
 
 			@Override
 			public void delete(Document document) {
 				idValidator.validateHasIdField("delete", document);
-				writeModels.add(new DeleteOneModel<>(Filters.eq(document.get("_id"))));
+				writeModels.deleteById(document.get("_id"));
+			}
+
+			@Override
+			public void updateFields(Object id, Map<String, Object> fieldsToSet) {
+				Bson updates = toUpdates(fieldsToSet);
+				if (updates == null) {
+					throw new IllegalArgumentException("No fields to update provided for id " + id);
+				}
+				writeModels.add(new UpdateOneModel<>(Filters.eq(id), updates), estimateSize(id, fieldsToSet));
 			}
 
 			@Override
 			public void updatePartialByIds(Set<Object> ids, Map<String, Object> fieldsToSet) {
 				Bson updates = toUpdates(fieldsToSet);
-				addUpdates(ids, updates);
+				addUpdates(ids, updates, estimateSize(ids, fieldsToSet));
 			}
 
-			private void addUpdates(Set<Object> ids, Bson updates) {
+			private void addUpdates(Set<Object> ids, Bson updates, long estimatedSize) {
 				if (ids.isEmpty()) {
 					log.warn("Skipping updates because no ids provided");
 				} else if (updates == null) {
@@ -189,17 +297,30 @@ final class MongoDocumentCollection implements DocumentCollection {
 				} else {
 					Bson filter = Filters.in("_id", ids);
 					UpdateManyModel<Document> updateManyModel = new UpdateManyModel<>(filter, updates);
-					writeModels.add(updateManyModel);
+					writeModels.add(updateManyModel, estimatedSize);
 				}
 			}
 
 			@Override
 			public void unsetFieldsPartialByIds(Set<Object> ids, Set<String> fieldsToUnset) {
 				Bson updates = toFieldDeletes(fieldsToUnset);
-				addUpdates(ids, updates);
+				addUpdates(ids, updates, BsonSizeEstimator.estimateValueSize(ids) + BsonSizeEstimator.estimateValueSize(fieldsToUnset));
 			}
 		});
-		return collection.bulkWrite(writeModels, new BulkWriteOptions().ordered(ordered));
+		if (writeModels.getWriteModels().isEmpty()) {
+			// the driver rejects an empty list of writes
+			return BulkWriteResult.acknowledged(0, 0, 0, 0, Collections.emptyList(), Collections.emptyList());
+		}
+		try {
+			return writeModels.toOperationIndexes(bulkWriteChunker.bulkWrite(writeModels, ordered,
+					chunk -> collection.bulkWrite(chunk, new BulkWriteOptions().ordered(ordered))));
+		} catch (MongoBulkWriteException e) {
+			throw writeModels.toOperationIndexes(e);
+		}
+	}
+
+	private static long estimateSize(Object filterValue, Map<String, ?> document) {
+		return BsonSizeEstimator.estimateValueSize(filterValue) + BsonSizeEstimator.estimateSize(document);
 	}
 
 	@Override
@@ -246,6 +367,14 @@ final class MongoDocumentCollection implements DocumentCollection {
 		collection.createIndex(keys, indexOptions);
 	}
 
+	private static Bson formatVersionFilter(Document document) {
+		Object formatVersion = document.get(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY);
+		if (formatVersion == null) {
+			return Filters.exists(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, false);
+		}
+		return Filters.eq(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, formatVersion);
+	}
+
 	@Nullable
 	private static Bson toUpdates(Map<String, Object> fieldsToSet) {
 		return fieldsToSet.entrySet().stream()
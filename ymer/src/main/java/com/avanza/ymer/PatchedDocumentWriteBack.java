@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.avanza.ymer.plugin.PreWriteProcessor;
+import com.mongodb.bulk.BulkWriteResult;
+
+/**
+ * Writes documents patched during InitialLoad back to the database in the background. <p>
+ *
+ * Patched documents are collected into batches that are written using non-ordered bulk writes on a single
+ * background thread. At most {@code maxPendingBatches} batches are waiting to be written, when the window is full
+ * the thread adding documents writes the batch itself, which slows down loading instead of buffering an unbounded
+ * number of documents. <p>
+ *
+ * A document is only replaced if it still has the format version it had when it was read, so documents that
+ * have been rewritten by the mirror during InitialLoad are never overwritten. Documents with a patched id are
+ * replaced synchronously, since that can not be done in a bulk write. <p>
+ */
+final class PatchedDocumentWriteBack {
+
+	private static final Logger log = LoggerFactory.getLogger(PatchedDocumentWriteBack.class);
+
+	private final DocumentCollection documentCollection;
+	private final PreWriteProcessor preWriteProcessor;
+	private final String collectionName;
+	private final int batchSize;
+	private final ThreadPoolExecutor executor;
+	private final LongAdder numWritten = new LongAdder();
+	private final LongAdder numSkipped = new LongAdder();
+	private final LongAdder numFailed = new LongAdder();
+	private List<PatchedDocument> batch;
+
+	PatchedDocumentWriteBack(DocumentCollection documentCollection,
+							 PreWriteProcessor preWriteProcessor,
+							 String collectionName,
+							 int batchSize,
+							 int maxPendingBatches) {
+		this.documentCollection = Objects.requireNonNull(documentCollection);
+		this.preWriteProcessor = Objects.requireNonNull(preWriteProcessor);
+		this.collectionName = collectionName;
+		this.batchSize = batchSize;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("Ymer-Patched-Document-Write-Back-" + collectionName + "-");
+		threadFactory.setDaemon(true);
+		this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(maxPendingBatches),
+				threadFactory,
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		this.batch = new ArrayList<>(batchSize);
+	}
+
+	void add(PatchedDocument patchedDocument) {
+		List<PatchedDocument> fullBatch = null;
+		synchronized (this) {
+			batch.add(patchedDocument);
+			if (batch.size() >= batchSize) {
+				fullBatch = batch;
+				batch = new ArrayList<>(batchSize);
+			}
+		}
+		if (fullBatch != null) {
+			submit(fullBatch);
+		}
+	}
+
+	/**
+	 * Writes all remaining documents and waits until all of them have been written.
+	 */
+	void drain() {
+		List<PatchedDocument> lastBatch;
+		synchronized (this) {
+			lastBatch = batch;
+			batch = new ArrayList<>(0);
+		}
+		if (!lastBatch.isEmpty()) {
+			submit(lastBatch);
+		}
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+				log.info("Waiting for patched documents to be written to {}, {} batches remaining", collectionName, executor.getQueue().size());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.warn("Interrupted while waiting for patched documents to be written to {}", collectionName);
+		}
+		log.info("Wrote {} patched documents to {}. Skipped {} documents that were changed during initial load, failed to write {} documents",
+				numWritten.sum(), collectionName, numSkipped.sum(), numFailed.sum());
+	}
+
+	long getNumWritten() {
+		return numWritten.sum();
+	}
+
+	private void submit(List<PatchedDocument> patchedDocuments) {
+		executor.execute(() -> write(patchedDocuments));
+	}
+
+	private void write(List<PatchedDocument> patchedDocuments) {
+		List<PatchedDocument> bulkReplaceable = new ArrayList<>(patchedDocuments.size());
+		List<Document> newVersions = new ArrayList<>(patchedDocuments.size());
+		for (PatchedDocument patchedDocument : patchedDocuments) {
+			Document newVersion = preWriteProcessor.preWrite(patchedDocument.getNewVersion());
+			if (Objects.equals(patchedDocument.getOldVersion().get("_id"), newVersion.get("_id"))) {
+				bulkReplaceable.add(patchedDocument);
+				newVersions.add(newVersion);
+			} else {
+				replaceWithChangedId(patchedDocument.getOldVersion(), newVersion);
+			}
+		}
+		if (bulkReplaceable.isEmpty()) {
+			return;
+		}
+		try {
+			BulkWriteResult result = documentCollection.nonOrderedBulkWrite(bulkWriter -> {
+				for (int i = 0; i < bulkReplaceable.size(); i++) {
+					bulkWriter.replaceIfUnchanged(bulkReplaceable.get(i).getOldVersion(), newVersions.get(i));
+				}
+			});
+			numWritten.add(result.getModifiedCount());
+			numSkipped.add(bulkReplaceable.size() - result.getMatchedCount());
+		} catch (RuntimeException e) {
+			// The documents will be patched again on next initial load
+			log.warn("Failed to write {} patched documents to {}", bulkReplaceable.size(), collectionName, e);
+			numFailed.add(bulkReplaceable.size());
+		}
+	}
+
+	private void replaceWithChangedId(Document oldVersion, Document newVersion) {
+		try {
+			documentCollection.replace(oldVersion, newVersion);
+			numWritten.increment();
+		} catch (RuntimeException e) {
+			log.warn("Failed to write patched document with changed id to {}, old id: {} new id: {}",
+					collectionName, oldVersion.get("_id"), newVersion.get("_id"), e);
+			numFailed.increment();
+		}
+	}
+
+}
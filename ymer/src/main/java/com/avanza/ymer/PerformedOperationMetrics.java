@@ -15,6 +15,8 @@
  */
 package com.avanza.ymer;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.LongAdder;
 
 public class PerformedOperationMetrics implements PerformedOperationMetricsMBean, PerformedOperationsListener {
@@ -23,8 +25,20 @@ public class PerformedOperationMetrics implements PerformedOperationMetricsMBean
 	private final LongAdder numUpdates = new LongAdder();
 	private final LongAdder numDeletes = new LongAdder();
 	private final LongAdder numFailures = new LongAdder();
+	private final LongAdder numCoalesced = new LongAdder();
+	private final LongAdder numRetries = new LongAdder();
+	private final LongAdder retryBackoffMillis = new LongAdder();
 
-	private final PerMinuteCounter batchSizePerMinute = new PerMinuteCounter();
+	private final SlidingWindowCounter readOperations = new SlidingWindowCounter();
+	private final Map<String, CollectionOperationStatistics> collectionStatistics = new ConcurrentHashMap<>();
+
+	CollectionOperationStatisticsMBean collectStatistics(String collectionName) {
+		return getStatisticsForCollection(collectionName);
+	}
+
+	private CollectionOperationStatistics getStatisticsForCollection(String collectionName) {
+		return collectionStatistics.computeIfAbsent(collectionName, x -> new CollectionOperationStatistics());
+	}
 
 	public long getNumPerformedOperations() {
 		return getNumInserts() + getNumUpdates() + getNumDeletes();
@@ -50,9 +64,44 @@ public class PerformedOperationMetrics implements PerformedOperationMetricsMBean
 		return numFailures.sum();
 	}
 
+	@Override
+	public long getNumCoalesced() {
+		return numCoalesced.sum();
+	}
+
+	@Override
+	public long getNumRetries() {
+		return numRetries.sum();
+	}
+
+	@Override
+	public long getRetryBackoffMillis() {
+		return retryBackoffMillis.sum();
+	}
+
 	@Override
 	public long getBatchReadRate() {
-		return batchSizePerMinute.getCurrentMinuteSum() / Math.max(1, batchSizePerMinute.getCurrentMinuteRate());
+		return readOperations.getSum(SlidingWindowCounter.ONE_MINUTE) / Math.max(1, readOperations.getCount(SlidingWindowCounter.ONE_MINUTE));
+	}
+
+	@Override
+	public double getReadOperationOneSecondRate() {
+		return readOperations.getRate(SlidingWindowCounter.ONE_SECOND);
+	}
+
+	@Override
+	public double getReadOperationTenSecondRate() {
+		return readOperations.getRate(SlidingWindowCounter.TEN_SECONDS);
+	}
+
+	@Override
+	public double getReadOperationOneMinuteRate() {
+		return readOperations.getRate(SlidingWindowCounter.ONE_MINUTE);
+	}
+
+	@Override
+	public double getReadOperationFiveMinuteRate() {
+		return readOperations.getRate(SlidingWindowCounter.FIVE_MINUTES);
 	}
 
 	@Override
@@ -70,10 +119,26 @@ public class PerformedOperationMetrics implements PerformedOperationMetricsMBean
 			case FAILURE:
 				numFailures.add(delta);
 				break;
+			case COALESCED:
+				numCoalesced.add(delta);
+				break;
+			case RETRY:
+				numRetries.add(delta);
+				break;
 			case READ_BATCH:
-				batchSizePerMinute.addPerMinuteCount(delta);
+				readOperations.add(delta);
 				break;
 		}
 	}
 
+	@Override
+	public void bulkWritten(String collectionName, long latencyNanos, int inserts, int updates, int deletes) {
+		getStatisticsForCollection(collectionName).recordBulkWrite(latencyNanos, inserts, updates, deletes);
+	}
+
+	@Override
+	public void retryBackedOff(long millis) {
+		retryBackoffMillis.add(millis);
+	}
+
 }
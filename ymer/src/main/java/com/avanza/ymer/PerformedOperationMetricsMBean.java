@@ -42,5 +42,44 @@ public interface PerformedOperationMetricsMBean {
 	 */
 	long getNumFailures();
 
+	/**
+	 * Gets the number of operations that were not written to mongo as they were coalesced with a later
+	 * operation on the same document in the same batch
+	 */
+	long getNumCoalesced();
+
+	/**
+	 * Gets the number of bulk writes that were retried after a transient error
+	 */
+	long getNumRetries();
+
+	/**
+	 * Gets the total time in milliseconds spent waiting before retrying bulk writes after transient errors
+	 */
+	long getRetryBackoffMillis();
+
+	/**
+	 * Gets the average number of operations per batch read during the last minute
+	 */
 	long getBatchReadRate();
+
+	/**
+	 * Gets the number of operations read in batches per second, during the last second
+	 */
+	double getReadOperationOneSecondRate();
+
+	/**
+	 * Gets the number of operations read in batches per second, during the last ten seconds
+	 */
+	double getReadOperationTenSecondRate();
+
+	/**
+	 * Gets the number of operations read in batches per second, during the last minute
+	 */
+	double getReadOperationOneMinuteRate();
+
+	/**
+	 * Gets the number of operations read in batches per second, during the last five minutes
+	 */
+	double getReadOperationFiveMinuteRate();
 }
@@ -19,9 +19,22 @@ package com.avanza.ymer;
 public interface PerformedOperationsListener {
 
 	enum OperationType {
-		INSERT, UPDATE, DELETE, READ_BATCH, FAILURE
+		INSERT, UPDATE, DELETE, READ_BATCH, FAILURE, COALESCED, RETRY
 	}
 
 	void increment(OperationType type, int delta);
 
+	/**
+	 * Called after each bulk write to mongo, successful or not, with the time it took and the number of inserts,
+	 * updates and deletes it contained. Implementations must not block or allocate, this is called on every bulk.
+	 */
+	default void bulkWritten(String collectionName, long latencyNanos, int inserts, int updates, int deletes) {
+	}
+
+	/**
+	 * Called when a write waited the given time before retrying after a transient error.
+	 */
+	default void retryBackedOff(long millis) {
+	}
+
 }
@@ -24,12 +24,14 @@ public final class PersistInstanceIdDefinition {
 	private boolean enabled = false;
 	private boolean triggerCalculationOnStartup = true;
 	private Duration triggerCalculationWithDelay = DEFAULT_DELAY;
+	private boolean serverSideCalculation = false;
 
 	static PersistInstanceIdDefinition from(PersistInstanceIdDefinition from) {
 		return new PersistInstanceIdDefinition()
 				.enabled(from.enabled)
 				.triggerCalculationOnStartup(from.triggerCalculationOnStartup)
-				.triggerCalculationWithDelay(from.triggerCalculationWithDelay);
+				.triggerCalculationWithDelay(from.triggerCalculationWithDelay)
+				.serverSideCalculation(from.serverSideCalculation);
 	}
 
 	/**
@@ -65,6 +67,17 @@ public final class PersistInstanceIdDefinition {
 		return this;
 	}
 
+	/**
+	 * Whether to calculate persisted instance id in the database, using update operations with an aggregation
+	 * pipeline, instead of reading the routing key of every document to the mirror. This requires MongoDB 4.2 or
+	 * later, if the calculation fails it is retried on the mirror.
+	 * This defaults to {@code false}.
+	 */
+	public PersistInstanceIdDefinition serverSideCalculation(boolean serverSideCalculation) {
+		this.serverSideCalculation = serverSideCalculation;
+		return this;
+	}
+
 	boolean isEnabled() {
 		return enabled;
 	}
@@ -76,4 +89,8 @@ public final class PersistInstanceIdDefinition {
 	Duration getTriggerCalculationWithDelay() {
 		return triggerCalculationWithDelay;
 	}
+
+	boolean isServerSideCalculation() {
+		return serverSideCalculation;
+	}
 }
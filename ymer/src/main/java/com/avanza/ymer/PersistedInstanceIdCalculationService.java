@@ -17,6 +17,7 @@ package com.avanza.ymer;
 
 import static com.avanza.ymer.MirroredObject.DOCUMENT_ROUTING_KEY;
 import static com.avanza.ymer.PersistedInstanceIdUtil.getInstanceIdFieldName;
+import static com.avanza.ymer.PersistedInstanceIdUtil.instanceIdExpression;
 import static com.avanza.ymer.PersistedInstanceIdUtil.isIndexForNumberOfPartitions;
 import static com.avanza.ymer.util.GigaSpacesInstanceIdUtil.NUMBER_OF_PARTITIONS_SYSTEM_PROPERTY;
 import static com.avanza.ymer.util.GigaSpacesInstanceIdUtil.getInstanceId;
@@ -31,16 +32,24 @@ import static org.springframework.data.mongodb.core.query.Query.query;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import javax.annotation.Nonnull;
@@ -52,21 +61,29 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.index.IndexInfo;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
+import com.avanza.ymer.PersistedInstanceIdCheckpoints.Checkpoint;
+import com.avanza.ymer.PersistedInstanceIdStatistics.WorkerStatistics;
 import com.avanza.ymer.util.GigaSpacesInstanceIdUtil;
 import com.avanza.ymer.util.StreamUtils;
 import com.mongodb.client.model.IndexOptions;
 
 public class PersistedInstanceIdCalculationService implements PersistedInstanceIdCalculationServiceMBean, ApplicationContextAware {
 	private static final int BATCH_SIZE = 10_000;
+	private static final int SERVER_SIDE_RANGE_SIZE = 100_000;
+	private static final int MAX_SERVER_SIDE_SPLIT_POINTS = 10_000;
 
 	private final Logger log = LoggerFactory.getLogger(getClass());
 	private final Map<String, PersistedInstanceIdStatistics> jobStatistics = new ConcurrentHashMap<>();
 	private final SpaceMirrorContext spaceMirror;
 	private final ReloadableYmerProperties ymerProperties;
+	private final Throttle documentThrottle = new Throttle();
+	private final Throttle byteThrottle = new Throttle();
 
 	@Nullable
 	private ApplicationContext applicationContext;
@@ -133,8 +150,11 @@ public class PersistedInstanceIdCalculationService implements PersistedInstanceI
 
 	@Override
 	public void calculatePersistedInstanceId() {
-		getCollectionsWithPersistInstanceIdEnabled()
-				.forEach(collectionName -> startPersistedInstanceIdCalculation(collectionName, getNumberOfPartitionsToCalculate()));
+		Set<Integer> numberOfPartitionsSet = getNumberOfPartitionsToCalculate();
+		List<Runnable> tasks = getCollectionsWithPersistInstanceIdEnabled().stream()
+				.<Runnable>map(collectionName -> () -> startPersistedInstanceIdCalculation(collectionName, numberOfPartitionsSet))
+				.collect(toList());
+		runConcurrently(tasks, ymerProperties.getInstanceIdCalculationParallelCollections(), "Ymer-Instance-Id-Collection-");
 	}
 
 	private Set<String> getCollectionsWithPersistInstanceIdEnabled() {
@@ -166,6 +186,28 @@ public class PersistedInstanceIdCalculationService implements PersistedInstanceI
 				.stream().mapToInt(x -> x).sorted().toArray();
 	}
 
+	@Override
+	public long getMaxDocumentsPerSecond() {
+		return documentThrottle.getPermitsPerSecond();
+	}
+
+	@Override
+	public void setMaxDocumentsPerSecond(long maxDocumentsPerSecond) {
+		log.info("Setting max documents per second for persisted instance id calculation to {}", maxDocumentsPerSecond);
+		documentThrottle.setPermitsPerSecond(maxDocumentsPerSecond);
+	}
+
+	@Override
+	public long getMaxBytesPerSecond() {
+		return byteThrottle.getPermitsPerSecond();
+	}
+
+	@Override
+	public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+		log.info("Setting max bytes per second for persisted instance id calculation to {}", maxBytesPerSecond);
+		byteThrottle.setPermitsPerSecond(maxBytesPerSecond);
+	}
+
 	@Override
 	public void calculatePersistedInstanceId(String collectionName) {
 		if (!collectionIsDefinedInMirroredObjects(collectionName)) {
@@ -226,49 +268,13 @@ public class PersistedInstanceIdCalculationService implements PersistedInstanceI
 			log.info("Step 2/3\tWill delete no longer used fields [{}]", String.join(", ", noLongerNeededFields));
 		}
 
-		Query query = createQuery(BATCH_SIZE, fieldNamesToCalculate, noLongerNeededFields);
-
-		LongAdder analyzedCount = new LongAdder();
-		LongAdder updatedCount = new LongAdder();
-		Runnable progressLogger = () -> log.info("Step 2/3\tUpdated persisted instance id for {} documents ({} analyzed)", updatedCount.sum(), analyzedCount.sum());
-
-		try (Stream<List<Document>> batches = StreamUtils.buffer(collection.findByQuery(query), BATCH_SIZE);
-				RepeatingTask ignore = new RepeatingTask(Duration.ofSeconds(30), progressLogger)) {
-
-			batches.forEach(batch -> collection.nonOrderedBulkWrite(bulkWriter -> {
-				numberOfPartitionsSet.forEach(numberOfPartitions -> {
-					String fieldName = getInstanceIdFieldName(numberOfPartitions);
-					Map<Integer, List<Document>> updatesByInstanceId = batch.stream()
-							.collect(groupingBy(it -> getInstanceId(it.get(DOCUMENT_ROUTING_KEY), numberOfPartitions)));
-
-					updatesByInstanceId.forEach((instanceId, documents) -> {
-						Set<Object> ids = documents.stream()
-								.peek(it -> analyzedCount.increment())
-								.filter(document -> !Objects.equals(instanceId, document.get(fieldName)))
-								.map(document -> document.get("_id"))
-								.filter(Objects::nonNull)
-								.peek(it -> updatedCount.increment())
-								.collect(toSet());
-						if (!ids.isEmpty()) {
-							bulkWriter.updatePartialByIds(ids, Map.of(fieldName, instanceId));
-						}
-					});
-
-					noLongerNeededFields.forEach(noLongerNeededField -> {
-						Set<Object> toDeleteFieldFor = batch.stream()
-								.filter(document -> document.containsKey(noLongerNeededField))
-								.map(document -> document.get("_id"))
-								.filter(Objects::nonNull)
-								.collect(Collectors.toSet());
-
-						if (!toDeleteFieldFor.isEmpty()) {
-							bulkWriter.unsetFieldsPartialByIds(toDeleteFieldFor, Set.of(noLongerNeededField));
-						}
-					});
-				});
-			}));
+		boolean calculatedInDatabase = calculateInDatabase(collectionName)
+				&& tryCalculateInDatabase(collection, collectionName, numberOfPartitionsSet, fieldNamesToCalculate, noLongerNeededFields);
+		if (calculatedInDatabase) {
+			getStatisticsForCollection(collectionName).calculatedInDatabase();
+		} else {
+			calculateInMirror(collection, collectionName, numberOfPartitionsSet, fieldNamesToCalculate, noLongerNeededFields);
 		}
-		log.info("Step 2/3\tUpdated persisted instance id for {} documents total ({} analyzed total)", updatedCount.sum(), analyzedCount.sum());
 
 		numberOfPartitionsSet.forEach(numberOfPartitions -> {
 			String fieldName = getInstanceIdFieldName(numberOfPartitions);
@@ -286,6 +292,301 @@ public class PersistedInstanceIdCalculationService implements PersistedInstanceI
 		});
 	}
 
+	/**
+	 * Calculates instance id by reading the routing key of each document to the mirror. The collection is split into
+	 * id ranges processed by concurrent workers, and each worker reads the next batch of its range while the previous
+	 * batch is written. The last written id of each range is saved as a checkpoint, so that the calculation can be
+	 * resumed after a restart.
+	 */
+	private void calculateInMirror(DocumentCollection collection,
+								   String collectionName,
+								   Set<Integer> numberOfPartitionsSet,
+								   Set<String> fieldNamesToCalculate,
+								   Set<String> noLongerNeededFields) {
+		Query query = createQuery(BATCH_SIZE, fieldNamesToCalculate, noLongerNeededFields);
+		int numberOfWorkers = ymerProperties.getInstanceIdCalculationWorkers();
+
+		Optional<Checkpoint> checkpoint = loadCheckpoint(collectionName, numberOfPartitionsSet);
+		List<Object> splitPoints = checkpoint.map(Checkpoint::getSplitPoints)
+				.orElseGet(() -> collection.sampleIdSplitPoints(numberOfWorkers));
+		List<IdRange> idRanges = IdRange.fromSplitPoints(splitPoints);
+		if (checkpoint.isPresent()) {
+			log.info("Step 2/3\tResuming calculation from checkpoint");
+		} else {
+			startCheckpoint(collectionName, numberOfPartitionsSet, splitPoints, idRanges.size());
+		}
+
+		PersistedInstanceIdStatistics statistics = getStatisticsForCollection(collectionName);
+		List<WorkerStatistics> workers = statistics.startWorkers(idRanges);
+		log.info("Step 2/3\tWill calculate instance id in mirror in {} id ranges using {} workers", idRanges.size(), numberOfWorkers);
+
+		Runnable progressLogger = () -> {
+			log.info("Step 2/3\tUpdated persisted instance id for {} documents ({} analyzed)",
+					statistics.getNumberOfUpdatedDocuments(), statistics.getNumberOfAnalyzedDocuments());
+			workers.forEach(worker -> log.info("Step 2/3\t{}", worker));
+		};
+
+		ExecutorService writeExecutor = Executors.newFixedThreadPool(numberOfWorkers, createThreadFactory("Ymer-Instance-Id-Writer-" + collectionName + "-"));
+		try (RepeatingTask ignore = new RepeatingTask(Duration.ofSeconds(30), progressLogger)) {
+			List<Runnable> tasks = IntStream.range(0, idRanges.size())
+					.<Runnable>mapToObj(rangeIndex -> () -> {
+						IdRange idRange = checkpoint.flatMap(it -> it.getLastProcessedId(rangeIndex))
+								.map(idRanges.get(rangeIndex)::startingFrom)
+								.orElse(idRanges.get(rangeIndex));
+						calculateInMirror(collection, collectionName, idRange, rangeIndex, query, numberOfPartitionsSet,
+								noLongerNeededFields, workers.get(rangeIndex), writeExecutor);
+					})
+					.collect(toList());
+			runConcurrently(tasks, numberOfWorkers, "Ymer-Instance-Id-Worker-" + collectionName + "-");
+		} finally {
+			writeExecutor.shutdownNow();
+		}
+		clearCheckpoint(collectionName);
+		log.info("Step 2/3\tUpdated persisted instance id for {} documents total ({} analyzed total)",
+				statistics.getNumberOfUpdatedDocuments(), statistics.getNumberOfAnalyzedDocuments());
+	}
+
+	private void calculateInMirror(DocumentCollection collection,
+								   String collectionName,
+								   IdRange idRange,
+								   int rangeIndex,
+								   Query query,
+								   Set<Integer> numberOfPartitionsSet,
+								   Set<String> noLongerNeededFields,
+								   WorkerStatistics worker,
+								   ExecutorService writeExecutor) {
+		Query rangeQuery = idRange.restrict(query);
+		if (idRange.isResumable()) {
+			// Reading in id order makes the last written id a valid checkpoint
+			rangeQuery.with(Sort.by(Sort.Direction.ASC, "_id"));
+		}
+		Future<?> pendingWrite = CompletableFuture.completedFuture(null);
+		try (Stream<List<Document>> batches = StreamUtils.buffer(collection.findByQuery(rangeQuery), BATCH_SIZE)) {
+			Iterator<List<Document>> iterator = batches.iterator();
+			while (iterator.hasNext()) {
+				// The next batch is read while the previous batch is being written
+				List<Document> batch = iterator.next();
+				throttle(batch);
+				await(pendingWrite);
+				pendingWrite = writeExecutor.submit(() -> {
+					writeBatch(collection, batch, numberOfPartitionsSet, noLongerNeededFields, worker);
+					if (idRange.isResumable()) {
+						saveCheckpoint(collectionName, rangeIndex, batch.get(batch.size() - 1).get("_id"));
+					}
+				});
+			}
+			await(pendingWrite);
+		} finally {
+			pendingWrite.cancel(true);
+		}
+		worker.completed();
+	}
+
+	private void throttle(List<Document> batch) {
+		acquireDocumentPermits(batch.size());
+		if (byteThrottle.getPermitsPerSecond() > 0) {
+			long batchSizeInBytes = batch.stream().mapToLong(BsonSizeEstimator::estimateSize).sum();
+			try {
+				byteThrottle.acquire(batchSizeInBytes);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while calculating persisted instance id", e);
+			}
+		}
+	}
+
+	private void acquireDocumentPermits(long numberOfDocuments) {
+		try {
+			documentThrottle.acquire(numberOfDocuments);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while calculating persisted instance id", e);
+		}
+	}
+
+	private PersistedInstanceIdCheckpoints getCheckpoints() {
+		return new PersistedInstanceIdCheckpoints(spaceMirror.getDocumentDb().getCollection(PersistedInstanceIdCheckpoints.METADATA_COLLECTION_NAME));
+	}
+
+	private Optional<Checkpoint> loadCheckpoint(String collectionName, Set<Integer> numberOfPartitionsSet) {
+		try {
+			return getCheckpoints().load(collectionName, numberOfPartitionsSet);
+		} catch (Exception e) {
+			log.warn("Step 2/3\tCould not load checkpoint for collection {}, will calculate instance id for the whole collection", collectionName, e);
+			return Optional.empty();
+		}
+	}
+
+	private void startCheckpoint(String collectionName, Set<Integer> numberOfPartitionsSet, List<Object> splitPoints, int numberOfRanges) {
+		try {
+			getCheckpoints().start(collectionName, numberOfPartitionsSet, splitPoints, numberOfRanges);
+		} catch (Exception e) {
+			log.warn("Step 2/3\tCould not create checkpoint for collection {}", collectionName, e);
+		}
+	}
+
+	private void saveCheckpoint(String collectionName, int rangeIndex, Object lastProcessedId) {
+		try {
+			getCheckpoints().saveProgress(collectionName, rangeIndex, lastProcessedId);
+		} catch (Exception e) {
+			log.warn("Step 2/3\tCould not save checkpoint for collection {}", collectionName, e);
+		}
+	}
+
+	private void clearCheckpoint(String collectionName) {
+		try {
+			getCheckpoints().clear(collectionName);
+		} catch (Exception e) {
+			log.warn("Step 2/3\tCould not remove checkpoint for collection {}", collectionName, e);
+		}
+	}
+
+	private void writeBatch(DocumentCollection collection,
+							List<Document> batch,
+							Set<Integer> numberOfPartitionsSet,
+							Set<String> noLongerNeededFields,
+							WorkerStatistics worker) {
+		LongAdder updatedCount = new LongAdder();
+		collection.nonOrderedBulkWrite(bulkWriter -> {
+			numberOfPartitionsSet.forEach(numberOfPartitions -> {
+				String fieldName = getInstanceIdFieldName(numberOfPartitions);
+				Map<Integer, List<Document>> updatesByInstanceId = batch.stream()
+						.collect(groupingBy(it -> getInstanceId(it.get(DOCUMENT_ROUTING_KEY), numberOfPartitions)));
+
+				updatesByInstanceId.forEach((instanceId, documents) -> {
+					Set<Object> ids = documents.stream()
+							.filter(document -> !Objects.equals(instanceId, document.get(fieldName)))
+							.map(document -> document.get("_id"))
+							.filter(Objects::nonNull)
+							.peek(it -> updatedCount.increment())
+							.collect(toSet());
+					if (!ids.isEmpty()) {
+						bulkWriter.updatePartialByIds(ids, Map.of(fieldName, instanceId));
+					}
+				});
+
+				noLongerNeededFields.forEach(noLongerNeededField -> {
+					Set<Object> toDeleteFieldFor = batch.stream()
+							.filter(document -> document.containsKey(noLongerNeededField))
+							.map(document -> document.get("_id"))
+							.filter(Objects::nonNull)
+							.collect(Collectors.toSet());
+
+					if (!toDeleteFieldFor.isEmpty()) {
+						bulkWriter.unsetFieldsPartialByIds(toDeleteFieldFor, Set.of(noLongerNeededField));
+					}
+				});
+			});
+		});
+		worker.addAnalyzed(batch.size());
+		worker.addUpdated(updatedCount.sum());
+	}
+
+	private boolean calculateInDatabase(String collectionName) {
+		return spaceMirror.getMirroredDocuments().stream()
+				.filter(mirroredObject -> mirroredObject.getCollectionName().equals(collectionName))
+				.anyMatch(MirroredObject::serverSideInstanceIdCalculation);
+	}
+
+	/**
+	 * Calculates instance id using update operations with an aggregation pipeline, so that no documents are read
+	 * by the mirror. The collection is updated in id ranges to avoid a single long-running update operation, using
+	 * at most as many concurrent updates as there are configured workers.
+	 *
+	 * @return false if the calculation failed and should be done in the mirror instead
+	 */
+	private boolean tryCalculateInDatabase(DocumentCollection collection,
+										   String collectionName,
+										   Set<Integer> numberOfPartitionsSet,
+										   Set<String> fieldNamesToCalculate,
+										   Set<String> noLongerNeededFields) {
+		Document filter = createQuery(BATCH_SIZE, fieldNamesToCalculate, noLongerNeededFields).getQueryObject();
+		List<Document> pipeline = createUpdatePipeline(numberOfPartitionsSet, noLongerNeededFields);
+
+		LongAdder completedRanges = new LongAdder();
+		LongAdder updatedCount = new LongAdder();
+		try {
+			int numberOfSplitPoints = (int) Math.min(MAX_SERVER_SIDE_SPLIT_POINTS, collection.estimatedDocumentCount() / SERVER_SIDE_RANGE_SIZE);
+			List<IdRange> idRanges = IdRange.fromSplitPoints(collection.sampleIdSplitPoints(numberOfSplitPoints));
+			log.info("Step 2/3\tWill calculate instance id in database in {} id ranges", idRanges.size());
+
+			Runnable progressLogger = () -> log.info("Step 2/3\tUpdated persisted instance id for {} documents in database ({} of {} id ranges completed)",
+					updatedCount.sum(), completedRanges.sum(), idRanges.size());
+			List<Runnable> tasks = idRanges.stream()
+					.<Runnable>map(idRange -> () -> {
+						long updated = collection.updateManyWithPipeline(idRange.restrict(filter), pipeline);
+						updatedCount.add(updated);
+						completedRanges.increment();
+						acquireDocumentPermits(updated);
+					})
+					.collect(toList());
+			try (RepeatingTask ignore = new RepeatingTask(Duration.ofSeconds(30), progressLogger)) {
+				runConcurrently(tasks, ymerProperties.getInstanceIdCalculationWorkers(), "Ymer-Instance-Id-Worker-" + collectionName + "-");
+			}
+		} catch (RuntimeException e) {
+			log.warn("Step 2/3\tCould not calculate instance id in database after updating {} documents, will calculate instance id in mirror instead",
+					updatedCount.sum(), e);
+			return false;
+		}
+		log.info("Step 2/3\tUpdated persisted instance id for {} documents total in database", updatedCount.sum());
+		return true;
+	}
+
+	private static List<Document> createUpdatePipeline(Set<Integer> numberOfPartitionsSet, Set<String> fieldsToRemove) {
+		Document fieldsToSet = new Document();
+		numberOfPartitionsSet.forEach(numberOfPartitions ->
+				fieldsToSet.append(getInstanceIdFieldName(numberOfPartitions), instanceIdExpression(numberOfPartitions)));
+
+		List<Document> pipeline = new ArrayList<>();
+		pipeline.add(new Document("$set", fieldsToSet));
+		if (!fieldsToRemove.isEmpty()) {
+			pipeline.add(new Document("$unset", new ArrayList<>(fieldsToRemove)));
+		}
+		return pipeline;
+	}
+
+	/**
+	 * Runs all tasks using at most {@code parallelism} threads and waits until all of them are done. If a task fails,
+	 * the remaining tasks are cancelled and the failure is rethrown.
+	 */
+	private static void runConcurrently(List<Runnable> tasks, int parallelism, String threadNamePrefix) {
+		if (parallelism <= 1 || tasks.size() <= 1) {
+			tasks.forEach(Runnable::run);
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()), createThreadFactory(threadNamePrefix));
+		try {
+			List<Future<?>> futures = tasks.stream()
+					.map(executor::submit)
+					.collect(toList());
+			for (Future<?> future : futures) {
+				await(future);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void await(Future<?> future) {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while calculating persisted instance id", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private static ThreadFactory createThreadFactory(String threadNamePrefix) {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+		threadFactory.setDaemon(true);
+		return threadFactory;
+	}
+
 	private int determineNumberOfPartitions() {
 		return getNumberOfPartitionsFromSpaceProperties()
 				.or(this::getNumberOfPartitionsFromSystemProperty)
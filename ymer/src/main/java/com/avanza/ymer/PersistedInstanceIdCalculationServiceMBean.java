@@ -28,4 +28,20 @@ public interface PersistedInstanceIdCalculationServiceMBean {
 	 */
 	int[] getNumberOfPartitionsThatDataIsPreparedFor();
 
+	/**
+	 * The maximum number of documents per second that are read and updated when calculating persisted instance id,
+	 * shared by all workers. Zero or less means unlimited, which is the default.
+	 */
+	long getMaxDocumentsPerSecond();
+
+	void setMaxDocumentsPerSecond(long maxDocumentsPerSecond);
+
+	/**
+	 * The maximum number of bytes per second that are read when calculating persisted instance id in the mirror,
+	 * shared by all workers. Zero or less means unlimited, which is the default.
+	 */
+	long getMaxBytesPerSecond();
+
+	void setMaxBytesPerSecond(long maxBytesPerSecond);
+
 }
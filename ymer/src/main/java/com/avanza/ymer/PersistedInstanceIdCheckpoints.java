@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.bson.Document;
+
+/**
+ * Stores the progress of {@link PersistedInstanceIdCalculationService} in a metadata collection, so that a
+ * calculation interrupted by a restart can be resumed. <p>
+ *
+ * A checkpoint consists of one document describing the calculation, with the id split points used to divide
+ * the collection into ranges, and one document per range with the last processed id of that range. The
+ * documents of different ranges are written independently by the worker processing the range. A checkpoint is
+ * only valid for the same set of number of partitions it was created for.
+ */
+final class PersistedInstanceIdCheckpoints {
+
+	static final String METADATA_COLLECTION_NAME = "ymerMetadata";
+
+	private static final String ID_PREFIX = "persistedInstanceId_";
+	private static final String NUMBER_OF_PARTITIONS = "numberOfPartitions";
+	private static final String SPLIT_POINTS = "splitPoints";
+	private static final String NUMBER_OF_RANGES = "numberOfRanges";
+	private static final String LAST_PROCESSED_ID = "lastProcessedId";
+	private static final String UPDATED = "updated";
+
+	private final DocumentCollection metadataCollection;
+
+	PersistedInstanceIdCheckpoints(DocumentCollection metadataCollection) {
+		this.metadataCollection = metadataCollection;
+	}
+
+	Optional<Checkpoint> load(String collectionName, Set<Integer> numberOfPartitionsSet) {
+		Document checkpoint = metadataCollection.findById(checkpointId(collectionName));
+		if (checkpoint == null || !sorted(numberOfPartitionsSet).equals(checkpoint.getList(NUMBER_OF_PARTITIONS, Integer.class))) {
+			return Optional.empty();
+		}
+		Map<Integer, Object> lastProcessedIds = new HashMap<>();
+		for (int rangeIndex = 0; rangeIndex < checkpoint.getInteger(NUMBER_OF_RANGES); rangeIndex++) {
+			Document rangeCheckpoint = metadataCollection.findById(rangeCheckpointId(collectionName, rangeIndex));
+			if (rangeCheckpoint != null && rangeCheckpoint.get(LAST_PROCESSED_ID) != null) {
+				lastProcessedIds.put(rangeIndex, rangeCheckpoint.get(LAST_PROCESSED_ID));
+			}
+		}
+		return Optional.of(new Checkpoint(checkpoint.getList(SPLIT_POINTS, Object.class), lastProcessedIds));
+	}
+
+	/**
+	 * Replaces any existing checkpoint for the collection with a new checkpoint, without any processed ids.
+	 */
+	void start(String collectionName, Set<Integer> numberOfPartitionsSet, List<Object> splitPoints, int numberOfRanges) {
+		clear(collectionName);
+		metadataCollection.insert(new Document("_id", checkpointId(collectionName))
+				.append(NUMBER_OF_PARTITIONS, sorted(numberOfPartitionsSet))
+				.append(SPLIT_POINTS, new ArrayList<>(splitPoints))
+				.append(NUMBER_OF_RANGES, numberOfRanges)
+				.append(UPDATED, new Date()));
+		for (int rangeIndex = 0; rangeIndex < numberOfRanges; rangeIndex++) {
+			metadataCollection.insert(rangeCheckpoint(collectionName, rangeIndex, null));
+		}
+	}
+
+	void saveProgress(String collectionName, int rangeIndex, Object lastProcessedId) {
+		metadataCollection.update(rangeCheckpoint(collectionName, rangeIndex, lastProcessedId));
+	}
+
+	void clear(String collectionName) {
+		Document checkpoint = metadataCollection.findById(checkpointId(collectionName));
+		if (checkpoint == null) {
+			return;
+		}
+		for (int rangeIndex = 0; rangeIndex < checkpoint.getInteger(NUMBER_OF_RANGES, 0); rangeIndex++) {
+			metadataCollection.delete(new Document("_id", rangeCheckpointId(collectionName, rangeIndex)));
+		}
+		metadataCollection.delete(new Document("_id", checkpointId(collectionName)));
+	}
+
+	private static Document rangeCheckpoint(String collectionName, int rangeIndex, @Nullable Object lastProcessedId) {
+		return new Document("_id", rangeCheckpointId(collectionName, rangeIndex))
+				.append(LAST_PROCESSED_ID, lastProcessedId)
+				.append(UPDATED, new Date());
+	}
+
+	private static String checkpointId(String collectionName) {
+		return ID_PREFIX + collectionName;
+	}
+
+	private static String rangeCheckpointId(String collectionName, int rangeIndex) {
+		return ID_PREFIX + collectionName + "_" + rangeIndex;
+	}
+
+	private static List<Integer> sorted(Set<Integer> numberOfPartitionsSet) {
+		return numberOfPartitionsSet.stream().sorted().collect(toList());
+	}
+
+	static final class Checkpoint {
+		private final List<Object> splitPoints;
+		private final Map<Integer, Object> lastProcessedIds;
+
+		Checkpoint(List<Object> splitPoints, Map<Integer, Object> lastProcessedIds) {
+			this.splitPoints = splitPoints;
+			this.lastProcessedIds = lastProcessedIds;
+		}
+
+		List<Object> getSplitPoints() {
+			return splitPoints;
+		}
+
+		Optional<Object> getLastProcessedId(int rangeIndex) {
+			return Optional.ofNullable(lastProcessedIds.get(rangeIndex));
+		}
+	}
+}
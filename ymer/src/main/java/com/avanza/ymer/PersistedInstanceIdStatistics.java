@@ -15,24 +15,45 @@
  */
 package com.avanza.ymer;
 
+import static java.util.stream.Collectors.toList;
+
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 class PersistedInstanceIdStatistics implements PersistedInstanceIdStatisticsMBean {
 
 	private final Set<Integer> readyForNumberOfPartitionsSet = ConcurrentHashMap.newKeySet();
 	private final AtomicBoolean calculationInProgress = new AtomicBoolean(false);
+	private volatile boolean calculatedInDatabase;
+	private volatile List<WorkerStatistics> workerStatistics = List.of();
 
 	public void resetStatisticsForJobExecution(Set<Integer> calculatingForPartitions) {
 		readyForNumberOfPartitionsSet.removeIf((numberOfPartitions -> !calculatingForPartitions.contains(numberOfPartitions)));
 		calculationInProgress.set(true);
+		calculatedInDatabase = false;
+		workerStatistics = List.of();
+	}
+
+	List<WorkerStatistics> startWorkers(List<IdRange> idRanges) {
+		List<WorkerStatistics> workers = IntStream.range(0, idRanges.size())
+				.mapToObj(i -> new WorkerStatistics(i + 1, idRanges.get(i)))
+				.collect(toList());
+		workerStatistics = workers;
+		return workers;
 	}
 
 	public void addReadyForNumberOfPartitions(int numberOfPartitions) {
 		readyForNumberOfPartitionsSet.add(numberOfPartitions);
 	}
 
+	void calculatedInDatabase() {
+		calculatedInDatabase = true;
+	}
+
 	public void calculationCompleted() {
 		calculationInProgress.set(false);
 	}
@@ -50,4 +71,63 @@ class PersistedInstanceIdStatistics implements PersistedInstanceIdStatisticsMBea
 	public boolean isCalculationInProgress() {
 		return calculationInProgress.get();
 	}
+
+	@Override
+	public boolean isCalculatedInDatabase() {
+		return calculatedInDatabase;
+	}
+
+	@Override
+	public long getNumberOfAnalyzedDocuments() {
+		return workerStatistics.stream().mapToLong(WorkerStatistics::getAnalyzed).sum();
+	}
+
+	@Override
+	public long getNumberOfUpdatedDocuments() {
+		return workerStatistics.stream().mapToLong(WorkerStatistics::getUpdated).sum();
+	}
+
+	@Override
+	public String[] getWorkerProgress() {
+		return workerStatistics.stream().map(WorkerStatistics::toString).toArray(String[]::new);
+	}
+
+	static final class WorkerStatistics {
+		private final int workerNumber;
+		private final IdRange idRange;
+		private final LongAdder analyzed = new LongAdder();
+		private final LongAdder updated = new LongAdder();
+		private volatile boolean completed;
+
+		private WorkerStatistics(int workerNumber, IdRange idRange) {
+			this.workerNumber = workerNumber;
+			this.idRange = idRange;
+		}
+
+		void addAnalyzed(long count) {
+			analyzed.add(count);
+		}
+
+		void addUpdated(long count) {
+			updated.add(count);
+		}
+
+		void completed() {
+			completed = true;
+		}
+
+		long getAnalyzed() {
+			return analyzed.sum();
+		}
+
+		long getUpdated() {
+			return updated.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "Worker " + workerNumber + " " + idRange + ": updated " + updated.sum() + " documents (" + analyzed.sum() + " analyzed)"
+					+ (completed ? ", completed" : "");
+		}
+	}
 }
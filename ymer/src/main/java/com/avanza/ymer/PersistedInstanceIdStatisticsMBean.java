@@ -26,4 +26,24 @@ public interface PersistedInstanceIdStatisticsMBean {
 	 * Whether {@link PersistedInstanceIdCalculationService} is currently running a calculation for the collection.
 	 */
 	boolean isCalculationInProgress();
+
+	/**
+	 * Whether the latest calculation was done in the database, rather than by reading the documents to the mirror.
+	 */
+	boolean isCalculatedInDatabase();
+
+	/**
+	 * The number of documents analyzed by the latest calculation, when calculating in the mirror.
+	 */
+	long getNumberOfAnalyzedDocuments();
+
+	/**
+	 * The number of documents updated by the latest calculation, when calculating in the mirror.
+	 */
+	long getNumberOfUpdatedDocuments();
+
+	/**
+	 * Progress of each worker of the latest calculation, when calculating in the mirror.
+	 */
+	String[] getWorkerProgress();
 }
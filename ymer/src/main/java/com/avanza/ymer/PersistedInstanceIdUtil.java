@@ -16,10 +16,12 @@
 package com.avanza.ymer;
 
 import static com.avanza.ymer.MirroredObject.DOCUMENT_INSTANCE_ID_PREFIX;
+import static com.avanza.ymer.MirroredObject.DOCUMENT_ROUTING_KEY;
 
 import java.util.List;
 import java.util.function.Predicate;
 
+import org.bson.Document;
 import org.springframework.data.mongodb.core.index.IndexInfo;
 
 final class PersistedInstanceIdUtil {
@@ -36,6 +38,20 @@ final class PersistedInstanceIdUtil {
 		return DOCUMENT_INSTANCE_ID_PREFIX + "_" + numberOfPartitions;
 	}
 
+	/**
+	 * Aggregation expression calculating the instance id from the routing key hash stored in
+	 * {@link MirroredObject#DOCUMENT_ROUTING_KEY}, the same way as
+	 * {@link com.avanza.ymer.util.GigaSpacesInstanceIdUtil#getInstanceId(Object, int)}.
+	 */
+	public static Document instanceIdExpression(int numberOfPartitions) {
+		String routingKey = "$" + DOCUMENT_ROUTING_KEY;
+		Document safeAbsoluteValue = new Document("$cond", List.of(
+				new Document("$eq", List.of(routingKey, Integer.MIN_VALUE)),
+				Integer.MAX_VALUE,
+				new Document("$abs", routingKey)));
+		return new Document("$add", List.of(new Document("$mod", List.of(safeAbsoluteValue, numberOfPartitions)), 1));
+	}
+
 	public static boolean isPersistedInstanceIdIndex(IndexInfo index) {
 		return index.getIndexFields().size() == 1 && index.getIndexFields().get(0).getKey().startsWith(DOCUMENT_INSTANCE_ID_PREFIX);
 	}
@@ -45,18 +45,33 @@ class Plugins {
 
 	public PostReadProcessor getPostReadProcessing(Class<?> dataType) {
 		return postReadProcessors.computeIfAbsent(dataType, dt ->
-			new PostReadProcessor() {
-				private final Set<PostReadProcessor> postReadProcessors = plugins.stream()
-						.flatMap(p -> p.createPostReadProcessor(dt).stream())
-						.collect(toCollection(LinkedHashSet::new));
-				@Override
-				public Document postRead(Document postRead) {
-					for (PostReadProcessor processor : postReadProcessors) {
-						postRead = processor.postRead(postRead);
-					}
-					return postRead;
-				}
-			});
+			new PostReadProcessorChain(plugins.stream()
+					.flatMap(p -> p.createPostReadProcessor(dt).stream())
+					.collect(toCollection(LinkedHashSet::new))));
+	}
+
+	/**
+	 * Whether the given post read processing may modify documents, which is the case unless it is a chain of
+	 * post read processors created by {@link #getPostReadProcessing(Class)} without any processors.
+	 */
+	static boolean modifiesDocuments(PostReadProcessor postReadProcessing) {
+		return !(postReadProcessing instanceof PostReadProcessorChain) || !((PostReadProcessorChain) postReadProcessing).postReadProcessors.isEmpty();
+	}
+
+	private static final class PostReadProcessorChain implements PostReadProcessor {
+		private final Set<PostReadProcessor> postReadProcessors;
+
+		private PostReadProcessorChain(Set<PostReadProcessor> postReadProcessors) {
+			this.postReadProcessors = postReadProcessors;
+		}
+
+		@Override
+		public Document postRead(Document postRead) {
+			for (PostReadProcessor processor : postReadProcessors) {
+				postRead = processor.postRead(postRead);
+			}
+			return postRead;
+		}
 	}
 
 	public PreWriteProcessor getPreWriteProcessing(Class<?> dataType) {
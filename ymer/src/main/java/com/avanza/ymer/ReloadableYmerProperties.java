@@ -19,19 +19,53 @@ import static java.util.Objects.requireNonNull;
 
 import java.util.Optional;
 import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
 import java.util.function.Supplier;
 
 public final class ReloadableYmerProperties {
 
 	private final Supplier<Optional<Integer>> nextNumberOfInstances;
 	private final BooleanSupplier useBulkWrites;
+	private final IntSupplier instanceIdCalculationWorkers;
+	private final IntSupplier instanceIdCalculationParallelCollections;
+	private final IntSupplier bulkWriteParallelism;
+	private final BooleanSupplier coalesceBulkWrites;
+	private final BooleanSupplier useUnorderedBulkWrites;
+	private final IntSupplier bulkConversionParallelism;
+	private final IntSupplier maxBulkWriteChunkOperations;
+	private final IntSupplier maxBulkWriteChunkBytes;
+	private final IntSupplier bulkWriteChunkParallelism;
+	private final IntSupplier adaptiveBulkSizeTargetLatencyMillis;
+	private final IntSupplier transientErrorRetryBudgetMillis;
 
 	private ReloadableYmerProperties(
 			Supplier<Optional<Integer>> nextNumberOfInstances,
-			BooleanSupplier useBulkWrites
+			BooleanSupplier useBulkWrites,
+			IntSupplier instanceIdCalculationWorkers,
+			IntSupplier instanceIdCalculationParallelCollections,
+			IntSupplier bulkWriteParallelism,
+			BooleanSupplier coalesceBulkWrites,
+			IntSupplier bulkConversionParallelism,
+			IntSupplier maxBulkWriteChunkOperations,
+			IntSupplier maxBulkWriteChunkBytes,
+			IntSupplier bulkWriteChunkParallelism,
+			IntSupplier adaptiveBulkSizeTargetLatencyMillis,
+			BooleanSupplier useUnorderedBulkWrites,
+			IntSupplier transientErrorRetryBudgetMillis
 	) {
 		this.nextNumberOfInstances = requireNonNull(nextNumberOfInstances);
 		this.useBulkWrites = requireNonNull(useBulkWrites);
+		this.instanceIdCalculationWorkers = requireNonNull(instanceIdCalculationWorkers);
+		this.instanceIdCalculationParallelCollections = requireNonNull(instanceIdCalculationParallelCollections);
+		this.bulkWriteParallelism = requireNonNull(bulkWriteParallelism);
+		this.coalesceBulkWrites = requireNonNull(coalesceBulkWrites);
+		this.bulkConversionParallelism = requireNonNull(bulkConversionParallelism);
+		this.maxBulkWriteChunkOperations = requireNonNull(maxBulkWriteChunkOperations);
+		this.maxBulkWriteChunkBytes = requireNonNull(maxBulkWriteChunkBytes);
+		this.bulkWriteChunkParallelism = requireNonNull(bulkWriteChunkParallelism);
+		this.adaptiveBulkSizeTargetLatencyMillis = requireNonNull(adaptiveBulkSizeTargetLatencyMillis);
+		this.useUnorderedBulkWrites = requireNonNull(useUnorderedBulkWrites);
+		this.transientErrorRetryBudgetMillis = requireNonNull(transientErrorRetryBudgetMillis);
 	}
 
 	public boolean useBulkWrites() {
@@ -43,6 +77,50 @@ public final class ReloadableYmerProperties {
 				.filter(numberOfInstances -> numberOfInstances > 0);
 	}
 
+	public int getInstanceIdCalculationWorkers() {
+		return Math.max(1, instanceIdCalculationWorkers.getAsInt());
+	}
+
+	public int getInstanceIdCalculationParallelCollections() {
+		return Math.max(1, instanceIdCalculationParallelCollections.getAsInt());
+	}
+
+	public int getBulkWriteParallelism() {
+		return Math.max(1, bulkWriteParallelism.getAsInt());
+	}
+
+	public boolean coalesceBulkWrites() {
+		return coalesceBulkWrites.getAsBoolean();
+	}
+
+	public int getBulkConversionParallelism() {
+		return Math.max(1, bulkConversionParallelism.getAsInt());
+	}
+
+	public int getMaxBulkWriteChunkOperations() {
+		return Math.max(1, maxBulkWriteChunkOperations.getAsInt());
+	}
+
+	public int getMaxBulkWriteChunkBytes() {
+		return Math.max(1, maxBulkWriteChunkBytes.getAsInt());
+	}
+
+	public int getBulkWriteChunkParallelism() {
+		return Math.max(1, bulkWriteChunkParallelism.getAsInt());
+	}
+
+	public int getAdaptiveBulkSizeTargetLatencyMillis() {
+		return Math.max(0, adaptiveBulkSizeTargetLatencyMillis.getAsInt());
+	}
+
+	public boolean useUnorderedBulkWrites() {
+		return useUnorderedBulkWrites.getAsBoolean();
+	}
+
+	public int getTransientErrorRetryBudgetMillis() {
+		return Math.max(0, transientErrorRetryBudgetMillis.getAsInt());
+	}
+
 	static ReloadablePropertiesBuilder builder() {
 		return new ReloadablePropertiesBuilder();
 	}
@@ -50,6 +128,17 @@ public final class ReloadableYmerProperties {
 	public static final class ReloadablePropertiesBuilder {
 		private Supplier<Optional<Integer>> nextNumberOfInstances = Optional::empty;
 		private BooleanSupplier useBulkWrites = () -> true;
+		private IntSupplier instanceIdCalculationWorkers = () -> 1;
+		private IntSupplier instanceIdCalculationParallelCollections = () -> 1;
+		private IntSupplier bulkWriteParallelism = () -> 1;
+		private BooleanSupplier coalesceBulkWrites = () -> false;
+		private IntSupplier bulkConversionParallelism = () -> 1;
+		private IntSupplier maxBulkWriteChunkOperations = () -> BulkWriteChunker.DEFAULT_MAX_CHUNK_OPERATIONS;
+		private IntSupplier maxBulkWriteChunkBytes = () -> BulkWriteChunker.DEFAULT_MAX_CHUNK_BYTES;
+		private IntSupplier bulkWriteChunkParallelism = () -> 1;
+		private IntSupplier adaptiveBulkSizeTargetLatencyMillis = () -> 0;
+		private BooleanSupplier useUnorderedBulkWrites = () -> false;
+		private IntSupplier transientErrorRetryBudgetMillis = () -> 0;
 
 		private ReloadablePropertiesBuilder() {
 		}
@@ -77,8 +166,169 @@ public final class ReloadableYmerProperties {
 			return this;
 		}
 
+		/**
+		 * Sets a supplier returning the number of workers used by {@link PersistedInstanceIdCalculationService} for
+		 * each collection. Each worker reads and updates a separate range of ids, and reads the next batch of documents
+		 * while the previous batch is written.
+		 * <p>
+		 * This defaults to 1, values below 1 are treated as 1.
+		 */
+		public ReloadablePropertiesBuilder instanceIdCalculationWorkers(IntSupplier instanceIdCalculationWorkers) {
+			this.instanceIdCalculationWorkers = instanceIdCalculationWorkers;
+			return this;
+		}
+
+		/**
+		 * Sets a supplier returning the number of collections that {@link PersistedInstanceIdCalculationService}
+		 * calculates instance id for concurrently. The total number of workers is at most this value multiplied by
+		 * {@link #instanceIdCalculationWorkers(IntSupplier)}.
+		 * <p>
+		 * This applies when all collections are calculated at once. Calculations triggered on startup are scheduled
+		 * per collection and run one collection at a time, each using
+		 * {@link #instanceIdCalculationWorkers(IntSupplier)} workers.
+		 * <p>
+		 * This defaults to 1, values below 1 are treated as 1.
+		 */
+		public ReloadablePropertiesBuilder instanceIdCalculationParallelCollections(IntSupplier instanceIdCalculationParallelCollections) {
+			this.instanceIdCalculationParallelCollections = instanceIdCalculationParallelCollections;
+			return this;
+		}
+
+		/**
+		 * Sets a supplier returning the number of shards used by {@link BulkMirroredObjectWriter} when writing a batch.
+		 * The changes of each collection are split into shards by document id, and all shards are written concurrently.
+		 * Changes to the same document are always written in order by the same shard. Write failures are reported to
+		 * exception listeners and handlers on the synchronization thread once all shards are written, so they are never
+		 * invoked concurrently.
+		 * <p>
+		 * This defaults to 1, which writes one collection at a time on the synchronization thread.
+		 * Values below 1 are treated as 1.
+		 */
+		public ReloadablePropertiesBuilder bulkWriteParallelism(IntSupplier bulkWriteParallelism) {
+			this.bulkWriteParallelism = bulkWriteParallelism;
+			return this;
+		}
+
+		/**
+		 * Enable this to let {@link BulkMirroredObjectWriter} coalesce all operations on the same document within a
+		 * batch into their net effect before writing to MongoDB. An insert followed by updates is written as a single
+		 * insert of the last state, an update followed by a remove as a single remove, and an insert followed by a
+		 * remove is not written at all.
+		 * <p>
+		 * This is default {@code false}.
+		 */
+		public ReloadablePropertiesBuilder coalesceBulkWrites(BooleanSupplier coalesceBulkWrites) {
+			this.coalesceBulkWrites = coalesceBulkWrites;
+			return this;
+		}
+
+		/**
+		 * Sets a supplier returning the number of threads used by {@link BulkMirroredObjectWriter} to convert the space
+		 * objects of a batch to documents, before the bulk writes are built. Each converted document is kept until it
+		 * has been written, so changes that are retried after a failed bulk write are not converted again.
+		 * <p>
+		 * When this is above 1, the document converter and any {@link com.avanza.ymer.plugin.PreWriteProcessor} must be
+		 * thread safe.
+		 * <p>
+		 * This defaults to 1, which converts all objects on the synchronization thread. Values below 1 are treated as 1.
+		 */
+		public ReloadablePropertiesBuilder bulkConversionParallelism(IntSupplier bulkConversionParallelism) {
+			this.bulkConversionParallelism = bulkConversionParallelism;
+			return this;
+		}
+
+		/**
+		 * Sets a supplier returning the maximum number of write models sent to MongoDB in one bulk write. Larger bulk
+		 * writes are split into chunks that are written one after another, or concurrently when they are unordered
+		 * (see {@link #bulkWriteChunkParallelism(IntSupplier)}).
+		 * <p>
+		 * This defaults to 100 000, which is the largest number of write operations MongoDB accepts in one request.
+		 * Values below 1 are treated as 1.
+		 */
+		public ReloadablePropertiesBuilder maxBulkWriteChunkOperations(IntSupplier maxBulkWriteChunkOperations) {
+			this.maxBulkWriteChunkOperations = maxBulkWriteChunkOperations;
+			return this;
+		}
+
+		/**
+		 * Sets a supplier returning the maximum estimated size in bytes of the documents sent to MongoDB in one bulk
+		 * write. A single write model larger than this is still written, in a chunk of its own.
+		 * <p>
+		 * This defaults to 16 MiB. Values below 1 are treated as 1.
+		 */
+		public ReloadablePropertiesBuilder maxBulkWriteChunkBytes(IntSupplier maxBulkWriteChunkBytes) {
+			this.maxBulkWriteChunkBytes = maxBulkWriteChunkBytes;
+			return this;
+		}
+
+		/**
+		 * Sets a supplier returning the number of chunks of an unordered bulk write that may be written concurrently.
+		 * This applies to the unordered waves {@link BulkMirroredObjectWriter} writes when
+		 * {@link #useUnorderedBulkWrites(BooleanSupplier)} is enabled. Chunks of ordered bulk writes are always written
+		 * one at a time.
+		 * <p>
+		 * This defaults to 1. Values below 1 are treated as 1.
+		 */
+		public ReloadablePropertiesBuilder bulkWriteChunkParallelism(IntSupplier bulkWriteChunkParallelism) {
+			this.bulkWriteChunkParallelism = bulkWriteChunkParallelism;
+			return this;
+		}
+
+		/**
+		 * Sets a supplier returning the target latency in milliseconds of each bulk write made by
+		 * {@link BulkMirroredObjectWriter}. When set, the changes of each collection are written in bulks of at most
+		 * {@link AdaptiveBulkSizeController#getBulkSizeLimit()} changes. The limit grows while bulk writes complete
+		 * within the target latency, and is halved when they do not, or when they fail from timeouts or connection
+		 * problems.
+		 * <p>
+		 * This defaults to 0, which writes all changes of a collection in a batch in one bulk write.
+		 * Values below 1 are treated as 0.
+		 */
+		public ReloadablePropertiesBuilder adaptiveBulkSizeTargetLatencyMillis(IntSupplier adaptiveBulkSizeTargetLatencyMillis) {
+			this.adaptiveBulkSizeTargetLatencyMillis = adaptiveBulkSizeTargetLatencyMillis;
+			return this;
+		}
+
+		/**
+		 * Enable this to let {@link BulkMirroredObjectWriter} write the changes of a batch using unordered bulk writes.
+		 * The changes of each collection are split into waves, where each wave contains at most one change per document,
+		 * and the waves are written one after another. Changes to the same document are therefore still applied in
+		 * order, while MongoDB may apply the changes within a wave in parallel. A failing change does not stop the rest
+		 * of its wave, and all failures of a wave are reported after a single bulk write.
+		 * <p>
+		 * Each wave is a round trip to MongoDB, so this pays off when most documents change once per batch. A document
+		 * changing n times in a batch takes n waves, so when more than a few waves would be needed, the collection is
+		 * written in one ordered bulk write instead. Enable {@link #coalesceBulkWrites(BooleanSupplier)} as well to
+		 * collapse repeated changes of a document before the waves are formed.
+		 * <p>
+		 * This is default {@code false}, which writes all changes of a collection in one ordered bulk write, and
+		 * retries the changes after a failing change in a new bulk write.
+		 */
+		public ReloadablePropertiesBuilder useUnorderedBulkWrites(BooleanSupplier useUnorderedBulkWrites) {
+			this.useUnorderedBulkWrites = useUnorderedBulkWrites;
+			return this;
+		}
+
+		/**
+		 * Sets a supplier returning the time in milliseconds that {@link BulkMirroredObjectWriter} may spend retrying
+		 * bulk writes that fail from transient errors, such as lost connections or an election of a new primary.
+		 * Such a bulk write is retried after an exponentially growing, randomized backoff, and inserts are written as
+		 * upserts when retried, as they may already have been written. Once the time is spent, the error is handled by
+		 * the exception handler, which by default makes GigaSpaces retry the whole batch.
+		 * <p>
+		 * This defaults to 0, which does not retry. Values below 1 are treated as 0.
+		 */
+		public ReloadablePropertiesBuilder transientErrorRetryBudgetMillis(IntSupplier transientErrorRetryBudgetMillis) {
+			this.transientErrorRetryBudgetMillis = transientErrorRetryBudgetMillis;
+			return this;
+		}
+
 		public ReloadableYmerProperties build() {
-			return new ReloadableYmerProperties(nextNumberOfInstances, useBulkWrites);
+			return new ReloadableYmerProperties(nextNumberOfInstances, useBulkWrites, instanceIdCalculationWorkers,
+					instanceIdCalculationParallelCollections, bulkWriteParallelism, coalesceBulkWrites,
+					bulkConversionParallelism, maxBulkWriteChunkOperations, maxBulkWriteChunkBytes,
+					bulkWriteChunkParallelism, adaptiveBulkSizeTargetLatencyMillis, useUnorderedBulkWrites,
+					transientErrorRetryBudgetMillis);
 		}
 	}
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Creates thread pools of daemon threads whose size is adjusted to the parallelism of each task they are given,
+ * and whose idle threads time out.
+ */
+final class ResizableExecutorUtil {
+
+	private ResizableExecutorUtil() {
+	}
+
+	static ThreadPoolExecutor createResizableExecutor(String threadNamePrefix) {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+		threadFactory.setDaemon(true);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Sets the number of threads of the executor, keeping the core pool size from exceeding the maximum pool size.
+	 */
+	static void resize(ThreadPoolExecutor executor, int poolSize) {
+		synchronized (executor) {
+			if (poolSize > executor.getMaximumPoolSize()) {
+				executor.setMaximumPoolSize(poolSize);
+				executor.setCorePoolSize(poolSize);
+			} else if (poolSize < executor.getMaximumPoolSize()) {
+				executor.setCorePoolSize(poolSize);
+				executor.setMaximumPoolSize(poolSize);
+			}
+		}
+	}
+}
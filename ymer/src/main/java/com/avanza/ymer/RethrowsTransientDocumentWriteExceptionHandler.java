@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClientException;
+import com.mongodb.MongoException;
 import com.mongodb.MongoNotPrimaryException;
 import com.mongodb.MongoSocketException;
 
@@ -32,20 +33,16 @@ import com.mongodb.MongoSocketException;
  */
 class RethrowsTransientDocumentWriteExceptionHandler implements DocumentWriteExceptionHandler {
 
-	private final Set<Class<? extends Exception>> transientErrorClasses;
-	private final Set<String> transientErrorMessages;
+	private static final Set<Class<? extends Exception>> TRANSIENT_ERROR_CLASSES = new HashSet<>(Arrays.asList(
+			MongoSocketException.class,
+			MongoClientException.class,
+			MongoNotPrimaryException.class));
+	private static final Set<String> TRANSIENT_ERROR_MESSAGES = new HashSet<>(Arrays.asList("No replica set members available for query with",
+			"not master", "Command failed with error 13: 'not authorized on "));
+	private static final String RETRYABLE_WRITE_ERROR_LABEL = "RetryableWriteError";
 
 	private final Logger log = LoggerFactory.getLogger(RethrowsTransientDocumentWriteExceptionHandler.class);
 
-	public RethrowsTransientDocumentWriteExceptionHandler() {
-		this.transientErrorClasses = new HashSet<>(Arrays.asList(
-				MongoSocketException.class,
-				MongoClientException.class,
-				MongoNotPrimaryException.class));
-		this.transientErrorMessages = new HashSet<>(Arrays.asList("No replica set members available for query with",
-				"not master", "Command failed with error 13: 'not authorized on "));
-	}
-
 	@Override
 	public void handleException(Exception exception, String operationDescription) {
 		if (isTransient(exception)) {
@@ -56,13 +53,27 @@ class RethrowsTransientDocumentWriteExceptionHandler implements DocumentWriteExc
 		}
 	}
 
-	private boolean isTransient(Exception exception) {
-		for (Class<? extends Exception> exceptionClass : transientErrorClasses) {
+	/**
+	 * Whether the given exception is caused by a temporary problem, such as a lost connection or an election of a
+	 * new primary, after which the failed operation can be retried. A bulk write that only failed to satisfy the
+	 * write concern, typically as the primary stepped down, is transient as no single document was rejected.
+	 */
+	static boolean isTransient(Exception exception) {
+		if (exception instanceof MongoException && ((MongoException) exception).hasErrorLabel(RETRYABLE_WRITE_ERROR_LABEL)) {
+			return true;
+		}
+		if (exception instanceof MongoBulkWriteException) {
+			MongoBulkWriteException bulkWriteException = (MongoBulkWriteException) exception;
+			if (bulkWriteException.getWriteErrors().isEmpty() && bulkWriteException.getWriteConcernError() != null) {
+				return true;
+			}
+		}
+		for (Class<? extends Exception> exceptionClass : TRANSIENT_ERROR_CLASSES) {
 			if (exceptionClass.isAssignableFrom(exception.getClass())) {
 				return true;
 			}
 		}
-		for (String message : transientErrorMessages) {
+		for (String message : TRANSIENT_ERROR_MESSAGES) {
 			String exceptionMessage = exception.getMessage();
 			if (exceptionMessage != null && exceptionMessage.startsWith(message)) {
 				return true;
@@ -17,12 +17,20 @@ package com.avanza.ymer;
 
 import java.lang.reflect.Method;
 import java.util.Objects;
+import java.util.Optional;
 
 import com.gigaspaces.annotation.pojo.SpaceId;
 
 interface RoutingKeyExtractor {
 
 	Object getRoutingKey(Object spaceObject);
+
+	/**
+	 * Returns the method that the routing key is read from, if the routing key is the unmodified return value of that method.
+	 */
+	default Optional<Method> getRoutingMethod() {
+		return Optional.empty();
+	}
 	
 	/**
 	 * Routing for space objects works differently for gigaspace objects that has an autogenerated key.
@@ -85,6 +93,11 @@ interface RoutingKeyExtractor {
 			}
 		}
 
+		@Override
+		public Optional<Method> getRoutingMethod() {
+			return Optional.of(m);
+		}
+
 	}
 	
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Sums values added during a sliding window of recent seconds, such as the last minute. <p>
+ *
+ * Values are added to a ring of per-second buckets, each holding a striped sum and count of the values added during
+ * its second. Adding a value does not lock or allocate, except when a bucket is reused for a new second, and reading a
+ * window only visits the buckets of the window. A window includes the current, partial, second.
+ */
+final class SlidingWindowCounter {
+
+	static final int ONE_SECOND = 1;
+	static final int TEN_SECONDS = 10;
+	static final int ONE_MINUTE = 60;
+	static final int FIVE_MINUTES = 300;
+	private static final int MAX_WINDOW_SECONDS = FIVE_MINUTES;
+
+	private final Clock clock;
+	private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(MAX_WINDOW_SECONDS);
+
+	SlidingWindowCounter() {
+		this(Clock.systemUTC());
+	}
+
+	SlidingWindowCounter(Clock clock) {
+		this.clock = clock;
+	}
+
+	void add(long value) {
+		Bucket bucket = bucket(currentSecond());
+		bucket.sum.add(value);
+		bucket.count.increment();
+	}
+
+	private Bucket bucket(long second) {
+		int index = (int) Math.floorMod(second, (long) MAX_WINDOW_SECONDS);
+		Bucket bucket = buckets.get(index);
+		while (bucket == null || bucket.second < second) {
+			Bucket newBucket = new Bucket(second);
+			if (buckets.compareAndSet(index, bucket, newBucket)) {
+				return newBucket;
+			}
+			bucket = buckets.get(index);
+		}
+		// a later second if this thread was delayed after reading the clock, which is close enough
+		return bucket;
+	}
+
+	/**
+	 * The sum of the values added during the given number of most recent seconds.
+	 */
+	long getSum(int windowSeconds) {
+		return sum(windowSeconds, bucket -> bucket.sum.sum());
+	}
+
+	/**
+	 * The number of values added during the given number of most recent seconds.
+	 */
+	long getCount(int windowSeconds) {
+		return sum(windowSeconds, bucket -> bucket.count.sum());
+	}
+
+	/**
+	 * The sum of the values added during the given number of most recent seconds, per second.
+	 */
+	double getRate(int windowSeconds) {
+		return (double) getSum(windowSeconds) / windowSeconds;
+	}
+
+	private long sum(int windowSeconds, ToLongFunction<Bucket> value) {
+		if (windowSeconds < 1 || windowSeconds > MAX_WINDOW_SECONDS) {
+			throw new IllegalArgumentException("windowSeconds must be between 1 and " + MAX_WINDOW_SECONDS + ", was " + windowSeconds);
+		}
+		long currentSecond = currentSecond();
+		long sum = 0;
+		for (long second = currentSecond - windowSeconds + 1; second <= currentSecond; second++) {
+			Bucket bucket = buckets.get((int) Math.floorMod(second, (long) MAX_WINDOW_SECONDS));
+			if (bucket != null && bucket.second == second) {
+				sum += value.applyAsLong(bucket);
+			}
+		}
+		return sum;
+	}
+
+	private long currentSecond() {
+		return Math.floorDiv(clock.millis(), 1000L);
+	}
+
+	private static final class Bucket {
+		private final long second;
+		private final LongAdder sum = new LongAdder();
+		private final LongAdder count = new LongAdder();
+
+		Bucket(long second) {
+			this.second = second;
+		}
+	}
+}
@@ -18,10 +18,12 @@ package com.avanza.ymer;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.bson.Document;
 
+import com.avanza.ymer.plugin.PostReadProcessor;
 import com.avanza.ymer.plugin.PreWriteProcessor;
 
 /**
@@ -123,6 +125,21 @@ final class SpaceMirrorContext {
 		return document;
 	}
 
+	/**
+	 * Returns the id of the document that the given space object is stored as, without converting the whole object.
+	 * Returns empty if the id can not be determined this way, for instance if the {@link com.gigaspaces.annotation.pojo.SpaceId}
+	 * property is not the id of the document or if the id is a complex object.
+	 */
+	Optional<Object> getDocumentId(Object spaceObject) {
+		MirroredObject<?> mirroredObject = this.mirroredObjects.getMirroredObject(spaceObject.getClass());
+		Object spaceId = mirroredObject.getSpaceId(spaceObject);
+		if (spaceId == null) {
+			return Optional.empty();
+		}
+		return mirroredObject.getSpaceIdPropertyName()
+				.flatMap(propertyName -> documentConverter.toDocumentId(spaceObject.getClass(), propertyName, spaceId));
+	}
+
 	<T> MirroredObject<T> getMirroredDocument(Class<T> type) {
 		return this.mirroredObjects.getMirroredObject(type);
 	}
@@ -139,4 +156,8 @@ final class SpaceMirrorContext {
 	public PreWriteProcessor getPreWriteProcessing(Class<?> spaceClass) {
 		return plugins.getPreWriteProcessing(spaceClass);
 	}
+
+	public PostReadProcessor getPostReadProcessing(Class<?> spaceClass) {
+		return plugins.getPostReadProcessing(spaceClass);
+	}
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate of an operation to a number of permits per second, which can be changed at any time. <p>
+ *
+ * Permits are refilled continuously, and at most one second worth of permits is saved up while the operation is
+ * idle. A caller acquiring more permits than are available gets them immediately but pays for them by waiting,
+ * and so does every caller after it until the debt is paid. A rate of zero or less means unlimited.
+ */
+final class Throttle {
+
+	private final LongSupplier nanoTime;
+	private volatile long permitsPerSecond;
+	private double availablePermits;
+	private long lastRefillNanos;
+
+	Throttle() {
+		this(System::nanoTime);
+	}
+
+	Throttle(LongSupplier nanoTime) {
+		this.nanoTime = nanoTime;
+		this.lastRefillNanos = nanoTime.getAsLong();
+	}
+
+	void setPermitsPerSecond(long permitsPerSecond) {
+		this.permitsPerSecond = permitsPerSecond;
+	}
+
+	long getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	void acquire(long permits) throws InterruptedException {
+		long waitNanos = reserve(permits);
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Takes the given number of permits and returns the number of nanoseconds the caller has to wait before
+	 * using them.
+	 */
+	synchronized long reserve(long permits) {
+		long rate = permitsPerSecond;
+		long now = nanoTime.getAsLong();
+		long elapsedNanos = now - lastRefillNanos;
+		lastRefillNanos = now;
+		if (rate <= 0) {
+			availablePermits = 0;
+			return 0;
+		}
+		availablePermits = Math.min(rate, availablePermits + elapsedNanos * rate / 1e9);
+		availablePermits -= permits;
+		if (availablePermits >= 0) {
+			return 0;
+		}
+		return (long) (-availablePermits * 1e9 / rate);
+	}
+
+}
@@ -15,10 +15,14 @@
  */
 package com.avanza.ymer;
 
+import java.util.List;
 import java.util.Objects;
 
+import javax.annotation.Nullable;
+
 /**
- * Exception handler that can toggle between a default exception handler and one that catches all exceptions.
+ * Exception handler that can toggle between a default exception handler, one that catches all exceptions and,
+ * if configured, one that sends failed changes to a dead-letter store.
  * 
  * @author Kristoffer Erlandsson (krierl), kristoffer.erlandsson@avanzabank.se
  */
@@ -27,18 +31,28 @@ class ToggleableDocumentWriteExceptionHandler implements DocumentWriteExceptionH
 
 	private final DocumentWriteExceptionHandler defaultHandler;
 	private final DocumentWriteExceptionHandler catchesAllExceptionsHandler;
+	@Nullable
+	private final DocumentWriteExceptionHandler deadLetterHandler;
 	private volatile DocumentWriteExceptionHandler state;
 
 	private ToggleableDocumentWriteExceptionHandler(DocumentWriteExceptionHandler defaultHandler,
-			DocumentWriteExceptionHandler catchesAllExceptionsHandler) {
+			DocumentWriteExceptionHandler catchesAllExceptionsHandler,
+			@Nullable DocumentWriteExceptionHandler deadLetterHandler) {
 		this.catchesAllExceptionsHandler = Objects.requireNonNull(catchesAllExceptionsHandler);
 		this.defaultHandler = Objects.requireNonNull(defaultHandler);
+		this.deadLetterHandler = deadLetterHandler;
 		state = defaultHandler;
 	}
 
 	public static ToggleableDocumentWriteExceptionHandler create(DocumentWriteExceptionHandler defaultHandler,
 			DocumentWriteExceptionHandler catchesAllExceptionsHandler) {
-		return new ToggleableDocumentWriteExceptionHandler(defaultHandler, catchesAllExceptionsHandler);
+		return new ToggleableDocumentWriteExceptionHandler(defaultHandler, catchesAllExceptionsHandler, null);
+	}
+
+	public static ToggleableDocumentWriteExceptionHandler create(DocumentWriteExceptionHandler defaultHandler,
+			DocumentWriteExceptionHandler catchesAllExceptionsHandler,
+			DocumentWriteExceptionHandler deadLetterHandler) {
+		return new ToggleableDocumentWriteExceptionHandler(defaultHandler, catchesAllExceptionsHandler, Objects.requireNonNull(deadLetterHandler));
 	}
 
 	@Override
@@ -46,6 +60,16 @@ class ToggleableDocumentWriteExceptionHandler implements DocumentWriteExceptionH
 		state.handleException(exception, operationDescription);
 	}
 
+	@Override
+	public void handleFailedChanges(Exception exception, String operationDescription, List<FailedChange> failedChanges) {
+		state.handleFailedChanges(exception, operationDescription, failedChanges);
+	}
+
+	@Override
+	public void handleRejectedChanges(Exception exception, List<FailedChange> rejectedChanges) {
+		state.handleRejectedChanges(exception, rejectedChanges);
+	}
+
 	public void useCatchesAllHandler() {
 		state = catchesAllExceptionsHandler;
 	}
@@ -54,4 +78,11 @@ class ToggleableDocumentWriteExceptionHandler implements DocumentWriteExceptionH
 		state = defaultHandler;
 	}
 
+	public void useDeadLetterHandler() {
+		if (deadLetterHandler == null) {
+			throw new IllegalStateException("No dead-letter handler is configured");
+		}
+		state = deadLetterHandler;
+	}
+
 }
@@ -18,4 +18,5 @@ package com.avanza.ymer;
 public interface ToggleableDocumentWriteExceptionHandlerMBean {
 	void useCatchesAllHandler();
 	void useDefaultHandler();
+	void useDeadLetterHandler();
 }
\ No newline at end of file
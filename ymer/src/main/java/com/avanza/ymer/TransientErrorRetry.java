@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.avanza.ymer.PerformedOperationsListener.OperationType;
+
+/**
+ * Decides whether a write that failed from a transient error should be retried, and waits before it is. <p>
+ *
+ * The wait is a random time up to an exponentially growing backoff ("full jitter"), so that writers do not retry in
+ * step. Retries stop when the time budget, counted from the first failure, is spent. <p>
+ *
+ * One instance is shared by all writes of a batch, including those of concurrently written shards, so that a batch
+ * never retries for longer than the budget no matter how many bulks it is written in.
+ */
+final class TransientErrorRetry {
+
+	static final long INITIAL_BACKOFF_MILLIS = 50;
+	static final long MAX_BACKOFF_MILLIS = 2_000;
+
+	private final long budgetNanos;
+	private final PerformedOperationsListener operationsListener;
+	private long firstFailureNanos;
+	private int numRetries;
+	private boolean failed;
+
+	TransientErrorRetry(long budgetMillis, PerformedOperationsListener operationsListener) {
+		this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+		this.operationsListener = operationsListener;
+	}
+
+	/**
+	 * Waits for the next backoff if the given exception is transient and the budget is not spent.
+	 *
+	 * @return whether the failed write should be retried
+	 */
+	boolean awaitRetry(Exception exception) {
+		if (budgetNanos == 0 || !RethrowsTransientDocumentWriteExceptionHandler.isTransient(exception)) {
+			return false;
+		}
+		long waitMillis = nextWaitMillis();
+		if (waitMillis < 0) {
+			return false;
+		}
+		try {
+			TimeUnit.MILLISECONDS.sleep(waitMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		operationsListener.increment(OperationType.RETRY, 1);
+		operationsListener.retryBackedOff(waitMillis);
+		return true;
+	}
+
+	/**
+	 * Reserves the next retry, unless the budget is spent.
+	 *
+	 * @return the time to wait before retrying, or -1 if the budget is spent
+	 */
+	private synchronized long nextWaitMillis() {
+		long now = System.nanoTime();
+		if (!failed) {
+			failed = true;
+			firstFailureNanos = now;
+		}
+		long remainingMillis = TimeUnit.NANOSECONDS.toMillis(budgetNanos - (now - firstFailureNanos));
+		if (remainingMillis <= 0) {
+			return -1;
+		}
+		long backoffMillis = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(numRetries, 16));
+		numRetries++;
+		return Math.min(remainingMillis, ThreadLocalRandom.current().nextLong(backoffMillis + 1));
+	}
+
+	synchronized int getNumRetries() {
+		return numRetries;
+	}
+}
@@ -0,0 +1,497 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of records, stored in memory-mapped segment files in a directory. <p>
+ *
+ * Each record is stored as its payload length, a CRC32 checksum, its sequence number and its payload. Records are
+ * numbered from 1 without gaps. On open, the records of all segments are validated, and the journal ends at the first
+ * record that is incomplete or fails validation, which is where a crash during an append leaves it. <p>
+ *
+ * Appended records are made durable by {@link #awaitDurable(long)}, where concurrent callers share a single
+ * {@code force} of the segment (group commit). A single reader reads the durable records in order, and
+ * {@link #checkpoint(long)} persists how far it has come, after which the segments that are fully read are deleted.
+ */
+final class WriteAheadJournal implements AutoCloseable {
+
+	static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final Logger log = LoggerFactory.getLogger(WriteAheadJournal.class);
+	private static final int HEADER_SIZE = 4 + 4 + 8; // length, checksum, sequence
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String CHECKPOINT_FILE = "checkpoint";
+
+	private final Path directory;
+	private final int segmentSize;
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private final Object syncLock = new Object();
+	private long appendedSequence;
+	private long checkpointSequence;
+	private Segment readSegment;
+	private int readPosition;
+	private long readSequence;
+	private boolean closed;
+	// guarded by syncLock
+	private long durableSequence;
+	private boolean syncInProgress;
+	private long numSyncs;
+	private long numSyncedRecords;
+
+	private WriteAheadJournal(Path directory, int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Opens the journal in the given directory, creating it if it does not exist, and recovers all records that were
+	 * not checkpointed.
+	 */
+	static WriteAheadJournal open(Path directory) {
+		return open(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	static WriteAheadJournal open(Path directory, int segmentSize) {
+		if (segmentSize <= HEADER_SIZE) {
+			throw new IllegalArgumentException("segmentSize must be larger than " + HEADER_SIZE + ", was " + segmentSize);
+		}
+		WriteAheadJournal journal = new WriteAheadJournal(directory, segmentSize);
+		try {
+			Files.createDirectories(directory);
+			journal.recover();
+		} catch (IOException e) {
+			journal.close();
+			throw new UncheckedIOException("Could not open journal in " + directory, e);
+		}
+		return journal;
+	}
+
+	private void recover() throws IOException {
+		checkpointSequence = readCheckpoint();
+		List<Path> segmentFiles;
+		try (Stream<Path> files = Files.list(directory)) {
+			segmentFiles = files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+		long expectedSequence = checkpointSequence + 1;
+		for (Path segmentFile : segmentFiles) {
+			Segment segment = Segment.open(segmentFile);
+			long firstSequence = segment.scan();
+			if (segment.lastSequence <= checkpointSequence) {
+				// fully read before the last checkpoint, but not yet deleted
+				segment.close();
+				Files.deleteIfExists(segmentFile);
+				continue;
+			}
+			if (firstSequence > expectedSequence) {
+				segment.close();
+				throw new IllegalStateException("Journal in " + directory + " is missing records " + expectedSequence
+						+ " to " + (firstSequence - 1) + ", found in " + segmentFile);
+			}
+			segments.addLast(segment);
+			expectedSequence = segment.lastSequence + 1;
+		}
+		appendedSequence = expectedSequence - 1;
+		durableSequence = appendedSequence;
+		readSegment = segments.peekFirst();
+		readPosition = 0;
+		readSequence = checkpointSequence;
+		if (appendedSequence > checkpointSequence) {
+			log.info("Recovered {} journaled records in {} that were not checkpointed", appendedSequence - checkpointSequence, directory);
+		}
+	}
+
+	/**
+	 * Appends a record, which is durable once {@link #awaitDurable(long)} has returned for its sequence number.
+	 *
+	 * @return the sequence number of the record
+	 */
+	synchronized long append(byte[] payload) {
+		ensureOpen();
+		int recordSize = HEADER_SIZE + payload.length;
+		Segment head = segments.peekLast();
+		if (head == null || head.remaining() < recordSize) {
+			head = roll(recordSize);
+		}
+		long sequence = appendedSequence + 1;
+		head.write(sequence, payload);
+		appendedSequence = sequence;
+		return sequence;
+	}
+
+	private Segment roll(int recordSize) {
+		Segment previous = segments.peekLast();
+		if (previous != null) {
+			previous.buffer.force();
+		}
+		long firstSequence = appendedSequence + 1;
+		Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+		// room for the record and the zero length that marks the end of the segment
+		int size = Math.max(segmentSize, recordSize + 4);
+		try {
+			Segment segment = Segment.create(file, size, firstSequence);
+			segments.addLast(segment);
+			if (readSegment == null) {
+				readSegment = segment;
+				readPosition = 0;
+			}
+			return segment;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not create journal segment " + file, e);
+		}
+	}
+
+	/**
+	 * Waits until the record with the given sequence number, and all records before it, are written to disk. If no
+	 * other thread is currently syncing, this thread syncs all records appended so far.
+	 */
+	void awaitDurable(long sequence) {
+		synchronized (syncLock) {
+			while (durableSequence < sequence && syncInProgress) {
+				try {
+					syncLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for journal sync", e);
+				}
+			}
+			if (durableSequence >= sequence) {
+				return;
+			}
+			syncInProgress = true;
+		}
+		long syncedSequence = durableSequence;
+		try {
+			Segment head;
+			synchronized (this) {
+				ensureOpen();
+				syncedSequence = appendedSequence;
+				head = segments.peekLast();
+			}
+			// segments before the head were forced when the journal rolled over to a new segment
+			head.buffer.force();
+		} finally {
+			synchronized (syncLock) {
+				if (syncedSequence > durableSequence) {
+					numSyncs++;
+					numSyncedRecords += syncedSequence - durableSequence;
+					durableSequence = syncedSequence;
+				}
+				syncInProgress = false;
+				syncLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Reads up to the given number of durable records following the last read record.
+	 */
+	synchronized List<Record> readNext(int maxRecords) {
+		ensureOpen();
+		long durable = getDurableSequence();
+		List<Record> records = new ArrayList<>();
+		while (records.size() < maxRecords && readSequence < durable) {
+			if (readPosition >= readSegment.writePosition) {
+				readSegment = nextSegment(readSegment);
+				readPosition = 0;
+			}
+			Record record = readSegment.read(readPosition);
+			readPosition += HEADER_SIZE + record.payload.length;
+			if (record.sequence <= readSequence) {
+				// checkpointed before the journal was opened
+				continue;
+			}
+			readSequence = record.sequence;
+			records.add(record);
+		}
+		return records;
+	}
+
+	private Segment nextSegment(Segment segment) {
+		boolean found = false;
+		for (Segment candidate : segments) {
+			if (found) {
+				return candidate;
+			}
+			found = candidate == segment;
+		}
+		throw new IllegalStateException("No journal segment after " + segment.path);
+	}
+
+	/**
+	 * Persists that all records up to and including the given sequence number have been processed, and deletes the
+	 * segments that only contain such records.
+	 */
+	synchronized void checkpoint(long sequence) {
+		ensureOpen();
+		if (sequence <= checkpointSequence) {
+			return;
+		}
+		if (sequence > readSequence) {
+			throw new IllegalArgumentException("Can not checkpoint record " + sequence + " which has not been read, last read record is " + readSequence);
+		}
+		try {
+			writeCheckpoint(sequence);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write journal checkpoint in " + directory, e);
+		}
+		checkpointSequence = sequence;
+		while (segments.size() > 1 && segments.peekFirst().lastSequence <= sequence && segments.peekFirst() != readSegment) {
+			Segment segment = segments.removeFirst();
+			segment.close();
+			try {
+				Files.deleteIfExists(segment.path);
+			} catch (IOException e) {
+				log.warn("Could not delete checkpointed journal segment {}", segment.path, e);
+			}
+		}
+	}
+
+	private long readCheckpoint() throws IOException {
+		Path file = directory.resolve(CHECKPOINT_FILE);
+		if (!Files.exists(file)) {
+			return 0;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		if (buffer.remaining() != 8 + 8) {
+			throw new IllegalStateException("Journal checkpoint " + file + " is corrupt");
+		}
+		long sequence = buffer.getLong();
+		if (buffer.getLong() != checksum(sequence, new byte[0])) {
+			throw new IllegalStateException("Journal checkpoint " + file + " is corrupt");
+		}
+		return sequence;
+	}
+
+	private void writeCheckpoint(long sequence) throws IOException {
+		Path file = directory.resolve(CHECKPOINT_FILE);
+		Path tempFile = directory.resolve(CHECKPOINT_FILE + ".tmp");
+		ByteBuffer buffer = ByteBuffer.allocate(8 + 8).putLong(sequence).putLong(checksum(sequence, new byte[0]));
+		buffer.flip();
+		try (FileChannel channel = FileChannel.open(tempFile, CREATE, WRITE, TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(tempFile, file, ATOMIC_MOVE, REPLACE_EXISTING);
+	}
+
+	private static long checksum(long sequence, byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(ByteBuffer.allocate(8).putLong(0, sequence));
+		crc.update(payload);
+		return crc.getValue();
+	}
+
+	private void ensureOpen() {
+		if (closed) {
+			throw new IllegalStateException("Journal in " + directory + " is closed");
+		}
+	}
+
+	synchronized long getAppendedSequence() {
+		return appendedSequence;
+	}
+
+	long getDurableSequence() {
+		synchronized (syncLock) {
+			return durableSequence;
+		}
+	}
+
+	synchronized long getCheckpointSequence() {
+		return checkpointSequence;
+	}
+
+	synchronized int getNumSegments() {
+		return segments.size();
+	}
+
+	long getNumSyncs() {
+		synchronized (syncLock) {
+			return numSyncs;
+		}
+	}
+
+	long getNumSyncedRecords() {
+		synchronized (syncLock) {
+			return numSyncedRecords;
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (Segment segment : segments) {
+			segment.buffer.force();
+			segment.close();
+		}
+	}
+
+	static final class Record {
+		private final long sequence;
+		private final byte[] payload;
+
+		Record(long sequence, byte[] payload) {
+			this.sequence = sequence;
+			this.payload = payload;
+		}
+
+		long getSequence() {
+			return sequence;
+		}
+
+		byte[] getPayload() {
+			return payload;
+		}
+	}
+
+	private static final class Segment {
+		private final Path path;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private long lastSequence;
+		private int writePosition;
+
+		private Segment(Path path, FileChannel channel, MappedByteBuffer buffer, long lastSequence) {
+			this.path = path;
+			this.channel = channel;
+			this.buffer = buffer;
+			this.lastSequence = lastSequence;
+		}
+
+		static Segment create(Path path, int size, long firstSequence) throws IOException {
+			FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+			return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), firstSequence - 1);
+		}
+
+		static Segment open(Path path) throws IOException {
+			FileChannel channel = FileChannel.open(path, READ, WRITE);
+			return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()), 0);
+		}
+
+		/**
+		 * Validates the records of a segment that was opened, and positions it after the last valid record. Anything
+		 * after that is cleared, so it can not be mistaken for records appended later.
+		 *
+		 * @return the sequence number of the first record, or of the record that would have been first
+		 */
+		long scan() {
+			long firstSequence = parseFirstSequence(path);
+			long expectedSequence = firstSequence;
+			int position = 0;
+			while (position + HEADER_SIZE <= buffer.capacity()) {
+				int length = buffer.getInt(position);
+				if (length <= 0 || position + HEADER_SIZE + length > buffer.capacity()) {
+					break;
+				}
+				Record record = read(position, length);
+				if (record.sequence != expectedSequence || buffer.getInt(position + 4) != (int) checksum(record.sequence, record.payload)) {
+					log.warn("Discarding incomplete journal record {} at position {} in {}", expectedSequence, position, path);
+					break;
+				}
+				expectedSequence++;
+				position += HEADER_SIZE + length;
+			}
+			writePosition = position;
+			lastSequence = expectedSequence - 1;
+			for (int i = position; i < buffer.capacity(); i++) {
+				if (buffer.get(i) != 0) {
+					buffer.put(i, (byte) 0);
+				}
+			}
+			return firstSequence;
+		}
+
+		private static long parseFirstSequence(Path path) {
+			String name = path.getFileName().toString();
+			try {
+				return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+			} catch (RuntimeException e) {
+				throw new IllegalStateException("Unexpected journal segment name " + path, e);
+			}
+		}
+
+		int remaining() {
+			// keep room for the zero length that marks the end of the segment
+			return buffer.capacity() - writePosition - 4;
+		}
+
+		void write(long sequence, byte[] payload) {
+			int position = writePosition;
+			buffer.putInt(position + 4, (int) checksum(sequence, payload));
+			buffer.putLong(position + 8, sequence);
+			ByteBuffer payloadBuffer = buffer.duplicate();
+			payloadBuffer.position(position + HEADER_SIZE);
+			payloadBuffer.put(payload);
+			// the length is written last, so a record is not seen until it is complete
+			buffer.putInt(position, payload.length);
+			writePosition = position + HEADER_SIZE + payload.length;
+			lastSequence = sequence;
+		}
+
+		Record read(int position) {
+			return read(position, buffer.getInt(position));
+		}
+
+		private Record read(int position, int length) {
+			byte[] payload = new byte[length];
+			ByteBuffer payloadBuffer = buffer.duplicate();
+			payloadBuffer.position(position + HEADER_SIZE);
+			payloadBuffer.get(payload);
+			return new Record(buffer.getLong(position + 8), payload);
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.warn("Could not close journal segment {}", path, e);
+			}
+		}
+	}
+}
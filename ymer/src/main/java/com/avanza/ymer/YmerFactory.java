@@ -17,6 +17,7 @@ package com.avanza.ymer;
 
 import static java.util.Objects.requireNonNull;
 
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Set;
@@ -56,6 +57,8 @@ public final class YmerFactory implements ApplicationContextAware {
 	private boolean exportOperationStatisticsMBean = true;
 	private Set<Plugin> plugins = Collections.emptySet();
 	private int numParallelCollections = 1;
+	@Nullable
+	private Path writeAheadJournalDirectory;
 	private final ReloadableYmerProperties.ReloadablePropertiesBuilder ymerPropertiesBuilder = ReloadableYmerProperties.builder();
 
 	private final MirroredObjects mirroredObjects;
@@ -119,7 +122,9 @@ public final class YmerFactory implements ApplicationContextAware {
 	 * Defines whether an ExceptionHandlerMBean should be exported. The ExceptionHandlerMBean allows setting the SpaceSynchronizationEndpoint
 	 * in a state where a bulk of operations is discarded if a failure occurs during synchronization. The default behavior is to keep a failed bulk
 	 * operation first in the queue and wait for a defined interval before running a new attempt to synchronize the bulk. This blocks all
-	 * subsequent synchronization operations until the bulk succeeds.
+	 * subsequent synchronization operations until the bulk succeeds. It can also be set in a state where failed
+	 * operations are stored in a dead-letter collection, which is exported as a DeadLetterStoreMBean that can
+	 * list, replay or purge them.
 	 * <p>
 	 * Default is "true"
 	 */
@@ -128,7 +133,8 @@ public final class YmerFactory implements ApplicationContextAware {
 	}
 
 	/**
-	 * Defines whether an MBean exposing the number of performed operations should be exported. Default is true
+	 * Defines whether an MBean exposing the number of performed operations should be exported, and whether the space
+	 * data source exports an MBean with the statistics of the initial load of each collection. Default is true
 	 */
 	public void setExportOperationStatisticsMBean(boolean exportOperationStatisticsMBean) {
 		this.exportOperationStatisticsMBean = exportOperationStatisticsMBean;
@@ -148,6 +154,10 @@ public final class YmerFactory implements ApplicationContextAware {
 		this.plugins = plugins;
 	}
 
+	/**
+	 * Sets the number of collections that are loaded concurrently during initial load. The largest collections,
+	 * by estimated document count, are started first. Defaults to 1, which loads one collection at a time.
+	 */
 	public void setNumParallelCollections(int numParallelCollections) {
 		if (numParallelCollections < 1) {
 			throw new IllegalArgumentException("numParallelCollections must be a positive integer, was numParallelCollections=" + numParallelCollections + "!");
@@ -174,8 +184,23 @@ public final class YmerFactory implements ApplicationContextAware {
 		return this;
 	}
 
+	/**
+	 * Enables a local write-ahead journal in the given directory. Batches synchronized to the mirror are then
+	 * acknowledged once they are durable in the journal, and written to the database in the background, in order.
+	 * Batches that were not written to the database before a restart are written when the mirror starts again, so
+	 * the directory must be on persistent storage that is kept between restarts of the mirror. <p>
+	 *
+	 * Disabled by default, which writes batches to the database before acknowledging them.
+	 */
+	public YmerFactory withWriteAheadJournal(Path journalDirectory) {
+		this.writeAheadJournalDirectory = requireNonNull(journalDirectory);
+		return this;
+	}
+
 	public SpaceDataSource createSpaceDataSource() {
-		return new YmerSpaceDataSource(createSpaceMirrorContext());
+		YmerSpaceDataSource ymerSpaceDataSource = new YmerSpaceDataSource(createSpaceMirrorContext());
+		ymerSpaceDataSource.setExportInitialLoadStatisticsMBean(exportOperationStatisticsMBean);
+		return ymerSpaceDataSource;
 	}
 
 	public SpaceSynchronizationEndpoint createSpaceSynchronizationEndpoint() {
@@ -185,10 +210,23 @@ public final class YmerFactory implements ApplicationContextAware {
 		);
 		if (this.exportExceptionHandleMBean) {
 			ymerSpaceSynchronizationEndpoint.registerExceptionHandlerMBean();
+			ymerSpaceSynchronizationEndpoint.registerDeadLetterStoreMBean();
 		}
 		if (mirroredObjects.getMirroredObjects().stream().anyMatch(MirroredObject::persistInstanceId)) {
 			ymerSpaceSynchronizationEndpoint.registerPersistedInstanceIdCalculationServiceMBean();
 		}
+		if (mirroredObjects.getMirroredObjects().stream().anyMatch(mirroredObject -> mirroredObject.getCurrentVersion() > 1)) {
+			ymerSpaceSynchronizationEndpoint.registerDocumentFormatMigrationServiceMBean();
+		}
+		if (mirroredObjects.getMirroredObjects().stream().anyMatch(mirroredObject -> mirroredObject.documentHashCacheSize() > 0)) {
+			ymerSpaceSynchronizationEndpoint.registerDocumentHashCacheMBeans();
+		}
+		if (writeAheadJournalDirectory != null) {
+			ymerSpaceSynchronizationEndpoint.enableWriteAheadJournal(writeAheadJournalDirectory);
+			ymerSpaceSynchronizationEndpoint.registerWriteAheadJournalMBean();
+		}
+		ymerSpaceSynchronizationEndpoint.registerBulkWriteChunkerMBean();
+		ymerSpaceSynchronizationEndpoint.registerAdaptiveBulkSizeControllerMBean();
 		if (applicationContext != null) {
 			ymerSpaceSynchronizationEndpoint.setApplicationContext(applicationContext);
 		}
@@ -199,7 +237,7 @@ public final class YmerFactory implements ApplicationContextAware {
 	}
 
 	private SpaceMirrorContext createSpaceMirrorContext() {
-		DocumentDb documentDb = DocumentDb.mongoDb(mongoDatabaseSupplier.get(), readPreference);
+		DocumentDb documentDb = DocumentDb.mongoDb(mongoDatabaseSupplier.get(), readPreference, new BulkWriteChunker(ymerPropertiesBuilder.build()));
 		DocumentConverter documentConverter = DocumentConverter.mongoConverter(mongoConverter);
 		// Set the event publisher to null to avoid deadlocks when loading data in parallel
 		if (mongoConverter.getMappingContext() instanceof ApplicationEventPublisherAware) {
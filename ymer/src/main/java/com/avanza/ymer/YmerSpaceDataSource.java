@@ -16,19 +16,27 @@
 package com.avanza.ymer;
 
 import static java.util.Comparator.comparing;
+import static java.util.Comparator.reverseOrder;
+import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
 
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.bson.Document;
 import org.openspaces.core.cluster.ClusterInfo;
 import org.slf4j.Logger;
@@ -40,25 +48,72 @@ import com.gigaspaces.datasource.DataIterator;
 final class YmerSpaceDataSource extends AbstractSpaceDataSource {
 
     private static final Logger logger = LoggerFactory.getLogger(YmerSpaceDataSource.class);
+    private static final int PARALLEL_LOAD_BUFFER_SIZE = 10_000;
 
     private final SpaceMirrorContext spaceMirrorContext;
     private ClusterInfo clusterInfo;
+    private boolean exportInitialLoadStatisticsMBean = true;
 
     public YmerSpaceDataSource(SpaceMirrorContext spaceMirror) {
         this.spaceMirrorContext = spaceMirror;
     }
 
+    /**
+     * Defines whether an MBean with the statistics of the initial load of each collection should be exported.
+     * Default is true
+     */
+    void setExportInitialLoadStatisticsMBean(boolean exportInitialLoadStatisticsMBean) {
+        this.exportInitialLoadStatisticsMBean = exportInitialLoadStatisticsMBean;
+    }
+
     @Override
     public DataIterator<Object> initialDataLoad() {
         InitialLoadCompleteDispatcher initialLoadCompleteDispatcher = new InitialLoadCompleteDispatcher();
 
-        Stream<Object> objectStream = spaceMirrorContext.getMirroredDocuments().stream()
-                .sorted(comparing(MirroredObject::getCollectionName)) // Make load order same for all partitions to reduce mongo cache misses
-                .collect(toList()).stream() // Pass through a list to make sorting not block the whole stream on iterator.next which will be called later
+        Stream<Object> objectStream;
+        int numParallelCollections = spaceMirrorContext.getNumParallelCollections();
+        if (numParallelCollections > 1) {
+            objectStream = loadInParallel(numParallelCollections, initialLoadCompleteDispatcher);
+        } else {
+            objectStream = spaceMirrorContext.getMirroredDocuments().stream()
+                    .sorted(comparing(MirroredObject::getCollectionName)) // Make load order same for all partitions to reduce mongo cache misses
+                    .collect(toList()).stream() // Pass through a list to make sorting not block the whole stream on iterator.next which will be called later
+                    .filter(md -> !md.excludeFromInitialLoad())
+                    .flatMap(mirroredObject -> load(mirroredObject, initialLoadCompleteDispatcher));
+        }
+
+        return new IteratorAdapter(objectStream, initialLoadCompleteDispatcher::initialLoadComplete);
+    }
+
+    /**
+     * Loads up to numParallelCollections collections concurrently. The largest collections are started first
+     * since the time it takes to load them decides the total time of the initial load.
+     */
+    private Stream<Object> loadInParallel(int numParallelCollections, InitialLoadCompleteDispatcher initialLoadCompleteDispatcher) {
+        List<MirroredObject<?>> mirroredObjects = spaceMirrorContext.getMirroredDocuments().stream()
                 .filter(md -> !md.excludeFromInitialLoad())
-                .flatMap(mirroredObject -> load(mirroredObject, initialLoadCompleteDispatcher));
+                .sorted(comparing(MirroredObject::getCollectionName)) // Make load order same for all partitions to reduce mongo cache misses
+                .collect(toList());
+        Map<MirroredObject<?>, Long> estimatedDocumentCounts = mirroredObjects.stream()
+                .collect(toMap(identity(), this::estimatedDocumentCount));
+        List<MirroredObject<?>> loadOrder = mirroredObjects.stream()
+                .sorted(comparing(estimatedDocumentCounts::get, reverseOrder())) // Stable sort, equally sized collections are still loaded in name order
+                .collect(toList());
+        logger.info("Loading {} collections using {} parallel collections, in order: {}", loadOrder.size(), numParallelCollections,
+                loadOrder.stream().map(MirroredObject::getCollectionName).collect(toList()));
+        List<Supplier<Stream<?>>> loaders = loadOrder.stream()
+                .map(mirroredObject -> (Supplier<Stream<?>>) () -> load(mirroredObject, initialLoadCompleteDispatcher))
+                .collect(toList());
+        return ConcurrentStreamMerger.merge(loaders, numParallelCollections, PARALLEL_LOAD_BUFFER_SIZE, "Ymer-Initial-Load-");
+    }
 
-        return new IteratorAdapter(objectStream.iterator(), initialLoadCompleteDispatcher::initialLoadComplete);
+    private long estimatedDocumentCount(MirroredObject<?> mirroredObject) {
+        try {
+            return spaceMirrorContext.getDocumentCollection(mirroredObject).estimatedDocumentCount();
+        } catch (RuntimeException e) {
+            logger.warn("Could not estimate number of documents in {}, it will be loaded last", mirroredObject.getCollectionName(), e);
+            return 0L;
+        }
     }
 
     <T> Stream<T> load(MirroredObject<T> mirroredObject, InitialLoadCompleteDispatcher initialLoadCompleteDispatcher) {
@@ -67,24 +122,56 @@ final class YmerSpaceDataSource extends AbstractSpaceDataSource {
                 mirroredObject,
                 getInstanceId(),
                 getPartitionCount());
-
-        AtomicInteger counter = new AtomicInteger(0);
-        long start = System.currentTimeMillis();
+        InitialLoadStatistics statistics = documentLoader.getStatistics();
+        if (exportInitialLoadStatisticsMBean) {
+            registerInitialLoadStatisticsMBean(mirroredObject, statistics);
+        }
 
         return documentLoader.streamAllObjects()
                 .map(createPatchedDocumentWriteBack(mirroredObject, initialLoadCompleteDispatcher))
-                .peek(d -> counter.incrementAndGet())
-                .onClose(() -> logger.info("Loaded {} documents from {} in {} milliseconds!", counter.get(), mirroredObject.getCollectionName(), System.currentTimeMillis() - start));
+                .peek(d -> statistics.objectLoaded())
+                .onClose(() -> {
+                    statistics.completed();
+                    logger.info("Loaded {} documents from {} in {} milliseconds!", statistics.getNumLoadedObjects(), mirroredObject.getCollectionName(), statistics.getElapsedMillis());
+                    logger.info("Initial load report for {}: {}", mirroredObject.getCollectionName(), statistics.report());
+                });
+    }
+
+    /**
+     * Registers the statistics of the initial load of a collection, replacing the statistics of any previous load of
+     * the same space instance in this JVM.
+     */
+    private void registerInitialLoadStatisticsMBean(MirroredObject<?> mirroredObject, InitialLoadStatistics statistics) {
+        String name = "se.avanzabank.space.mirror:type=InitialLoadStatistics,instanceId=" + getInstanceId()
+                + ",name=collection_" + mirroredObject.getCollectionName();
+        try {
+            ObjectName objectName = ObjectName.getInstance(name);
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            if (mbeanServer.isRegistered(objectName)) {
+                mbeanServer.unregisterMBean(objectName);
+            }
+            mbeanServer.registerMBean(statistics, objectName);
+        } catch (Exception e) {
+            logger.warn("Failed to register MBean with objectName='{}'", name, e);
+        }
     }
 
     private <T> Function<LoadedDocument<T>, T> createPatchedDocumentWriteBack(MirroredObject<T> document, InitialLoadCompleteDispatcher initialLoadCompleteDispatcher) {
-        AtomicInteger totalWritebackCount = new AtomicInteger(0);
-        initialLoadCompleteDispatcher.onInitialLoadComplete(() -> logger.debug("Updated {} documents in db for {}", totalWritebackCount.get(), document.getMirroredType().getName()));
+        if (!document.writeBackPatchedDocuments()) {
+            return LoadedDocument::getDocument;
+        }
+        PatchedDocumentWriteBack writeBack = new PatchedDocumentWriteBack(
+                spaceMirrorContext.getDocumentCollection(document),
+                spaceMirrorContext.getPreWriteProcessing(document.getMirroredType()),
+                document.getCollectionName(),
+                document.writeBackBatchSize(),
+                document.writeBackMaxPendingBatches());
+        initialLoadCompleteDispatcher.onInitialLoadComplete(() -> {
+            writeBack.drain();
+            logger.debug("Updated {} documents in db for {}", writeBack.getNumWritten(), document.getMirroredType().getName());
+        });
         return loadedDocument -> {
-            if (document.writeBackPatchedDocuments()) {
-                loadedDocument.getPatchedDocument().ifPresent(patchedDocument -> doWriteBackPatchedDocument(document, patchedDocument));
-                totalWritebackCount.incrementAndGet();
-            }
+            loadedDocument.getPatchedDocument().ifPresent(writeBack::add);
             return loadedDocument.getDocument();
         };
     }
@@ -146,11 +233,13 @@ final class YmerSpaceDataSource extends AbstractSpaceDataSource {
     // Helper classes
 
     private static class IteratorAdapter implements DataIterator<Object> {
+        private final Stream<Object> stream;
         private final Iterator<Object> it;
         private final Runnable iterationDone;
 
-        public IteratorAdapter(Iterator<Object> it, Runnable itrationDoneCallback) {
-            this.it = it;
+        public IteratorAdapter(Stream<Object> stream, Runnable itrationDoneCallback) {
+            this.stream = stream;
+            this.it = stream.iterator();
             this.iterationDone = itrationDoneCallback;
         }
 
@@ -175,6 +264,7 @@ final class YmerSpaceDataSource extends AbstractSpaceDataSource {
 
         @Override
         public void close() {
+            stream.close();
         }
     }
 
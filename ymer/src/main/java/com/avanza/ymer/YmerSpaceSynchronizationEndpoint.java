@@ -18,6 +18,7 @@ package com.avanza.ymer;
 import static java.util.stream.Collectors.toList;
 
 import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.HashSet;
 import java.util.List;
@@ -53,7 +54,9 @@ final class YmerSpaceSynchronizationEndpoint extends SpaceSynchronizationEndpoin
 	private final MirroredObjectWriter mirroredObjectWriter;
 	private final BulkMirroredObjectWriter bulkMirroredObjectWriter;
 	private final ToggleableDocumentWriteExceptionHandler exceptionHandler;
+	private final DeadLetterStore deadLetterStore;
 	private final PersistedInstanceIdCalculationService persistedInstanceIdCalculationService;
+	private final DocumentFormatMigrationService documentFormatMigrationService;
 	private final SpaceMirrorContext spaceMirror;
 	private final ScheduledExecutorService scheduledExecutorService;
 	private final Set<ObjectName> registeredMbeans = new HashSet<>();
@@ -61,20 +64,26 @@ final class YmerSpaceSynchronizationEndpoint extends SpaceSynchronizationEndpoin
 
 	private Integer currentNumberOfPartitions;
 	private ApplicationContext applicationContext;
+	private JournalingBatchWriter journalingBatchWriter;
 
 	private final PerformedOperationMetrics operationStatistics;
 
 	@SuppressWarnings("deprecation")
 	public YmerSpaceSynchronizationEndpoint(SpaceMirrorContext spaceMirror, ReloadableYmerProperties ymerProperties) {
+		deadLetterStore = new DeadLetterStore(spaceMirror);
 		exceptionHandler = ToggleableDocumentWriteExceptionHandler.create(
 				new RethrowsTransientDocumentWriteExceptionHandler(),
-				new CatchesAllDocumentWriteExceptionHandler());
+				new CatchesAllDocumentWriteExceptionHandler(),
+				new DeadLetterDocumentWriteExceptionHandler(deadLetterStore));
 		this.spaceMirror = spaceMirror;
 		this.operationStatistics = new PerformedOperationMetrics();
 		final MirroredObjectFilterer mirroredObjectFilterer = new MirroredObjectFilterer(spaceMirror);
 		this.mirroredObjectWriter = new MirroredObjectWriter(spaceMirror, exceptionHandler, mirroredObjectFilterer, operationStatistics);
-		this.bulkMirroredObjectWriter = new BulkMirroredObjectWriter(spaceMirror, exceptionHandler, mirroredObjectFilterer, operationStatistics);
+		this.bulkMirroredObjectWriter = new BulkMirroredObjectWriter(spaceMirror, exceptionHandler, mirroredObjectFilterer, operationStatistics,
+				ymerProperties);
+		deadLetterStore.useDocumentHashCaches(bulkMirroredObjectWriter.getDocumentHashCaches());
 		this.persistedInstanceIdCalculationService = new PersistedInstanceIdCalculationService(spaceMirror, ymerProperties);
+		this.documentFormatMigrationService = new DocumentFormatMigrationService(spaceMirror);
 		this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
 		this.ymerProperties = ymerProperties;
 		this.currentNumberOfPartitions = GigaSpacesInstanceIdUtil.getNumberOfPartitionsFromSystemProperty().orElse(null);
@@ -82,6 +91,14 @@ final class YmerSpaceSynchronizationEndpoint extends SpaceSynchronizationEndpoin
 
 	@Override
 	public void onOperationsBatchSynchronization(OperationsBatchData batchData) {
+		if (journalingBatchWriter != null) {
+			journalingBatchWriter.write(batchData);
+		} else {
+			writeBatch(batchData);
+		}
+	}
+
+	private void writeBatch(OperationsBatchData batchData) {
 		if (ymerProperties.useBulkWrites()) {
 			bulkMirroredObjectWriter.executeBulk(getInstanceMetadata(), batchData);
 		} else {
@@ -134,15 +151,33 @@ final class YmerSpaceSynchronizationEndpoint extends SpaceSynchronizationEndpoin
 		}
 	}
 
+	/**
+	 * Acknowledges batches once they are durable in a write-ahead journal in the given directory, and writes them to
+	 * the database in the background. Batches left in the journal from a previous run are written first.
+	 */
+	void enableWriteAheadJournal(Path journalDirectory) {
+		journalingBatchWriter = new JournalingBatchWriter(journalDirectory, spaceMirror, exceptionHandler, this::writeBatch);
+		journalingBatchWriter.start();
+	}
+
 	public PersistedInstanceIdCalculationService getPersistedInstanceIdCalculationService() {
 		return persistedInstanceIdCalculationService;
 	}
 
+	public DocumentFormatMigrationService getDocumentFormatMigrationService() {
+		return documentFormatMigrationService;
+	}
+
 	void registerExceptionHandlerMBean() {
 		String name = "se.avanzabank.space.mirror:type=DocumentWriteExceptionHandler,name=documentWriteExceptionHandler";
 		registerMbean(exceptionHandler, name);
 	}
 
+	void registerDeadLetterStoreMBean() {
+		String name = "se.avanzabank.space.mirror:type=DeadLetterStore,name=deadLetterStore";
+		registerMbean(deadLetterStore, name);
+	}
+
 	void registerPersistedInstanceIdCalculationServiceMBean() {
 		String name = "se.avanzabank.space.mirror:type=PersistedInstanceIdCalculationService,name=persistedInstanceIdCalculationService";
 		registerMbean(persistedInstanceIdCalculationService, name);
@@ -154,10 +189,49 @@ final class YmerSpaceSynchronizationEndpoint extends SpaceSynchronizationEndpoin
 				});
 	}
 
+	void registerDocumentFormatMigrationServiceMBean() {
+		String name = "se.avanzabank.space.mirror:type=DocumentFormatMigrationService,name=documentFormatMigrationService";
+		registerMbean(documentFormatMigrationService, name);
+		documentFormatMigrationService.getMirroredObjectsWithPatches()
+				.forEach(mirroredObject -> {
+					String statisticsBean = "se.avanzabank.space.mirror:type=DocumentFormatMigrationService,name=collection_" + mirroredObject.getCollectionName();
+					registerMbean(documentFormatMigrationService.collectStatistics(mirroredObject), statisticsBean);
+				});
+	}
+
+	void registerDocumentHashCacheMBeans() {
+		bulkMirroredObjectWriter.getDocumentHashCaches().forEach((collectionName, documentHashCache) -> {
+			String name = "se.avanzabank.space.mirror:type=DocumentHashCache,name=collection_" + collectionName;
+			registerMbean(documentHashCache, name);
+		});
+	}
+
+	void registerAdaptiveBulkSizeControllerMBean() {
+		String name = "se.avanzabank.space.mirror:type=AdaptiveBulkSizeController,name=adaptiveBulkSizeController";
+		registerMbean(bulkMirroredObjectWriter.getBulkSizeController(), name);
+	}
+
+	void registerBulkWriteChunkerMBean() {
+		spaceMirror.getDocumentDb().getBulkWriteChunker().ifPresent(bulkWriteChunker -> {
+			String name = "se.avanzabank.space.mirror:type=BulkWriteChunker,name=bulkWriteChunker";
+			registerMbean(bulkWriteChunker, name);
+		});
+	}
+
+	void registerWriteAheadJournalMBean() {
+		if (journalingBatchWriter != null) {
+			String name = "se.avanzabank.space.mirror:type=WriteAheadJournal,name=writeAheadJournal";
+			registerMbean(journalingBatchWriter, name);
+		}
+	}
+
 	void registerOperationStatisticsMBean() {
 		String name = "se.avanzabank.space.mirror:type=OperationStatistics,name=operationStatistics";
 		registerMbean(operationStatistics, name);
-
+		spaceMirror.getMirroredDocuments().forEach(mirroredObject -> {
+			String statisticsBean = "se.avanzabank.space.mirror:type=OperationStatistics,name=collection_" + mirroredObject.getCollectionName();
+			registerMbean(operationStatistics.collectStatistics(mirroredObject.getCollectionName()), statisticsBean);
+		});
 	}
 
 	private void registerMbean(Object object, String name) {
@@ -174,6 +248,10 @@ final class YmerSpaceSynchronizationEndpoint extends SpaceSynchronizationEndpoin
 	@Override
 	public void close() {
 		scheduledExecutorService.shutdownNow();
+		if (journalingBatchWriter != null) {
+			journalingBatchWriter.close();
+		}
+		bulkMirroredObjectWriter.close();
 		for (ObjectName registeredMbean : registeredMbeans) {
 			try {
 				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredMbean);
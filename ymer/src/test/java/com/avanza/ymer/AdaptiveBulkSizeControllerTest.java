@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static com.avanza.ymer.AdaptiveBulkSizeController.ADDITIVE_INCREASE;
+import static com.avanza.ymer.AdaptiveBulkSizeController.INITIAL_BULK_SIZE;
+import static com.avanza.ymer.AdaptiveBulkSizeController.MIN_BULK_SIZE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveBulkSizeControllerTest {
+
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+	private final AdaptiveBulkSizeController controller = new AdaptiveBulkSizeController(() -> 100);
+
+	@Test
+	public void increasesLimitAdditivelyWhenFullBulksAreWrittenWithinTargetLatency() {
+		controller.onBulkWritten(INITIAL_BULK_SIZE, FAST, false);
+		controller.onBulkWritten(INITIAL_BULK_SIZE + ADDITIVE_INCREASE, FAST, false);
+
+		assertThat(controller.getBulkSizeLimit(), is(INITIAL_BULK_SIZE + 2 * ADDITIVE_INCREASE));
+		assertThat(controller.getNumIncreases(), is(2L));
+	}
+
+	@Test
+	public void doesNotIncreaseLimitWhenBulksAreSmallerThanLimit() {
+		controller.onBulkWritten(INITIAL_BULK_SIZE - 1, FAST, false);
+
+		assertThat(controller.getBulkSizeLimit(), is(INITIAL_BULK_SIZE));
+	}
+
+	@Test
+	public void halvesLimitWhenBulkExceedsTargetLatency() {
+		controller.onBulkWritten(INITIAL_BULK_SIZE, SLOW, false);
+
+		assertThat(controller.getBulkSizeLimit(), is(INITIAL_BULK_SIZE / 2));
+		assertThat(controller.getNumDecreases(), is(1L));
+	}
+
+	@Test
+	public void halvesLimitFromSizeOfCongestedBulk() {
+		controller.onBulkWritten(400, FAST, true);
+
+		assertThat(controller.getBulkSizeLimit(), is(200));
+		assertThat(controller.getErrorRate(), closeTo(0.2, 0.001));
+	}
+
+	@Test
+	public void neverDecreasesLimitBelowMinimum() {
+		for (int i = 0; i < 20; i++) {
+			controller.onBulkWritten(controller.getBulkSizeLimit(), SLOW, false);
+		}
+
+		assertThat(controller.getBulkSizeLimit(), is(MIN_BULK_SIZE));
+	}
+
+	@Test
+	public void resetRestoresInitialLimit() {
+		controller.onBulkWritten(INITIAL_BULK_SIZE, SLOW, false);
+
+		controller.reset();
+
+		assertThat(controller.getBulkSizeLimit(), is(INITIAL_BULK_SIZE));
+	}
+
+	@Test
+	public void doesNotAdjustLimitWhenDisabled() {
+		AdaptiveBulkSizeController disabled = new AdaptiveBulkSizeController(() -> 0);
+
+		disabled.onBulkWritten(INITIAL_BULK_SIZE, SLOW, true);
+
+		assertThat(disabled.isEnabled(), is(false));
+		assertThat(disabled.getBulkSizeLimit(), is(INITIAL_BULK_SIZE));
+	}
+}
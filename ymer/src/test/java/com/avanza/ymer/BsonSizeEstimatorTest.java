@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+public class BsonSizeEstimatorTest {
+
+	@Test
+	public void estimatesSizeOfEncodedDocument() {
+		Document document = new Document("_id", new ObjectId())
+				.append("name", "ymer")
+				.append("count", 21)
+				.append("total", 42L)
+				.append("price", 1.5)
+				.append("active", true)
+				.append("created", new Date())
+				.append("tags", List.of("a", "b"))
+				.append("nested", new Document("value", 1));
+
+		assertEquals(encodedSize(document), BsonSizeEstimator.estimateSize(document));
+	}
+
+	private static long encodedSize(Document document) {
+		return new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().remaining();
+	}
+
+}
@@ -17,24 +17,41 @@ package com.avanza.ymer;
 
 import static com.avanza.ymer.TestSpaceMirrorObjectDefinitions.TEST_SPACE_OBJECT;
 import static com.avanza.ymer.TestSpaceMirrorObjectDefinitions.TEST_SPACE_OTHER_OBJECT;
+import static java.util.Collections.emptyList;
 import static java.util.stream.Collectors.toList;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.iterableWithSize;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThrows;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
+import org.bson.BsonDocument;
 import org.bson.Document;
 import org.junit.After;
 import org.junit.Before;
@@ -44,7 +61,15 @@ import org.springframework.data.mongodb.core.query.Query;
 import com.avanza.ymer.helper.FakeBatchData;
 import com.avanza.ymer.helper.FakeBulkItem;
 import com.avanza.ymer.helper.MirrorExceptionSpy;
+import com.avanza.ymer.plugin.Plugin;
+import com.avanza.ymer.plugin.PostReadProcessor;
+import com.avanza.ymer.plugin.PreWriteProcessor;
 import com.gigaspaces.sync.DataSyncOperationType;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.WriteConcernError;
 
 public class BulkMirroredObjectWriterTest {
 
@@ -56,6 +81,7 @@ public class BulkMirroredObjectWriterTest {
 	private MirrorExceptionSpy mirrorExceptionSpy;
 	private DocumentConverter documentConverter;
 	private PerformedOperationMetrics metrics;
+	private final List<BulkMirroredObjectWriter> writers = new ArrayList<>();
 
 	@Before
 	public void setUp() {
@@ -83,6 +109,7 @@ public class BulkMirroredObjectWriterTest {
 
 	@After
 	public void tearDown() {
+		writers.forEach(BulkMirroredObjectWriter::close);
 		Configurator.reconfigure();
 	}
 
@@ -206,6 +233,104 @@ public class BulkMirroredObjectWriterTest {
 		assertThat(metrics.getNumFailures(), is(51L));
 	}
 
+	@Test
+	public void parallelConversionFailsObjectsFailingConversionWithOtherItemsWritten() {
+		// this test logs a lot of errors, so disable logs temporarily
+		Configurator.setLevel(BulkMirroredObjectWriter.class, Level.OFF);
+		BulkMirroredObjectWriter parallelWriter = new BulkMirroredObjectWriter(
+				mirror,
+				exceptionHandler,
+				new MirroredObjectFilterer(mirror),
+				metrics,
+				ReloadableYmerProperties.builder().bulkConversionParallelism(() -> 4).build()
+		);
+		writers.add(parallelWriter);
+
+		TestSpaceObject[] objects = IntStream.rangeClosed(1, 1_000)
+				.mapToObj(i -> {
+					TestSpaceObject object = new TestSpaceObject("id_" + i, "message" + i);
+					object.setFailConversion(i % 2 == 0);
+					return object;
+				})
+				.toArray(TestSpaceObject[]::new);
+
+		parallelWriter.executeBulk(testMetadata, new FakeBatchData(
+				Stream.of(objects)
+						.map(spaceObject -> new FakeBulkItem(spaceObject, DataSyncOperationType.WRITE))
+						.toArray(FakeBulkItem[]::new)
+		));
+
+		assertThat(mirrorExceptionSpy.getExceptionCount(), is(500));
+		List<Document> objectsInDb = documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).findAll().collect(toList());
+		assertThat(objectsInDb.stream().map(o -> o.getString("_id")).collect(toList()),
+				containsInAnyOrder(
+						Stream.of(objects)
+								.filter(o -> !o.isFailConversion())
+								.map(TestSpaceObject::getId)
+								.toArray(String[]::new)
+				)
+		);
+		assertThat(metrics.getNumInserts(), is(500L));
+		assertThat(metrics.getNumFailures(), is(500L));
+	}
+
+	@Test
+	public void retriedChangesAreNotConvertedAgain() {
+		// this test logs a lot of errors, so disable logs temporarily
+		Configurator.setLevel(BulkMirroredObjectWriter.class, Level.OFF);
+		AtomicInteger conversions = new AtomicInteger();
+		DocumentConverter countingConverter = DocumentConverter.create(new DocumentConverter.Provider() {
+			@Override
+			public <T> T convert(Class<T> toType, Document document) {
+				return documentConverter.convert(toType, document);
+			}
+
+			@Override
+			public Document convertToBsonDocument(Object type) {
+				conversions.incrementAndGet();
+				return documentConverter.convertToBsonDocument(type);
+			}
+
+			@Override
+			public Object convert(Object type) {
+				return documentConverter.convertToMongoObject(type);
+			}
+
+			@Override
+			public Query toQuery(Object template) {
+				return documentConverter.toQuery(template);
+			}
+		});
+		SpaceMirrorContext countingMirror = new SpaceMirrorContext(
+				new MirroredObjects(new TestSpaceMirrorObjectDefinitions().getMirroredObjectDefinitions().stream(), MirroredObjectDefinitionsOverride.noOverride()),
+				countingConverter,
+				documentDb,
+				mirrorExceptionSpy,
+				Plugins.empty(),
+				1);
+		BulkMirroredObjectWriter countingWriter = new BulkMirroredObjectWriter(countingMirror, exceptionHandler, new MirroredObjectFilterer(countingMirror), metrics);
+		writers.add(countingWriter);
+
+		TestSpaceObject[] objects = IntStream.rangeClosed(1, 100)
+				.mapToObj(i -> new TestSpaceObject("id_" + i, "message" + i))
+				.toArray(TestSpaceObject[]::new);
+		// every tenth object fails writing, causing the remaining changes to be retried
+		documentDb.getCollection(TEST_SPACE_OBJECT.collectionName())
+				.insertAll(IntStream.range(0, objects.length)
+						.filter(i -> i % 10 == 0)
+						.mapToObj(i -> mirror.toVersionedDocument(objects[i], testMetadata))
+						.toArray(Document[]::new));
+
+		countingWriter.executeBulk(testMetadata, new FakeBatchData(
+				Stream.of(objects)
+						.map(spaceObject -> new FakeBulkItem(spaceObject, DataSyncOperationType.WRITE))
+						.toArray(FakeBulkItem[]::new)
+		));
+
+		assertThat(metrics.getNumFailures(), is(10L));
+		assertThat(conversions.get(), is(100));
+	}
+
 	@Test
 	public void unexpectedExceptionFromBulkWriteIsSentToExceptionHandler() {
 		FakeDocumentCollection mockCollection = (FakeDocumentCollection) documentDb.getCollection(TEST_SPACE_OBJECT.collectionName());
@@ -222,6 +347,261 @@ public class BulkMirroredObjectWriterTest {
 		assertThat(exceptionHandler.getLastOperationDescription(), is("Operation: Bulk write, changes: [INSERT: TestSpaceObject [id=id, message=message]]"));
 	}
 
+	@Test
+	public void shardedBulkWriteKeepsOrderOfChangesForSameId() {
+		BulkMirroredObjectWriter shardedWriter = shardedWriter(4);
+
+		List<FakeBulkItem> items = new ArrayList<>();
+		for (int i = 1; i <= 100; i++) {
+			items.add(new FakeBulkItem(new TestSpaceObject("id_" + i, "message"), DataSyncOperationType.WRITE));
+		}
+		for (int i = 1; i <= 100; i++) {
+			items.add(new FakeBulkItem(new TestSpaceObject("id_" + i, "updated"), DataSyncOperationType.UPDATE));
+			if (i % 2 == 0) {
+				items.add(new FakeBulkItem(new TestSpaceObject("id_" + i, null), DataSyncOperationType.REMOVE));
+			}
+		}
+		items.add(new FakeBulkItem(new TestSpaceOtherObject("other", "message"), DataSyncOperationType.WRITE));
+
+		shardedWriter.executeBulk(testMetadata, FakeBatchData.create(items.toArray(new FakeBulkItem[0])));
+
+		List<Document> persisted = documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).findAll().collect(toList());
+		assertThat(persisted, hasSize(50));
+		assertThat(persisted.stream().map(document -> document.getString("message")).distinct().collect(toList()), contains("updated"));
+		assertThat(documentDb.getCollection(TEST_SPACE_OTHER_OBJECT.collectionName()).findAll().count(), is(1L));
+
+		// verify recorded metrics
+		assertThat(metrics.getNumInserts(), is(101L));
+		assertThat(metrics.getNumUpdates(), is(100L));
+		assertThat(metrics.getNumDeletes(), is(50L));
+		assertThat(metrics.getNumFailures(), is(0L));
+	}
+
+	@Test
+	public void recordsLatencyAndSizeOfBulkWritesPerCollection() {
+		bulkMirroredObjectWriter.executeBulk(testMetadata, FakeBatchData.create(IntStream.rangeClosed(1, 10)
+				.mapToObj(i -> new FakeBulkItem(new TestSpaceObject("id_" + i, "message"), DataSyncOperationType.WRITE))
+				.toArray(FakeBulkItem[]::new)));
+
+		List<FakeBulkItem> items = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			items.add(new FakeBulkItem(new TestSpaceObject("id_" + i, "updated"), DataSyncOperationType.UPDATE));
+		}
+		for (int i = 6; i <= 7; i++) {
+			items.add(new FakeBulkItem(new TestSpaceObject("id_" + i, null), DataSyncOperationType.REMOVE));
+		}
+		bulkMirroredObjectWriter.executeBulk(testMetadata, FakeBatchData.create(items.toArray(new FakeBulkItem[0])));
+
+		CollectionOperationStatisticsMBean statistics = metrics.collectStatistics(TEST_SPACE_OBJECT.collectionName());
+		assertThat(statistics.getNumBulkWrites(), is(2L));
+		assertThat(statistics.getInsertsPerBulkP50(), is(10L));
+		assertThat(statistics.getUpdatesPerBulkP50(), is(5L));
+		assertThat(statistics.getDeletesPerBulkP50(), is(2L));
+		assertThat(statistics.getBulkWriteLatencyMillisMax() >= statistics.getBulkWriteLatencyMillisMin(), is(true));
+		assertThat(statistics.takeIntervalSnapshot().get("numBulkWrites"), is(2d));
+		assertThat(statistics.takeIntervalSnapshot().get("numBulkWrites"), is(0d));
+		assertThat(metrics.collectStatistics(TEST_SPACE_OTHER_OBJECT.collectionName()).getNumBulkWrites(), is(0L));
+	}
+
+	@Test
+	public void recordedLatencyOfBulkWritesExcludesConversionOfDocuments() {
+		PreWriteProcessor slowPreWriteProcessor = document -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return document;
+		};
+		Plugin plugin = new Plugin() {
+			@Override
+			public Optional<PostReadProcessor> createPostReadProcessor(Class<?> spaceClass) {
+				return Optional.empty();
+			}
+
+			@Override
+			public Optional<PreWriteProcessor> createPreWriteProcessor(Class<?> spaceClass) {
+				return Optional.of(slowPreWriteProcessor);
+			}
+		};
+		SpaceMirrorContext mirror = new SpaceMirrorContext(
+				new MirroredObjects(new TestSpaceMirrorObjectDefinitions().getMirroredObjectDefinitions().stream(), MirroredObjectDefinitionsOverride.noOverride()),
+				documentConverter,
+				documentDb,
+				mirrorExceptionSpy,
+				new Plugins(Set.of(plugin)),
+				1);
+		BulkMirroredObjectWriter writer = new BulkMirroredObjectWriter(mirror, exceptionHandler, new MirroredObjectFilterer(mirror), metrics);
+
+		writer.executeBulk(testMetadata, FakeBatchData.create(IntStream.rangeClosed(1, 4)
+				.mapToObj(i -> new FakeBulkItem(new TestSpaceObject("id_" + i, "message"), DataSyncOperationType.WRITE))
+				.toArray(FakeBulkItem[]::new)));
+
+		CollectionOperationStatisticsMBean statistics = metrics.collectStatistics(TEST_SPACE_OBJECT.collectionName());
+		assertThat(statistics.getNumBulkWrites(), is(1L));
+		assertThat(statistics.getBulkWriteLatencyMillisMax(), lessThan(200d));
+	}
+
+	@Test
+	public void shardedBulkWriteShouldTryToWriteAllRowsAfterFailures() {
+		// this test logs a lot of errors, so disable logs temporarily
+		Configurator.setLevel(BulkMirroredObjectWriter.class, Level.OFF);
+		BulkMirroredObjectWriter shardedWriter = shardedWriter(4);
+
+		TestSpaceObject[] objects = IntStream.rangeClosed(1, 200)
+				.mapToObj(i -> new TestSpaceObject("id_" + i, "message" + i))
+				.toArray(TestSpaceObject[]::new);
+
+		// every tenth object already exists in DB and will fail writing
+		documentDb.getCollection(TEST_SPACE_OBJECT.collectionName())
+				.insertAll(IntStream.range(0, objects.length)
+						.filter(i -> i % 10 == 0)
+						.mapToObj(i -> mirror.toVersionedDocument(objects[i], testMetadata))
+						.toArray(Document[]::new));
+
+		shardedWriter.executeBulk(testMetadata, new FakeBatchData(
+				Stream.of(objects)
+						.map(spaceObject -> new FakeBulkItem(spaceObject, DataSyncOperationType.WRITE))
+						.toArray(FakeBulkItem[]::new)
+		));
+
+		assertThat(mirrorExceptionSpy.getExceptionCount(), is(20));
+		assertThat(documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).findAll().count(), is(200L));
+
+		// verify recorded metrics
+		assertThat(metrics.getNumInserts(), is(180L));
+		assertThat(metrics.getNumFailures(), is(20L));
+	}
+
+	@Test
+	public void shardedBulkWriteReportsFailuresOnCallingThread() {
+		Configurator.setLevel(BulkMirroredObjectWriter.class, Level.OFF);
+		List<Thread> reportingThreads = Collections.synchronizedList(new ArrayList<>());
+		BulkMirroredObjectWriter shardedWriter = new BulkMirroredObjectWriter(
+				mirror,
+				new FakeDocumentWriteExceptionHandler() {
+					@Override
+					public void handleRejectedChanges(Exception exception, List<FailedChange> rejectedChanges) {
+						rejectedChanges.forEach(rejectedChange -> reportingThreads.add(Thread.currentThread()));
+					}
+				},
+				new MirroredObjectFilterer(mirror),
+				metrics,
+				ReloadableYmerProperties.builder().bulkWriteParallelism(() -> 4).build()
+		);
+		writers.add(shardedWriter);
+		TestSpaceObject[] objects = IntStream.rangeClosed(1, 40)
+				.mapToObj(i -> new TestSpaceObject("id_" + i, "message" + i))
+				.toArray(TestSpaceObject[]::new);
+		// every object already exists in DB and will fail writing
+		documentDb.getCollection(TEST_SPACE_OBJECT.collectionName())
+				.insertAll(Stream.of(objects).map(object -> mirror.toVersionedDocument(object, testMetadata)).toArray(Document[]::new));
+
+		shardedWriter.executeBulk(testMetadata, new FakeBatchData(
+				Stream.of(objects)
+						.map(spaceObject -> new FakeBulkItem(spaceObject, DataSyncOperationType.WRITE))
+						.toArray(FakeBulkItem[]::new)
+		));
+
+		assertThat(reportingThreads, hasSize(40));
+		assertThat(reportingThreads, everyItem(is(Thread.currentThread())));
+		assertThat(mirrorExceptionSpy.getExceptionCount(), is(40));
+	}
+
+	@Test
+	public void shardedBulkWriteRethrowsExceptionFromShardAfterAllShardsAreWritten() {
+		RuntimeException transientException = new RuntimeException("Transient exception");
+		BulkMirroredObjectWriter shardedWriter = new BulkMirroredObjectWriter(
+				mirror,
+				new FakeDocumentWriteExceptionHandler(transientException),
+				new MirroredObjectFilterer(mirror),
+				metrics,
+				ReloadableYmerProperties.builder().bulkWriteParallelism(() -> 4).build()
+		);
+		writers.add(shardedWriter);
+		FakeDocumentCollection failingCollection = (FakeDocumentCollection) documentDb.getCollection(TEST_SPACE_OTHER_OBJECT.collectionName());
+		failingCollection.setMockedBulkException(() -> new RuntimeException("Unexpected exception from MongoDB"));
+
+		RuntimeException thrown = assertThrows(RuntimeException.class, () -> shardedWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceOtherObject("1", "message"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("1", "message"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("2", "message"), DataSyncOperationType.WRITE)
+		)));
+
+		assertThat(thrown, is(transientException));
+		assertThat(documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).findAll().count(), is(2L));
+	}
+
+	@Test
+	public void coalescesOperationsOnSameIdIntoNetEffect() {
+		BulkMirroredObjectWriter coalescingWriter = coalescingWriter();
+		documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).insertAll(
+				mirror.toVersionedDocument(new TestSpaceObject("updated", "message"), testMetadata),
+				mirror.toVersionedDocument(new TestSpaceObject("removed", "message"), testMetadata)
+		);
+
+		coalescingWriter.executeBulk(testMetadata, FakeBatchData.create(
+				// insert + updates -> insert of last state
+				new FakeBulkItem(new TestSpaceObject("inserted", "message"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("inserted", "update1"), DataSyncOperationType.UPDATE),
+				new FakeBulkItem(new TestSpaceObject("inserted", "update2"), DataSyncOperationType.UPDATE),
+				// updates -> update to last state
+				new FakeBulkItem(new TestSpaceObject("updated", "update1"), DataSyncOperationType.UPDATE),
+				new FakeBulkItem(new TestSpaceObject("updated", "update2"), DataSyncOperationType.UPDATE),
+				// update + remove -> remove
+				new FakeBulkItem(new TestSpaceObject("removed", "update1"), DataSyncOperationType.UPDATE),
+				new FakeBulkItem(new TestSpaceObject("removed", null), DataSyncOperationType.REMOVE),
+				// insert + remove -> nothing
+				new FakeBulkItem(new TestSpaceObject("transient", "message"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("transient", null), DataSyncOperationType.REMOVE)
+		));
+
+		List<Document> persisted = documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).findAll().collect(toList());
+		assertThat(persisted.stream().map(document -> document.getString("_id") + "=" + document.getString("message")).collect(toList()),
+				containsInAnyOrder("inserted=update2", "updated=update2"));
+
+		// verify recorded metrics
+		assertThat(metrics.getNumInserts(), is(1L));
+		assertThat(metrics.getNumUpdates(), is(1L));
+		assertThat(metrics.getNumDeletes(), is(1L));
+		assertThat(metrics.getNumCoalesced(), is(6L));
+		assertThat(metrics.getNumFailures(), is(0L));
+	}
+
+	@Test
+	public void doesNotCoalesceRemoveFollowedByInsert() {
+		BulkMirroredObjectWriter coalescingWriter = coalescingWriter();
+		documentDb.getCollection(TEST_SPACE_OBJECT.collectionName())
+				.insert(mirror.toVersionedDocument(new TestSpaceObject("1", "message"), testMetadata));
+
+		coalescingWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", null), DataSyncOperationType.REMOVE),
+				new FakeBulkItem(new TestSpaceObject("1", "reinserted"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("1", "updated"), DataSyncOperationType.UPDATE)
+		));
+
+		List<Document> persisted = documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).findAll().collect(toList());
+		assertThat(persisted, hasSize(1));
+		assertThat(persisted.get(0).getString("message"), is("updated"));
+
+		// verify recorded metrics
+		assertThat(metrics.getNumDeletes(), is(1L));
+		assertThat(metrics.getNumInserts(), is(1L));
+		assertThat(metrics.getNumCoalesced(), is(1L));
+	}
+
+	@Test
+	public void doesNotCoalesceWhenDisabled() {
+		bulkMirroredObjectWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "message"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("1", "updated"), DataSyncOperationType.UPDATE)
+		));
+
+		assertThat(metrics.getNumInserts(), is(1L));
+		assertThat(metrics.getNumUpdates(), is(1L));
+		assertThat(metrics.getNumCoalesced(), is(0L));
+	}
+
 	@Test
 	public void writesAreInsertedInDb() {
 		MirroredObject<TestSpaceObject> mirroredObject = TEST_SPACE_OBJECT
@@ -334,6 +714,129 @@ public class BulkMirroredObjectWriterTest {
 		assertThat(metrics.getNumFailures(), is(0L));
 	}
 
+	@Test
+	public void partialUpdatesOnlySetFieldsOfChangedProperties() {
+		MirroredObject<TestSpaceObject> mirroredObject = TEST_SPACE_OBJECT
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+
+		documentDb.getCollection(mirroredObject.getCollectionName())
+				.insert(documentConverter.convertToBsonDocument(new TestSpaceObject("1", "hello")));
+
+		// properties that are not changed by a partial update are null
+		TestSpaceObject partialUpdate = new TestSpaceObject("1", null);
+		bulkMirroredObjectWriter.executeBulk(testMetadata, FakeBatchData.create(new FakeBulkItem(partialUpdate, DataSyncOperationType.PARTIAL_UPDATE)));
+
+		Document expected = documentConverter.convertToBsonDocument(new TestSpaceObject("1", "hello"));
+		mirroredObject.setDocumentVersion(expected, mirroredObject.getCurrentVersion());
+		mirroredObject.setDocumentAttributes(expected, partialUpdate, testMetadata);
+
+		List<Document> persisted = documentDb.getCollection(mirroredObject.getCollectionName()).findAll().collect(toList());
+		assertEquals(1, persisted.size());
+		assertEquals(expected, persisted.get(0));
+
+		// verify recorded metrics
+		assertThat(metrics.getNumUpdates(), is(1L));
+		assertThat(metrics.getNumFailures(), is(0L));
+	}
+
+	@Test
+	public void partialUpdatesReplaceDocumentWhenPropertiesAreNotNullable() {
+		MirroredObject<TestSpaceOtherObject> mirroredObject = TEST_SPACE_OTHER_OBJECT
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+
+		documentDb.getCollection(mirroredObject.getCollectionName())
+				.insert(documentConverter.convertToBsonDocument(new TestSpaceOtherObject("1", "hello")));
+
+		TestSpaceOtherObject update = new TestSpaceOtherObject("1", null);
+		bulkMirroredObjectWriter.executeBulk(testMetadata, FakeBatchData.create(new FakeBulkItem(update, DataSyncOperationType.PARTIAL_UPDATE)));
+
+		List<Document> persisted = documentDb.getCollection(mirroredObject.getCollectionName()).findAll().collect(toList());
+		assertEquals(1, persisted.size());
+		assertThat(persisted.get(0).containsKey("message"), is(false));
+	}
+
+	@Test
+	public void partialUpdateIsNotCoalescedWithPreviousChanges() {
+		BulkMirroredObjectWriter coalescingWriter = coalescingWriter();
+
+		coalescingWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "hello"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("1", null), DataSyncOperationType.PARTIAL_UPDATE)
+		));
+
+		List<Document> persisted = documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).findAll().collect(toList());
+		assertThat(persisted, hasSize(1));
+		assertThat(persisted.get(0).getString("message"), is("hello"));
+		assertThat(metrics.getNumCoalesced(), is(0L));
+	}
+
+	@Test
+	public void skipsReplaceOfDocumentsUnchangedSinceLastWrite() {
+		SpaceMirrorContext cachingMirror = new SpaceMirrorContext(
+				new MirroredObjects(Stream.of(MirroredObjectDefinition.create(TestSpaceObject.class).documentHashCacheSize(100)), MirroredObjectDefinitionsOverride.noOverride()),
+				documentConverter,
+				documentDb,
+				mirrorExceptionSpy,
+				Plugins.empty(),
+				1);
+		BulkMirroredObjectWriter cachingWriter = new BulkMirroredObjectWriter(cachingMirror, exceptionHandler, new MirroredObjectFilterer(cachingMirror), metrics);
+		writers.add(cachingWriter);
+		DocumentHashCache cache = cachingWriter.getDocumentHashCaches().get(TEST_SPACE_OBJECT.collectionName());
+
+		cachingWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "hello"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("2", "hello"), DataSyncOperationType.WRITE)
+		));
+		cachingWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "hello"), DataSyncOperationType.UPDATE),
+				new FakeBulkItem(new TestSpaceObject("2", "updated"), DataSyncOperationType.UPDATE)
+		));
+
+		assertThat(metrics.getNumInserts(), is(2L));
+		assertThat(metrics.getNumUpdates(), is(1L));
+		assertThat(cache.getHits(), is(1L));
+		assertThat(cache.getMisses(), is(1L));
+
+		// a removed document must not be considered unchanged when it is written again
+		cachingWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", null), DataSyncOperationType.REMOVE)
+		));
+		cachingWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "hello"), DataSyncOperationType.UPDATE)
+		));
+
+		assertThat(metrics.getNumUpdates(), is(2L));
+		List<Document> persisted = documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).findAll().collect(toList());
+		assertThat(persisted.stream().map(document -> document.getString("_id") + "=" + document.getString("message")).collect(toList()),
+				containsInAnyOrder("1=hello", "2=updated"));
+	}
+
+	@Test
+	public void skipsBulkWriteWhenAllDocumentsAreUnchangedSinceLastWrite() {
+		SpaceMirrorContext cachingMirror = new SpaceMirrorContext(
+				new MirroredObjects(Stream.of(MirroredObjectDefinition.create(TestSpaceObject.class).documentHashCacheSize(100)), MirroredObjectDefinitionsOverride.noOverride()),
+				documentConverter,
+				documentDb,
+				mirrorExceptionSpy,
+				Plugins.empty(),
+				1);
+		BulkMirroredObjectWriter cachingWriter = new BulkMirroredObjectWriter(cachingMirror, exceptionHandler, new MirroredObjectFilterer(cachingMirror), metrics);
+		writers.add(cachingWriter);
+		cachingWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "hello"), DataSyncOperationType.WRITE)
+		));
+
+		// the document db, like mongo, rejects a bulk write without any writes
+		cachingWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "hello"), DataSyncOperationType.UPDATE)
+		));
+
+		assertThat(exceptionHandler.getLastException(), nullValue());
+		assertThat(metrics.getNumFailures(), is(0L));
+		assertThat(metrics.getNumUpdates(), is(0L));
+		assertThat(cachingWriter.getDocumentHashCaches().get(TEST_SPACE_OBJECT.collectionName()).getHits(), is(1L));
+	}
+
 	@Test
 	public void updatesAreUpdatedInDb() {
 		MirroredObject<TestSpaceObject> mirroredObject = TEST_SPACE_OBJECT
@@ -382,6 +885,24 @@ public class BulkMirroredObjectWriterTest {
 		assertThat(metrics.getNumFailures(), is(0L));
 	}
 
+	@Test
+	public void removeUsesSpaceIdWithoutConvertingObject() {
+		documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).insertAll(
+				documentConverter.convertToBsonDocument(new TestSpaceObject("1", "hello")),
+				documentConverter.convertToBsonDocument(new TestSpaceObject("2", "hello")));
+
+		TestSpaceObject removed = new TestSpaceObject("1", null);
+		// the object would fail if it was converted
+		removed.setFailConversion(true);
+		bulkMirroredObjectWriter.executeBulk(testMetadata, FakeBatchData.create(new FakeBulkItem(removed, DataSyncOperationType.REMOVE)));
+
+		List<Document> persisted = documentDb.getCollection(TEST_SPACE_OBJECT.collectionName()).findAll().collect(toList());
+		assertThat(persisted, hasSize(1));
+		assertThat(persisted.get(0).getString("_id"), is("2"));
+		assertThat(metrics.getNumDeletes(), is(1L));
+		assertThat(metrics.getNumFailures(), is(0L));
+	}
+
 	@Test
 	public void documentsWithKeepPersistentFlagAreNotRemovedFromDb() {
 		MirroredObject<TestSpaceOtherObject> anotherMirroredDocument = TEST_SPACE_OTHER_OBJECT
@@ -499,6 +1020,332 @@ public class BulkMirroredObjectWriterTest {
 		assertThat(metrics.getNumFailures(), is(0L));
 	}
 
+	@Test
+	public void writesChangesInBulksLimitedByAdaptiveBulkSize() {
+		AtomicInteger numberOfBulkWrites = countBulkWrites();
+		BulkMirroredObjectWriter adaptiveWriter = writer(ReloadableYmerProperties.builder().adaptiveBulkSizeTargetLatencyMillis(() -> 60_000));
+		TestSpaceObject[] objects = IntStream.range(0, 1500)
+				.mapToObj(i -> new TestSpaceObject("id_" + i, "message" + i))
+				.toArray(TestSpaceObject[]::new);
+		// the insert of this object fails, as it already exists
+		mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName()).insert(mirror.toVersionedDocument(objects[1200], testMetadata));
+
+		adaptiveWriter.executeBulk(testMetadata, new FakeBatchData(
+				Stream.of(objects)
+						.map(spaceObject -> new FakeBulkItem(spaceObject, DataSyncOperationType.WRITE))
+						.toArray(FakeBulkItem[]::new)
+		));
+
+		// 1000 changes, then the remaining 500 which fails on the 201st, then the last 299
+		assertThat(numberOfBulkWrites.get(), is(3));
+		assertThat(adaptiveWriter.getBulkSizeController().getBulkSizeLimit(),
+				is(AdaptiveBulkSizeController.INITIAL_BULK_SIZE + AdaptiveBulkSizeController.ADDITIVE_INCREASE));
+		assertThat(mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName()).findAll().count(), is(1500L));
+		assertThat(metrics.getNumInserts(), is(1499L));
+		assertThat(metrics.getNumFailures(), is(1L));
+	}
+
+	@Test
+	public void unorderedBulkWriteReportsAllFailuresInOneBulkWrite() {
+		AtomicInteger numberOfBulkWrites = countBulkWrites();
+		BulkMirroredObjectWriter unorderedWriter = writer(ReloadableYmerProperties.builder().useUnorderedBulkWrites(() -> true));
+		TestSpaceObject[] objects = IntStream.rangeClosed(1, 10)
+				.mapToObj(i -> new TestSpaceObject("id_" + i, "message" + i))
+				.toArray(TestSpaceObject[]::new);
+		// the inserts of every other object fail, as they already exist
+		for (int i = 0; i < objects.length; i += 2) {
+			mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName()).insert(mirror.toVersionedDocument(objects[i], testMetadata));
+		}
+
+		unorderedWriter.executeBulk(testMetadata, new FakeBatchData(
+				Stream.of(objects)
+						.map(spaceObject -> new FakeBulkItem(spaceObject, DataSyncOperationType.WRITE))
+						.toArray(FakeBulkItem[]::new)
+		));
+
+		assertThat(numberOfBulkWrites.get(), is(1));
+		assertThat(mirrorExceptionSpy.getExceptionCount(), is(5));
+		assertThat(mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName()).findAll().count(), is(10L));
+		assertThat(metrics.getNumInserts(), is(5L));
+		assertThat(metrics.getNumFailures(), is(5L));
+	}
+
+	@Test
+	public void unorderedBulkWriteAppliesChangesOfSameDocumentInOrder() {
+		AtomicInteger numberOfBulkWrites = countBulkWrites();
+		BulkMirroredObjectWriter unorderedWriter = writer(ReloadableYmerProperties.builder().useUnorderedBulkWrites(() -> true));
+		TestSpaceObject first = new TestSpaceObject("1", "a");
+		TestSpaceObject firstUpdated = new TestSpaceObject("1", "b");
+		TestSpaceObject second = new TestSpaceObject("2", "a");
+		TestSpaceObject third = new TestSpaceObject("3", "a");
+
+		unorderedWriter.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(first, DataSyncOperationType.WRITE),
+				new FakeBulkItem(second, DataSyncOperationType.WRITE),
+				new FakeBulkItem(firstUpdated, DataSyncOperationType.UPDATE),
+				new FakeBulkItem(third, DataSyncOperationType.WRITE),
+				new FakeBulkItem(second, DataSyncOperationType.REMOVE),
+				new FakeBulkItem(first, DataSyncOperationType.UPDATE),
+				new FakeBulkItem(firstUpdated, DataSyncOperationType.UPDATE)
+		));
+
+		// the four changes of the first object are written in one wave each
+		assertThat(numberOfBulkWrites.get(), is(4));
+		DocumentCollection collection = mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName());
+		assertThat(collection.findById("1"), equalTo(mirror.toVersionedDocument(firstUpdated, testMetadata)));
+		assertThat(collection.findById("2"), is((Document) null));
+		assertThat(collection.findById("3"), equalTo(mirror.toVersionedDocument(third, testMetadata)));
+		assertThat(metrics.getNumFailures(), is(0L));
+	}
+
+	@Test
+	public void unorderedBulkWriteFallsBackToOrderedBulkWriteWhenTooManyWavesAreNeeded() {
+		AtomicInteger numberOfBulkWrites = countBulkWrites();
+		BulkMirroredObjectWriter unorderedWriter = writer(ReloadableYmerProperties.builder().useUnorderedBulkWrites(() -> true));
+		List<FakeBulkItem> items = new ArrayList<>();
+		items.add(new FakeBulkItem(new TestSpaceObject("hot", "message"), DataSyncOperationType.WRITE));
+		for (int i = 0; i < BulkMirroredObjectWriter.MAX_UNORDERED_WAVES; i++) {
+			items.add(new FakeBulkItem(new TestSpaceObject("hot", "update" + i), DataSyncOperationType.UPDATE));
+		}
+		items.add(new FakeBulkItem(new TestSpaceObject("other", "message"), DataSyncOperationType.WRITE));
+
+		unorderedWriter.executeBulk(testMetadata, FakeBatchData.create(items.toArray(new FakeBulkItem[0])));
+
+		assertThat(numberOfBulkWrites.get(), is(1));
+		DocumentCollection collection = mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName());
+		TestSpaceObject lastState = new TestSpaceObject("hot", "update" + (BulkMirroredObjectWriter.MAX_UNORDERED_WAVES - 1));
+		assertThat(collection.findById("hot"), equalTo(mirror.toVersionedDocument(lastState, testMetadata)));
+		assertThat(collection.findById("other"), is(notNullValue()));
+		assertThat(metrics.getNumFailures(), is(0L));
+	}
+
+	@Test
+	public void retriesBulkWriteAfterTransientErrorWritingInsertsAsUpserts() {
+		failBulkWritesAfterWriting(1);
+		BulkMirroredObjectWriter writer = writer(ReloadableYmerProperties.builder().transientErrorRetryBudgetMillis(() -> 10_000));
+		TestSpaceObject first = new TestSpaceObject("1", "a");
+		TestSpaceObject second = new TestSpaceObject("2", "b");
+
+		writer.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(first, DataSyncOperationType.WRITE),
+				new FakeBulkItem(second, DataSyncOperationType.WRITE)
+		));
+
+		DocumentCollection collection = mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName());
+		assertThat(collection.findById("1"), equalTo(mirror.toVersionedDocument(first, testMetadata)));
+		assertThat(collection.findById("2"), equalTo(mirror.toVersionedDocument(second, testMetadata)));
+		assertThat(exceptionHandler.getLastException(), is((Exception) null));
+		assertThat(mirrorExceptionSpy.getExceptionCount(), is(0));
+		assertThat(metrics.getNumRetries(), is(1L));
+		assertThat(metrics.getNumFailures(), is(0L));
+	}
+
+	@Test
+	public void handlesTransientErrorWhenRetryBudgetIsSpent() {
+		failBulkWritesAfterWriting(Integer.MAX_VALUE);
+		BulkMirroredObjectWriter writer = writer(ReloadableYmerProperties.builder().transientErrorRetryBudgetMillis(() -> 200));
+
+		writer.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "a"), DataSyncOperationType.WRITE)
+		));
+
+		assertThat(exceptionHandler.getLastException(), instanceOf(MongoSocketException.class));
+		assertThat(metrics.getNumRetries(), greaterThan(0L));
+		assertThat(metrics.getRetryBackoffMillis(), lessThanOrEqualTo(200L));
+		assertThat(metrics.getNumFailures(), is(1L));
+	}
+
+	@Test
+	public void sharesRetryBudgetBetweenAllBulkWritesOfBatch() {
+		failBulkWritesAfterWriting(Integer.MAX_VALUE);
+		BulkMirroredObjectWriter writer = writer(ReloadableYmerProperties.builder()
+				.useUnorderedBulkWrites(() -> true)
+				.transientErrorRetryBudgetMillis(() -> 200));
+
+		writer.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "a"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("1", "b"), DataSyncOperationType.UPDATE),
+				new FakeBulkItem(new TestSpaceObject("1", "c"), DataSyncOperationType.UPDATE),
+				new FakeBulkItem(new TestSpaceOtherObject("2", "a"), DataSyncOperationType.WRITE)
+		));
+
+		assertThat(metrics.getNumRetries(), greaterThan(0L));
+		assertThat(metrics.getRetryBackoffMillis(), lessThanOrEqualTo(200L));
+		assertThat(metrics.getNumFailures(), is(4L));
+	}
+
+	@Test
+	public void doesNotRetryTransientErrorWithoutRetryBudget() {
+		failBulkWritesAfterWriting(1);
+		BulkMirroredObjectWriter writer = writer(ReloadableYmerProperties.builder());
+
+		writer.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "a"), DataSyncOperationType.WRITE)
+		));
+
+		assertThat(exceptionHandler.getLastException(), instanceOf(MongoSocketException.class));
+		assertThat(metrics.getNumRetries(), is(0L));
+	}
+
+	@Test
+	public void retriesBulkWriteThatOnlyFailedWithWriteConcernError() {
+		failBulkWritesAfterWriting(1, BulkMirroredObjectWriterTest::writeConcernError);
+		BulkMirroredObjectWriter writer = writer(ReloadableYmerProperties.builder().transientErrorRetryBudgetMillis(() -> 10_000));
+		TestSpaceObject object = new TestSpaceObject("1", "a");
+
+		writer.executeBulk(testMetadata, FakeBatchData.create(new FakeBulkItem(object, DataSyncOperationType.WRITE)));
+
+		DocumentCollection collection = mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName());
+		assertThat(collection.findById("1"), equalTo(mirror.toVersionedDocument(object, testMetadata)));
+		assertThat(exceptionHandler.getLastException(), is((Exception) null));
+		assertThat(metrics.getNumRetries(), is(1L));
+		assertThat(metrics.getNumFailures(), is(0L));
+	}
+
+	@Test
+	public void handlesWriteConcernErrorOfOrderedBulkWriteWithoutRetryBudget() {
+		failBulkWritesAfterWriting(1, BulkMirroredObjectWriterTest::writeConcernError);
+		BulkMirroredObjectWriter writer = writer(ReloadableYmerProperties.builder());
+
+		writer.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "a"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("2", "b"), DataSyncOperationType.WRITE)
+		));
+
+		assertThat(exceptionHandler.getLastException(), instanceOf(MongoBulkWriteException.class));
+		assertThat(metrics.getNumRetries(), is(0L));
+		assertThat(metrics.getNumFailures(), is(2L));
+	}
+
+	@Test
+	public void retriesUnorderedBulkWriteThatOnlyFailedWithWriteConcernError() {
+		failBulkWritesAfterWriting(1, BulkMirroredObjectWriterTest::writeConcernError);
+		BulkMirroredObjectWriter writer = writer(ReloadableYmerProperties.builder()
+				.useUnorderedBulkWrites(() -> true)
+				.transientErrorRetryBudgetMillis(() -> 10_000));
+
+		writer.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "a"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("2", "b"), DataSyncOperationType.WRITE)
+		));
+
+		assertThat(mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName()).findAll().count(), is(2L));
+		assertThat(exceptionHandler.getLastException(), is((Exception) null));
+		assertThat(metrics.getNumRetries(), is(1L));
+		assertThat(metrics.getNumFailures(), is(0L));
+	}
+
+	private static MongoBulkWriteException writeConcernError(BulkWriteResult result) {
+		WriteConcernError writeConcernError = new WriteConcernError(91, "ShutdownInProgress", "Replication is being shut down", new BsonDocument());
+		return new MongoBulkWriteException(result, emptyList(), writeConcernError, new ServerAddress());
+	}
+
+	/**
+	 * Replaces the document db with one where the given number of ordered bulk writes fail with a transient error,
+	 * after having written their changes.
+	 */
+	private void failBulkWritesAfterWriting(int numberOfFailures) {
+		failBulkWritesAfterWriting(numberOfFailures, result -> new MongoSocketException("Connection reset", new ServerAddress()));
+	}
+
+	/**
+	 * Replaces the document db with one where the given number of bulk writes fail with the given exception, after
+	 * having written their changes.
+	 */
+	private void failBulkWritesAfterWriting(int numberOfFailures, Function<BulkWriteResult, RuntimeException> failure) {
+		AtomicInteger numberOfBulkWrites = new AtomicInteger();
+		documentDb = DocumentDb.create((name, readPreference) -> new FakeDocumentCollection() {
+			@Override
+			public BulkWriteResult orderedBulkWrite(Consumer<BulkWriter> bulkWriter) {
+				BulkWriteResult result = super.orderedBulkWrite(bulkWriter);
+				if (numberOfBulkWrites.incrementAndGet() <= numberOfFailures) {
+					throw failure.apply(result);
+				}
+				return result;
+			}
+
+			@Override
+			public BulkWriteResult nonOrderedBulkWrite(Consumer<BulkWriter> bulkWriter) {
+				BulkWriteResult result = super.nonOrderedBulkWrite(bulkWriter);
+				if (numberOfBulkWrites.incrementAndGet() <= numberOfFailures) {
+					throw failure.apply(result);
+				}
+				return result;
+			}
+		});
+		mirror = new SpaceMirrorContext(
+				new MirroredObjects(new TestSpaceMirrorObjectDefinitions().getMirroredObjectDefinitions().stream(), MirroredObjectDefinitionsOverride.noOverride()),
+				documentConverter,
+				documentDb,
+				mirrorExceptionSpy,
+				Plugins.empty(),
+				1);
+	}
+
+	/**
+	 * Replaces the document db with one that counts the number of bulk writes made to it.
+	 */
+	private AtomicInteger countBulkWrites() {
+		AtomicInteger numberOfBulkWrites = new AtomicInteger();
+		documentDb = DocumentDb.create((name, readPreference) -> new FakeDocumentCollection() {
+			@Override
+			public BulkWriteResult orderedBulkWrite(Consumer<BulkWriter> bulkWriter) {
+				numberOfBulkWrites.incrementAndGet();
+				return super.orderedBulkWrite(bulkWriter);
+			}
+
+			@Override
+			public BulkWriteResult nonOrderedBulkWrite(Consumer<BulkWriter> bulkWriter) {
+				numberOfBulkWrites.incrementAndGet();
+				return super.nonOrderedBulkWrite(bulkWriter);
+			}
+		});
+		mirror = new SpaceMirrorContext(
+				new MirroredObjects(new TestSpaceMirrorObjectDefinitions().getMirroredObjectDefinitions().stream(), MirroredObjectDefinitionsOverride.noOverride()),
+				documentConverter,
+				documentDb,
+				mirrorExceptionSpy,
+				Plugins.empty(),
+				1);
+		return numberOfBulkWrites;
+	}
+
+	private BulkMirroredObjectWriter writer(ReloadableYmerProperties.ReloadablePropertiesBuilder ymerProperties) {
+		BulkMirroredObjectWriter writer = new BulkMirroredObjectWriter(
+				mirror,
+				exceptionHandler,
+				new MirroredObjectFilterer(mirror),
+				metrics,
+				ymerProperties.build()
+		);
+		writers.add(writer);
+		return writer;
+	}
+
+	private BulkMirroredObjectWriter shardedWriter(int parallelism) {
+		BulkMirroredObjectWriter shardedWriter = new BulkMirroredObjectWriter(
+				mirror,
+				exceptionHandler,
+				new MirroredObjectFilterer(mirror),
+				metrics,
+				ReloadableYmerProperties.builder().bulkWriteParallelism(() -> parallelism).build()
+		);
+		writers.add(shardedWriter);
+		return shardedWriter;
+	}
+
+	private BulkMirroredObjectWriter coalescingWriter() {
+		BulkMirroredObjectWriter coalescingWriter = new BulkMirroredObjectWriter(
+				mirror,
+				exceptionHandler,
+				new MirroredObjectFilterer(mirror),
+				metrics,
+				ReloadableYmerProperties.builder().coalesceBulkWrites(() -> true).build()
+		);
+		writers.add(coalescingWriter);
+		return coalescingWriter;
+	}
+
 	private DocumentDb throwsOnUpdateDocumentDb() {
 		return DocumentDb.create((name, readPreference) -> new FakeDocumentCollection() {
 			@Override
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.Test;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteInsert;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+
+public class BulkWriteChunkerTest {
+
+	@Test
+	public void splitsOnNumberOfOperations() {
+		BulkWriteChunker chunker = chunker(2, Integer.MAX_VALUE, 1);
+
+		List<BulkWriteChunker.Chunk> chunks = chunker.split(inserts(5, 10));
+
+		assertThat(chunks.stream().map(BulkWriteChunker.Chunk::getOffset).collect(toList()), contains(0, 2, 4));
+		assertThat(chunks.stream().map(chunk -> chunk.getWriteModels().size()).collect(toList()), contains(2, 2, 1));
+	}
+
+	@Test
+	public void splitsOnEstimatedSize() {
+		BulkWriteChunker chunker = chunker(100, 25, 1);
+
+		List<BulkWriteChunker.Chunk> chunks = chunker.split(inserts(5, 10));
+
+		assertThat(chunks.stream().map(BulkWriteChunker.Chunk::getOffset).collect(toList()), contains(0, 2, 4));
+		assertThat(chunks.stream().map(BulkWriteChunker.Chunk::getEstimatedBytes).collect(toList()), contains(20L, 20L, 10L));
+	}
+
+	@Test
+	public void writesWriteModelLargerThanMaxSizeInChunkOfItsOwn() {
+		BulkWriteChunker chunker = chunker(100, 25, 1);
+		CompactedWriteModels writeModels = new CompactedWriteModels();
+		writeModels.add(insert(0), 10);
+		writeModels.add(insert(1), 100);
+		writeModels.add(insert(2), 10);
+
+		List<BulkWriteChunker.Chunk> chunks = chunker.split(writeModels);
+
+		assertThat(chunks.stream().map(BulkWriteChunker.Chunk::getOffset).collect(toList()), contains(0, 1, 2));
+	}
+
+	@Test
+	public void translatesIndexesOfChunkResultsToIndexesOfWholeBulkWrite() {
+		BulkWriteChunker chunker = chunker(2, Integer.MAX_VALUE, 1);
+
+		BulkWriteResult result = chunker.bulkWrite(inserts(5, 10), true, new FakeBulkWrite(-1));
+
+		assertThat(result.getInsertedCount(), equalTo(5));
+		assertThat(result.getInserts().stream().map(BulkWriteInsert::getIndex).collect(toList()), contains(0, 1, 2, 3, 4));
+		assertThat(chunker.getNumBulkWrites(), equalTo(1L));
+		assertThat(chunker.getNumSplitBulkWrites(), equalTo(1L));
+		assertThat(chunker.getNumChunks(), equalTo(3L));
+		assertThat(chunker.getMaxChunkOperations(), equalTo(2L));
+		assertThat(chunker.getMaxChunkBytes(), equalTo(20L));
+	}
+
+	@Test
+	public void orderedBulkWriteStopsAtFirstFailingChunk() {
+		BulkWriteChunker chunker = chunker(2, Integer.MAX_VALUE, 1);
+		FakeBulkWrite bulkWrite = new FakeBulkWrite(3);
+
+		try {
+			chunker.bulkWrite(inserts(6, 10), true, bulkWrite);
+			fail("Expected exception of type: " + MongoBulkWriteException.class.getName());
+		} catch (MongoBulkWriteException e) {
+			assertThat(e.getWriteErrors(), hasSize(1));
+			assertThat(e.getWriteErrors().get(0).getIndex(), equalTo(3));
+			assertThat(e.getWriteResult().getInsertedCount(), equalTo(3));
+		}
+		assertThat(bulkWrite.numChunksWritten.get(), equalTo(2));
+	}
+
+	@Test
+	public void unorderedBulkWriteReportsErrorsOfAllChunks() {
+		BulkWriteChunker chunker = chunker(2, Integer.MAX_VALUE, 3);
+		FakeBulkWrite bulkWrite = new FakeBulkWrite(1, 5);
+
+		try {
+			chunker.bulkWrite(inserts(6, 10), false, bulkWrite);
+			fail("Expected exception of type: " + MongoBulkWriteException.class.getName());
+		} catch (MongoBulkWriteException e) {
+			assertThat(e.getWriteErrors().stream().map(BulkWriteError::getIndex).collect(toList()), contains(1, 5));
+			assertThat(e.getWriteResult().getInsertedCount(), equalTo(4));
+			assertThat(e.getWriteResult().getInserts().stream().map(BulkWriteInsert::getIndex).sorted().collect(toList()), contains(0, 2, 3, 4));
+		}
+		assertThat(bulkWrite.numChunksWritten.get(), equalTo(3));
+	}
+
+	private static BulkWriteChunker chunker(int maxOperations, int maxBytes, int parallelism) {
+		return new BulkWriteChunker(ReloadableYmerProperties.builder()
+				.maxBulkWriteChunkOperations(() -> maxOperations)
+				.maxBulkWriteChunkBytes(() -> maxBytes)
+				.bulkWriteChunkParallelism(() -> parallelism)
+				.build());
+	}
+
+	private static CompactedWriteModels inserts(int count, long size) {
+		CompactedWriteModels writeModels = new CompactedWriteModels();
+		for (int id = 0; id < count; id++) {
+			writeModels.add(insert(id), size);
+		}
+		return writeModels;
+	}
+
+	private static InsertOneModel<Document> insert(int id) {
+		return new InsertOneModel<>(new Document("_id", id));
+	}
+
+	/**
+	 * Bulk write of inserts, where inserts of documents with the given ids fail. Writes following a failed insert in
+	 * the same chunk are written, as for an unordered bulk write.
+	 */
+	private static class FakeBulkWrite implements Function<List<WriteModel<Document>>, BulkWriteResult> {
+		private final Set<Integer> failingIds;
+		private final AtomicInteger numChunksWritten = new AtomicInteger();
+
+		FakeBulkWrite(Integer... failingIds) {
+			this.failingIds = Set.of(failingIds);
+		}
+
+		@Override
+		public BulkWriteResult apply(List<WriteModel<Document>> writeModels) {
+			numChunksWritten.incrementAndGet();
+			List<BulkWriteInsert> inserts = new ArrayList<>();
+			List<BulkWriteError> errors = new ArrayList<>();
+			for (int i = 0; i < writeModels.size(); i++) {
+				Object id = ((InsertOneModel<Document>) writeModels.get(i)).getDocument().get("_id");
+				if (failingIds.contains(id)) {
+					errors.add(new BulkWriteError(11000, "duplicate key", new BsonDocument(), i));
+				} else {
+					inserts.add(new BulkWriteInsert(i, null));
+				}
+			}
+			BulkWriteResult result = BulkWriteResult.acknowledged(inserts.size(), 0, 0, 0, Collections.emptyList(), inserts);
+			if (!errors.isEmpty()) {
+				throw new MongoBulkWriteException(result, errors, null, new ServerAddress("localhost"), Set.of());
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.List;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.Test;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+
+public class CompactedWriteModelsTest {
+
+	@Test
+	public void mergesDeletesOfBulkWithOnlyDeletesIntoDeleteMany() {
+		CompactedWriteModels writeModels = new CompactedWriteModels();
+		writeModels.deleteById(2);
+		writeModels.deleteById(3);
+		writeModels.deleteById(4);
+
+		List<WriteModel<Document>> models = writeModels.getWriteModels();
+
+		assertThat(models, hasSize(1));
+		assertThat(models.get(0), instanceOf(DeleteManyModel.class));
+		assertThat(((DeleteManyModel<Document>) models.get(0)).getFilter(), equalTo(Filters.in("_id", List.of(2, 3, 4))));
+		assertThat(writeModels.getNumberOfOperations(), equalTo(3));
+		assertThat(writeModels.toOperationIndex(0), equalTo(0));
+		assertThat(writeModels.getEstimatedSize(0), equalTo(12L));
+	}
+
+	@Test
+	public void keepsDeletesOfBulkWithOtherWritesSeparateSoThatTheBulkIsRetryable() {
+		CompactedWriteModels writeModels = new CompactedWriteModels();
+		writeModels.add(new InsertOneModel<>(new Document("_id", 1)), 22);
+		writeModels.deleteById(2);
+		writeModels.deleteById(3);
+		writeModels.add(new InsertOneModel<>(new Document("_id", 4)), 22);
+
+		List<WriteModel<Document>> models = writeModels.getWriteModels();
+
+		assertThat(models, hasSize(4));
+		assertThat(models.get(1), instanceOf(DeleteOneModel.class));
+		assertThat(((DeleteOneModel<Document>) models.get(2)).getFilter(), equalTo(Filters.eq(3)));
+		assertThat(writeModels.getNumberOfOperations(), equalTo(4));
+		assertThat(writeModels.toOperationIndex(3), equalTo(3));
+		assertThat(writeModels.getEstimatedSize(0), equalTo(22L));
+		assertThat(writeModels.getEstimatedSize(1), equalTo(4L));
+	}
+
+	@Test
+	public void splitsDeleteRunsIntoChunksOfMaxIds() {
+		CompactedWriteModels writeModels = new CompactedWriteModels(2);
+		for (int id = 0; id < 5; id++) {
+			writeModels.deleteById(id);
+		}
+
+		List<WriteModel<Document>> models = writeModels.getWriteModels();
+
+		assertThat(models, hasSize(3));
+		assertThat(((DeleteManyModel<Document>) models.get(0)).getFilter(), equalTo(Filters.in("_id", List.of(0, 1))));
+		assertThat(((DeleteManyModel<Document>) models.get(1)).getFilter(), equalTo(Filters.in("_id", List.of(2, 3))));
+		assertThat(((DeleteOneModel<Document>) models.get(2)).getFilter(), equalTo(Filters.eq(4)));
+		assertThat(writeModels.toOperationIndex(2), equalTo(4));
+	}
+
+	@Test
+	public void translatesIndexesOfBulkWriteExceptionToOperationIndexes() {
+		CompactedWriteModels writeModels = new CompactedWriteModels(2);
+		for (int id = 0; id < 3; id++) {
+			writeModels.deleteById(id);
+		}
+		writeModels.getWriteModels();
+		BulkWriteResult result = BulkWriteResult.acknowledged(0, 0, 2, 0, List.of(new BulkWriteUpsert(1, new BsonString("2"))), List.of());
+		MongoBulkWriteException e = new MongoBulkWriteException(result, List.of(new BulkWriteError(50, "operation exceeded time limit", new BsonDocument(), 1)),
+				null, new ServerAddress("localhost"), Set.of("label"));
+
+		MongoBulkWriteException translated = writeModels.toOperationIndexes(e);
+
+		assertThat(translated.getWriteErrors().get(0).getIndex(), equalTo(2));
+		assertThat(translated.getWriteErrors().get(0).getCode(), equalTo(50));
+		assertThat(translated.getWriteResult().getDeletedCount(), equalTo(2));
+		assertThat(translated.getWriteResult().getUpserts().get(0).getIndex(), equalTo(2));
+		assertThat(translated.getErrorLabels(), contains("label"));
+	}
+
+	@Test
+	public void reportsFailingMergedDeleteAtEveryDeleteItCovers() {
+		CompactedWriteModels writeModels = new CompactedWriteModels(3);
+		for (int id = 0; id < 5; id++) {
+			writeModels.deleteById(id);
+		}
+		writeModels.getWriteModels();
+		MongoBulkWriteException e = new MongoBulkWriteException(BulkWriteResult.acknowledged(0, 0, 3, 0, List.of(), List.of()),
+				List.of(new BulkWriteError(50, "operation exceeded time limit", new BsonDocument(), 1)), null, new ServerAddress("localhost"), Set.of());
+
+		MongoBulkWriteException translated = writeModels.toOperationIndexes(e);
+
+		assertThat(translated.getWriteErrors().stream().map(BulkWriteError::getIndex).collect(toList()), contains(3, 4));
+		assertThat(translated.getWriteErrors().get(1).getCode(), equalTo(50));
+	}
+
+	@Test
+	public void leavesExceptionUntouchedWhenNothingWasMerged() {
+		CompactedWriteModels writeModels = new CompactedWriteModels();
+		writeModels.deleteById(1);
+		writeModels.add(new InsertOneModel<>(new Document("_id", 2)), 22);
+		writeModels.getWriteModels();
+		MongoBulkWriteException e = new MongoBulkWriteException(BulkWriteResult.acknowledged(0, 0, 1, 0, List.of(), List.of()),
+				List.of(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1)), null, new ServerAddress("localhost"), Set.of());
+
+		assertThat(writeModels.toOperationIndexes(e), sameInstance(e));
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.awaitility.Awaitility;
+import org.junit.Test;
+
+public class ConcurrentStreamMergerTest {
+
+	@Test
+	public void mergesAllElementsFromAllSources() {
+		List<Supplier<Stream<? extends Integer>>> sources = Arrays.asList(
+				() -> IntStream.range(0, 1000).boxed(),
+				() -> IntStream.range(1000, 1500).boxed(),
+				Stream::empty,
+				() -> Stream.of(1500));
+
+		List<Integer> merged = ConcurrentStreamMerger.merge(sources, 2, 10, "test-").collect(toList());
+
+		assertThat(merged, containsInAnyOrder(IntStream.rangeClosed(0, 1500).boxed().toArray()));
+	}
+
+	@Test
+	public void emptyListOfSourcesGivesEmptyStream() {
+		List<Object> merged = ConcurrentStreamMerger.merge(new ArrayList<>(), 2, 10, "test-").collect(toList());
+
+		assertThat(merged, is(empty()));
+	}
+
+	@Test
+	public void consumesSourcesConcurrently() throws Exception {
+		CountDownLatch bothSourcesStarted = new CountDownLatch(2);
+		Supplier<Stream<? extends Integer>> source = () -> {
+			bothSourcesStarted.countDown();
+			try {
+				if (!bothSourcesStarted.await(10, TimeUnit.SECONDS)) {
+					throw new IllegalStateException("Sources were not consumed concurrently");
+				}
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			return Stream.of(1);
+		};
+
+		long count = ConcurrentStreamMerger.merge(Arrays.asList(source, source), 2, 10, "test-").count();
+
+		assertThat(count, is(2L));
+	}
+
+	@Test
+	public void startsSourcesInGivenOrder() {
+		List<String> startOrder = new ArrayList<>();
+		List<Supplier<Stream<? extends String>>> sources = new ArrayList<>();
+		for (String name : Arrays.asList("first", "second", "third")) {
+			sources.add(() -> {
+				startOrder.add(name);
+				return Stream.of(name);
+			});
+		}
+
+		ConcurrentStreamMerger.merge(sources, 1, 10, "test-").forEach(s -> { });
+
+		assertThat(startOrder, is(Arrays.asList("first", "second", "third")));
+	}
+
+	@Test
+	public void closesEachSourceStreamWhenConsumed() {
+		AtomicInteger closedSources = new AtomicInteger();
+		Supplier<Stream<? extends Integer>> source = () -> Stream.of(1, 2, 3).onClose(closedSources::incrementAndGet);
+
+		long count = ConcurrentStreamMerger.merge(Arrays.asList(source, source, source), 2, 1, "test-").count();
+
+		assertThat(count, is(9L));
+		assertThat(closedSources.get(), is(3));
+	}
+
+	@Test
+	public void rethrowsExceptionFromFailingSource() {
+		List<Supplier<Stream<? extends Integer>>> sources = Arrays.asList(
+				() -> Stream.of(1, 2),
+				() -> Stream.of(3).map(i -> {
+					throw new IllegalArgumentException("Failed to read " + i);
+				}));
+
+		Stream<Integer> merged = ConcurrentStreamMerger.merge(sources, 2, 10, "test-");
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, merged::count);
+		assertThat(e.getMessage(), is("Failed to read 3"));
+	}
+
+	@Test
+	public void closingMergedStreamStopsSourcesBlockedOnFullBuffer() {
+		AtomicInteger openedSources = new AtomicInteger();
+		AtomicInteger closedSources = new AtomicInteger();
+		Supplier<Stream<? extends Integer>> infiniteSource = () -> {
+			openedSources.incrementAndGet();
+			return Stream.iterate(0, i -> i + 1).onClose(closedSources::incrementAndGet);
+		};
+
+		Stream<Integer> merged = ConcurrentStreamMerger.merge(Arrays.asList(infiniteSource, infiniteSource), 2, 5, "test-");
+		assertThat(merged.iterator().next(), is(0));
+		merged.close();
+
+		Awaitility.await().until(() -> closedSources.get() == openedSources.get());
+	}
+
+}
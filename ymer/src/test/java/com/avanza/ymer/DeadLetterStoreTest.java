@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static com.avanza.ymer.TestSpaceMirrorObjectDefinitions.TEST_SPACE_OBJECT;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.avanza.ymer.DocumentCollection.BulkWriter;
+import com.avanza.ymer.helper.FakeBatchData;
+import com.avanza.ymer.helper.FakeBulkItem;
+import com.avanza.ymer.helper.MirrorExceptionSpy;
+import com.gigaspaces.sync.DataSyncOperationType;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.WriteConcernError;
+
+public class DeadLetterStoreTest {
+
+	private final InstanceMetadata testMetadata = new InstanceMetadata(1, null);
+	private SpaceMirrorContext mirror;
+	private DeadLetterStore deadLetterStore;
+	private BulkMirroredObjectWriter writer;
+
+	@Before
+	public void setUp() {
+		TestSpaceMirrorObjectDefinitions definitions = new TestSpaceMirrorObjectDefinitions();
+		mirror = new SpaceMirrorContext(
+				new MirroredObjects(definitions.getMirroredObjectDefinitions().stream(), MirroredObjectDefinitionsOverride.noOverride()),
+				TestSpaceObjectFakeConverter.create(),
+				FakeDocumentDb.create(),
+				new MirrorExceptionSpy(),
+				Plugins.empty(),
+				1);
+		deadLetterStore = new DeadLetterStore(mirror);
+		writer = new BulkMirroredObjectWriter(mirror, new DeadLetterDocumentWriteExceptionHandler(deadLetterStore), new MirroredObjectFilterer(mirror));
+	}
+
+	@After
+	public void tearDown() {
+		writer.close();
+	}
+
+	@Test
+	public void rejectedChangesAreDeadLetteredWhileTheRestOfTheBatchIsWritten() {
+		testCollection().insert(mirror.toVersionedDocument(new TestSpaceObject("1", "existing"), testMetadata));
+
+		writer.executeBulk(testMetadata, FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceObject("1", "a"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("2", "b"), DataSyncOperationType.WRITE)));
+
+		assertThat(messages(), containsInAnyOrder("existing", "b"));
+		List<String> deadLetters = deadLetterStore.listDeadLetters(10);
+		assertThat(deadLetters, hasSize(1));
+		assertThat(deadLetters.get(0), containsString("INSERT in " + TEST_SPACE_OBJECT.collectionName()));
+		assertThat(deadLetters.get(0), containsString("source: spaceName_container1_1:spaceName, operations: 2"));
+	}
+
+	@Test
+	public void conversionFailuresAreDeadLetteredWithoutDocument() {
+		TestSpaceObject failsConversion = new TestSpaceObject("1", "a");
+		failsConversion.setFailConversion(true);
+
+		writer.executeBulk(testMetadata, FakeBatchData.create(new FakeBulkItem(failsConversion, DataSyncOperationType.WRITE)));
+
+		assertThat(deadLetterStore.getNumDeadLetters(), equalTo(1L));
+		assertThat(deadLetterStore.replayAll(), equalTo(0));
+		assertThat(deadLetterStore.getNumDeadLetters(), equalTo(1L));
+	}
+
+	@Test
+	public void transientErrorsAreRethrownInsteadOfDeadLettered() {
+		DeadLetterDocumentWriteExceptionHandler handler = new DeadLetterDocumentWriteExceptionHandler(deadLetterStore);
+		MongoSocketException exception = new MongoSocketException("Connection refused", new ServerAddress());
+
+		assertThrows(TransientDocumentWriteException.class, () -> handler.handleFailedChanges(exception, "Bulk write",
+				singletonList(failedChange(MirrorOperation.INSERT, false, new Document("_id", "1")))));
+		assertThat(deadLetterStore.getNumDeadLetters(), equalTo(0L));
+	}
+
+	@Test
+	public void replaysDeadLetteredChangesInOrder() {
+		testCollection().insert(new Document("_id", "3").append("message", "c"));
+		deadLetterStore.add(failedChange(MirrorOperation.INSERT, false, new Document("_id", "1").append("message", "a")));
+		deadLetterStore.add(failedChange(MirrorOperation.UPDATE, false, new Document("_id", "1").append("message", "b")));
+		deadLetterStore.add(failedChange(MirrorOperation.UPDATE, true, new Document("_id", "2").append("message", "partial")));
+		deadLetterStore.add(failedChange(MirrorOperation.REMOVE, false, new Document("_id", "3")));
+
+		assertThat(deadLetterStore.replayAll(), equalTo(4));
+
+		assertThat(messages(), containsInAnyOrder("b"));
+		assertThat(deadLetterStore.listDeadLetters(10), empty());
+	}
+
+	@Test
+	public void replayRemovesReplayedIdsFromDocumentHashCache() {
+		Document lastWritten = new Document("_id", "1").append("message", "latest");
+		DocumentHashCache hashCache = new DocumentHashCache(100);
+		hashCache.put("1", DocumentHashCache.hash(lastWritten));
+		hashCache.put("2", DocumentHashCache.hash(new Document("_id", "2")));
+		deadLetterStore.useDocumentHashCaches(Map.of(TEST_SPACE_OBJECT.collectionName(), hashCache));
+		deadLetterStore.add(failedChange(MirrorOperation.UPDATE, false, new Document("_id", "1").append("message", "old")));
+
+		assertThat(deadLetterStore.replayAll(), equalTo(1));
+
+		assertThat(hashCache.isUnchanged("1", DocumentHashCache.hash(lastWritten)), equalTo(false));
+		assertThat(hashCache.isUnchanged("2", DocumentHashCache.hash(new Document("_id", "2"))), equalTo(true));
+	}
+
+	@Test
+	public void stopsReplayAndKeepsEntriesOnWriteConcernError() {
+		DocumentDb documentDb = DocumentDb.create((name, readPreference) -> new FakeDocumentCollection() {
+			@Override
+			public BulkWriteResult orderedBulkWrite(Consumer<BulkWriter> bulkWriter) {
+				BulkWriteResult result = super.orderedBulkWrite(bulkWriter);
+				WriteConcernError writeConcernError = new WriteConcernError(64, "WriteConcernFailed", "waiting for replication timed out", new BsonDocument());
+				throw new MongoBulkWriteException(result, emptyList(), writeConcernError, new ServerAddress());
+			}
+		});
+		mirror = new SpaceMirrorContext(
+				new MirroredObjects(new TestSpaceMirrorObjectDefinitions().getMirroredObjectDefinitions().stream(), MirroredObjectDefinitionsOverride.noOverride()),
+				TestSpaceObjectFakeConverter.create(),
+				documentDb,
+				new MirrorExceptionSpy(),
+				Plugins.empty(),
+				1);
+		DeadLetterStore store = new DeadLetterStore(mirror);
+		store.add(failedChange(MirrorOperation.INSERT, false, new Document("_id", "1")));
+		store.add(failedChange(MirrorOperation.INSERT, false, new Document("_id", "2")));
+
+		assertThat(store.replayAll(), equalTo(0));
+		assertThat(store.listDeadLetters(10), hasSize(2));
+	}
+
+	@Test
+	public void purgesDeadLetteredChanges() {
+		deadLetterStore.add(failedChange(MirrorOperation.INSERT, false, new Document("_id", "1")));
+		deadLetterStore.add(failedChange(MirrorOperation.INSERT, false, new Document("_id", "2")));
+		String id = deadLetterStore.listDeadLetters(1).get(0).split(" ")[0];
+
+		assertThat(deadLetterStore.purge(id), equalTo(true));
+		assertThat(deadLetterStore.purge(id), equalTo(false));
+		assertThat(deadLetterStore.getNumDeadLetters(), equalTo(1L));
+		assertThat(deadLetterStore.purgeAll(), equalTo(1));
+		assertThat(deadLetterStore.getNumDeadLetters(), equalTo(0L));
+		assertThat(messages(), empty());
+	}
+
+	private FailedChange failedChange(MirrorOperation operation, boolean partialUpdate, Document document) {
+		return new FailedChange(TEST_SPACE_OBJECT.collectionName(), operation, partialUpdate, document,
+				new TestSpaceObject(document.getString("_id"), null), "error", "batch");
+	}
+
+	private DocumentCollection testCollection() {
+		return mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName());
+	}
+
+	private List<String> messages() {
+		return testCollection().findAll().map(document -> document.getString("message")).collect(toList());
+	}
+}
@@ -16,6 +16,7 @@
 package com.avanza.ymer;
 
 import static com.avanza.ymer.StreamMatchers.hasCount;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singleton;
 import static java.util.stream.Collectors.toList;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -31,11 +32,13 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 import static org.springframework.data.domain.Sort.Direction.ASC;
 
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.junit.Before;
@@ -43,6 +46,8 @@ import org.junit.Test;
 import org.springframework.data.mongodb.core.index.IndexField;
 import org.springframework.data.mongodb.core.index.IndexInfo;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.model.IndexOptions;
 
 /**
@@ -60,6 +65,75 @@ public abstract class DocumentCollectionContract {
 
 	protected abstract DocumentCollection createEmptyCollection();
 
+	@Test
+	public void estimatedDocumentCountReflectsInsertedDocuments() throws Exception {
+		assertEquals(0, documentCollection.estimatedDocumentCount());
+
+		documentCollection.insertAll(new Document("_id", "id_1"), new Document("_id", "id_2"));
+
+		assertEquals(2, documentCollection.estimatedDocumentCount());
+	}
+
+	@Test
+	public void idRangesFromSampledSplitPointsCoverAllDocumentsWithoutOverlap() throws Exception {
+		for (int id = 0; id < 100; id++) {
+			documentCollection.insert(new Document("_id", id));
+		}
+		documentCollection.insert(new Document("_id", "id_1"));
+
+		List<Object> splitPoints = documentCollection.sampleIdSplitPoints(3);
+		List<IdRange> idRanges = IdRange.fromSplitPoints(splitPoints);
+
+		List<Object> idsInRanges = idRanges.stream()
+				.flatMap(documentCollection::findAll)
+				.map(document -> document.get("_id"))
+				.collect(toList());
+		assertEquals(101, idsInRanges.size());
+		assertEquals(101, new HashSet<>(idsInRanges).size());
+	}
+
+	@Test
+	public void sampleIdSplitPointsReturnsNoSplitPointsForEmptyCollection() throws Exception {
+		assertEquals(emptyList(), documentCollection.sampleIdSplitPoints(3));
+	}
+
+	@Test
+	public void replaceIfUnchangedOnlyReplacesDocumentsWithUnchangedFormatVersion() throws Exception {
+		Document unchanged = new Document("_id", "id_1");
+		Document changed = new Document("_id", "id_2");
+		documentCollection.insertAll(new Document(unchanged), new Document("_id", "id_2").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 2));
+
+		documentCollection.nonOrderedBulkWrite(bulkWriter -> {
+			bulkWriter.replaceIfUnchanged(unchanged, new Document("_id", "id_1").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 2).append("patched", true));
+			bulkWriter.replaceIfUnchanged(changed, new Document("_id", "id_2").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 2).append("patched", true));
+		});
+
+		assertEquals(true, documentCollection.findById("id_1").get("patched"));
+		assertNull(documentCollection.findById("id_2").get("patched"));
+	}
+
+	@Test
+	public void findWithFormatVersionBelowTreatsDocumentsWithoutFormatVersionAsVersionOne() throws Exception {
+		documentCollection.insertAll(
+				new Document("_id", "id_1"),
+				new Document("_id", "id_2").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 2),
+				new Document("_id", "id_3").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 3));
+
+		assertEquals(List.of("id_1", "id_2"), sortedIds(documentCollection.findWithFormatVersionBelow(3, 10)));
+		assertEquals(List.of("id_1"), sortedIds(documentCollection.findWithFormatVersionBelow(2, 10)));
+		assertEquals(List.of(), sortedIds(documentCollection.findWithFormatVersionBelow(1, 10)));
+	}
+
+	@Test
+	public void countByFormatVersionTreatsDocumentsWithoutFormatVersionAsVersionOne() throws Exception {
+		documentCollection.insertAll(
+				new Document("_id", "id_1"),
+				new Document("_id", "id_2").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 1),
+				new Document("_id", "id_3").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 3));
+
+		assertEquals(Map.of(1, 2L, 3, 1L), documentCollection.countByFormatVersion());
+	}
+
 	@Test
 	public void insertAddsAnElement() throws Exception {
 		Document d1 = new Document();
@@ -284,6 +358,41 @@ public abstract class DocumentCollectionContract {
 		assertThat(updatedDocument, hasEntry("second_field", "BB"));
 	}
 
+	@Test
+	public void updateFieldsOfSingleDocumentInBulk() throws Exception {
+		documentCollection.insertAll(
+				new Document("_id", "1").append("first_field", "a").append("second_field", "b"),
+				new Document("_id", "2").append("first_field", "a").append("second_field", "b"));
+
+		BulkWriteResult result = documentCollection.orderedBulkWrite(bulkWriter -> {
+			bulkWriter.updateFields("1", Map.of("second_field", "BB", "third_field", "CC"));
+			bulkWriter.updateFields("3", Map.of("second_field", "BB"));
+		});
+
+		assertThat(result.getMatchedCount(), equalTo(1));
+		assertThat(documentCollection.findById("1"), equalTo(new Document("_id", "1").append("first_field", "a").append("second_field", "BB").append("third_field", "CC")));
+		assertThat(documentCollection.findById("2"), equalTo(new Document("_id", "2").append("first_field", "a").append("second_field", "b")));
+		assertThat(documentCollection.findAll(), hasCount(2));
+	}
+
+	@Test
+	public void bulkWriteErrorIsReportedAtIndexOfFailingOperationAfterConsecutiveDeletes() throws Exception {
+		documentCollection.insertAll(new Document("_id", "1"), new Document("_id", "2"), new Document("_id", "3"));
+
+		try {
+			documentCollection.orderedBulkWrite(bulkWriter -> {
+				bulkWriter.delete(new Document("_id", "1"));
+				bulkWriter.delete(new Document("_id", "2"));
+				bulkWriter.insert(new Document("_id", "3"));
+				bulkWriter.delete(new Document("_id", "3"));
+			});
+			fail("Expected exception of type: " + MongoBulkWriteException.class.getName());
+		} catch (MongoBulkWriteException e) {
+			assertThat(e.getWriteErrors().get(0).getIndex(), equalTo(2));
+		}
+		assertThat(documentCollection.findAll().map(document -> document.get("_id")).collect(toList()), equalTo(List.of("3")));
+	}
+
 	@Test
 	public void shouldReturnOnlyTheDefaultIndex() throws Exception {
 		documentCollection.insert(new Document("_id", 1));
@@ -317,6 +426,14 @@ public abstract class DocumentCollectionContract {
 		assertThat(indexes, empty());
 	}
 
+	private static List<Object> sortedIds(Stream<Document> documents) {
+		try (documents) {
+			return documents.map(document -> document.get("_id"))
+					.sorted(FakeDocumentCollection.ID_ORDER)
+					.collect(toList());
+		}
+	}
+
 	private Document firstElementWithId(List<Document> all, final String id) {
 		return all.stream().filter(input -> input.get("_id").equals(id)).findFirst().orElseThrow();
 	}
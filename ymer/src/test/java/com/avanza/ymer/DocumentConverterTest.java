@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Optional;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+public class DocumentConverterTest {
+
+	private final DocumentConverter documentConverter = DocumentConverter.mongoConverter(
+			new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+
+	@Test
+	public void documentIdIsConvertedAsWhenConvertingWholeObject() {
+		for (String id : new String[] { "id_1", new ObjectId().toHexString() }) {
+			TestSpaceObject spaceObject = new TestSpaceObject(id, "message");
+
+			Object expected = documentConverter.convertToBsonDocument(spaceObject).get("_id");
+
+			assertThat(documentConverter.toDocumentId(TestSpaceObject.class, "id", id), is(Optional.of(expected)));
+		}
+	}
+
+	@Test
+	public void noDocumentIdForPropertyThatIsNotTheIdProperty() {
+		assertThat(documentConverter.toDocumentId(TestSpaceObject.class, "message", "id_1"), is(Optional.empty()));
+	}
+
+	@Test
+	public void typeWithPrimitivePropertyDoesNotHaveOnlyNullableProperties() {
+		assertThat(documentConverter.hasOnlyNullableProperties(TestSpaceObject.class), is(false));
+		assertThat(documentConverter.hasOnlyNullableProperties(TestSpaceOtherObject.class), is(true));
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.Test;
+
+public class DocumentFormatMigrationServiceTest {
+
+	private final MirroredObject<TestSpaceObject> mirroredObject = MirroredObjectDefinition.create(TestSpaceObject.class)
+			.documentPatches(new TestSpaceObjectV1Patch())
+			.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+	private final DocumentDb documentDb = FakeDocumentDb.create();
+	private final DocumentCollection documentCollection = documentDb.getCollection(mirroredObject.getCollectionName());
+	private final DocumentFormatMigrationService migrationService = new DocumentFormatMigrationService(new SpaceMirrorContext(
+			new MirroredObjects(mirroredObject),
+			TestSpaceObjectFakeConverter.create(),
+			documentDb,
+			SpaceMirrorContext.NO_EXCEPTION_LISTENER,
+			Plugins.empty(),
+			1));
+
+	@Test
+	public void migratesDocumentsWithOldFormatVersionToCurrentVersion() {
+		documentCollection.insertAll(
+				new Document("_id", "1"),
+				new Document("_id", "2").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 1),
+				new Document("_id", "3").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 2));
+
+		migrationService.migrateDocumentFormat(mirroredObject.getCollectionName());
+
+		assertEquals(2, documentCollection.findById("1").get(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY));
+		assertEquals(true, documentCollection.findById("1").get("patched"));
+		assertEquals(2, documentCollection.findById("2").get(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY));
+		assertEquals(true, documentCollection.findById("2").get("patched"));
+		assertNull(documentCollection.findById("3").get("patched"));
+
+		DocumentFormatStatisticsMBean statistics = migrationService.collectStatistics(mirroredObject);
+		assertEquals(2, statistics.getNumberOfMigratedDocuments());
+		assertEquals(0, statistics.getNumberOfFailedDocuments());
+		assertEquals(Map.of(2, 3L), statistics.getDocumentFormatVersionHistogram());
+		assertFalse(statistics.isMigrationInProgress());
+	}
+
+	@Test
+	public void documentsWithUnknownFormatVersionAreCountedAsFailed() {
+		documentCollection.insertAll(
+				new Document("_id", "1"),
+				new Document("_id", "2").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 0));
+
+		migrationService.migrateDocumentFormat();
+
+		DocumentFormatStatisticsMBean statistics = migrationService.collectStatistics(mirroredObject);
+		assertEquals(1, statistics.getNumberOfMigratedDocuments());
+		assertEquals(1, statistics.getNumberOfFailedDocuments());
+		assertEquals(Map.of(0, 1L, 2, 1L), statistics.getDocumentFormatVersionHistogram());
+	}
+
+	@Test
+	public void updatesDocumentFormatVersionHistogram() {
+		documentCollection.insertAll(
+				new Document("_id", "1"),
+				new Document("_id", "2").append(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 2));
+
+		migrationService.updateDocumentFormatVersionHistograms();
+
+		assertEquals(Map.of(1, 1L, 2, 1L), migrationService.collectStatistics(mirroredObject).getDocumentFormatVersionHistogram());
+	}
+
+	private static class TestSpaceObjectV1Patch implements BsonDocumentPatch {
+
+		@Override
+		public void apply(Document document) {
+			document.put("patched", true);
+		}
+
+		@Override
+		public int patchedVersion() {
+			return 1;
+		}
+
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import com.avanza.ymer.DocumentHashCache.DocumentHash;
+
+public class DocumentHashCacheTest {
+
+	private final DocumentHashCache cache = new DocumentHashCache(1_000);
+
+	@Test
+	public void equalDocumentsHaveEqualHashes() {
+		DocumentHash first = DocumentHashCache.hash(new Document("_id", 1).append("field", "value"));
+		DocumentHash second = DocumentHashCache.hash(new Document("_id", 1).append("field", "value"));
+
+		assertEquals(first.getHash(), second.getHash());
+		assertEquals(first.getSize(), second.getSize());
+	}
+
+	@Test
+	public void documentsWithDifferentContentOrIdHaveDifferentHashes() {
+		DocumentHash document = DocumentHashCache.hash(new Document("_id", 1).append("field", "value"));
+
+		assertThat(DocumentHashCache.hash(new Document("_id", 1).append("field", "other")).getHash(), not(document.getHash()));
+		assertThat(DocumentHashCache.hash(new Document("_id", 2).append("field", "value")).getHash(), not(document.getHash()));
+	}
+
+	@Test
+	public void matchesLastPutHashForId() {
+		DocumentHash first = DocumentHashCache.hash(new Document("_id", 1).append("field", "first"));
+		DocumentHash second = DocumentHashCache.hash(new Document("_id", 1).append("field", "second"));
+
+		assertFalse(cache.isUnchanged(1, first));
+
+		cache.put(1, first);
+		assertTrue(cache.isUnchanged(1, first));
+		assertFalse(cache.isUnchanged(1, second));
+
+		cache.put(1, second);
+		assertTrue(cache.isUnchanged(1, second));
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	public void removedIdIsNotMatched() {
+		DocumentHash hash = DocumentHashCache.hash(new Document("_id", 1));
+		cache.put(1, hash);
+
+		cache.remove(1);
+
+		assertFalse(cache.isUnchanged(1, hash));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void recordsHitsMissesAndBytesSaved() {
+		DocumentHash hash = DocumentHashCache.hash(new Document("_id", 1).append("field", "value"));
+		cache.put(1, hash);
+
+		cache.isUnchanged(1, hash);
+		cache.isUnchanged(1, hash);
+		cache.isUnchanged(2, hash);
+		cache.isUnchanged(3, hash);
+
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 0.0);
+		assertEquals(2L * hash.getSize(), cache.getBytesSaved());
+	}
+
+	@Test
+	public void evictsEntriesWhenFull() {
+		DocumentHashCache smallCache = new DocumentHashCache(16);
+		for (int id = 0; id < 10_000; id++) {
+			smallCache.put(id, DocumentHashCache.hash(new Document("_id", id)));
+		}
+
+		assertThat(smallCache.getSize(), lessThanOrEqualTo(16 * 8));
+		assertEquals(10_000, smallCache.getSize() + smallCache.getEvictions());
+	}
+
+	@Test
+	public void keepsRecentlyUsedEntryWhenEvicting() {
+		DocumentHashCache smallCache = new DocumentHashCache(1);
+		DocumentHash recentlyUsed = DocumentHashCache.hash(new Document("_id", "recentlyUsed"));
+		smallCache.put("recentlyUsed", recentlyUsed);
+		for (int id = 0; id < 1_000; id++) {
+			smallCache.put(id, DocumentHashCache.hash(new Document("_id", id)));
+			assertTrue(smallCache.isUnchanged("recentlyUsed", recentlyUsed));
+		}
+	}
+
+	@Test
+	public void clearRemovesAllEntries() {
+		DocumentHash hash = DocumentHashCache.hash(new Document("_id", 1));
+		cache.put(1, hash);
+
+		cache.clear();
+
+		assertThat(cache.getSize(), is(0));
+		assertFalse(cache.isUnchanged(1, hash));
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static com.avanza.ymer.DocumentPartitionFilter.Result.ACCEPT;
+import static com.avanza.ymer.DocumentPartitionFilter.Result.REJECT;
+import static com.avanza.ymer.DocumentPartitionFilter.Result.UNKNOWN;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+
+public class DocumentPartitionFilterTest {
+
+	private static final int PARTITION_COUNT = 4;
+
+	private final DocumentConverter documentConverter = DocumentConverter.mongoConverter(
+			new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+
+	@Test
+	public void decidesPartitionFromRoutingFieldAsSpaceObjectFilterDoes() {
+		MirroredObject<TestSpaceObjectWithCustomRoutingKey> mirroredObject = MirroredObjectDefinition.create(TestSpaceObjectWithCustomRoutingKey.class)
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+
+		for (int instanceId = 1; instanceId <= PARTITION_COUNT; instanceId++) {
+			SpaceObjectFilter<TestSpaceObjectWithCustomRoutingKey> spaceObjectFilter = SpaceObjectFilter.partitionFilter(mirroredObject, instanceId, PARTITION_COUNT);
+			DocumentPartitionFilter documentPartitionFilter = DocumentPartitionFilter.create(mirroredObject, spaceObjectFilter, documentConverter, false);
+			for (int i = 0; i < 100; i++) {
+				TestSpaceObjectWithCustomRoutingKey spaceObject = new TestSpaceObjectWithCustomRoutingKey("id_" + i, "routing_" + i);
+				Document document = documentConverter.convertToBsonDocument(spaceObject);
+
+				DocumentPartitionFilter.Result expected = spaceObjectFilter.accept(spaceObject) ? ACCEPT : REJECT;
+				assertThat(documentPartitionFilter.test(document), is(expected));
+			}
+		}
+	}
+
+	@Test
+	public void usesStoredRoutingKeyHashWhenPresent() {
+		MirroredObject<TestSpaceObjectWithCustomRoutingKey> mirroredObject = MirroredObjectDefinition.create(TestSpaceObjectWithCustomRoutingKey.class)
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+		TestSpaceObjectWithCustomRoutingKey spaceObject = new TestSpaceObjectWithCustomRoutingKey("id", "routing");
+		SpaceObjectFilter<TestSpaceObjectWithCustomRoutingKey> spaceObjectFilter = SpaceObjectFilter.partitionFilter(mirroredObject, 1, PARTITION_COUNT);
+		DocumentPartitionFilter documentPartitionFilter = DocumentPartitionFilter.create(mirroredObject, spaceObjectFilter, DocumentConverter.create(new TestSpaceObjectFakeConverterWithoutFieldNames()), false);
+
+		Document document = new Document("_id", "id").append(MirroredObject.DOCUMENT_ROUTING_KEY, "routing".hashCode());
+
+		assertThat(documentPartitionFilter.test(document), is(spaceObjectFilter.accept(spaceObject) ? ACCEPT : REJECT));
+	}
+
+	@Test
+	public void unknownWhenRoutingFieldCanNotBeResolved() {
+		MirroredObject<TestSpaceObjectWithCustomRoutingKey> mirroredObject = MirroredObjectDefinition.create(TestSpaceObjectWithCustomRoutingKey.class)
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+		DocumentPartitionFilter documentPartitionFilter = DocumentPartitionFilter.create(mirroredObject,
+				SpaceObjectFilter.partitionFilter(mirroredObject, 1, PARTITION_COUNT), DocumentConverter.create(new TestSpaceObjectFakeConverterWithoutFieldNames()), false);
+
+		assertThat(documentPartitionFilter.test(new Document("_id", "id").append("customRoutingKey", "routing")), is(UNKNOWN));
+	}
+
+	@Test
+	public void unknownWhenRoutingFieldIsOfUnexpectedType() {
+		MirroredObject<TestSpaceObject> mirroredObject = MirroredObjectDefinition.create(TestSpaceObject.class)
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+		SpaceObjectFilter<TestSpaceObject> spaceObjectFilter = SpaceObjectFilter.partitionFilter(mirroredObject, 1, PARTITION_COUNT);
+		DocumentPartitionFilter documentPartitionFilter = DocumentPartitionFilter.create(mirroredObject, spaceObjectFilter, documentConverter, false);
+
+		// String ids that are valid object ids are stored as ObjectId by the MappingMongoConverter
+		assertThat(documentPartitionFilter.test(new Document("_id", new ObjectId())), is(UNKNOWN));
+		assertThat(documentPartitionFilter.test(new Document("_id", "id")), is(spaceObjectFilter.accept(new TestSpaceObject("id", null)) ? ACCEPT : REJECT));
+	}
+
+	@Test
+	public void unknownForRoutingFieldOfTypeWithPostReadProcessing() {
+		MirroredObject<TestSpaceObjectWithCustomRoutingKey> mirroredObject = MirroredObjectDefinition.create(TestSpaceObjectWithCustomRoutingKey.class)
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+		SpaceObjectFilter<TestSpaceObjectWithCustomRoutingKey> spaceObjectFilter = SpaceObjectFilter.partitionFilter(mirroredObject, 1, PARTITION_COUNT);
+		DocumentPartitionFilter documentPartitionFilter = DocumentPartitionFilter.create(mirroredObject, spaceObjectFilter, documentConverter, true);
+		TestSpaceObjectWithCustomRoutingKey spaceObject = new TestSpaceObjectWithCustomRoutingKey("id", "routing");
+
+		assertThat(documentPartitionFilter.test(documentConverter.convertToBsonDocument(spaceObject)), is(UNKNOWN));
+		// the stored routing key hash is calculated from the space object, so it is still used
+		Document document = new Document("_id", "id").append(MirroredObject.DOCUMENT_ROUTING_KEY, "routing".hashCode());
+		assertThat(documentPartitionFilter.test(document), is(spaceObjectFilter.accept(spaceObject) ? ACCEPT : REJECT));
+	}
+
+	@Test
+	public void unknownForDocumentsThatRequirePatching() {
+		MirroredObject<TestSpaceObjectWithCustomRoutingKey> mirroredObject = MirroredObjectDefinition.create(TestSpaceObjectWithCustomRoutingKey.class)
+				.documentPatches(new RenameRoutingFieldPatch())
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+		DocumentPartitionFilter documentPartitionFilter = DocumentPartitionFilter.create(mirroredObject,
+				SpaceObjectFilter.partitionFilter(mirroredObject, 1, PARTITION_COUNT), documentConverter, false);
+
+		assertThat(documentPartitionFilter.test(new Document("_id", "id").append("customRoutingKey", "routing")), is(UNKNOWN));
+	}
+
+	@Test
+	public void unknownWithoutPartitionFilter() {
+		MirroredObject<TestSpaceObjectWithCustomRoutingKey> mirroredObject = MirroredObjectDefinition.create(TestSpaceObjectWithCustomRoutingKey.class)
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+		DocumentPartitionFilter documentPartitionFilter = DocumentPartitionFilter.create(mirroredObject, SpaceObjectFilter.acceptAll(), documentConverter, false);
+
+		assertThat(documentPartitionFilter.test(new Document("_id", "id").append(MirroredObject.DOCUMENT_ROUTING_KEY, 1)), is(UNKNOWN));
+	}
+
+	private static class RenameRoutingFieldPatch implements BsonDocumentPatch {
+		@Override
+		public void apply(Document document) {
+			document.put("customRoutingKey", document.remove("routing"));
+		}
+
+		@Override
+		public int patchedVersion() {
+			return 1;
+		}
+	}
+
+	private static class TestSpaceObjectFakeConverterWithoutFieldNames implements DocumentConverter.Provider {
+		@Override
+		public <T> T convert(Class<T> toType, Document document) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Document convertToBsonDocument(Object type) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object convert(Object type) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Query toQuery(Object template) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
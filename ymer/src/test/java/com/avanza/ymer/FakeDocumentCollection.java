@@ -18,22 +18,27 @@ package com.avanza.ymer;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.counting;
+import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
 import static org.springframework.data.domain.Sort.Direction.ASC;
 import static org.springframework.data.domain.Sort.Direction.DESC;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -42,6 +47,7 @@ import javax.annotation.Nullable;
 
 import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.index.IndexField;
 import org.springframework.data.mongodb.core.index.IndexInfo;
@@ -60,6 +66,19 @@ import com.mongodb.client.model.IndexOptions;
  */
 class FakeDocumentCollection implements DocumentCollection {
 
+	/**
+	 * Orders ids as mongo does for the id types used in tests: numbers, then strings, then object ids, then dates.
+	 */
+	static final Comparator<Object> ID_ORDER = Comparator
+			.comparing(FakeDocumentCollection::idTypeOrder)
+			.thenComparing((id1, id2) -> {
+				if (id1 instanceof Number) {
+					return Double.compare(((Number) id1).doubleValue(), ((Number) id2).doubleValue());
+				}
+				// ids of other types than those above are left in their current order
+				return idTypeOrder(id1) != Integer.MAX_VALUE ? compareSameType(id1, id2) : 0;
+			});
+
 	private final ConcurrentLinkedQueue<Document> collection = new ConcurrentLinkedQueue<>();
 	private final Set<IndexInfo> indexes = ConcurrentHashMap.newKeySet();
 	private final AtomicInteger idGenerator = new AtomicInteger(0);
@@ -84,6 +103,33 @@ class FakeDocumentCollection implements DocumentCollection {
 		return new ArrayList<>(collection).stream();
 	}
 
+	@Override
+	public Stream<Document> findAll(IdRange idRange) {
+		return findAll().filter(document -> idRange.contains(document.get("_id")));
+	}
+
+	@Override
+	public Stream<Document> findAll(SpaceObjectFilter<?> objectFilter, IdRange idRange) {
+		return findAll(objectFilter).filter(document -> idRange.contains(document.get("_id")));
+	}
+
+	@Override
+	public List<Object> sampleIdSplitPoints(int numSplitPoints) {
+		List<Object> sortedIds = collection.stream()
+				.map(document -> document.get("_id"))
+				.sorted(ID_ORDER)
+				.collect(toList());
+		if (numSplitPoints < 1 || sortedIds.isEmpty()) {
+			return emptyList();
+		}
+		return IdRange.selectSplitPoints(sortedIds, numSplitPoints);
+	}
+
+	@Override
+	public long estimatedDocumentCount() {
+		return collection.size();
+	}
+
 	@Override
 	public void replace(Document oldVersion, Document newVersion) {
 		// Note that the Iterator of the list associated with the given collectionName may reflect changes to the
@@ -110,15 +156,18 @@ class FakeDocumentCollection implements DocumentCollection {
 
 	@Override
 	public BulkWriteResult nonOrderedBulkWrite(Consumer<BulkWriter> bulkWriter) {
-		return mockedBulkWrite(bulkWriter);
+		return mockedBulkWrite(bulkWriter, false);
 	}
 
 	@Override
 	public BulkWriteResult orderedBulkWrite(Consumer<BulkWriter> bulkWriter) {
-		return mockedBulkWrite(bulkWriter);
+		return mockedBulkWrite(bulkWriter, true);
 	}
 
-	private BulkWriteResult mockedBulkWrite(Consumer<BulkWriter> bulkWriter) {
+	/**
+	 * An ordered bulk write stops at the first failing write, while an unordered one continues and reports all errors.
+	 */
+	private BulkWriteResult mockedBulkWrite(Consumer<BulkWriter> bulkWriter, boolean ordered) {
 		if (mockedBulkException != null) {
 			throw mockedBulkException.get();
 		}
@@ -127,46 +176,81 @@ class FakeDocumentCollection implements DocumentCollection {
 		LongAdder updates = new LongAdder();
 		LongAdder deletes = new LongAdder();
 		LongAdder index = new LongAdder();
+		LongAdder numberOfWrites = new LongAdder();
 
 		Supplier<BulkWriteResult> bulkResult = () -> BulkWriteResult.acknowledged(inserts.intValue(), updates.intValue(), deletes.intValue(), updates.intValue(), emptyList(), emptyList());
-		AtomicReference<MongoBulkWriteException> bulkWriteException = new AtomicReference<>(null);
+		List<BulkWriteError> writeErrors = new ArrayList<>();
+		BooleanSupplier stopped = () -> ordered && !writeErrors.isEmpty();
 
 		bulkWriter.accept(new BulkWriter() {
 			@Override
 			public void insert(Document document) {
-				if (bulkWriteException.get() == null) {
+				numberOfWrites.increment();
+				if (!stopped.getAsBoolean()) {
 					try {
 						FakeDocumentCollection.this.insert(document);
 						index.increment();
 						inserts.increment();
 					} catch (DuplicateDocumentKeyException e) {
-						bulkWriteException.set(new MongoBulkWriteException(bulkResult.get(), List.of(new BulkWriteError(0, e.getMessage(), new BsonDocument(), index.intValue())),
-								null, new ServerAddress("localhost"), emptySet()));
+						writeErrors.add(new BulkWriteError(0, e.getMessage(), new BsonDocument(), index.intValue()));
+						index.increment();
 					}
 				}
 			}
 
 			@Override
 			public void replace(Document document) {
-				if (bulkWriteException.get() == null) {
+				numberOfWrites.increment();
+				if (!stopped.getAsBoolean()) {
 					FakeDocumentCollection.this.update(document);
 					index.increment();
 					updates.increment();
 				}
 			}
 
+			@Override
+			public void replaceIfUnchanged(Document oldVersion, Document newVersion) {
+				numberOfWrites.increment();
+				if (!Objects.equals(oldVersion.get("_id"), newVersion.get("_id"))) {
+					throw new IllegalArgumentException("Can not change id in bulk replace");
+				}
+				if (!stopped.getAsBoolean()) {
+					Document current = findById(newVersion.get("_id"));
+					index.increment();
+					if (current != null && Objects.equals(current.get(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY), oldVersion.get(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY))) {
+						FakeDocumentCollection.this.update(newVersion);
+						updates.increment();
+					}
+				}
+			}
+
 			@Override
 			public void delete(Document document) {
-				if (bulkWriteException.get() == null) {
+				numberOfWrites.increment();
+				if (!stopped.getAsBoolean()) {
 					FakeDocumentCollection.this.removeById(document);
 					index.increment();
 					deletes.increment();
 				}
 			}
 
+			@Override
+			public void updateFields(Object id, Map<String, Object> fieldsToSet) {
+				numberOfWrites.increment();
+				if (!stopped.getAsBoolean()) {
+					Document current = findById(id);
+					index.increment();
+					if (current != null) {
+						current.putAll(fieldsToSet);
+						updates.increment();
+					}
+				}
+			}
+
 			@Override
 			public void updatePartialByIds(Set<Object> ids, Map<String, Object> fieldsToSet) {
-				if (bulkWriteException.get() == null) {
+				numberOfWrites.increment();
+				if (!stopped.getAsBoolean()) {
 					ids.stream()
 							.map(document -> findById(document))
 							.filter(Objects::nonNull)
@@ -180,7 +264,8 @@ class FakeDocumentCollection implements DocumentCollection {
 
 			@Override
 			public void unsetFieldsPartialByIds(Set<Object> ids, Set<String> fieldsToUnset) {
-				if (bulkWriteException.get() == null) {
+				numberOfWrites.increment();
+				if (!stopped.getAsBoolean()) {
 					ids.stream()
 							.map(document -> findById(document))
 							.filter(Objects::nonNull)
@@ -192,9 +277,13 @@ class FakeDocumentCollection implements DocumentCollection {
 				}
 			}
 		});
+		if (numberOfWrites.sum() == 0) {
+			// as the mongo driver does
+			throw new IllegalArgumentException("writes is not an empty list");
+		}
 
-		if (bulkWriteException.get() != null) {
-			throw bulkWriteException.get();
+		if (!writeErrors.isEmpty()) {
+			throw new MongoBulkWriteException(bulkResult.get(), writeErrors, null, new ServerAddress("localhost"), emptySet());
 		} else {
 			return bulkResult.get();
 		}
@@ -268,6 +357,23 @@ class FakeDocumentCollection implements DocumentCollection {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public Stream<Document> findWithFormatVersionBelow(int formatVersion, int batchSize) {
+		return collection.stream()
+				.filter(document -> document.getInteger(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 1) < formatVersion);
+	}
+
+	@Override
+	public Map<Integer, Long> countByFormatVersion() {
+		return collection.stream()
+				.collect(groupingBy(document -> document.getInteger(MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY, 1), TreeMap::new, counting()));
+	}
+
+	@Override
+	public long updateManyWithPipeline(Document filter, List<Document> pipeline) {
+		throw new UnsupportedOperationException();
+	}
+
 	@Override
 	public Stream<Document> findByTemplate(Document template) {
 		throw new UnsupportedOperationException();
@@ -310,4 +416,26 @@ class FakeDocumentCollection implements DocumentCollection {
 			}
 		}
 	}
+
+	private static int idTypeOrder(Object id) {
+		if (id instanceof Number) {
+			return 0;
+		}
+		if (id instanceof String) {
+			return 1;
+		}
+		if (id instanceof ObjectId) {
+			return 2;
+		}
+		if (id instanceof Date) {
+			return 3;
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compareSameType(Object id1, Object id2) {
+		return ((Comparable) id1).compareTo(id2);
+	}
+
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.query.Query;
+
+public class IdRangeTest {
+
+	@Test
+	public void noSplitPointsGivesSingleRangeCoveringAllIds() {
+		assertThat(IdRange.fromSplitPoints(Collections.emptyList()), contains(IdRange.all()));
+	}
+
+	@Test
+	public void splitPointsOfMixedTypesGivesSingleRangeCoveringAllIds() {
+		assertThat(IdRange.fromSplitPoints(Arrays.asList(1, "a")), contains(IdRange.all()));
+	}
+
+	@Test
+	public void createsRangesBetweenSplitPointsAndARangeForOtherTypes() {
+		List<IdRange> ranges = IdRange.fromSplitPoints(Arrays.asList(10, 20));
+
+		assertThat(ranges.stream().map(IdRange::toFilter).collect(Collectors.toList()), contains(
+				new Document("_id", new Document("$lt", 10)),
+				new Document("_id", new Document("$gte", 10).append("$lt", 20)),
+				new Document("_id", new Document("$gte", 20)),
+				new Document("_id", new Document("$not", new Document("$type", "number")))));
+	}
+
+	@Test
+	public void eachIdIsContainedInExactlyOneRange() {
+		List<IdRange> ranges = IdRange.fromSplitPoints(Arrays.asList(10L, 20.5));
+
+		for (Object id : Arrays.asList(Integer.MIN_VALUE, 9, 10, 10L, 15.0, 20, 21, Long.MAX_VALUE, "10", new ObjectId())) {
+			long numRangesContainingId = ranges.stream().filter(range -> range.contains(id)).count();
+			assertThat("Ranges containing " + id, numRangesContainingId, is(1L));
+		}
+	}
+
+	@Test
+	public void selectsEvenlyDistributedDistinctSplitPoints() {
+		List<Integer> sample = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+
+		assertThat(IdRange.selectSplitPoints(sample, 3), contains(25, 50, 75));
+		assertThat(IdRange.selectSplitPoints(Arrays.asList(1, 1, 2, 2, 2, 2), 3), contains(1, 2));
+	}
+
+	@Test
+	public void restrictsFilterToRange() {
+		IdRange range = IdRange.fromSplitPoints(Collections.singletonList("m")).get(0);
+		Document template = new Document("type", "a");
+
+		assertThat(range.restrict(template), is(new Document("$and", Arrays.asList(template, new Document("_id", new Document("$lt", "m"))))));
+		assertThat(IdRange.all().restrict(template), is(template));
+	}
+
+	@Test
+	public void restrictsQueryToRangeAndKeepsProjection() {
+		IdRange range = IdRange.fromSplitPoints(Collections.singletonList("m")).get(1);
+		Query query = new Query();
+		query.fields().exclude("_routingKey");
+
+		Query restricted = range.restrict(query);
+
+		assertThat(restricted.getQueryObject(), is(new Document("_id", new Document("$gte", "m"))));
+		assertThat(restricted.getFieldsObject(), is(new Document("_routingKey", 0)));
+	}
+
+	@Test
+	public void allRangeContainsAnyId() {
+		assertTrue(IdRange.all().contains("a"));
+		assertTrue(IdRange.all().contains(1));
+		assertFalse(IdRange.fromSplitPoints(Collections.singletonList(1)).get(0).contains(1));
+	}
+
+	@Test
+	public void resumesRangeBetweenSplitPointsFromId() {
+		List<IdRange> ranges = IdRange.fromSplitPoints(Arrays.asList(10, 20));
+
+		assertThat(ranges.get(1).startingFrom(15).toFilter(), is(new Document("_id", new Document("$gte", 15).append("$lt", 20))));
+		assertThat(ranges.get(2).startingFrom(25).toFilter(), is(new Document("_id", new Document("$gte", 25))));
+	}
+
+	@Test
+	public void onlyRangesBetweenSplitPointsAreResumable() {
+		List<IdRange> ranges = IdRange.fromSplitPoints(Arrays.asList(10, 20));
+
+		assertTrue(ranges.get(0).isResumable());
+		assertFalse(ranges.get(3).isResumable());
+		assertFalse(IdRange.all().isResumable());
+		assertThrows(IllegalArgumentException.class, () -> ranges.get(1).startingFrom(25));
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThrows;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.awaitility.Awaitility;
+import org.junit.Test;
+
+public class InitialLoadPipelineTest {
+
+	@Test
+	public void orderedPipelineKeepsSourceOrder() {
+		List<Integer> result = InitialLoadPipeline.process(
+						IntStream.range(0, 1000).boxed(), InitialLoadPipelineTest::slowlyDouble, 4, 10, true, "test-")
+				.collect(toList());
+
+		assertThat(result, is(IntStream.range(0, 1000).map(i -> i * 2).boxed().collect(toList())));
+	}
+
+	@Test
+	public void unorderedPipelineReturnsAllTransformedElements() {
+		List<Integer> result = InitialLoadPipeline.process(
+						IntStream.range(0, 1000).boxed(), InitialLoadPipelineTest::slowlyDouble, 4, 10, false, "test-")
+				.collect(toList());
+
+		assertThat(result, containsInAnyOrder(IntStream.range(0, 1000).map(i -> i * 2).boxed().toArray()));
+	}
+
+	@Test
+	public void skipsElementsRejectedByTransformer() {
+		List<Integer> result = InitialLoadPipeline.process(
+						IntStream.range(0, 10).boxed(), i -> Optional.of(i).filter(j -> j % 2 == 0), 2, 3, true, "test-")
+				.collect(toList());
+
+		assertThat(result, is(List.of(0, 2, 4, 6, 8)));
+	}
+
+	@Test
+	public void recordsTimeWaitingForSourceAndConsumer() throws Exception {
+		InitialLoadStatistics statistics = new InitialLoadStatistics();
+		Stream<Integer> source = IntStream.range(0, 3).boxed().peek(i -> sleepMillis(20));
+
+		Iterator<Integer> result = InitialLoadPipeline.process(source, Optional::of, 1, 1, true, "test-", statistics).iterator();
+		result.next();
+		TimeUnit.MILLISECONDS.sleep(50);
+		while (result.hasNext()) {
+			result.next();
+		}
+
+		assertThat(statistics.getFetchMillis(), greaterThanOrEqualTo(60L));
+		assertThat(statistics.getConsumerWaitMillis(), greaterThanOrEqualTo(20L));
+	}
+
+	@Test
+	public void emptySourceGivesEmptyStream() {
+		List<Object> result = InitialLoadPipeline.process(Stream.empty(), Optional::of, 2, 3, false, "test-")
+				.collect(toList());
+
+		assertThat(result, is(empty()));
+	}
+
+	@Test
+	public void neverReadsMoreThanQueueCapacityElementsAheadOfConsumer() throws Exception {
+		AtomicInteger numRead = new AtomicInteger();
+		Stream<Integer> source = IntStream.range(0, 1000).boxed().peek(i -> numRead.incrementAndGet());
+
+		Iterator<Integer> result = InitialLoadPipeline.process(source, Optional::of, 4, 5, false, "test-").iterator();
+		Awaitility.await().until(numRead::get, is(5));
+		TimeUnit.MILLISECONDS.sleep(100);
+		assertThat(numRead.get(), is(5));
+
+		for (int consumed = 1; consumed <= 100; consumed++) {
+			result.next();
+			assertThat(numRead.get(), lessThanOrEqualTo(consumed + 5));
+		}
+	}
+
+	@Test
+	public void rethrowsExceptionFromTransformer() {
+		Stream<Integer> result = InitialLoadPipeline.process(IntStream.range(0, 100).boxed(), i -> {
+			if (i == 50) {
+				throw new IllegalArgumentException("Failed to transform " + i);
+			}
+			return Optional.of(i);
+		}, 2, 10, false, "test-");
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class, result::count);
+		assertThat(e.getMessage(), is("Failed to transform 50"));
+	}
+
+	@Test
+	public void rethrowsExceptionFromSource() {
+		Stream<Integer> source = IntStream.range(0, 100).boxed().peek(i -> {
+			if (i == 50) {
+				throw new IllegalStateException("Failed to read " + i);
+			}
+		});
+
+		Stream<Integer> result = InitialLoadPipeline.process(source, Optional::of, 2, 10, true, "test-");
+
+		IllegalStateException e = assertThrows(IllegalStateException.class, result::count);
+		assertThat(e.getMessage(), is("Failed to read 50"));
+	}
+
+	@Test
+	public void closesSourceWhenExhausted() {
+		AtomicInteger closed = new AtomicInteger();
+		Stream<Integer> source = Stream.of(1, 2, 3).onClose(closed::incrementAndGet);
+
+		long count = InitialLoadPipeline.process(source, Optional::of, 2, 1, true, "test-").count();
+
+		assertThat(count, is(3L));
+		Awaitility.await().until(closed::get, is(1));
+	}
+
+	private static Optional<Integer> slowlyDouble(Integer i) {
+		if (ThreadLocalRandom.current().nextInt(10) == 0) {
+			try {
+				TimeUnit.MILLISECONDS.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return Optional.of(i * 2);
+	}
+
+	private static void sleepMillis(long millis) {
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
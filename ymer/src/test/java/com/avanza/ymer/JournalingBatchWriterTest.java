@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static com.avanza.ymer.TestSpaceMirrorObjectDefinitions.TEST_SPACE_OBJECT;
+import static java.util.stream.Collectors.toList;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.avanza.ymer.helper.FakeBatchData;
+import com.avanza.ymer.helper.FakeBulkItem;
+import com.avanza.ymer.helper.MirrorExceptionSpy;
+import com.gigaspaces.sync.DataSyncOperation;
+import com.gigaspaces.sync.DataSyncOperationType;
+import com.gigaspaces.sync.OperationsBatchData;
+
+public class JournalingBatchWriterTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final InstanceMetadata testMetadata = new InstanceMetadata(1, null);
+	private SpaceMirrorContext mirror;
+	private MirrorExceptionSpy mirrorExceptionSpy;
+	private FakeDocumentWriteExceptionHandler exceptionHandler;
+	private BulkMirroredObjectWriter bulkMirroredObjectWriter;
+	private Path directory;
+	private JournalingBatchWriter writer;
+
+	@Before
+	public void setUp() throws IOException {
+		mirrorExceptionSpy = new MirrorExceptionSpy();
+		exceptionHandler = new FakeDocumentWriteExceptionHandler();
+		TestSpaceMirrorObjectDefinitions definitions = new TestSpaceMirrorObjectDefinitions();
+		mirror = new SpaceMirrorContext(
+				new MirroredObjects(definitions.getMirroredObjectDefinitions().stream(), MirroredObjectDefinitionsOverride.noOverride()),
+				TestSpaceObjectFakeConverter.create(),
+				FakeDocumentDb.create(),
+				mirrorExceptionSpy,
+				Plugins.empty(),
+				1);
+		bulkMirroredObjectWriter = new BulkMirroredObjectWriter(mirror, exceptionHandler, new MirroredObjectFilterer(mirror), new PerformedOperationMetrics());
+		directory = temporaryFolder.newFolder().toPath();
+	}
+
+	@After
+	public void tearDown() {
+		if (writer != null) {
+			writer.close();
+		}
+		bulkMirroredObjectWriter.close();
+	}
+
+	@Test
+	public void writesJournaledBatchesToDatabaseInOrder() {
+		writer = startWriter(batch -> bulkMirroredObjectWriter.executeBulk(testMetadata, batch));
+
+		writer.write(batch(DataSyncOperationType.WRITE, new TestSpaceObject("1", "a")));
+		writer.write(batch(DataSyncOperationType.WRITE, new TestSpaceObject("2", "b")));
+		writer.write(batch(DataSyncOperationType.UPDATE, new TestSpaceObject("1", "c")));
+		writer.write(batch(DataSyncOperationType.REMOVE, new TestSpaceObject("2", "b")));
+
+		awaitDrained(4);
+		assertThat(messages(), containsInAnyOrder("c"));
+		assertThat(mirrorExceptionSpy.getExceptionCount(), equalTo(0));
+	}
+
+	@Test
+	public void journaledOperationsProvideSpaceId() {
+		List<DataSyncOperation> operations = new CopyOnWriteArrayList<>();
+		writer = startWriter(batch -> operations.addAll(List.of(batch.getBatchDataItems())));
+
+		writer.write(batch(DataSyncOperationType.WRITE, new TestSpaceObject("1", "a")));
+
+		awaitDrained(1);
+		assertThat(operations.get(0).supportsGetSpaceId(), is(true));
+		assertThat(operations.get(0).getSpaceId(), equalTo("1"));
+	}
+
+	@Test
+	public void writesBatchesLeftInJournalWhenStartedAgain() {
+		writer = new JournalingBatchWriter(directory, mirror, exceptionHandler, batch -> bulkMirroredObjectWriter.executeBulk(testMetadata, batch));
+		writer.write(batch(DataSyncOperationType.WRITE, new TestSpaceObject("1", "a")));
+		writer.write(batch(DataSyncOperationType.WRITE, new TestSpaceObject("2", "b")));
+		writer.close();
+		// the first batch was written to the database, but the mirror stopped before it was checkpointed
+		mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName())
+				.insert(mirror.toVersionedDocument(new TestSpaceObject("1", "a"), testMetadata));
+
+		writer = startWriter(batch -> bulkMirroredObjectWriter.executeBulk(testMetadata, batch));
+
+		awaitDrained(2);
+		assertThat(messages(), containsInAnyOrder("a", "b"));
+		assertThat(mirrorExceptionSpy.getExceptionCount(), equalTo(0));
+		assertThat(exceptionHandler.getLastException(), nullValue());
+	}
+
+	@Test
+	public void retriesBatchUntilItIsWritten() {
+		AtomicInteger attempts = new AtomicInteger();
+		writer = startWriter(batch -> {
+			if (attempts.incrementAndGet() == 1) {
+				throw new IllegalStateException("Database unavailable");
+			}
+			bulkMirroredObjectWriter.executeBulk(testMetadata, batch);
+		});
+
+		writer.write(batch(DataSyncOperationType.WRITE, new TestSpaceObject("1", "a")));
+
+		awaitDrained(1);
+		assertThat(messages(), containsInAnyOrder("a"));
+		assertThat(writer.getNumDrainFailures(), equalTo(1L));
+		assertThat(writer.getLastDrainError(), equalTo("java.lang.IllegalStateException: Database unavailable"));
+		assertThat(writer.getNumSyncs(), greaterThan(0L));
+	}
+
+	@Test
+	public void handsOperationsThatCanNotBeDecodedToExceptionHandlerAndWritesTheRest() {
+		writer = new JournalingBatchWriter(directory, mirror, exceptionHandler, batch -> bulkMirroredObjectWriter.executeBulk(testMetadata, batch));
+		writer.write(FakeBatchData.create(
+				new FakeBulkItem(new TestSpaceOtherObject("1", "other"), DataSyncOperationType.WRITE),
+				new FakeBulkItem(new TestSpaceObject("1", "a"), DataSyncOperationType.WRITE)));
+		writer.close();
+		// started again after TestSpaceOtherObject is no longer mirrored
+		SpaceMirrorContext changedMirror = new SpaceMirrorContext(
+				new MirroredObjects(Stream.of(TEST_SPACE_OBJECT), MirroredObjectDefinitionsOverride.noOverride()),
+				TestSpaceObjectFakeConverter.create(),
+				FakeDocumentDb.create(),
+				mirrorExceptionSpy,
+				Plugins.empty(),
+				1);
+		List<FailedChange> failedChanges = new CopyOnWriteArrayList<>();
+		DocumentWriteExceptionHandler recordingExceptionHandler = new FakeDocumentWriteExceptionHandler() {
+			@Override
+			public void handleFailedChanges(Exception exception, String operationDescription, List<FailedChange> changes) {
+				failedChanges.addAll(changes);
+			}
+		};
+		writer = new JournalingBatchWriter(directory, changedMirror, recordingExceptionHandler, batch -> bulkMirroredObjectWriter.executeBulk(testMetadata, batch));
+		writer.start();
+
+		awaitDrained(1);
+		assertThat(messages(), containsInAnyOrder("a"));
+		assertThat(writer.getNumDrainFailures(), equalTo(0L));
+		assertThat(failedChanges, hasSize(1));
+		assertThat(failedChanges.get(0).getCollectionName(), equalTo(TestSpaceOtherObject.class.getName()));
+		assertThat(failedChanges.get(0).getDocument(), nullValue());
+		assertThat(failedChanges.get(0).getError(), containsString("not a mirrored type"));
+	}
+
+	@Test
+	public void doesNotJournalBatchesWithoutMirroredObjects() {
+		writer = startWriter(batch -> bulkMirroredObjectWriter.executeBulk(testMetadata, batch));
+
+		writer.write(FakeBatchData.create(new FakeBulkItem("not mirrored", DataSyncOperationType.WRITE)));
+
+		assertThat(writer.getAppendedSequence(), equalTo(0L));
+	}
+
+	private JournalingBatchWriter startWriter(Consumer<OperationsBatchData> batchWriter) {
+		JournalingBatchWriter writer = new JournalingBatchWriter(directory, mirror, exceptionHandler, batchWriter);
+		writer.start();
+		return writer;
+	}
+
+	private void awaitDrained(long sequence) {
+		await().until(() -> writer.getDrainedSequence() == sequence && writer.getBacklogBatches() == 0);
+	}
+
+	private List<String> messages() {
+		return mirror.getDocumentCollection(TEST_SPACE_OBJECT.collectionName()).findAll()
+				.map(document -> document.getString("message"))
+				.collect(toList());
+	}
+
+	private static FakeBatchData batch(DataSyncOperationType operationType, TestSpaceObject spaceObject) {
+		return FakeBatchData.create(new FakeBulkItem(spaceObject, operationType));
+	}
+}
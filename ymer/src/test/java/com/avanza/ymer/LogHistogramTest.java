@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import org.junit.Test;
+
+import com.avanza.ymer.LogHistogram.Snapshot;
+
+public class LogHistogramTest {
+
+	private final LogHistogram histogram = new LogHistogram();
+
+	@Test
+	public void emptySnapshotReportsZero() {
+		Snapshot snapshot = histogram.snapshot();
+
+		assertThat(snapshot.getCount(), equalTo(0L));
+		assertThat(snapshot.getMean(), equalTo(0d));
+		assertThat(snapshot.getMin(), equalTo(0L));
+		assertThat(snapshot.getMax(), equalTo(0L));
+		assertThat(snapshot.getValueAtPercentile(99), equalTo(0L));
+	}
+
+	@Test
+	public void smallValuesAreExact() {
+		for (long value = 0; value < LogHistogram.SUB_BUCKETS; value++) {
+			histogram.record(value);
+		}
+
+		Snapshot snapshot = histogram.snapshot();
+		assertThat(snapshot.getCount(), equalTo((long) LogHistogram.SUB_BUCKETS));
+		assertThat(snapshot.getMin(), equalTo(0L));
+		assertThat(snapshot.getMax(), equalTo(LogHistogram.SUB_BUCKETS - 1L));
+		assertThat(snapshot.getValueAtPercentile(50), equalTo(LogHistogram.SUB_BUCKETS / 2 - 1L));
+		assertThat(snapshot.getMean(), equalTo((LogHistogram.SUB_BUCKETS - 1) / 2d));
+	}
+
+	@Test
+	public void everyValueFallsInABucketThatContainsItWithinRelativeError() {
+		for (long value : new long[] { 16, 17, 31, 32, 33, 1_000, 123_456_789, Long.MAX_VALUE / 3, Long.MAX_VALUE }) {
+			int index = LogHistogram.bucketIndex(value);
+			long lowest = LogHistogram.lowestValueInBucket(index);
+			long highest = LogHistogram.highestValueInBucket(index);
+
+			assertThat(value, allOf(greaterThanOrEqualTo(lowest), lessThanOrEqualTo(highest)));
+			assertThat((double) (highest - lowest), lessThanOrEqualTo((double) value / LogHistogram.SUB_BUCKETS));
+		}
+		assertThat(LogHistogram.highestValueInBucket(LogHistogram.bucketIndex(Long.MAX_VALUE)), equalTo(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void bucketsAreContiguous() {
+		for (int index = 1; index < LogHistogram.bucketIndex(Long.MAX_VALUE); index++) {
+			assertThat(LogHistogram.lowestValueInBucket(index), equalTo(LogHistogram.highestValueInBucket(index - 1) + 1));
+		}
+	}
+
+	@Test
+	public void reportsHighAndLowPercentiles() {
+		for (long value = 1; value <= 10_000; value++) {
+			histogram.record(value);
+		}
+
+		Snapshot snapshot = histogram.snapshot();
+		assertWithinRelativeError(snapshot.getValueAtPercentile(1), 100);
+		assertWithinRelativeError(snapshot.getValueAtPercentile(50), 5_000);
+		assertWithinRelativeError(snapshot.getValueAtPercentile(99), 9_900);
+		assertWithinRelativeError(snapshot.getValueAtPercentile(99.9), 9_990);
+		assertWithinRelativeError(snapshot.getMax(), 10_000);
+		assertThat(snapshot.getMin(), equalTo(1L));
+		assertThat(snapshot.getMean(), equalTo(5_000.5));
+	}
+
+	@Test
+	public void negativeValuesAreRecordedAsZero() {
+		histogram.record(-5);
+
+		assertThat(histogram.snapshot().getMax(), equalTo(0L));
+		assertThat(histogram.snapshot().getCount(), equalTo(1L));
+	}
+
+	@Test
+	public void intervalSnapshotOnlyContainsValuesSincePreviousIntervalSnapshot() {
+		histogram.record(1_000);
+		histogram.record(2_000);
+		Snapshot first = histogram.intervalSnapshot();
+
+		histogram.record(10);
+		Snapshot second = histogram.intervalSnapshot();
+		Snapshot third = histogram.intervalSnapshot();
+
+		assertThat(first.getCount(), equalTo(2L));
+		assertThat(first.getMean(), equalTo(1_500d));
+		assertThat(second.getCount(), equalTo(1L));
+		assertThat(second.getMax(), equalTo(10L));
+		assertThat(second.getMean(), equalTo(10d));
+		assertThat(third.getCount(), equalTo(0L));
+		assertThat(histogram.snapshot().getCount(), equalTo(3L));
+	}
+
+	private static void assertWithinRelativeError(long actual, long expected) {
+		assertThat(actual, allOf(greaterThanOrEqualTo(expected), lessThanOrEqualTo(expected + expected / LogHistogram.SUB_BUCKETS)));
+	}
+
+}
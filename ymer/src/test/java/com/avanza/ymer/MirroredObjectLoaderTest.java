@@ -23,17 +23,25 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.junit.After;
 import org.junit.ClassRule;
 import org.junit.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
 import org.springframework.data.mongodb.core.query.Query;
 
 import com.avanza.ymer.MirroredObjectLoader.LoadedDocument;
+import com.avanza.ymer.plugin.Plugin;
 import com.avanza.ymer.plugin.PostReadProcessor;
+import com.avanza.ymer.plugin.PreWriteProcessor;
 import com.gigaspaces.annotation.pojo.SpaceId;
 import com.mongodb.client.model.IndexOptions;
 
@@ -139,6 +147,88 @@ public class MirroredObjectLoaderTest {
 		));
 	}
 
+	@Test
+	public void loadsAllObjectsRoutedToCurrentPartitionUsingIdRanges() {
+		BsonDocumentPatch[] patches = { new FakeSpaceObjectV1Patch() };
+		MirroredObject<FakeSpaceObject> mirroredObject = MirroredObjectDefinition.create(FakeSpaceObject.class)
+				.documentPatches(patches)
+				.loadDocumentsRouted(true)
+				.initialLoadIdRanges(4)
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+
+		List<FakeSpaceObject> expected = new ArrayList<>();
+		for (int id = 1; id <= 200; id++) {
+			Document document = new Document("_id", id);
+			document.put(MirroredObject.DOCUMENT_ROUTING_KEY, Integer.valueOf(id).hashCode());
+			documentCollection.insert(document);
+			if (id % 2 == 1) {
+				expected.add(new FakeSpaceObject(id, id, true));
+			}
+		}
+
+		MirroredObjectLoader<FakeSpaceObject> documentLoader = new MirroredObjectLoader<>(
+				documentCollection,
+				FakeMirroredDocumentConverter.create(),
+				mirroredObject,
+				SpaceObjectFilter.partitionFilter(mirroredObject, contextProperties.getInstanceId(), contextProperties.getPartitionCount()),
+				contextProperties,
+				noOpPostReadProcessor());
+
+		List<FakeSpaceObject> loadedSpaceObjects = documentLoader.streamAllObjects()
+				.map(LoadedDocument::getDocument)
+				.collect(toList());
+		assertThat(loadedSpaceObjects, containsInAnyOrder(expected.toArray()));
+	}
+
+	@Test
+	public void loadsObjectsRoutedToCurrentPartitionByRoutingFieldRewrittenOnRead() {
+		DocumentConverter documentConverter = DocumentConverter.mongoConverter(
+				new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+		MirroredObject<TestSpaceObjectWithCustomRoutingKey> mirroredObject = MirroredObjectDefinition.create(TestSpaceObjectWithCustomRoutingKey.class)
+				.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+		SpaceObjectFilter<TestSpaceObjectWithCustomRoutingKey> spaceObjectFilter =
+				SpaceObjectFilter.partitionFilter(mirroredObject, contextProperties.getInstanceId(), contextProperties.getPartitionCount());
+		// the prefix moves the stored routing field to the other partition, until it is removed when read
+		PostReadProcessor removePrefix = document -> {
+			document.put("customRoutingKey", document.getString("customRoutingKey").substring("raw_".length()));
+			return document;
+		};
+		Plugin plugin = new Plugin() {
+			@Override
+			public Optional<PostReadProcessor> createPostReadProcessor(Class<?> spaceClass) {
+				return Optional.of(removePrefix);
+			}
+
+			@Override
+			public Optional<PreWriteProcessor> createPreWriteProcessor(Class<?> spaceClass) {
+				return Optional.empty();
+			}
+		};
+
+		DocumentCollection collection = new FakeDocumentCollection();
+		List<TestSpaceObjectWithCustomRoutingKey> expected = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			TestSpaceObjectWithCustomRoutingKey spaceObject = new TestSpaceObjectWithCustomRoutingKey("id_" + i, "routing_" + i);
+			collection.insert(new Document("_id", spaceObject.getId()).append("customRoutingKey", "raw_" + spaceObject.getCustomRoutingKey()));
+			if (spaceObjectFilter.accept(spaceObject)) {
+				expected.add(spaceObject);
+			}
+		}
+
+		MirroredObjectLoader<TestSpaceObjectWithCustomRoutingKey> documentLoader = new MirroredObjectLoader<>(
+				collection,
+				documentConverter,
+				mirroredObject,
+				spaceObjectFilter,
+				contextProperties,
+				new Plugins(Set.of(plugin)).getPostReadProcessing(TestSpaceObjectWithCustomRoutingKey.class));
+
+		List<TestSpaceObjectWithCustomRoutingKey> loadedSpaceObjects = documentLoader.loadAllObjects().stream()
+				.map(LoadedDocument::getDocument)
+				.collect(toList());
+		assertThat(loadedSpaceObjects, containsInAnyOrder(expected.toArray()));
+	}
+
 	@Test
 	public void pendingPatchesDocumentsReturnsAllDocumentsThatWasPatched() {
 		BsonDocumentPatch[] patches = { new FakeSpaceObjectV1Patch() };
@@ -171,6 +261,41 @@ public class MirroredObjectLoaderTest {
 		assertEquals(mirroredObject.patch(doc2), patchedDocuments.get(0).getNewVersion());
 	}
 
+	@Test
+	public void recordsStatisticsOfEachStageOfTheLoad() {
+		BsonDocumentPatch[] patches = { new FakeSpaceObjectV1Patch() };
+		MirroredObject<FakeSpaceObject> mirroredObject = MirroredObjectDefinition.create(FakeSpaceObject.class).documentPatches(patches).initialLoad(initialLoad -> initialLoad.measureFetchedBytes(true)).buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+
+		Document doc1 = new Document();
+		doc1.put("_id", 11);
+
+		final Document doc2 = new Document();
+		doc2.put("_id", 22);
+
+		final Document doc3 = new Document();
+		doc3.put("_id", 33);
+		doc3.put("patched", false);
+		mirroredObject.setDocumentVersion(doc3, mirroredObject.getCurrentVersion());
+
+		documentCollection.insertAll(doc1, doc2, doc3);
+
+		SpaceObjectFilter.Impl<FakeSpaceObject> filterImpl =
+				spaceObject -> spaceObject.getId() == doc2.getInteger("_id", -1)
+						|| spaceObject.getId() == doc3.getInteger("_id", -1);
+
+		MirroredObjectLoader<FakeSpaceObject> documentLoader = new MirroredObjectLoader<>(documentCollection, FakeMirroredDocumentConverter.create(), mirroredObject, SpaceObjectFilter.create(filterImpl), contextProperties, noOpPostReadProcessor());
+		try (Stream<LoadedDocument<FakeSpaceObject>> loadedDocuments = documentLoader.streamAllObjects()) {
+			assertEquals(2, loadedDocuments.count());
+		}
+
+		InitialLoadStatistics statistics = documentLoader.getStatistics();
+		assertEquals(3, statistics.getNumFetchedDocuments());
+		assertTrue(statistics.getNumFetchedBytes() > 0);
+		assertEquals(2, statistics.getNumPatchedDocuments());
+		assertEquals(1, statistics.getNumRejectedByFilter());
+		assertEquals(0, statistics.getNumRoutedToOtherPartitions());
+	}
+
 	@Test
 	public void loadsAndPatchesADocumentById() throws Exception {
 		BsonDocumentPatch[] patches = { new FakeSpaceObjectV1Patch() };
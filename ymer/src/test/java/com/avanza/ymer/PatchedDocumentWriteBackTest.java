@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static com.avanza.ymer.MirroredObject.DOCUMENT_FORMAT_VERSION_PROPERTY;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.bson.Document;
+import org.junit.Test;
+
+public class PatchedDocumentWriteBackTest {
+
+	private final FakeDocumentCollection documentCollection = new FakeDocumentCollection();
+
+	@Test
+	public void writesAllPatchedDocumentsWhenDrained() {
+		PatchedDocumentWriteBack writeBack = new PatchedDocumentWriteBack(documentCollection, document -> document, "collection", 3, 1);
+		for (int id = 0; id < 10; id++) {
+			Document oldVersion = new Document("_id", id);
+			documentCollection.insert(new Document(oldVersion));
+			writeBack.add(new PatchedDocument(oldVersion, patched(oldVersion)));
+		}
+
+		writeBack.drain();
+
+		assertThat(writeBack.getNumWritten(), is(10L));
+		for (int id = 0; id < 10; id++) {
+			assertThat(documentCollection.findById(id).getInteger(DOCUMENT_FORMAT_VERSION_PROPERTY), is(2));
+		}
+	}
+
+	@Test
+	public void doesNotOverwriteDocumentsWrittenWithAnotherVersionAfterBeingRead() {
+		PatchedDocumentWriteBack writeBack = new PatchedDocumentWriteBack(documentCollection, document -> document, "collection", 10, 1);
+		Document oldVersion = new Document("_id", 1);
+		documentCollection.insert(new Document(oldVersion));
+		writeBack.add(new PatchedDocument(oldVersion, patched(oldVersion)));
+
+		// Written by the mirror during initial load
+		documentCollection.update(new Document("_id", 1).append(DOCUMENT_FORMAT_VERSION_PROPERTY, 2).append("writtenBy", "mirror"));
+		writeBack.drain();
+
+		assertThat(writeBack.getNumWritten(), is(0L));
+		assertThat(documentCollection.findById(1).getString("writtenBy"), is("mirror"));
+	}
+
+	@Test
+	public void replacesDocumentsWithChangedId() {
+		PatchedDocumentWriteBack writeBack = new PatchedDocumentWriteBack(documentCollection, document -> document, "collection", 10, 1);
+		Document oldVersion = new Document("_id", 1);
+		documentCollection.insert(new Document(oldVersion));
+		Document newVersion = patched(oldVersion).append("_id", 2);
+		writeBack.add(new PatchedDocument(oldVersion, newVersion));
+
+		writeBack.drain();
+
+		assertThat(writeBack.getNumWritten(), is(1L));
+		assertThat(documentCollection.findById(1), is(nullValue()));
+		assertThat(documentCollection.findById(2).getInteger(DOCUMENT_FORMAT_VERSION_PROPERTY), is(2));
+	}
+
+	@Test
+	public void appliesPreWriteProcessingBeforeWriting() {
+		PatchedDocumentWriteBack writeBack = new PatchedDocumentWriteBack(documentCollection, document -> document.append("processed", true), "collection", 10, 1);
+		Document oldVersion = new Document("_id", 1);
+		documentCollection.insert(new Document(oldVersion));
+		writeBack.add(new PatchedDocument(oldVersion, patched(oldVersion)));
+
+		writeBack.drain();
+
+		assertThat(documentCollection.findById(1).getBoolean("processed"), is(true));
+	}
+
+	private static Document patched(Document oldVersion) {
+		return new Document(oldVersion).append(DOCUMENT_FORMAT_VERSION_PROPERTY, 2);
+	}
+
+}
@@ -23,6 +23,10 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * The counter previously used by {@link PerformedOperationMetrics}, kept as a baseline for
+ * {@link SlidingWindowCounterBenchmark}.
+ */
 class PerMinuteCounter {
 
 	private final Map<Long, List<Long>> map = new ConcurrentHashMap<>();
@@ -25,6 +25,7 @@ import static com.j_spaces.core.Constants.Mirror.FULL_MIRROR_SERVICE_CLUSTER_PAR
 import static java.util.stream.Collectors.toList;
 import static org.awaitility.Awaitility.await;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
@@ -35,6 +36,7 @@ import static uk.org.webcompere.systemstubs.SystemStubs.execute;
 
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
@@ -131,6 +133,88 @@ public class PersistedInstanceIdCalculationServiceTest {
 		}, new SystemProperties("cluster.partitions", String.valueOf(numberOfInstances)));
 	}
 
+	@Test
+	public void shouldCalculateInstanceIdInDatabase() throws Exception {
+		collection.insertMany(List.of(
+				createDocument(1_001).append(DOCUMENT_ROUTING_KEY, -17),
+				createDocument(1_002).append(DOCUMENT_ROUTING_KEY, Integer.MIN_VALUE),
+				createDocument(1_003).append(DOCUMENT_ROUTING_KEY, Integer.MAX_VALUE)
+		));
+		Properties testProperties = new Properties();
+		testProperties.setProperty("cluster.partitions", "32");
+		testProperties.setProperty("ymer.com.avanza.ymer.TestSpaceObject.serverSideInstanceIdCalculation", "true");
+
+		execute(() -> {
+			// Mirrored object definitions overrides are read from system properties when the factory is created
+			TestSpaceMirrorFactory testSpaceMirrorFactory = new TestSpaceMirrorFactory(mirrorEnvironment.getMongoTemplate().getMongoDatabaseFactory());
+			testSpaceMirrorFactory.setNextNumberOfInstances(38);
+			try (YmerSpaceSynchronizationEndpoint endpoint = (YmerSpaceSynchronizationEndpoint) testSpaceMirrorFactory.createSpaceSynchronizationEndpoint()) {
+				PersistedInstanceIdCalculationService target = endpoint.getPersistedInstanceIdCalculationService();
+
+				target.calculatePersistedInstanceId(TEST_SPACE_OBJECT.collectionName());
+				verifyCollectionIsCalculatedFor(32);
+				verifyCollectionIsCalculatedFor(38);
+				verifyStatistics(TEST_SPACE_OBJECT, target, new int[] { 32, 38 });
+				verifyCalculatedInDatabase(TEST_SPACE_OBJECT, target);
+
+				// Recalculate without any next number of instances, deleting next instance id field
+				testSpaceMirrorFactory.setNextNumberOfInstances(null);
+				target.calculatePersistedInstanceId(TEST_SPACE_OBJECT.collectionName());
+
+				verifyCollectionIsCalculatedFor(32);
+				verifyCollectionIsNotCalculatedFor(38);
+				verifyStatistics(TEST_SPACE_OBJECT, target, new int[] { 32 });
+				verifyCalculatedInDatabase(TEST_SPACE_OBJECT, target);
+			}
+		}, new SystemProperties(testProperties));
+	}
+
+	@Test
+	public void shouldCalculateInstanceIdUsingSeveralWorkersAndCollectionsConcurrently() throws Exception {
+		int numberOfInstances = 32;
+		TestSpaceMirrorFactory testSpaceMirrorFactory = new TestSpaceMirrorFactory(mirrorEnvironment.getMongoTemplate().getMongoDatabaseFactory());
+		testSpaceMirrorFactory.setInstanceIdCalculationWorkers(4);
+		testSpaceMirrorFactory.setInstanceIdCalculationParallelCollections(3);
+		execute(() -> {
+			try (YmerSpaceSynchronizationEndpoint endpoint = (YmerSpaceSynchronizationEndpoint) testSpaceMirrorFactory.createSpaceSynchronizationEndpoint()) {
+				PersistedInstanceIdCalculationService target = endpoint.getPersistedInstanceIdCalculationService();
+
+				target.calculatePersistedInstanceId();
+
+				verifyCollectionIsCalculatedFor(numberOfInstances);
+				assertThat(target.getNumberOfPartitionsThatDataIsPreparedFor(), is(new int[] { numberOfInstances }));
+
+				PersistedInstanceIdStatisticsMBean statistics = target.collectStatistics(TEST_SPACE_OBJECT.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride()));
+				assertThat(statistics.getNumberOfAnalyzedDocuments(), is(1_000L));
+				assertThat(statistics.getNumberOfUpdatedDocuments(), is(1_000L));
+				assertThat(statistics.getWorkerProgress().length, greaterThanOrEqualTo(4));
+				assertThat(statistics.isCalculatedInDatabase(), is(false));
+			}
+		}, new SystemProperties("cluster.partitions", String.valueOf(numberOfInstances)));
+	}
+
+	@Test
+	public void shouldResumeCalculationFromCheckpoint() throws Exception {
+		int numberOfInstances = 16;
+		MongoDocumentCollection metadataCollection = new MongoDocumentCollection(
+				mirrorEnvironment.getMongoTemplate().getCollection(PersistedInstanceIdCheckpoints.METADATA_COLLECTION_NAME));
+		PersistedInstanceIdCheckpoints checkpoints = new PersistedInstanceIdCheckpoints(metadataCollection);
+		// Simulates a restart after documents up to id 250 were processed in the first range
+		checkpoints.start(TEST_SPACE_OBJECT.collectionName(), Set.of(numberOfInstances), List.of(500), 3);
+		checkpoints.saveProgress(TEST_SPACE_OBJECT.collectionName(), 0, 250);
+
+		execute(() -> {
+			try (YmerSpaceSynchronizationEndpoint endpoint = createSpaceSynchronizationEndpoint()) {
+				endpoint.getPersistedInstanceIdCalculationService().calculatePersistedInstanceId(TEST_SPACE_OBJECT.collectionName());
+
+				String fieldName = getInstanceIdFieldName(numberOfInstances);
+				new MongoDocumentCollection(collection).findAll().forEach(document ->
+						assertThat(document.containsKey(fieldName), is(document.getInteger("_id") >= 250)));
+				assertThat(checkpoints.load(TEST_SPACE_OBJECT.collectionName(), Set.of(numberOfInstances)).isPresent(), is(false));
+			}
+		}, new SystemProperties("cluster.partitions", String.valueOf(numberOfInstances)));
+	}
+
 	@Test
 	public void verifyAllCollectionsAreReadyStatistic() throws Exception {
 		int numberOfInstances = 22;
@@ -284,6 +368,14 @@ public class PersistedInstanceIdCalculationServiceTest {
 		assertThat(statistics.getNumberOfPartitionsThatCollectionIsPreparedFor(), is(readyForNumberOfPartitions));
 	}
 
+	private static void verifyCalculatedInDatabase(MirroredObjectDefinition<?> mirroredObject,
+			PersistedInstanceIdCalculationService calculationService) {
+		MirroredObject<?> testObject = mirroredObject.buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+
+		// Fails if the calculation fell back to reading the documents to the mirror
+		assertThat(calculationService.collectStatistics(testObject).isCalculatedInDatabase(), is(true));
+	}
+
 	private Document createDocument(int id) {
 		Document document = new Document("_id", id);
 		document.put(DOCUMENT_ROUTING_KEY, id);
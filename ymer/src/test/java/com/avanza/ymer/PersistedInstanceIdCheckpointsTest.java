@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.avanza.ymer.PersistedInstanceIdCheckpoints.Checkpoint;
+
+public class PersistedInstanceIdCheckpointsTest {
+
+	private final DocumentCollection metadataCollection = FakeDocumentDb.create().getCollection(PersistedInstanceIdCheckpoints.METADATA_COLLECTION_NAME);
+	private final PersistedInstanceIdCheckpoints checkpoints = new PersistedInstanceIdCheckpoints(metadataCollection);
+
+	@Test
+	public void noCheckpointBeforeCalculationIsStarted() {
+		assertThat(checkpoints.load("collection", Set.of(32)), is(Optional.empty()));
+	}
+
+	@Test
+	public void loadsSplitPointsAndLastProcessedIdOfEachRange() {
+		checkpoints.start("collection", Set.of(32, 38), List.of(10, 20), 4);
+		checkpoints.saveProgress("collection", 1, 15);
+		checkpoints.saveProgress("collection", 1, 17);
+
+		Checkpoint checkpoint = checkpoints.load("collection", Set.of(38, 32)).orElseThrow();
+
+		assertThat(checkpoint.getSplitPoints(), is(List.of(10, 20)));
+		assertThat(checkpoint.getLastProcessedId(0), is(Optional.empty()));
+		assertThat(checkpoint.getLastProcessedId(1), is(Optional.of(17)));
+	}
+
+	@Test
+	public void checkpointIsOnlyValidForTheSameNumberOfPartitions() {
+		checkpoints.start("collection", Set.of(32, 38), List.of(10, 20), 4);
+
+		assertThat(checkpoints.load("collection", Set.of(32)), is(Optional.empty()));
+	}
+
+	@Test
+	public void startingANewCalculationReplacesPreviousCheckpoint() {
+		checkpoints.start("collection", Set.of(32), List.of(10, 20), 4);
+		checkpoints.saveProgress("collection", 1, 15);
+
+		checkpoints.start("collection", Set.of(32), List.of(30), 3);
+
+		Checkpoint checkpoint = checkpoints.load("collection", Set.of(32)).orElseThrow();
+		assertThat(checkpoint.getSplitPoints(), is(List.of(30)));
+		assertThat(checkpoint.getLastProcessedId(1), is(Optional.empty()));
+	}
+
+	@Test
+	public void clearRemovesAllCheckpointDocuments() {
+		checkpoints.start("collection", Set.of(32), List.of(10, 20), 4);
+		checkpoints.saveProgress("collection", 1, 15);
+
+		checkpoints.clear("collection");
+
+		assertThat(checkpoints.load("collection", Set.of(32)), is(Optional.empty()));
+		assertThat(metadataCollection.estimatedDocumentCount(), is(0L));
+	}
+
+}
@@ -15,17 +15,23 @@
  */
 package com.avanza.ymer;
 
+import static java.util.Collections.emptyList;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 import java.util.List;
 
+import org.bson.BsonDocument;
 import org.junit.Test;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
 import com.mongodb.MongoSocketException;
 import com.mongodb.MongoSocketReadException;
 import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.WriteConcernError;
 
 /**
  * @author Kristoffer Erlandsson (krierl), kristoffer.erlandsson@avanzabank.se
@@ -61,6 +67,22 @@ public class RethrowsTransientDocumentWriteExceptionHandlerTest {
 		}
 	}
 
+	@Test
+	public void throwsOnBulkWriteThatOnlyFailedWithWriteConcernError() {
+		WriteConcernError writeConcernError = new WriteConcernError(189, "PrimarySteppedDown", "Primary stepped down", new BsonDocument());
+		MongoBulkWriteException exception = new MongoBulkWriteException(BulkWriteResult.unacknowledged(), emptyList(), writeConcernError, new ServerAddress());
+
+		assertThrows(TransientDocumentWriteException.class, () -> handler.handleException(exception, ""));
+	}
+
+	@Test
+	public void throwsOnExceptionLabelledAsRetryableWriteError() {
+		MongoException exception = new MongoException("Not primary");
+		exception.addLabel("RetryableWriteError");
+
+		assertThrows(TransientDocumentWriteException.class, () -> handler.handleException(exception, ""));
+	}
+
 	private MongoSocketException newMongoNetworkException() {
 		return new MongoSocketReadException("", new ServerAddress());
 	}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link SlidingWindowCounter} with the {@link PerMinuteCounter} it replaced, when adding values from
+ * several threads, as the mirror does for each batch, and when reading the sum of the last minute. <p>
+ *
+ * Run with the main method from the IDE, or any other way of running JMH benchmarks on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlidingWindowCounterBenchmark {
+
+	private final PerMinuteCounter perMinuteCounter = new PerMinuteCounter();
+	private final SlidingWindowCounter slidingWindowCounter = new SlidingWindowCounter();
+
+	@Benchmark
+	@Threads(4)
+	public void addPerMinuteCounter() {
+		perMinuteCounter.addPerMinuteCount(100);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void addSlidingWindowCounter() {
+		slidingWindowCounter.add(100);
+	}
+
+	@Benchmark
+	public long sumPerMinuteCounter() {
+		perMinuteCounter.addPerMinuteCount(100);
+		return perMinuteCounter.getCurrentMinuteSum();
+	}
+
+	@Benchmark
+	public long sumSlidingWindowCounter() {
+		slidingWindowCounter.add(100);
+		return slidingWindowCounter.getSum(SlidingWindowCounter.ONE_MINUTE);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(SlidingWindowCounterBenchmark.class.getSimpleName())
+				.build())
+				.run();
+	}
+}
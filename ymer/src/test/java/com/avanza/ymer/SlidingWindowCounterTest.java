@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThrows;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SlidingWindowCounterTest {
+
+	private final MutableClock clock = new MutableClock(Instant.parse("2022-05-01T10:00:00Z"));
+	private final SlidingWindowCounter counter = new SlidingWindowCounter(clock);
+
+	@Test
+	public void sumsAndCountsValuesAddedDuringSameSecond() {
+		counter.add(100);
+		counter.add(200);
+
+		assertThat(counter.getSum(SlidingWindowCounter.ONE_SECOND), equalTo(300L));
+		assertThat(counter.getCount(SlidingWindowCounter.ONE_SECOND), equalTo(2L));
+		assertThat(counter.getRate(SlidingWindowCounter.ONE_SECOND), equalTo(300.0));
+	}
+
+	@Test
+	public void sumsValuesAddedDuringWindow() {
+		counter.add(100);
+		clock.advanceSeconds(20);
+		counter.add(200);
+		clock.advanceSeconds(20);
+		counter.add(300);
+
+		assertThat(counter.getSum(SlidingWindowCounter.ONE_SECOND), equalTo(300L));
+		assertThat(counter.getSum(SlidingWindowCounter.TEN_SECONDS), equalTo(300L));
+		assertThat(counter.getSum(SlidingWindowCounter.ONE_MINUTE), equalTo(600L));
+		assertThat(counter.getCount(SlidingWindowCounter.ONE_MINUTE), equalTo(3L));
+		assertThat(counter.getRate(SlidingWindowCounter.ONE_MINUTE), equalTo(10.0));
+	}
+
+	@Test
+	public void valuesOlderThanWindowAreNotCounted() {
+		counter.add(100);
+		clock.advanceSeconds(61);
+		counter.add(200);
+
+		assertThat(counter.getSum(SlidingWindowCounter.ONE_MINUTE), equalTo(200L));
+		assertThat(counter.getCount(SlidingWindowCounter.ONE_MINUTE), equalTo(1L));
+		assertThat(counter.getSum(SlidingWindowCounter.FIVE_MINUTES), equalTo(300L));
+	}
+
+	@Test
+	public void bucketsAreReusedAfterFiveMinutes() {
+		counter.add(100);
+		clock.advanceSeconds(SlidingWindowCounter.FIVE_MINUTES);
+		counter.add(200);
+
+		assertThat(counter.getSum(SlidingWindowCounter.FIVE_MINUTES), equalTo(200L));
+		clock.advanceSeconds(SlidingWindowCounter.FIVE_MINUTES);
+		assertThat(counter.getSum(SlidingWindowCounter.FIVE_MINUTES), equalTo(0L));
+	}
+
+	@Test
+	public void countsValuesAddedConcurrently() throws InterruptedException {
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread(() -> {
+				for (int j = 0; j < 10_000; j++) {
+					counter.add(1);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertThat(counter.getSum(SlidingWindowCounter.ONE_SECOND), equalTo(40_000L));
+		assertThat(counter.getCount(SlidingWindowCounter.ONE_SECOND), equalTo(40_000L));
+	}
+
+	@Test
+	public void rejectsWindowLongerThanFiveMinutes() {
+		assertThrows(IllegalArgumentException.class, () -> counter.getSum(SlidingWindowCounter.FIVE_MINUTES + 1));
+	}
+
+	private static class MutableClock extends Clock {
+
+		private volatile Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		void advanceSeconds(long seconds) {
+			instant = instant.plusSeconds(seconds);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+	}
+}
@@ -32,6 +32,8 @@ public class TestSpaceMirrorFactory {
 	private final AtomicReference<Integer> nextNumberOfInstances = new AtomicReference<>(null);
 	private boolean exportExceptionHandlerMBean;
 	private boolean useBulkWrites = false;
+	private int instanceIdCalculationWorkers = 1;
+	private int instanceIdCalculationParallelCollections = 1;
 
 	@Autowired
 	public TestSpaceMirrorFactory(MongoDatabaseFactory mongoDbFactory) {
@@ -50,6 +52,14 @@ public class TestSpaceMirrorFactory {
 		this.useBulkWrites = useBulkWrites;
 	}
 
+	public void setInstanceIdCalculationWorkers(int instanceIdCalculationWorkers) {
+		this.instanceIdCalculationWorkers = instanceIdCalculationWorkers;
+	}
+
+	public void setInstanceIdCalculationParallelCollections(int instanceIdCalculationParallelCollections) {
+		this.instanceIdCalculationParallelCollections = instanceIdCalculationParallelCollections;
+	}
+
 	public SpaceDataSource createSpaceDataSource() {
 		YmerFactory ymerFactory = new YmerFactory(mongoDbFactory, mirroredObjectsConfiguration);
 		ymerFactory.setExportExceptionHandlerMBean(exportExceptionHandlerMBean);
@@ -65,6 +75,8 @@ public class TestSpaceMirrorFactory {
 		ymerFactory.withProperties(configurer -> {
 			configurer.nextNumberOfInstances(() -> Optional.ofNullable(nextNumberOfInstances.get()));
 			configurer.useBulkWrites(() -> useBulkWrites);
+			configurer.instanceIdCalculationWorkers(() -> instanceIdCalculationWorkers);
+			configurer.instanceIdCalculationParallelCollections(() -> instanceIdCalculationParallelCollections);
 		});
 		return ymerFactory.createSpaceSynchronizationEndpoint();
 	}
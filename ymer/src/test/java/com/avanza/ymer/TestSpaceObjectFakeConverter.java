@@ -91,6 +91,16 @@ public class TestSpaceObjectFakeConverter {
 				return type.toString();
 			}
 
+			@Override
+			public Optional<Object> toDocumentId(Class<?> type, String propertyName, Object id) {
+				return type.equals(TestSpaceObject.class) && propertyName.equals("id") ? Optional.of(id) : Optional.empty();
+			}
+
+			@Override
+			public boolean hasOnlyNullableProperties(Class<?> type) {
+				return type.equals(TestSpaceObject.class);
+			}
+
 			@Override
 			public Query toQuery(Object template) {
 				throw new UnsupportedOperationException();
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class ThrottleTest {
+
+	private final AtomicLong nanoTime = new AtomicLong();
+	private final Throttle throttle = new Throttle(nanoTime::get);
+
+	@Test
+	public void unlimitedByDefault() {
+		assertEquals(0, throttle.reserve(1_000_000));
+	}
+
+	@Test
+	public void callersWaitForPermitsTakenInAdvance() {
+		throttle.setPermitsPerSecond(100);
+
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(500), throttle.reserve(50));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), throttle.reserve(50));
+	}
+
+	@Test
+	public void permitsAreRefilledOverTime() {
+		throttle.setPermitsPerSecond(100);
+		throttle.reserve(100);
+
+		nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(2));
+
+		assertEquals(0, throttle.reserve(100));
+	}
+
+	@Test
+	public void savesUpAtMostOneSecondOfPermits() {
+		throttle.setPermitsPerSecond(100);
+
+		nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+		assertEquals(0, throttle.reserve(100));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), throttle.reserve(10));
+	}
+
+	@Test
+	public void rateCanBeChangedAtRuntime() {
+		throttle.setPermitsPerSecond(10);
+		throttle.setPermitsPerSecond(0);
+
+		assertEquals(0, throttle.reserve(1_000));
+	}
+
+}
@@ -15,6 +15,9 @@
  */
 package com.avanza.ymer;
 
+import static java.util.Collections.emptyList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertThrows;
 
 import org.junit.Test;
@@ -44,6 +47,21 @@ public class ToggleableDocumentWriteExceptionHandlerTest {
 		assertThrows(TestException.class, () -> h.handleException(new RuntimeException(), ""));
 	}
 
+	@Test
+	public void usesDeadLetterHandlerAfterSwitchToIt() throws Exception {
+		FakeDocumentWriteExceptionHandler deadLetterHandler = new FakeDocumentWriteExceptionHandler();
+		ToggleableDocumentWriteExceptionHandler handler = ToggleableDocumentWriteExceptionHandler.create(
+				throwsHandler, catchesAllHandler, deadLetterHandler);
+		handler.useDeadLetterHandler();
+		handler.handleFailedChanges(new IllegalArgumentException(), "", emptyList());
+		assertThat(deadLetterHandler.getLastException(), instanceOf(IllegalArgumentException.class));
+	}
+
+	@Test
+	public void canNotSwitchToDeadLetterHandlerWhenNotConfigured() throws Exception {
+		assertThrows(IllegalStateException.class, h::useDeadLetterHandler);
+	}
+
 	public static class TestException extends RuntimeException {
 
 		private static final long serialVersionUID = 1L;
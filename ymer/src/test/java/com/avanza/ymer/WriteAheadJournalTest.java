@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Avanza Bank AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.avanza.ymer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WriteAheadJournalTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void readsDurableRecordsInOrder() throws IOException {
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory())) {
+			journal.append(bytes("a"));
+			journal.awaitDurable(journal.append(bytes("b")));
+			assertThat(read(journal), contains("a", "b"));
+
+			long sequence = journal.append(bytes("c"));
+			assertThat(read(journal), empty());
+
+			journal.awaitDurable(sequence);
+			assertThat(read(journal), contains("c"));
+		}
+	}
+
+	@Test
+	public void recoversRecordsThatWereNotCheckpointed() throws IOException {
+		Path directory = directory();
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory)) {
+			journal.awaitDurable(appendAll(journal, "a", "b", "c"));
+			assertThat(read(journal), contains("a", "b", "c"));
+			journal.checkpoint(1);
+		}
+
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory)) {
+			assertThat(read(journal), contains("b", "c"));
+			assertThat(journal.append(bytes("d")), equalTo(4L));
+		}
+	}
+
+	@Test
+	public void discardsIncompleteRecordAtEndOfJournal() throws IOException {
+		Path directory = directory();
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory, 1024)) {
+			journal.awaitDurable(appendAll(journal, "first", "second"));
+		}
+		// corrupt the last byte of the payload of the second record
+		Path segment = segments(directory).get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 'X' }), 16 + 5 + 16 + 5);
+		}
+
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory, 1024)) {
+			journal.awaitDurable(journal.append(bytes("third")));
+			assertThat(read(journal), contains("first", "third"));
+		}
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory, 1024)) {
+			assertThat(read(journal), contains("first", "third"));
+		}
+	}
+
+	@Test
+	public void rollsOverToNewSegmentsAndDeletesCheckpointedSegments() throws IOException {
+		Path directory = directory();
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory, 64)) {
+			for (int i = 0; i < 10; i++) {
+				journal.awaitDurable(journal.append(bytes("record" + i)));
+			}
+			assertThat(segments(directory).size(), greaterThan(1));
+
+			List<String> records = read(journal);
+			assertThat(records.size(), equalTo(10));
+			journal.checkpoint(10);
+
+			assertThat(segments(directory).size(), equalTo(1));
+			assertThat(journal.getNumSegments(), equalTo(1));
+		}
+
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory, 64)) {
+			assertThat(read(journal), empty());
+			assertThat(journal.append(bytes("record10")), equalTo(11L));
+		}
+	}
+
+	@Test
+	public void storesRecordsLargerThanTheSegmentSize() throws IOException {
+		Path directory = directory();
+		String large = String.join("", Collections.nCopies(100, "x"));
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory, 64)) {
+			journal.awaitDurable(appendAll(journal, "small", large, "small"));
+		}
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory, 64)) {
+			assertThat(read(journal), contains("small", large, "small"));
+		}
+	}
+
+	@Test
+	public void concurrentWritersShareSyncs() throws Exception {
+		try (WriteAheadJournal journal = WriteAheadJournal.open(directory())) {
+			List<Thread> threads = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				Thread thread = new Thread(() -> {
+					for (int j = 0; j < 100; j++) {
+						journal.awaitDurable(journal.append(bytes("record")));
+					}
+				});
+				threads.add(thread);
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			assertThat(journal.getDurableSequence(), equalTo(400L));
+			assertThat(journal.getNumSyncedRecords(), equalTo(400L));
+			assertThat(read(journal).size(), equalTo(400));
+		}
+	}
+
+	private Path directory() throws IOException {
+		return temporaryFolder.newFolder().toPath().resolve("journal");
+	}
+
+	private static long appendAll(WriteAheadJournal journal, String... records) {
+		long sequence = 0;
+		for (String record : records) {
+			sequence = journal.append(bytes(record));
+		}
+		return sequence;
+	}
+
+	private static List<String> read(WriteAheadJournal journal) {
+		return journal.readNext(Integer.MAX_VALUE).stream()
+				.map(record -> new String(record.getPayload(), UTF_8))
+				.collect(toList());
+	}
+
+	private static List<Path> segments(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().collect(toList());
+		}
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(UTF_8);
+	}
+}
@@ -16,11 +16,15 @@
 package com.avanza.ymer;
 
 import static com.avanza.ymer.StreamMatchers.hasCount;
+import static java.util.stream.Collectors.toList;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -168,6 +172,77 @@ public class YmerSpaceDataSourceTest {
 					   is(true));
 	}
 
+	@Test
+	public void patchedDocumentsAreWrittenBackWhenInitialLoadIsComplete() {
+		BsonDocumentPatch[] patches = { new FakeSpaceObjectV1Patch() };
+		MirroredObject<FakeSpaceObject> patchedMirroredDocument = MirroredObjectDefinition.create(FakeSpaceObject.class).documentPatches(patches).buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+		DocumentDb fakeDb = FakeDocumentDb.create();
+		SpaceMirrorContext spaceMirror = new SpaceMirrorContext(new MirroredObjects(patchedMirroredDocument), FakeDocumentConverter.create(), fakeDb, SpaceMirrorContext.NO_EXCEPTION_LISTENER, Plugins.empty(), 1);
+		YmerSpaceDataSource ymerSpaceDataSource = new YmerSpaceDataSource(spaceMirror);
+		ymerSpaceDataSource.setClusterInfo(new ClusterInfo("", instanceId, null, numberOfInstances, 0));
+
+		DocumentCollection documentCollection = fakeDb.getCollection(patchedMirroredDocument.getCollectionName());
+		documentCollection.insert(new Document("_id", 2).append("spaceRouting", 2));
+
+		DataIterator<Object> objectDataIterator = ymerSpaceDataSource.initialDataLoad();
+		while (objectDataIterator.hasNext()) {
+			objectDataIterator.next();
+		}
+
+		Document writtenBack = documentCollection.findById(2);
+		assertThat(writtenBack.getBoolean("patched"), is(true));
+		assertThat(patchedMirroredDocument.requiresPatching(writtenBack), is(false));
+	}
+
+	@Test
+	public void loadsCollectionsInParallelLargestFirst() {
+		MirroredObject<TestSpaceObject> smallMirroredObject = MirroredObjectDefinition.create(TestSpaceObject.class).buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+		MirroredObject<TestReloadableSpaceObject> largeMirroredObject = MirroredObjectDefinition.create(TestReloadableSpaceObject.class).buildMirroredDocument(MirroredObjectDefinitionsOverride.noOverride());
+		DocumentDb documentDb = FakeDocumentDb.create();
+		SpaceMirrorContext spaceMirror = new SpaceMirrorContext(
+				new MirroredObjects(smallMirroredObject, largeMirroredObject),
+				TestSpaceObjectFakeConverter.create(),
+				documentDb,
+				SpaceMirrorContext.NO_EXCEPTION_LISTENER,
+				Plugins.empty(),
+				2);
+		YmerSpaceDataSource ymerSpaceDataSource = new YmerSpaceDataSource(spaceMirror);
+		ymerSpaceDataSource.setClusterInfo(new ClusterInfo("", 1, null, 1, 0));
+
+		DocumentCollection smallCollection = documentDb.getCollection(smallMirroredObject.getCollectionName());
+		smallCollection.insert(new Document("_id", "a").append("message", "small"));
+		DocumentCollection largeCollection = documentDb.getCollection(largeMirroredObject.getCollectionName());
+		for (int id = 1; id <= 100; id++) {
+			largeCollection.insert(new Document("_id", id).append("versionID", 1));
+		}
+
+		List<Object> loaded = new ArrayList<>();
+		DataIterator<Object> objectDataIterator = ymerSpaceDataSource.initialDataLoad();
+		while (objectDataIterator.hasNext()) {
+			loaded.add(objectDataIterator.next());
+		}
+		objectDataIterator.close();
+
+		assertThat(loaded.size(), is(101));
+		assertThat(loaded.stream().filter(TestSpaceObject.class::isInstance).count(), is(1L));
+
+		List<String> loadOrderMessages = appender.getEvents().stream()
+				.map(LogEvent::getMessage)
+				.map(Message::getFormattedMessage)
+				.filter(message -> message.startsWith("Loading 2 collections"))
+				.collect(toList());
+		assertThat(loadOrderMessages, contains("Loading 2 collections using 2 parallel collections, in order: ["
+				+ largeMirroredObject.getCollectionName() + ", " + smallMirroredObject.getCollectionName() + "]"));
+		Awaitility.await()
+				.until(() -> appender.getEvents()
+							   .stream()
+							   .map(LogEvent::getMessage)
+							   .map(Message::getFormattedMessage)
+							   .filter(message -> message.startsWith("Loaded "))
+							   .count(),
+					   is(2L));
+	}
+
 	private static class FakeSpaceObject {
 
 		private int id;
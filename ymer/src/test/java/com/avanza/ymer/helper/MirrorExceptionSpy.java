@@ -24,16 +24,16 @@ public class MirrorExceptionSpy implements MirrorExceptionListener {
 	private int exceptionCount = 0;
 
 	@Override
-	public void onMirrorException(Exception e, MirrorOperation operation, Object[] failedObjects) {
+	public synchronized void onMirrorException(Exception e, MirrorOperation operation, Object[] failedObjects) {
 		this.lastException = e;
 		this.exceptionCount++;
 	}
 
-	public Exception getLastException() {
+	public synchronized Exception getLastException() {
 		return lastException;
 	}
 
-	public int getExceptionCount() {
+	public synchronized int getExceptionCount() {
 		return exceptionCount;
 	}
 }